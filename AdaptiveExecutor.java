@@ -0,0 +1,259 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class executes optimised plans, re-optimising the rest of a plan
+ * when the actual tuple count at a checkpoint (the build input of a join,
+ * or the output of a join or product) diverges from its estimate by more
+ * than a q-error threshold.
+ *
+ * When an estimate diverges, the output of the operator at which it did
+ * is kept as a temporary relation, with exact statistics computed from
+ * its tuples. The relations and predicates of the plan that were not yet
+ * evaluated, together with the temporary relation, form a new canonical
+ * query, which is optimised and executed in place of the rest of the
+ * original plan. This is repeated at most a fixed number of times per
+ * query, so that a plan cannot be re-optimised indefinitely.
+ */
+public class AdaptiveExecutor {
+	static final double DEFAULT_THRESHOLD = 10;
+	static final int MAX_REOPTIMISATIONS = 3;
+
+	private final Database database;
+	private final double threshold;
+	private final long rowLimit;
+	private final List<Operator> plans = new ArrayList<Operator>();
+	private List<Attribute> attributes;
+	private int temporaries = 0;
+	private long tuplesProduced;
+	private long intermediateTuples;
+
+	/**
+	 * Create an adaptive executor with the default threshold.
+	 * @param database
+	 */
+	public AdaptiveExecutor(Database database) {
+		this(database, DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * Create an adaptive executor that re-optimises when the q-error of an
+	 * estimate at a checkpoint exceeds the threshold.
+	 * @param database
+	 * @param threshold
+	 */
+	public AdaptiveExecutor(Database database, double threshold) {
+		this(database, threshold, Executor.DEFAULT_ROW_LIMIT);
+	}
+
+	/**
+	 * Create an adaptive executor that re-optimises when the q-error of an
+	 * estimate at a checkpoint exceeds the threshold, and fails any
+	 * operator producing more than rowLimit tuples.
+	 * @param database
+	 * @param threshold
+	 * @param rowLimit
+	 */
+	public AdaptiveExecutor(Database database, double threshold, long rowLimit) {
+		this.database = database;
+		this.threshold = threshold;
+		this.rowLimit = rowLimit;
+	}
+
+	/**
+	 * Execute a plan and return the tuples it produces.
+	 * @param plan optimised plan, which has been visited by an Estimator
+	 * @return
+	 * @throws DatabaseException if the rest of a plan cannot be re-optimised
+	 * @throws IllegalStateException if an operator produces too many tuples
+	 */
+	public List<String[]> execute(Operator plan) throws DatabaseException {
+		plans.clear();
+		tuplesProduced = 0;
+		intermediateTuples = 0;
+		Database db = database;
+		while (true) {
+			plans.add(plan);
+			Executor executor = new Executor(db, rowLimit);
+			final Operator root = plan;
+			final Set<String> relations = relationNames(plan);
+			if (plans.size() <= MAX_REOPTIMISATIONS) {
+				executor.setCheckpoint((op, rows) -> op != root
+						&& ExplainAnalyze.qError(op.getOutput().getTupleCount(), rows) > threshold
+						&& !relationNames(op).equals(relations));
+			}
+			try {
+				List<String[]> tuples = executor.execute(plan);
+				attributes = executor.getAttributes();
+				count(executor, plan);
+				return tuples;
+			} catch (Executor.CheckpointException e) {
+				count(executor, plan);
+				Catalogue catalogue = new Catalogue();
+				Database next = new Database(catalogue);
+				plan = remainder(plan, e, db, catalogue, next);
+				db = next;
+			}
+		}
+	}
+
+	/**
+	 * Return the plans executed by the last call to execute(): the
+	 * original plan, followed by each re-optimised remainder.
+	 * @return
+	 */
+	public List<Operator> getPlans() {
+		return Collections.unmodifiableList(plans);
+	}
+
+	/**
+	 * Return the number of times the last plan executed was re-optimised.
+	 * @return
+	 */
+	public int getReoptimisations() {
+		return plans.size() - 1;
+	}
+
+	/**
+	 * Return the number of tuples produced by every operator executed by
+	 * the last call to execute(), including those of each plan executed
+	 * before it was re-optimised.
+	 * @return
+	 */
+	public long getTuplesProduced() {
+		return tuplesProduced;
+	}
+
+	/**
+	 * Return the number of tuples produced by the joins and products
+	 * executed by the last call to execute(), including those of each plan
+	 * executed before it was re-optimised: the actual counterpart of
+	 * PlanCost.intermediate().
+	 * @return
+	 */
+	public long getIntermediateTuples() {
+		return intermediateTuples;
+	}
+
+	/**
+	 * Return the attributes of the tuples returned by the last call to
+	 * execute(), in order.
+	 * @return
+	 */
+	public List<Attribute> getAttributes() {
+		return attributes;
+	}
+
+	// Build and optimise the rest of a plan, over the relations not yet read and a temporary relation holding the output so far
+	private Operator remainder(Operator plan, Executor.CheckpointException checkpoint, Database db,
+			Catalogue catalogue, Database next) throws DatabaseException {
+		Map<Operator, Boolean> done = new IdentityHashMap<Operator, Boolean>();
+		markDone(checkpoint.getOperator(), done);
+
+		List<Scan> scans = new ArrayList<Scan>();
+		List<Predicate> predicates = new ArrayList<Predicate>();
+		collect(plan, done, scans, predicates);
+
+		NamedRelation temporary = materialise("TEMP" + (++temporaries), checkpoint.getAttributes(), checkpoint.getTuples());
+		catalogue.addRelation(temporary);
+		next.load(temporary.getName(), checkpoint.getTuples());
+		// the plan is built through the optimiser's factory, which estimates each operator as it is created
+		Optimiser optimiser = new Optimiser(catalogue);
+		PlanFactory factory = optimiser.getFactory();
+		Operator canonical = factory.scan(temporary);
+		for (Scan scan : scans) {
+			NamedRelation reln = (NamedRelation) scan.getRelation();
+			catalogue.addRelation(reln);
+			next.load(reln.getName(), db.getTuples(reln.getName()));
+			canonical = factory.product(canonical, factory.scan(reln));
+		}
+		for (Predicate predicate : predicates) {
+			canonical = factory.select(canonical, predicate);
+		}
+		if (plan instanceof Project) {
+			canonical = factory.project(canonical, ((Project) plan).getAttributes());
+		}
+		return optimiser.optimise(canonical);
+	}
+
+	// A relation with exact statistics for the given tuples
+	static NamedRelation materialise(String name, List<Attribute> attributes, List<String[]> tuples) {
+		NamedRelation reln = new NamedRelation(name, tuples.size());
+		for (int i = 0; i < attributes.size(); i++) {
+			Set<String> values = new HashSet<String>();
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			boolean numeric = !tuples.isEmpty();
+			for (String[] tuple : tuples) {
+				values.add(tuple[i]);
+				if (numeric) {
+					try {
+						double value = Double.parseDouble(tuple[i]);
+						min = Math.min(min, value);
+						max = Math.max(max, value);
+					} catch (NumberFormatException e) {
+						numeric = false;
+					}
+				}
+			}
+			String attrName = attributes.get(i).getName();
+			if (numeric) {
+				reln.addAttribute(new Attribute(attrName, values.size(), min, max));
+			} else {
+				reln.addAttribute(new Attribute(attrName, values.size()));
+			}
+		}
+		return reln;
+	}
+
+	// Add the tuples produced by the operators of a plan that an executor executed, once each, to the counts
+	private void count(Executor executor, Operator plan) {
+		Map<Operator, Boolean> counted = new IdentityHashMap<Operator, Boolean>();
+		PlanTraversal.preOrder(plan, op -> {
+			Executor.OperatorStatistics stats = executor.getStatistics(op);
+			if (stats != null && counted.put(op, Boolean.TRUE) == null) {
+				tuplesProduced += stats.getRows();
+				if (op instanceof Join || op instanceof Product) {
+					intermediateTuples += stats.getRows();
+				}
+			}
+		});
+	}
+
+	private static void markDone(Operator op, Map<Operator, Boolean> done) {
+		PlanTraversal.preOrder(op, input -> done.put(input, Boolean.TRUE));
+	}
+
+	// The scans and predicates of a plan outside the part already evaluated
+	private static void collect(Operator plan, Map<Operator, Boolean> done, List<Scan> scans, List<Predicate> predicates) {
+		PlanTraversal.preOrder(plan, op -> !done.containsKey(op), op -> {
+			if (done.containsKey(op)) {
+				return;
+			}
+			if (op instanceof Scan) {
+				scans.add((Scan) op);
+			} else if (op instanceof Select) {
+				predicates.add(((Select) op).getPredicate());
+			} else if (op instanceof Join) {
+				predicates.add(((Join) op).getPredicate());
+			}
+		});
+	}
+
+	static Set<String> relationNames(Operator plan) {
+		Set<String> names = new HashSet<String>();
+		PlanTraversal.preOrder(plan, op -> {
+			if (op instanceof Scan) {
+				names.add(((NamedRelation) ((Scan) op).getRelation()).getName());
+			}
+		});
+		return names;
+	}
+}
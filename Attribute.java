@@ -10,10 +10,16 @@ package sjdb;
 public class Attribute {
 
 	private String name;
+	private int id;
 	private int values;
+	private boolean ranged;
+	private double min;
+	private double max;
+	private Histogram histogram;
 
 	public Attribute(String name) {
 		this.name = name;
+		this.id = Catalogue.internAttribute(name);
 		this.values = 0;
 	}
 	/**
@@ -22,12 +28,61 @@ public class Attribute {
 	 */
 	public Attribute(String name, int values) {
 		this.name = name;
+		this.id = Catalogue.internAttribute(name);
 		this.values = values;
 	}
 	
+	/**
+	 * Create an attribute whose values are numeric and lie in the
+	 * closed range [min, max]; the range is used to estimate the
+	 * selectivity of inequality predicates.
+	 * @param name
+	 * @param values
+	 * @param min
+	 * @param max
+	 */
+	public Attribute(String name, int values, double min, double max) {
+		this.name = name;
+		this.id = Catalogue.internAttribute(name);
+		this.values = values;
+		this.ranged = true;
+		this.min = min;
+		this.max = max;
+	}
+	
+	/**
+	 * Create an attribute with a numeric range and a histogram of the
+	 * distribution of its values over that range.
+	 * @param name
+	 * @param values
+	 * @param min
+	 * @param max
+	 * @param histogram
+	 */
+	public Attribute(String name, int values, double min, double max, Histogram histogram) {
+		this(name, values, min, max);
+		this.histogram = histogram;
+	}
+	
 	public Attribute(Attribute attr) {
 		this.name = attr.name;
+		this.id = attr.id;
 		this.values = attr.values;
+		this.ranged = attr.ranged;
+		this.min = attr.min;
+		this.max = attr.max;
+		this.histogram = attr.histogram;
+	}
+	
+	/**
+	 * Copy an attribute, keeping its value range but replacing its
+	 * number of distinct values.
+	 * @param attr
+	 * @param values
+	 */
+	public Attribute(Attribute attr, int values) {
+		this(attr);
+		this.values = values;
 	}
 	
 	/**
@@ -37,6 +92,13 @@ public class Attribute {
 		return name;
 	}
 
+	/**
+	 * @return the id to which the name of the attribute is interned in the catalogue
+	 */
+	public int getId() {
+		return id;
+	}
+
 	/**
 	 * @return the number of distinct values taken by this attribute
 	 */
@@ -44,10 +106,38 @@ public class Attribute {
 		return values;
 	}
 	
+	/**
+	 * @return true if the minimum and maximum values of this attribute are known
+	 */
+	public boolean hasRange() {
+		return ranged;
+	}
+	
+	/**
+	 * @return the smallest value taken by this attribute
+	 */
+	public double getMinValue() {
+		return min;
+	}
+	
+	/**
+	 * @return the largest value taken by this attribute
+	 */
+	public double getMaxValue() {
+		return max;
+	}
+	
+	/**
+	 * @return the histogram of the values of this attribute, or null if there is none
+	 */
+	public Histogram getHistogram() {
+		return histogram;
+	}
+	
 	
 	@Override
 	public int hashCode() {
-		return this.name.hashCode();
+		return this.id;
 	}
 	
 	@Override
@@ -60,7 +150,7 @@ public class Attribute {
 		}
 		Attribute rhs = (Attribute) obj;
 		
-		return this.name.equals(rhs.getName());
+		return this.id == rhs.id;
 	}
 	
 	public String toString() {
@@ -68,8 +158,18 @@ public class Attribute {
 	}
 	
 	public String render() {
+		if (ranged) {
+			return name + "," + values + "," + renderValue(min) + "," + renderValue(max);
+		}
 		return name + "," + values;
 	}
 	
+	private static String renderValue(double value) {
+		if (value == Math.rint(value) && !Double.isInfinite(value)) {
+			return Long.toString((long) value);
+		}
+		return Double.toString(value);
+	}
+	
 	
 }
@@ -0,0 +1,140 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This class represents a set of attributes as a bitset over the ids to
+ * which the Catalogue interns attribute names, so that membership tests
+ * take constant time and set operations take time proportional to the
+ * number of ids rather than the product of the sizes of the sets.
+ *
+ * As with Attribute.equals(), only the names of the attributes are
+ * significant: the set records which attributes are present, not their
+ * statistics.
+ */
+public class AttributeSet {
+	private final BitSet ids;
+
+	/**
+	 * Create an empty attribute set.
+	 */
+	public AttributeSet() {
+		this.ids = new BitSet();
+	}
+
+	/**
+	 * Create an attribute set containing the given attributes.
+	 * @param attributes
+	 */
+	public AttributeSet(Collection<Attribute> attributes) {
+		this();
+		addAll(attributes);
+	}
+
+	/**
+	 * Create a copy of an attribute set, which may be changed without
+	 * affecting the original.
+	 * @param set
+	 */
+	public AttributeSet(AttributeSet set) {
+		this.ids = (BitSet) set.ids.clone();
+	}
+
+	/**
+	 * Add an attribute to the set.
+	 * @param attribute
+	 */
+	public void add(Attribute attribute) {
+		ids.set(attribute.getId());
+	}
+
+	/**
+	 * Add the given attributes to the set.
+	 * @param attributes
+	 */
+	public void addAll(Collection<Attribute> attributes) {
+		for (Attribute attribute : attributes) {
+			ids.set(attribute.getId());
+		}
+	}
+
+	/**
+	 * Add the attributes of another set to this one.
+	 * @param set
+	 */
+	public void addAll(AttributeSet set) {
+		ids.or(set.ids);
+	}
+
+	/**
+	 * @param attribute
+	 * @return true if the attribute is in the set
+	 */
+	public boolean contains(Attribute attribute) {
+		return ids.get(attribute.getId());
+	}
+
+	/**
+	 * @param set
+	 * @return true if every attribute of the given set is in this set
+	 */
+	public boolean containsAll(AttributeSet set) {
+		BitSet missing = (BitSet) set.ids.clone();
+		missing.andNot(ids);
+		return missing.isEmpty();
+	}
+
+	/**
+	 * @return the number of attributes in the set
+	 */
+	public int size() {
+		return ids.cardinality();
+	}
+
+	public boolean isEmpty() {
+		return ids.isEmpty();
+	}
+
+	/**
+	 * Return the attributes of a list that are in this set, in the order
+	 * of the list.
+	 * @param attributes
+	 * @return
+	 */
+	public List<Attribute> retain(List<Attribute> attributes) {
+		List<Attribute> retained = new ArrayList<Attribute>();
+		for (Attribute attribute : attributes) {
+			if (ids.get(attribute.getId())) {
+				retained.add(attribute);
+			}
+		}
+		return retained;
+	}
+
+	@Override
+	public int hashCode() {
+		return ids.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof AttributeSet)) {
+			return false;
+		}
+		return ids.equals(((AttributeSet) obj).ids);
+	}
+
+	public String toString() {
+		StringBuilder out = new StringBuilder("[");
+		for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+			if (out.length() > 1) {
+				out.append(", ");
+			}
+			out.append(Catalogue.attributeName(id));
+		}
+		return out.append("]").toString();
+	}
+}
@@ -0,0 +1,137 @@
+package sjdb;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class optimises a stream of canonical queries. Queries are parsed
+ * one after another on the calling thread, and optimised in parallel on a
+ * pool of worker threads; the optimised plans are written out in the order
+ * in which the queries were read, one per line. A query that cannot be
+ * parsed or optimised produces a line starting with "ERROR".
+ *
+ * At most a fixed window of queries is in flight at once, so memory use
+ * does not grow with the length of the input.
+ *
+ * Each query may be given a time limit (see OptimiserBudget), so that one
+ * pathological query cannot hold up a worker: a query that reaches it is
+ * answered with the best plan found in time. Queries still being
+ * optimised when the batch fails are cancelled.
+ */
+public class BatchOptimiser {
+	static final int DEFAULT_WINDOW_PER_THREAD = 64;
+	static final int PLAN_CACHE_SIZE = 1024;
+
+	private final Catalogue catalogue;
+	private final int threads;
+	private final int window;
+	private final PlanCache planCache;
+	private final long timeoutMillis;
+	// budgets of the queries being optimised, so that they can be cancelled
+	private final Set<OptimiserBudget> running = ConcurrentHashMap.newKeySet();
+	// Optimisers keep state while they run, so each worker thread has its own
+	private final ThreadLocal<Optimiser> optimisers;
+
+	/**
+	 * Create a batch optimiser with the given number of worker threads.
+	 * @param catalogue
+	 * @param threads
+	 */
+	public BatchOptimiser(Catalogue catalogue, int threads) {
+		this(catalogue, threads, OptimiserBudget.UNLIMITED);
+	}
+
+	/**
+	 * Create a batch optimiser with the given number of worker threads,
+	 * which spends at most timeoutMillis optimising each query.
+	 * @param catalogue
+	 * @param threads
+	 * @param timeoutMillis time limit per query, or OptimiserBudget.UNLIMITED
+	 */
+	public BatchOptimiser(Catalogue catalogue, int threads, long timeoutMillis) {
+		this.catalogue = catalogue;
+		this.timeoutMillis = timeoutMillis;
+		this.threads = Math.max(1, threads);
+		this.window = this.threads * DEFAULT_WINDOW_PER_THREAD;
+		this.planCache = new PlanCache(PLAN_CACHE_SIZE);
+		this.optimisers = ThreadLocal.withInitial(() -> new Optimiser(this.catalogue, planCache));
+	}
+
+	/**
+	 * Optimise every query in the input, writing the optimised plans to the
+	 * output.
+	 * @param input
+	 * @param output
+	 * @return the number of queries read
+	 * @throws Exception
+	 */
+	public long run(Reader input, Writer output) throws Exception {
+		QueryParser parser = new QueryParser(catalogue, input);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ArrayDeque<Future<String>> pending = new ArrayDeque<Future<String>>();
+		long queries = 0;
+
+		try {
+			while (true) {
+				Operator plan;
+				try {
+					plan = parser.parse();
+				} catch (DatabaseException e) {
+					pending.add(CompletableFuture.completedFuture("ERROR " + e.getMessage()));
+					queries++;
+					continue;
+				}
+				if (plan == null) {
+					break;
+				}
+				queries++;
+				final Operator canonical = plan;
+				pending.add(pool.submit(() -> optimise(canonical)));
+				while (pending.size() >= window) {
+					write(pending.poll(), output);
+				}
+			}
+			while (!pending.isEmpty()) {
+				write(pending.poll(), output);
+			}
+			output.flush();
+		} finally {
+			for (OptimiserBudget budget : running) {
+				budget.cancel();
+			}
+			pool.shutdownNow();
+		}
+		return queries;
+	}
+
+	private String optimise(Operator plan) {
+		OptimiserBudget budget = new OptimiserBudget(timeoutMillis, OptimiserBudget.UNLIMITED, OptimiserBudget.UNLIMITED);
+		running.add(budget);
+		try {
+			// the plan is estimated as it is interned, sharing the subplans of earlier queries held by the optimiser's factory
+			Optimiser optimiser = optimisers.get();
+			return optimiser.optimise(optimiser.getFactory().intern(plan), budget).toString();
+		} catch (RuntimeException e) {
+			return "ERROR " + e;
+		} finally {
+			running.remove(budget);
+		}
+	}
+
+	private void write(Future<String> result, Writer output) throws IOException, InterruptedException {
+		try {
+			output.write(result.get());
+		} catch (java.util.concurrent.ExecutionException e) {
+			output.write("ERROR " + e.getCause());
+		}
+		output.write('\n');
+	}
+}
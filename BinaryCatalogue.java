@@ -0,0 +1,265 @@
+package sjdb;
+
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+/**
+ * This class is a system catalogue that is backed by a memory-mapped
+ * binary catalogue file, as written by CatalogueConverter. Named
+ * relations and their attributes are only created when they are first
+ * requested through getRelation() or getAttribute(), so that opening a
+ * large catalogue costs neither parsing time nor heap. Loading a relation
+ * does not change the version of the catalogue, so plans cached against
+ * it stay valid. A relation that has been loaded is looked up without a
+ * lock; only loading one is synchronised, so that it is loaded once.
+ *
+ * The binary catalogue file has the following layout (all values are
+ * big-endian):
+ *
+ * header:     magic, version, relation count, attribute count,
+ *             relation index slots, attribute index slots (6 ints),
+ *             then the offsets of the six sections below (6 longs)
+ * strings:    for each name, its length (int) followed by its UTF-8 bytes
+ * relations:  for each relation, a fixed-width record of name offset,
+ *             tuple count, index of first attribute, attribute count
+ * attributes: for each attribute, a fixed-width record of name offset,
+ *             relation index, value count, flags (int each), then the
+ *             minimum and maximum values (double each)
+ * indexes:    two open-addressed hash tables, mapping relation names
+ *             and attribute names to record index + 1 (0 is empty)
+ * constraints: the number of key constraints (int), then each as its
+ *             line of the text catalogue, as for a name
+ *
+ * The attributes of a relation are stored contiguously. The key
+ * constraints are few, and are read when the file is opened. Each section is
+ * mapped separately, and so must be smaller than 2GB.
+ */
+public class BinaryCatalogue extends Catalogue {
+	static final int MAGIC = 0x534A4443;	// "SJDC"
+	static final int VERSION = 2;
+	static final int HEADER_SIZE = 6 * 4 + 6 * 8;
+	static final int RELATION_RECORD_SIZE = 4 * 4;
+	static final int ATTRIBUTE_RECORD_SIZE = 4 * 4 + 2 * 8;
+	static final int FLAG_RANGED = 1;
+
+	private final int relationCount;
+	private final int attributeCount;
+	private final MappedByteBuffer strings;
+	private final MappedByteBuffer relationRecords;
+	private final MappedByteBuffer attributeRecords;
+	private final MappedByteBuffer relationIndex;
+	private final MappedByteBuffer attributeIndex;
+	private final int relationSlots;
+	private final int attributeSlots;
+
+	/**
+	 * Open the binary catalogue file with the given name.
+	 *
+	 * @param catFilename
+	 * @throws IOException
+	 * @throws DatabaseException if the file is not a binary catalogue
+	 */
+	public BinaryCatalogue(String catFilename) throws IOException, DatabaseException {
+		super();
+		try (RandomAccessFile file = new RandomAccessFile(catFilename, "r");
+				FileChannel channel = file.getChannel()) {
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if (header.getInt() != MAGIC) {
+				throw new DatabaseException(catFilename + " is not a binary catalogue");
+			}
+			int version = header.getInt();
+			if (version != VERSION) {
+				throw new DatabaseException("Unsupported binary catalogue version " + version);
+			}
+			this.relationCount = header.getInt();
+			this.attributeCount = header.getInt();
+			this.relationSlots = header.getInt();
+			this.attributeSlots = header.getInt();
+			long stringsOffset = header.getLong();
+			long relationsOffset = header.getLong();
+			long attributesOffset = header.getLong();
+			long relationIndexOffset = header.getLong();
+			long attributeIndexOffset = header.getLong();
+			long constraintsOffset = header.getLong();
+
+			this.strings = channel.map(FileChannel.MapMode.READ_ONLY, stringsOffset, relationsOffset - stringsOffset);
+			this.relationRecords = channel.map(FileChannel.MapMode.READ_ONLY, relationsOffset, attributesOffset - relationsOffset);
+			this.attributeRecords = channel.map(FileChannel.MapMode.READ_ONLY, attributesOffset, relationIndexOffset - attributesOffset);
+			this.relationIndex = channel.map(FileChannel.MapMode.READ_ONLY, relationIndexOffset, attributeIndexOffset - relationIndexOffset);
+			this.attributeIndex = channel.map(FileChannel.MapMode.READ_ONLY, attributeIndexOffset, constraintsOffset - attributeIndexOffset);
+			readConstraints(channel.map(FileChannel.MapMode.READ_ONLY, constraintsOffset, channel.size() - constraintsOffset));
+		}
+	}
+
+	private void readConstraints(ByteBuffer constraints) throws DatabaseException {
+		int count = constraints.getInt();
+		for (int i = 0; i < count; i++) {
+			byte[] bytes = new byte[constraints.getInt()];
+			constraints.get(bytes);
+			CatalogueParser.parseLine(new String(bytes, StandardCharsets.UTF_8), this);
+		}
+	}
+
+	/**
+	 * Return true if the file with the given name starts with the magic
+	 * number of a binary catalogue.
+	 *
+	 * @param catFilename
+	 * @return
+	 */
+	public static boolean isBinaryCatalogue(String catFilename) {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(catFilename))) {
+			return in.readInt() == MAGIC;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Return the number of named relations in the catalogue file.
+	 * @return
+	 */
+	public int getRelationCount() {
+		return relationCount;
+	}
+
+	/**
+	 * Return the number of attributes in the catalogue file.
+	 * @return
+	 */
+	public int getAttributeCount() {
+		return attributeCount;
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.Catalogue#lookupRelation(java.lang.String)
+	 */
+	@Override
+	protected NamedRelation lookupRelation(String name) {
+		NamedRelation reln = super.lookupRelation(name);
+		if (reln == null) {
+			int record = find(relationIndex, relationSlots, relationRecords, RELATION_RECORD_SIZE, name);
+			if (record >= 0) {
+				reln = loadRelation(record);
+			}
+		}
+		return reln;
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.Catalogue#lookupAttribute(java.lang.String)
+	 */
+	@Override
+	protected Attribute lookupAttribute(String name) {
+		Attribute attr = super.lookupAttribute(name);
+		if (attr == null) {
+			int record = find(attributeIndex, attributeSlots, attributeRecords, ATTRIBUTE_RECORD_SIZE, name);
+			if (record >= 0) {
+				// loading the owning relation creates all of its attributes
+				loadRelation(attributeRecords.getInt(record * ATTRIBUTE_RECORD_SIZE + 4));
+				attr = super.lookupAttribute(name);
+			}
+		}
+		return attr;
+	}
+
+	/**
+	 * Create the named relation stored in the given relation record, along
+	 * with its attributes, unless another thread has created it already.
+	 *
+	 * @param record
+	 * @return
+	 */
+	private synchronized NamedRelation loadRelation(int record) {
+		int base = record * RELATION_RECORD_SIZE;
+		String relName = readString(relationRecords.getInt(base));
+		NamedRelation reln = super.lookupRelation(relName);
+		if (reln != null) {
+			return reln;
+		}
+		reln = new NamedRelation(relName, relationRecords.getInt(base + 4));
+		int first = relationRecords.getInt(base + 8);
+		int count = relationRecords.getInt(base + 12);
+
+		for (int i = first; i < first + count; i++) {
+			int attrBase = i * ATTRIBUTE_RECORD_SIZE;
+			String attName = readString(attributeRecords.getInt(attrBase));
+			int values = attributeRecords.getInt(attrBase + 8);
+			if ((attributeRecords.getInt(attrBase + 12) & FLAG_RANGED) != 0) {
+				reln.addAttribute(new Attribute(attName, values,
+						attributeRecords.getDouble(attrBase + 16), attributeRecords.getDouble(attrBase + 24)));
+			} else {
+				reln.addAttribute(new Attribute(attName, values));
+			}
+		}
+		installRelations(Collections.singletonList(reln));
+		return reln;
+	}
+
+	/**
+	 * Look up a name in one of the hash indexes, and return the index of the
+	 * record with that name, or -1 if there is none.
+	 */
+	private int find(ByteBuffer index, int slots, ByteBuffer records, int recordSize, String name) {
+		if (slots == 0) {
+			return -1;
+		}
+		byte[] key = name.getBytes(StandardCharsets.UTF_8);
+		int mask = slots - 1;
+		for (int slot = hash(name) & mask; ; slot = (slot + 1) & mask) {
+			int entry = index.getInt(slot * 4);
+			if (entry == 0) {
+				return -1;
+			}
+			int record = entry - 1;
+			if (nameEquals(records.getInt(record * recordSize), key)) {
+				return record;
+			}
+		}
+	}
+
+	private boolean nameEquals(int offset, byte[] key) {
+		if (strings.getInt(offset) != key.length) {
+			return false;
+		}
+		for (int i = 0; i < key.length; i++) {
+			if (strings.get(offset + 4 + i) != key[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String readString(int offset) {
+		byte[] bytes = new byte[strings.getInt(offset)];
+		strings.get(offset + 4, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Hash function used for both indexes; shared with CatalogueConverter.
+	 */
+	static int hash(String name) {
+		int h = name.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Return the number of index slots used for the given number of records
+	 * (a power of two, at most half full).
+	 */
+	static int slotsFor(int count) {
+		int slots = 1;
+		while (slots < count * 2) {
+			slots <<= 1;
+		}
+		return slots;
+	}
+}
@@ -52,11 +52,4 @@ public abstract class BinaryOperator extends Operator {
 	public Relation getOutput() {
 		return this.output;
 	}
-	
-	/* (non-Javadoc)
-	 * @see sjdb.Operator#accept(sjdb.OperatorVisitor)
-	 */
-	public void accept(PlanVisitor visitor) {
-		super.accept(visitor);
 	}
-}
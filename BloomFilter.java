@@ -0,0 +1,102 @@
+package sjdb;
+
+/**
+ * This class is a Bloom filter over string values: a set that may report
+ * that it contains a value that was never added (a false positive), but
+ * never that it lacks one that was. It is sized for an expected number of
+ * values and a false positive rate, with k bit positions per value
+ * derived from one 64-bit hash by double hashing.
+ */
+public class BloomFilter {
+	static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+	private final long[] bits;
+	private final int size;
+	private final int hashes;
+	private long count = 0;
+
+	/**
+	 * Create a filter for the given number of values with the default
+	 * false positive rate.
+	 * @param expected
+	 */
+	public BloomFilter(long expected) {
+		this(expected, DEFAULT_FALSE_POSITIVE_RATE);
+	}
+
+	/**
+	 * Create a filter for the given number of values, which has at most
+	 * the given false positive rate once they have been added.
+	 * @param expected
+	 * @param falsePositiveRate
+	 */
+	public BloomFilter(long expected, double falsePositiveRate) {
+		// m = -n ln p / (ln 2)^2 bits and k = (m / n) ln 2 hashes minimise the rate for n values
+		long n = Math.max(1, expected);
+		long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		this.size = (int) Math.min(Math.max(64, m), Integer.MAX_VALUE - 63);
+		this.bits = new long[(size + 63) / 64];
+		this.hashes = Math.max(1, (int) Math.round((double) size / n * Math.log(2)));
+	}
+
+	/**
+	 * Add a value to the filter.
+	 * @param value
+	 */
+	public void add(String value) {
+		long hash = DistinctCountSketch.hash(value);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 0; i < hashes; i++) {
+			int bit = Math.floorMod(h1 + i * h2, size);
+			bits[bit >>> 6] |= 1L << bit;
+		}
+		count++;
+	}
+
+	/**
+	 * Return false if the value was certainly not added to the filter, or
+	 * true if it may have been.
+	 * @param value
+	 * @return
+	 */
+	public boolean mightContain(String value) {
+		long hash = DistinctCountSketch.hash(value);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 0; i < hashes; i++) {
+			int bit = Math.floorMod(h1 + i * h2, size);
+			if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Return the number of values added, counting repeated values each
+	 * time they were added.
+	 * @return
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Return the size of the filter in bytes.
+	 * @return
+	 */
+	public long getBytes() {
+		return 8L * bits.length;
+	}
+
+	/**
+	 * Return the expected false positive rate of the filter for the
+	 * given number of distinct values added: (1 - e^(-kn/m))^k.
+	 * @param distinct
+	 * @return
+	 */
+	public double falsePositiveRate(long distinct) {
+		return Math.pow(1 - Math.exp(-(double) hashes * distinct / size), hashes);
+	}
+}
@@ -0,0 +1,102 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class holds the parts of a canonical query plan, as produced by
+ * the QueryParser: a project (if any), over selects, over a left-deep
+ * tree of products of scans. It is used to take a canonical plan apart
+ * (see Optimiser.removeRedundancy() and MaterialisedView) and to build
+ * the canonical plan of a rewritten query.
+ */
+class CanonicalQuery {
+	private final List<Attribute> projected;
+	private final List<Predicate> predicates;
+	private final List<Scan> scans;
+
+	private CanonicalQuery(List<Attribute> projected, List<Predicate> predicates, List<Scan> scans) {
+		this.projected = projected;
+		this.predicates = predicates;
+		this.scans = scans;
+	}
+
+	/**
+	 * Take a canonical plan apart, returning null if the plan is not
+	 * canonical.
+	 * @param plan
+	 * @return
+	 */
+	static CanonicalQuery of(Operator plan) {
+		List<Attribute> projected = null;
+		Operator op = plan;
+		if (op instanceof Project) {
+			projected = ((Project) op).getAttributes();
+			op = ((Project) op).getInput();
+		}
+		List<Predicate> predicates = new ArrayList<Predicate>();
+		while (op instanceof Select) {
+			predicates.add(((Select) op).getPredicate());
+			op = ((Select) op).getInput();
+		}
+		Collections.reverse(predicates);
+		List<Scan> scans = new ArrayList<Scan>();
+		boolean[] canonical = { true };
+		PlanTraversal.preOrder(op, o -> {
+			if (o instanceof Scan) {
+				scans.add((Scan) o);
+			} else if (!(o instanceof Product)) {
+				canonical[0] = false;
+			}
+		});
+		return canonical[0] ? new CanonicalQuery(projected, predicates, scans) : null;
+	}
+
+	/**
+	 * Return the attributes projected by the query, or null if it has no
+	 * project (SELECT *).
+	 * @return
+	 */
+	List<Attribute> getProjected() {
+		return projected;
+	}
+
+	/**
+	 * Return the predicates of the query, in the order in which they are
+	 * applied (from the bottom of the plan up). The list may be changed.
+	 * @return
+	 */
+	List<Predicate> getPredicates() {
+		return predicates;
+	}
+
+	/**
+	 * Return the scans of the query, from left to right. The list may be
+	 * changed.
+	 * @return
+	 */
+	List<Scan> getScans() {
+		return scans;
+	}
+
+	/**
+	 * Build the canonical plan of a query from its scans, predicates and
+	 * projected attributes (null for none) through a PlanFactory.
+	 * @param factory
+	 * @param scans
+	 * @param predicates
+	 * @param projected
+	 * @return
+	 */
+	static Operator plan(PlanFactory factory, List<Scan> scans, List<Predicate> predicates, List<Attribute> projected) {
+		Operator plan = scans.get(0);
+		for (int i = 1; i < scans.size(); i++) {
+			plan = factory.product(plan, scans.get(i));
+		}
+		for (Predicate predicate : predicates) {
+			plan = factory.select(plan, predicate);
+		}
+		return projected != null ? factory.project(plan, projected) : plan;
+	}
+}
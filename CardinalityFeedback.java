@@ -0,0 +1,224 @@
+package sjdb;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * This class stores the tuple counts observed when plans are executed,
+ * so that an Estimator can correct its estimates for the same
+ * subexpressions in later queries. Observations are keyed by signature:
+ * the set of relations an operator reads and the set of predicates
+ * applied to them. The signature does not depend on the order in which
+ * relations are joined or predicates applied, so an observation made
+ * under one join order also corrects the estimates for every other order
+ * of the same relations and predicates.
+ *
+ * Repeated observations of a signature are averaged, weighting the
+ * latest most. Observations also decay as further plans are recorded:
+ * the corrected estimate is a blend of the observed and the formula
+ * estimate (on a logarithmic scale), in which the weight of the observed
+ * count halves every given number of recordings. The store holds at most
+ * a fixed number of signatures, evicting the least recently used.
+ *
+ * The store may be shared by several Estimators and Optimisers.
+ */
+public class CardinalityFeedback {
+	static final int DEFAULT_CAPACITY = 10000;
+	static final double DEFAULT_HALF_LIFE = 100;
+	// weight of the latest observation in the running average
+	static final double SMOOTHING = 0.5;
+	// an observation that changes a stored count by more than this factor changes the version
+	static final double SIGNIFICANT_CHANGE = 1.5;
+
+	private final Map<String, Entry> entries;
+	private final double halfLife;
+	private long clock = 0;
+	private long version = 0;
+
+	private static class Entry {
+		double logCount;	// running average of log(1 + observed tuple count)
+		long lastObserved;	// clock at the latest observation
+
+		Entry(double logCount, long lastObserved) {
+			this.logCount = logCount;
+			this.lastObserved = lastObserved;
+		}
+	}
+
+	/**
+	 * The relations read and predicates applied by an operator and its
+	 * inputs.
+	 */
+	public static class Signature {
+		private final TreeSet<String> relations;
+		private final TreeSet<String> predicates;
+		private String key;
+
+		private Signature(TreeSet<String> relations, TreeSet<String> predicates) {
+			this.relations = relations;
+			this.predicates = predicates;
+		}
+
+		/**
+		 * Return the signature of an operator, taking the signatures of its
+		 * inputs from the given map where present and adding the signatures
+		 * computed to it.
+		 * @param op
+		 * @param known
+		 * @return
+		 */
+		public static Signature of(Operator op, Map<Operator, Signature> known) {
+			Signature signature = known.get(op);
+			if (signature != null) {
+				return signature;
+			}
+			TreeSet<String> relations = new TreeSet<String>();
+			TreeSet<String> predicates = new TreeSet<String>();
+			if (op instanceof Scan) {
+				relations.add(((NamedRelation) ((Scan) op).getRelation()).getName());
+			} else {
+				for (Operator input : op.getInputs()) {
+					Signature inputSignature = of(input, known);
+					relations.addAll(inputSignature.relations);
+					predicates.addAll(inputSignature.predicates);
+				}
+				if (op instanceof Select) {
+					predicates.add(normalise(((Select) op).getPredicate()));
+				} else if (op instanceof Join) {
+					predicates.add(normalise(((Join) op).getPredicate()));
+				}
+			}
+			signature = new Signature(relations, predicates);
+			known.put(op, signature);
+			return signature;
+		}
+
+		/**
+		 * Return the signature as a string, such as "A,B|a1=b1,a2=\"5\"".
+		 * @return
+		 */
+		public String getKey() {
+			if (key == null) {
+				key = String.join(",", relations) + "|" + String.join(",", predicates);
+			}
+			return key;
+		}
+
+		public String toString() {
+			return getKey();
+		}
+
+		// attr=attr predicates are written with their attributes in order, so that a=b and b=a are the same
+		private static String normalise(Predicate predicate) {
+			if (predicate.equalsValue()) {
+				return predicate.toString();
+			}
+			String left = predicate.getLeftAttribute().getName();
+			String right = predicate.getRightAttribute().getName();
+			return left.compareTo(right) <= 0 ? left + "=" + right : right + "=" + left;
+		}
+	}
+
+	/**
+	 * Create a feedback store with the default capacity and half-life.
+	 */
+	public CardinalityFeedback() {
+		this(DEFAULT_CAPACITY, DEFAULT_HALF_LIFE);
+	}
+
+	/**
+	 * Create a feedback store.
+	 * @param capacity maximum number of signatures held
+	 * @param halfLife number of recorded plans after which the weight of
+	 * an observation has halved
+	 */
+	public CardinalityFeedback(final int capacity, double halfLife) {
+		this.halfLife = halfLife;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Record the tuple counts observed for every operator of a plan that
+	 * has been executed.
+	 * @param plan
+	 * @param executor executor that executed the plan
+	 */
+	public synchronized void record(Operator plan, Executor executor) {
+		clock++;
+		// inputs are recorded before the operators above them, so that their signatures are known
+		Map<Operator, Signature> known = new IdentityHashMap<Operator, Signature>();
+		PlanTraversal.postOrder(plan, op -> {
+			Signature signature = Signature.of(op, known);
+			Executor.OperatorStatistics stats = executor.getStatistics(op);
+			// a project has the same tuple count as its input, which is recorded instead; an output reduced by runtime filters
+			// is smaller than the result of the operator, so it is not recorded
+			if (stats != null && !(op instanceof Project) && !stats.isReduced()) {
+				observe(signature.getKey(), stats.getRows());
+			}
+		});
+	}
+
+	/**
+	 * Record the tuple count observed for a signature.
+	 * @param key signature key
+	 * @param tuples
+	 */
+	public synchronized void observe(String key, long tuples) {
+		double logCount = Math.log1p(tuples);
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			entries.put(key, new Entry(logCount, clock));
+			version++;
+		} else {
+			double previous = entry.logCount;
+			entry.logCount = SMOOTHING * logCount + (1 - SMOOTHING) * previous;
+			entry.lastObserved = clock;
+			if (Math.abs(entry.logCount - previous) > Math.log(SIGNIFICANT_CHANGE)) {
+				version++;
+			}
+		}
+	}
+
+	/**
+	 * Return the estimate for a signature corrected by the tuple counts
+	 * observed for it, or the given estimate if none have been observed.
+	 * @param signature
+	 * @param estimate formula estimate
+	 * @return
+	 */
+	public synchronized long correct(Signature signature, long estimate) {
+		Entry entry = entries.get(signature.getKey());
+		if (entry == null) {
+			return estimate;
+		}
+		double weight = Math.pow(0.5, (clock - entry.lastObserved) / halfLife);
+		double logCount = weight * entry.logCount + (1 - weight) * Math.log1p(estimate);
+		return Math.round(Math.expm1(logCount));
+	}
+
+	/**
+	 * Return a number that changes whenever the corrections made by the
+	 * store may have changed significantly, for use in plan cache keys.
+	 * @return
+	 */
+	public synchronized long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Return the number of signatures held.
+	 * @return
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+}
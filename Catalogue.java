@@ -1,94 +1,397 @@
 package sjdb;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 /**
  * This class contains the system catalogue for the database; it
  * is responsible for:
- * 
+ *
  * - creating new NamedRelations
  * - creating new Attributes
- * 
+ *
  * The catalogue maintains a directory of NamedRelations and
  * Attributes, indexed by name.
- * 
+ *
  * Note that any statistical information about named relations or
  * the attributes therein is stored on the relations or attributes,
- * and not in the catalogue.
- * 
+ * and not in the catalogue. Key constraints (primary, unique and
+ * foreign keys) are stored in the catalogue, by attribute name, so
+ * that they hold however the statistics are updated.
+ *
+ * The directory is held as immutable CatalogueSnapshots; every change
+ * publishes a new one with a compare-and-set. A caller that needs a
+ * consistent view across many lookups pins one with snapshot(), which
+ * later changes do not affect. A relation made by createRelation() is
+ * built in place until the catalogue is next read, and is not changed
+ * once published.
+ *
+ * Attribute names are interned to dense integer ids (see AttributeSet),
+ * which are shared by every catalogue and never released.
+ *
  * @author nmg
  *
  */
 public class Catalogue {
-	
-	private HashMap<String, NamedRelation> relations;
-	private HashMap<String, Attribute> attributes;
 
+	private static final ConcurrentHashMap<String, Integer> attributeIds = new ConcurrentHashMap<String, Integer>();
+	private static final List<String> attributeNames = new ArrayList<String>();
+
+	private final AtomicReference<CatalogueSnapshot> current;
+	// relations created but not yet published, in order of creation; guarded by itself
+	private final Map<String, NamedRelation> building = new LinkedHashMap<String, NamedRelation>();
+	private volatile boolean hasBuilding = false;
 
 	public Catalogue() {
-		this.relations = new HashMap<String, NamedRelation>();
-		this.attributes = new HashMap<String, Attribute>();
+		this.current = new AtomicReference<CatalogueSnapshot>(CatalogueSnapshot.EMPTY);
 	}
-	
+
 	/**
-	 * Create a new NamedRelation with the specified name and size and 
-	 * add it to the directory.
-	 * 
+	 * Return the current version of the catalogue.
+	 *
+	 * @return
+	 */
+	public CatalogueSnapshot snapshot() {
+		publishBuilding();
+		return current.get();
+	}
+
+	/**
+	 * Create a new NamedRelation with the specified name and size, to be
+	 * added to the directory, with the attributes created for it, when the
+	 * catalogue is next read.
+	 *
 	 * @param relName
 	 * @param size
 	 */
 	public NamedRelation createRelation(String relName, int size) {
 		NamedRelation reln = new NamedRelation(relName, size);
-		relations.put(relName, reln);
+		synchronized (building) {
+			building.put(relName, reln);
+			hasBuilding = true;
+		}
 		return reln;
 	}
-	
+
+	// Publish the relations being built in a single snapshot
+	private void publishBuilding() {
+		if (!hasBuilding) {
+			return;
+		}
+		synchronized (building) {
+			if (!building.isEmpty()) {
+				publish(new ArrayList<NamedRelation>(building.values()));
+				building.clear();
+			}
+			hasBuilding = false;
+		}
+	}
+
+	/**
+	 * Add a NamedRelation, together with its attributes, to the directory,
+	 * replacing any relation with the same name.
+	 *
+	 * @param reln
+	 */
+	public void addRelation(NamedRelation reln) {
+		updateRelations(Collections.singletonList(reln));
+	}
+
+	/**
+	 * Atomically publish a set of NamedRelations (typically carrying new
+	 * statistics), together with their attributes, replacing any relations
+	 * and attributes with the same names. Snapshots taken before the update
+	 * continue to see the old relations.
+	 *
+	 * @param relns
+	 */
+	public void updateRelations(Collection<NamedRelation> relns) {
+		publishBuilding();
+		publish(relns);
+	}
+
+	private void publish(Collection<NamedRelation> relns) {
+		CatalogueSnapshot snapshot, next;
+		do {
+			snapshot = current.get();
+			next = snapshot.withRelations(relns);
+		} while (!current.compareAndSet(snapshot, next));
+	}
+
+	/**
+	 * Install relations loaded on demand from a backing store, together
+	 * with their attributes, without changing the version of the catalogue
+	 * (see CatalogueSnapshot.withLoaded()).
+	 *
+	 * @param relns
+	 */
+	protected void installRelations(Collection<NamedRelation> relns) {
+		publishBuilding();
+		CatalogueSnapshot snapshot, next;
+		do {
+			snapshot = current.get();
+			next = snapshot.withLoaded(relns);
+		} while (!current.compareAndSet(snapshot, next));
+	}
+
 	/**
 	 * Create a new Attribute with the specified name and number of distinct
-	 * values, add it to the directory and associate it with the specified 
+	 * values, add it to the directory and associate it with the specified
 	 * NamedRelation.
-	 * 
+	 *
+	 * A relation that has not yet been published is changed in place; a
+	 * published relation is copied, so the NamedRelation that the caller
+	 * holds (and any earlier snapshot) does not see the new attribute.
+	 *
 	 * @param relName
 	 * @param attName
 	 * @param values
 	 * @return
 	 */
 	public Attribute createAttribute(String relName, String attName, int values) {
-		Attribute attr = new Attribute(attName, values);
-		attributes.put(attName, attr);
-		relations.get(relName).addAttribute(attr);
+		return addAttribute(relName, new Attribute(attName, values));
+	}
+
+	/**
+	 * Create a new Attribute with the specified name, number of distinct
+	 * values and range of values, add it to the directory and associate
+	 * it with the specified NamedRelation.
+	 *
+	 * @param relName
+	 * @param attName
+	 * @param values
+	 * @param min
+	 * @param max
+	 * @return
+	 */
+	public Attribute createAttribute(String relName, String attName, int values, double min, double max) {
+		return addAttribute(relName, new Attribute(attName, values, min, max));
+	}
+
+	private Attribute addAttribute(String relName, Attribute attr) {
+		synchronized (building) {
+			NamedRelation reln = building.get(relName);
+			if (reln != null) {
+				reln.addAttribute(attr);
+				return attr;
+			}
+		}
+		CatalogueSnapshot snapshot, next;
+		do {
+			snapshot = current.get();
+			NamedRelation reln = snapshot.lookupRelation(relName).copy();
+			reln.addAttribute(attr);
+			// the relation holds the attribute with its value count limited to the relation's tuple count
+			next = snapshot.withAttribute(reln, reln.getAttributes().get(reln.getAttributes().size() - 1));
+		} while (!current.compareAndSet(snapshot, next));
 		return attr;
 	}
-	
+
+	/**
+	 * Partition a relation, publishing a copy of it with the given
+	 * partitioning (and the statistics of its partitions) in place of any
+	 * it had.
+	 *
+	 * @param relName
+	 * @param partitioning
+	 * @throws DatabaseException if there is no such relation
+	 */
+	public void partition(String relName, Partitioning partitioning) throws DatabaseException {
+		publishBuilding();
+		CatalogueSnapshot snapshot, next;
+		do {
+			snapshot = current.get();
+			NamedRelation reln = snapshot.getRelation(relName).copy();
+			reln.setPartitioning(partitioning);
+			next = snapshot.withRelations(Collections.singletonList(reln));
+		} while (!current.compareAndSet(snapshot, next));
+	}
+
+	/**
+	 * Declare the primary key of a relation. The relation and attribute
+	 * need not have been created yet.
+	 *
+	 * @param relName
+	 * @param attName
+	 */
+	public void addPrimaryKey(String relName, String attName) {
+		updateConstraints(constraints -> constraints.withPrimaryKey(relName, attName));
+	}
+
+	/**
+	 * Declare that the values of an attribute of a relation are unique.
+	 *
+	 * @param relName
+	 * @param attName
+	 */
+	public void addUniqueKey(String relName, String attName) {
+		updateConstraints(constraints -> constraints.withUniqueKey(relName, attName));
+	}
+
+	/**
+	 * Declare that every value of an attribute is a value of a key (a
+	 * primary key or unique attribute) of another relation.
+	 *
+	 * @param attName
+	 * @param keyName
+	 */
+	public void addForeignKey(String attName, String keyName) {
+		updateConstraints(constraints -> constraints.withForeignKey(attName, keyName));
+	}
+
+	/**
+	 * Return the key constraints of the current version of the catalogue.
+	 *
+	 * @return
+	 */
+	public KeyConstraints getConstraints() {
+		return snapshot().getConstraints();
+	}
+
+	private void updateConstraints(Function<KeyConstraints, KeyConstraints> update) {
+		CatalogueSnapshot snapshot, next;
+		do {
+			snapshot = current.get();
+			next = snapshot.withConstraints(update.apply(snapshot.getConstraints()));
+		} while (!current.compareAndSet(snapshot, next));
+	}
+
+	/**
+	 * Register a materialised view, together with its relation, which
+	 * has the view's name and attributes. New statistics of the view are
+	 * published by replacing its relation (see updateRelations()).
+	 *
+	 * @param view
+	 * @param reln
+	 * @throws DatabaseException if a relation with the view's name exists
+	 */
+	public void addView(MaterialisedView view, NamedRelation reln) throws DatabaseException {
+		publishBuilding();
+		CatalogueSnapshot snapshot, next;
+		do {
+			snapshot = current.get();
+			if (snapshot.lookupRelation(view.getName()) != null) {
+				throw new DatabaseException("Named relation " + view.getName() + " already exists");
+			}
+			next = snapshot.withView(view, reln);
+		} while (!current.compareAndSet(snapshot, next));
+	}
+
+	/**
+	 * Return the materialised views of the current version of the
+	 * catalogue.
+	 *
+	 * @return
+	 */
+	public List<MaterialisedView> getViews() {
+		return snapshot().getViews();
+	}
+
 	/**
 	 * Return the NamedRelation with the specified name.
-	 * 
+	 *
 	 * @param name
 	 * @return
 	 */
 	public NamedRelation getRelation(String name) throws DatabaseException {
-		NamedRelation reln = relations.get(name);
-		
+		NamedRelation reln = lookupRelation(name);
+
 		if (reln==null) {
 			throw new DatabaseException("Named relation " + name + " not found");
 		}
-		
+
 		return reln;
 	}
-	
+
 	/**
 	 * Return the Attribute with the specified name.
-	 * 
+	 *
 	 * @param name
 	 * @return
 	 */
 	public Attribute getAttribute(String name) throws DatabaseException {
-		Attribute attr = attributes.get(name);
-		
+		Attribute attr = lookupAttribute(name);
+
 		if (attr==null) {
 			throw new DatabaseException("Attribute " + name + " not found");
 		}
-		
+
 		return attr;
 	}
+
+	/**
+	 * Return the NamedRelation with the specified name, or null if there
+	 * is none in the directory. Subclasses may override this to create
+	 * relations on demand.
+	 *
+	 * @param name
+	 * @return
+	 */
+	protected NamedRelation lookupRelation(String name) {
+		return snapshot().lookupRelation(name);
+	}
+
+	/**
+	 * Return the Attribute with the specified name, or null if there is
+	 * none in the directory. Subclasses may override this to create
+	 * attributes on demand.
+	 *
+	 * @param name
+	 * @return
+	 */
+	protected Attribute lookupAttribute(String name) {
+		return snapshot().lookupAttribute(name);
+	}
+
+	/**
+	 * Return the id of the attribute with the specified name, assigning
+	 * the next unused id if the name has not been seen before.
+	 *
+	 * @param name
+	 * @return
+	 */
+	static int internAttribute(String name) {
+		Integer id = attributeIds.get(name);
+		if (id == null) {
+			synchronized (attributeNames) {
+				id = attributeIds.get(name);
+				if (id == null) {
+					id = attributeNames.size();
+					attributeNames.add(name);
+					attributeIds.put(name, id);
+				}
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * Return the number of attribute names interned so far.
+	 *
+	 * @return
+	 */
+	static int attributeCount() {
+		synchronized (attributeNames) {
+			return attributeNames.size();
+		}
+	}
+
+	/**
+	 * Return the name of the attribute with the specified id.
+	 *
+	 * @param id
+	 * @return
+	 */
+	static String attributeName(int id) {
+		synchronized (attributeNames) {
+			return attributeNames.get(id);
+		}
+	}
 }
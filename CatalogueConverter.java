@@ -0,0 +1,200 @@
+package sjdb;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class converts a serialised system catalogue in the text format
+ * read by CatalogueParser into the binary format read by BinaryCatalogue.
+ * The text catalogue is read a line at a time, so the converter holds only
+ * the fixed-width records and names in memory, and not a Catalogue.
+ *
+ * Usage: java sjdb.CatalogueConverter <text catalogue> <binary catalogue>
+ */
+public class CatalogueConverter {
+	private ByteArrayOutputStream strings = new ByteArrayOutputStream();
+	private int[] relations = new int[4 * 1024];
+	private int[] relationHashes = new int[1024];
+	private int relationCount = 0;
+	private int[] attributes = new int[4 * 1024];
+	private double[] ranges = new double[2 * 1024];
+	private int[] attributeHashes = new int[1024];
+	private int attributeCount = 0;
+	private List<String> constraints = new ArrayList<String>();
+	// constraint lines are parsed into a scratch catalogue, so that malformed ones are found when reading
+	private Catalogue scratch = new Catalogue();
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 2) {
+			System.err.println("Usage: java sjdb.CatalogueConverter <text catalogue> <binary catalogue>");
+			System.exit(1);
+		}
+		CatalogueConverter converter = new CatalogueConverter();
+		converter.read(args[0]);
+		converter.write(args[1]);
+	}
+
+	/**
+	 * Read a text catalogue, recording its relations, attributes and
+	 * constraints.
+	 * @param catFilename
+	 * @throws IOException
+	 * @throws DatabaseException if a line of the catalogue is malformed
+	 */
+	public void read(String catFilename) throws IOException, DatabaseException {
+		try (BufferedReader read = new BufferedReader(new FileReader(catFilename))) {
+			String line;
+			int lineNumber = 0;
+			while ((line = read.readLine()) != null) {
+				lineNumber++;
+				try {
+					if (line.trim().isEmpty()) {
+						continue;
+					} else if (line.startsWith("@")) {
+						CatalogueParser.parseLine(line, scratch);
+						constraints.add(line);
+					} else {
+						addRelation(line.split(":", 0));
+					}
+				} catch (RuntimeException | DatabaseException e) {
+					throw new DatabaseException(catFilename + ":" + lineNumber + ": malformed catalogue entry: " + line, e);
+				}
+			}
+		}
+	}
+
+	private void addRelation(String[] parts) {
+		String reln = parts[0];
+		int size = Integer.decode(parts[1]).intValue();
+
+		if ((relationCount + 1) * 4 > relations.length) {
+			relations = Arrays.copyOf(relations, relations.length * 2);
+			relationHashes = Arrays.copyOf(relationHashes, relationHashes.length * 2);
+		}
+		int base = relationCount * 4;
+		relations[base] = addString(reln);
+		relations[base + 1] = size;
+		relations[base + 2] = attributeCount;
+		relations[base + 3] = parts.length - 2;
+		relationHashes[relationCount] = BinaryCatalogue.hash(reln);
+
+		for (int i = 2; i < parts.length; i++) {
+			addAttribute(relationCount, parts[i].split(",", 0));
+		}
+		relationCount++;
+	}
+
+	private void addAttribute(int reln, String[] parts) {
+		if (parts.length != 2 && parts.length != 4) {
+			throw new IllegalArgumentException("attribute with " + parts.length + " fields");
+		}
+		String attr = parts[0];
+		int values = Integer.decode(parts[1]).intValue();
+
+		if ((attributeCount + 1) * 4 > attributes.length) {
+			attributes = Arrays.copyOf(attributes, attributes.length * 2);
+			ranges = Arrays.copyOf(ranges, ranges.length * 2);
+			attributeHashes = Arrays.copyOf(attributeHashes, attributeHashes.length * 2);
+		}
+		int base = attributeCount * 4;
+		attributes[base] = addString(attr);
+		attributes[base + 1] = reln;
+		attributes[base + 2] = values;
+		if (parts.length == 4) {
+			attributes[base + 3] = BinaryCatalogue.FLAG_RANGED;
+			ranges[attributeCount * 2] = Double.parseDouble(parts[2]);
+			ranges[attributeCount * 2 + 1] = Double.parseDouble(parts[3]);
+		} else {
+			attributes[base + 3] = 0;
+		}
+		attributeHashes[attributeCount] = BinaryCatalogue.hash(attr);
+		attributeCount++;
+	}
+
+	private int addString(String name) {
+		int offset = strings.size();
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		strings.write(bytes.length >>> 24);
+		strings.write(bytes.length >>> 16);
+		strings.write(bytes.length >>> 8);
+		strings.write(bytes.length);
+		strings.write(bytes, 0, bytes.length);
+		return offset;
+	}
+
+	/**
+	 * Write the recorded relations, attributes and constraints as a binary
+	 * catalogue.
+	 * @param binFilename
+	 * @throws IOException
+	 */
+	public void write(String binFilename) throws IOException {
+		int relationSlots = BinaryCatalogue.slotsFor(relationCount);
+		int attributeSlots = BinaryCatalogue.slotsFor(attributeCount);
+
+		long stringsOffset = BinaryCatalogue.HEADER_SIZE;
+		long relationsOffset = stringsOffset + strings.size();
+		long attributesOffset = relationsOffset + (long) relationCount * BinaryCatalogue.RELATION_RECORD_SIZE;
+		long relationIndexOffset = attributesOffset + (long) attributeCount * BinaryCatalogue.ATTRIBUTE_RECORD_SIZE;
+		long attributeIndexOffset = relationIndexOffset + (long) relationSlots * 4;
+		long constraintsOffset = attributeIndexOffset + (long) attributeSlots * 4;
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(binFilename), 1 << 16))) {
+			out.writeInt(BinaryCatalogue.MAGIC);
+			out.writeInt(BinaryCatalogue.VERSION);
+			out.writeInt(relationCount);
+			out.writeInt(attributeCount);
+			out.writeInt(relationSlots);
+			out.writeInt(attributeSlots);
+			out.writeLong(stringsOffset);
+			out.writeLong(relationsOffset);
+			out.writeLong(attributesOffset);
+			out.writeLong(relationIndexOffset);
+			out.writeLong(attributeIndexOffset);
+			out.writeLong(constraintsOffset);
+
+			strings.writeTo(out);
+			for (int i = 0; i < relationCount * 4; i++) {
+				out.writeInt(relations[i]);
+			}
+			for (int i = 0; i < attributeCount; i++) {
+				for (int j = 0; j < 4; j++) {
+					out.writeInt(attributes[i * 4 + j]);
+				}
+				out.writeDouble(ranges[i * 2]);
+				out.writeDouble(ranges[i * 2 + 1]);
+			}
+			writeIndex(out, relationHashes, relationCount, relationSlots);
+			writeIndex(out, attributeHashes, attributeCount, attributeSlots);
+			out.writeInt(constraints.size());
+			for (String constraint : constraints) {
+				byte[] bytes = constraint.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+		}
+	}
+
+	/*
+	 * Records are inserted last first, so that when a name is defined more
+	 * than once the last definition is found first (as it would be when the
+	 * text catalogue is loaded into a Catalogue).
+	 */
+	private void writeIndex(DataOutputStream out, int[] hashes, int count, int slots) throws IOException {
+		int[] index = new int[slots];
+		int mask = slots - 1;
+		for (int record = count - 1; record >= 0; record--) {
+			int slot = hashes[record] & mask;
+			while (index[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			index[slot] = record + 1;
+		}
+		for (int i = 0; i < slots; i++) {
+			out.writeInt(index[i]);
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package sjdb;
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This class parses a serialised system catalogue, and uses the
@@ -10,11 +12,31 @@ import java.io.*;
  * 
  * <relation name>:<tuple count>:<attr name>,<value count>:<attr name>,<value count>
  * 
+ * An attribute whose values are numeric may also give the smallest and
+ * largest values that it takes, which are used to estimate the
+ * selectivity of range predicates:
+ *
+ * <attr name>,<value count>,<min value>,<max value>
+ *
+ * Key constraints are declared on lines of their own, which may come
+ * before or after the relations that they name:
+ *
+ * @primary:<relation name>:<attr name>
+ * @unique:<relation name>:<attr name>
+ * @foreign:<attr name>:<referenced key attr name>
+ *
+ * Blank lines are ignored. Malformed lines are skipped and reported,
+ * with their line numbers, by getErrors(). A relation is added to the
+ * catalogue only once its whole line has been parsed, and a relation
+ * defined on more than one line takes its last definition.
+ * 
  * @author nmg
  */
 public class CatalogueParser {
+	private String catFilename;
 	private BufferedReader read;
 	private Catalogue catalogue;
+	private List<String> errors = new ArrayList<String>();
 
 	/**
 	 * Create a parser that reads from the file of the given name
@@ -22,41 +44,126 @@ public class CatalogueParser {
 	 * @param catalogue
 	 */
 	public CatalogueParser(String catFilename, Catalogue catalogue) {
+		this.catFilename = catFilename;
 		this.catalogue = catalogue;
 		try {
 			this.read = new BufferedReader(new FileReader(catFilename));
 		} catch (Exception e) {
+			errors.add(e.toString());
 			System.err.println(e.toString());
 		}
 	}
 	
 	public void parse() {
 		String line;
+		int lineNumber = 0;
 
+		if (this.read == null) {
+			return;
+		}
 		try {
 			while ((line = this.read.readLine()) != null) {
-				parseRelation(line.split(":", 0));
+				lineNumber++;
+				try {
+					parseLine(line, catalogue);
+				} catch (DatabaseException e) {
+					String error = catFilename + ":" + lineNumber + ": " + e.getMessage();
+					errors.add(error);
+					System.err.println(error);
+				}
 			}
-		} catch (Exception e) {
+			this.read.close();
+		} catch (IOException e) {
+			errors.add(catFilename + ":" + lineNumber + ": " + e.toString());
 			e.printStackTrace();
 		}
 	}
 	
-	private void parseRelation(String[] parts) {
-		String reln = parts[0];
-		int size = Integer.decode(parts[1]).intValue();
-		
-		catalogue.createRelation(reln, size);
-		
-		for (int i = 2; i < parts.length; i++) {
-			parseAttribute(reln, parts[i].split(",", 0));
+	/**
+	 * Return the errors found by parse(), each prefixed with the name of
+	 * the catalogue file and the line number at which it occurred.
+	 * @return
+	 */
+	public List<String> getErrors() {
+		return errors;
+	}
+
+	/**
+	 * Parse a single line of a serialised system catalogue, creating the
+	 * relation and attributes that it describes in the given catalogue.
+	 * @param line
+	 * @param catalogue
+	 * @throws DatabaseException if the line is malformed
+	 */
+	static void parseLine(String line, Catalogue catalogue) throws DatabaseException {
+		if (line.trim().isEmpty()) {
+			return;
+		}
+		if (line.startsWith("@")) {
+			try {
+				parseConstraint(line.split(":", 0), catalogue);
+			} catch (RuntimeException e) {
+				throw malformed(line, e);
+			}
+		} else {
+			catalogue.addRelation(parseRelation(line));
 		}
 	}
 
-	private void parseAttribute(String reln, String[] parts) {
+	/**
+	 * Parse a line of a serialised system catalogue that describes a
+	 * relation, returning the relation with its attributes, which has not
+	 * been added to any catalogue.
+	 * @param line
+	 * @return
+	 * @throws DatabaseException if the line is malformed
+	 */
+	static NamedRelation parseRelation(String line) throws DatabaseException {
+		try {
+			String[] parts = line.split(":", 0);
+			String name = parts[0];
+			int size = Integer.decode(parts[1]).intValue();
+			
+			NamedRelation reln = new NamedRelation(name, size);
+			
+			for (int i = 2; i < parts.length; i++) {
+				reln.addAttribute(parseAttribute(parts[i].split(",", 0)));
+			}
+			return reln;
+		} catch (RuntimeException e) {
+			throw malformed(line, e);
+		}
+	}
+
+	private static DatabaseException malformed(String line, RuntimeException e) {
+		return new DatabaseException("malformed catalogue entry (" + e.toString() + "): " + line, e);
+	}
+
+	private static void parseConstraint(String[] parts, Catalogue catalogue) {
+		if (parts.length != 3) {
+			throw new IllegalArgumentException("constraint with " + (parts.length - 1) + " names");
+		}
+		switch (parts[0]) {
+			case "@primary": catalogue.addPrimaryKey(parts[1], parts[2]); break;
+			case "@unique": catalogue.addUniqueKey(parts[1], parts[2]); break;
+			case "@foreign": catalogue.addForeignKey(parts[1], parts[2]); break;
+			default: throw new IllegalArgumentException("unknown constraint " + parts[0]);
+		}
+	}
+
+	private static Attribute parseAttribute(String[] parts) {
+		if (parts.length != 2 && parts.length != 4) {
+			throw new IllegalArgumentException("attribute with " + parts.length + " fields");
+		}
 		String attr = parts[0];
 		int values = Integer.decode(parts[1]).intValue();
 		
-		catalogue.createAttribute(reln, attr, values);
+		if (parts.length == 4) {
+			double min = Double.parseDouble(parts[2]);
+			double max = Double.parseDouble(parts[3]);
+			return new Attribute(attr, values, min, max);
+		} else {
+			return new Attribute(attr, values);
+		}
 	}
 }
@@ -0,0 +1,229 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * This class is an immutable version of the system catalogue. A snapshot
+ * is obtained from Catalogue.snapshot(), and continues to return the same
+ * named relations and attributes however the catalogue is changed after
+ * it was taken.
+ *
+ * Each change to the catalogue publishes a new snapshot with a higher
+ * version number, so the version number can be used to tell whether
+ * anything derived from the catalogue (such as a cached plan) is stale.
+ *
+ * A snapshot also holds the key constraints declared in the catalogue
+ * (see KeyConstraints), and the materialised views registered in it (see
+ * MaterialisedView). The relation of a view is held with the other named
+ * relations, but its attributes are not added to the attribute directory,
+ * since they are the attributes of the view's base relations.
+ *
+ * Named relations and attributes that have been published in a snapshot
+ * must not be modified; new statistics are published by replacing them
+ * (see Catalogue.updateRelations()).
+ */
+public class CatalogueSnapshot {
+	static final CatalogueSnapshot EMPTY = new CatalogueSnapshot(0,
+			PersistentMap.<String, NamedRelation>empty(), PersistentMap.<String, Attribute>empty(), KeyConstraints.NONE,
+			PersistentMap.<String, MaterialisedView>empty());
+
+	private final long version;
+	private final PersistentMap<String, NamedRelation> relations;
+	private final PersistentMap<String, Attribute> attributes;
+	private final KeyConstraints constraints;
+	private final PersistentMap<String, MaterialisedView> views;
+
+	private CatalogueSnapshot(long version, PersistentMap<String, NamedRelation> relations,
+			PersistentMap<String, Attribute> attributes, KeyConstraints constraints,
+			PersistentMap<String, MaterialisedView> views) {
+		this.version = version;
+		this.relations = relations;
+		this.attributes = attributes;
+		this.constraints = constraints;
+		this.views = views;
+	}
+
+	/**
+	 * Return the version number of this snapshot
+	 * @return
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Return the number of named relations in this snapshot
+	 * @return
+	 */
+	public int getRelationCount() {
+		return relations.size();
+	}
+
+	/**
+	 * Return the key constraints declared in this snapshot
+	 * @return
+	 */
+	public KeyConstraints getConstraints() {
+		return constraints;
+	}
+
+	/**
+	 * Return the materialised views registered in this snapshot, in order
+	 * of name.
+	 * @return
+	 */
+	public List<MaterialisedView> getViews() {
+		List<MaterialisedView> list = new ArrayList<MaterialisedView>(views.size());
+		views.forEach((name, view) -> list.add(view));
+		list.sort(Comparator.comparing(MaterialisedView::getName));
+		return list;
+	}
+
+	/**
+	 * Return the materialised view with the specified name, or null.
+	 * @param name
+	 * @return
+	 */
+	MaterialisedView lookupView(String name) {
+		return views.get(name);
+	}
+
+	/**
+	 * Return the NamedRelation with the specified name.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public NamedRelation getRelation(String name) throws DatabaseException {
+		NamedRelation reln = relations.get(name);
+
+		if (reln==null) {
+			throw new DatabaseException("Named relation " + name + " not found");
+		}
+
+		return reln;
+	}
+
+	/**
+	 * Return the Attribute with the specified name.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public Attribute getAttribute(String name) throws DatabaseException {
+		Attribute attr = attributes.get(name);
+
+		if (attr==null) {
+			throw new DatabaseException("Attribute " + name + " not found");
+		}
+
+		return attr;
+	}
+
+	/**
+	 * Return the NamedRelation with the specified name, or null.
+	 * @param name
+	 * @return
+	 */
+	NamedRelation lookupRelation(String name) {
+		return relations.get(name);
+	}
+
+	/**
+	 * Return the Attribute with the specified name, or null.
+	 * @param name
+	 * @return
+	 */
+	Attribute lookupAttribute(String name) {
+		return attributes.get(name);
+	}
+
+	/**
+	 * Return the next version of this snapshot, in which the given
+	 * relations and their attributes replace any with the same names. The
+	 * attributes of a replaced relation that the new relation does not
+	 * have are dropped from the directory, and the attributes of the
+	 * relation of a view are not added to it.
+	 * @param relns
+	 * @return
+	 */
+	CatalogueSnapshot withRelations(Collection<NamedRelation> relns) {
+		return new CatalogueSnapshot(version + 1, relations, attributes, constraints, views).plus(relns);
+	}
+
+	/**
+	 * Return a snapshot with the same version as this one, with the given
+	 * relations and their attributes added. Relations loaded on demand
+	 * from a backing store (see BinaryCatalogue) are added in this way,
+	 * since loading them does not change what the catalogue holds, and so
+	 * leaves plans optimised against it valid.
+	 * @param relns
+	 * @return
+	 */
+	CatalogueSnapshot withLoaded(Collection<NamedRelation> relns) {
+		return plus(relns);
+	}
+
+	private CatalogueSnapshot plus(Collection<NamedRelation> relns) {
+		PersistentMap<String, NamedRelation> newRelations = relations;
+		PersistentMap<String, Attribute> newAttributes = attributes;
+		for (NamedRelation reln : relns) {
+			NamedRelation old = newRelations.get(reln.getName());
+			newRelations = newRelations.plus(reln.getName(), reln);
+			if (views.get(reln.getName()) != null) {
+				continue;
+			}
+			if (old != null) {
+				for (Attribute attr : old.getAttributes()) {
+					// only the old relation's own entry is dropped, not another relation's attribute of the same name
+					if (!reln.contains(attr) && newAttributes.get(attr.getName()) == attr) {
+						newAttributes = newAttributes.minus(attr.getName());
+					}
+				}
+			}
+			for (Attribute attr : reln.getAttributes()) {
+				newAttributes = newAttributes.plus(attr.getName(), attr);
+			}
+		}
+		return new CatalogueSnapshot(version, newRelations, newAttributes, constraints, views);
+	}
+
+	/**
+	 * Return the next version of this snapshot, with the given attribute
+	 * added to the directory and the given relation replacing any with the
+	 * same name.
+	 * @param reln
+	 * @param attr
+	 * @return
+	 */
+	CatalogueSnapshot withAttribute(NamedRelation reln, Attribute attr) {
+		return new CatalogueSnapshot(version + 1, relations.plus(reln.getName(), reln),
+				attributes.plus(attr.getName(), attr), constraints, views);
+	}
+
+	/**
+	 * Return the next version of this snapshot, with the given key
+	 * constraints in place of its own.
+	 * @param constraints
+	 * @return
+	 */
+	CatalogueSnapshot withConstraints(KeyConstraints constraints) {
+		return new CatalogueSnapshot(version + 1, relations, attributes, constraints, views);
+	}
+
+	/**
+	 * Return the next version of this snapshot, with the given view added
+	 * and its relation replacing any with the same name, leaving the
+	 * attribute directory unchanged.
+	 * @param view
+	 * @param reln
+	 * @return
+	 */
+	CatalogueSnapshot withView(MaterialisedView view, NamedRelation reln) {
+		return new CatalogueSnapshot(version + 1, relations.plus(reln.getName(), reln), attributes, constraints,
+				views.plus(view.getName(), view));
+	}
+}
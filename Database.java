@@ -0,0 +1,242 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class is a simple in-memory store of the tuples of named
+ * relations, from which query plans can be executed by an Executor.
+ * Tuples are arrays of values in the order of the relation's attributes
+ * in the catalogue, as for StatisticsMaintainer.
+ *
+ * Each relation has a version number, which is incremented whenever its
+ * tuples are changed, so that anything derived from them (such as a
+ * cached query result) can tell whether it is stale. The versions may
+ * be read while another thread changes a relation.
+ *
+ * The tuples of a partition of a partitioned relation (see Partitioning)
+ * are returned under the name of the partition's relation. They are
+ * taken from the relation's tuples when first asked for, and again after
+ * the relation has changed.
+ */
+public class Database {
+	private final Catalogue catalogue;
+	private final Map<String, List<String[]>> tables = new HashMap<String, List<String[]>>();
+	private final Map<String, Long> versions = new ConcurrentHashMap<String, Long>();
+	// the tuples of each partition of a partitioned relation, taken from the version of the relation in partitionVersions
+	private final Map<String, List<List<String[]>>> partitions = new HashMap<String, List<List<String[]>>>();
+	private final Map<String, Long> partitionVersions = new HashMap<String, Long>();
+	private final Map<String, Partitioning> partitionedBy = new HashMap<String, Partitioning>();
+
+	/**
+	 * Create an empty database for the relations of a catalogue.
+	 * @param catalogue
+	 */
+	public Database(Catalogue catalogue) {
+		this.catalogue = catalogue;
+	}
+
+	/**
+	 * Return the catalogue of the database.
+	 * @return
+	 */
+	public Catalogue getCatalogue() {
+		return catalogue;
+	}
+
+	/**
+	 * Add a tuple to a relation.
+	 * @param relName
+	 * @param tuple
+	 * @throws DatabaseException if there is no such relation, or the tuple
+	 * has the wrong number of values
+	 */
+	public void insert(String relName, String[] tuple) throws DatabaseException {
+		int arity = catalogue.getRelation(relName).getAttributes().size();
+		if (tuple.length != arity) {
+			throw new DatabaseException("Tuple of " + tuple.length + " values for relation " + relName + " of " + arity + " attributes");
+		}
+		table(relName).add(tuple);
+		changed(relName);
+	}
+
+	/**
+	 * Remove one occurrence of each of the given tuples from a relation,
+	 * returning the tuples removed. Tuples that do not occur in the
+	 * relation are ignored.
+	 * @param relName
+	 * @param tuples
+	 * @return
+	 */
+	public List<String[]> delete(String relName, List<String[]> tuples) {
+		Map<List<String>, Integer> remaining = new HashMap<List<String>, Integer>();
+		for (String[] tuple : tuples) {
+			remaining.merge(Arrays.asList(tuple), 1, Integer::sum);
+		}
+		List<String[]> kept = new ArrayList<String[]>();
+		List<String[]> removed = new ArrayList<String[]>();
+		for (String[] tuple : table(relName)) {
+			List<String> key = Arrays.asList(tuple);
+			Integer count = remaining.get(key);
+			if (count != null) {
+				if (count == 1) {
+					remaining.remove(key);
+				} else {
+					remaining.put(key, count - 1);
+				}
+				removed.add(tuple);
+			} else {
+				kept.add(tuple);
+			}
+		}
+		tables.put(relName, kept);
+		if (!removed.isEmpty()) {
+			changed(relName);
+		}
+		return removed;
+	}
+
+	/**
+	 * Replace the tuples of a relation with the given list, which is
+	 * shared rather than copied.
+	 * @param relName
+	 * @param tuples
+	 * @throws DatabaseException if there is no such relation
+	 */
+	public void load(String relName, List<String[]> tuples) throws DatabaseException {
+		catalogue.getRelation(relName);
+		tables.put(relName, tuples);
+		changed(relName);
+	}
+
+	/**
+	 * Return the version number of a relation's tuples, which is 0 until
+	 * they are first changed.
+	 * @param relName
+	 * @return
+	 */
+	public long getVersion(String relName) {
+		Long version = versions.get(relName);
+		return version != null ? version : 0;
+	}
+
+	private void changed(String relName) {
+		versions.merge(relName, 1L, Long::sum);
+	}
+
+	/**
+	 * Return the tuples of a relation.
+	 * @param relName
+	 * @return
+	 */
+	public List<String[]> getTuples(String relName) {
+		List<String[]> tuples = tables.get(relName);
+		if (tuples == null && Partitioning.parentName(relName) != null) {
+			tuples = getPartition(Partitioning.parentName(relName), Partitioning.partitionIndex(relName));
+		}
+		return tuples != null ? Collections.unmodifiableList(tuples) : Collections.<String[]>emptyList();
+	}
+
+	/**
+	 * Partition a relation, computing the statistics of each partition
+	 * from the relation's tuples, and publishing them in the catalogue
+	 * (see Catalogue.partition()).
+	 * @param relName
+	 * @param partitioning
+	 * @throws DatabaseException if there is no such relation
+	 */
+	public void partition(String relName, Partitioning partitioning) throws DatabaseException {
+		NamedRelation reln = catalogue.getRelation(relName);
+		catalogue.partition(relName, partitioning.analyze(reln, getTuples(relName)));
+	}
+
+	// The tuples of a partition of a relation, or null if the relation is not partitioned
+	private List<String[]> getPartition(String relName, int partition) {
+		NamedRelation reln = catalogue.lookupRelation(relName);
+		Partitioning partitioning = reln != null ? reln.getPartitioning() : null;
+		if (partitioning == null || partition >= partitioning.getPartitionCount()) {
+			return null;
+		}
+		List<List<String[]>> split = partitions.get(relName);
+		Long version = partitionVersions.get(relName);
+		if (split == null || version == null || version != getVersion(relName) || partitionedBy.get(relName) != partitioning) {
+			int position = reln.getAttributes().indexOf(partitioning.getAttribute());
+			split = new ArrayList<List<String[]>>();
+			for (int i = 0; i < partitioning.getPartitionCount(); i++) {
+				split.add(new ArrayList<String[]>());
+			}
+			for (String[] tuple : getTuples(relName)) {
+				int p = partitioning.partitionOf(tuple[position]);
+				if (p >= 0) {
+					split.get(p).add(tuple);
+				}
+			}
+			partitions.put(relName, split);
+			partitionVersions.put(relName, getVersion(relName));
+			partitionedBy.put(relName, partitioning);
+		}
+		return split.get(partition);
+	}
+
+	private List<String[]> table(String relName) {
+		List<String[]> tuples = tables.get(relName);
+		if (tuples == null) {
+			tuples = new ArrayList<String[]>();
+			tables.put(relName, tuples);
+		}
+		return tuples;
+	}
+
+	/**
+	 * Create a database whose relations match the statistics of the given
+	 * relations in the catalogue: each has its tuple count, and each
+	 * attribute takes its number of distinct values, spread uniformly
+	 * over its range if it has one, or numbered from 0 otherwise. An
+	 * attribute with a value for every tuple is a key, with values
+	 * 0..T(R)-1 in order, so that references numbered from 0 match keys.
+	 * @param catalogue
+	 * @param relNames
+	 * @param seed
+	 * @return
+	 * @throws DatabaseException if there is no such relation
+	 */
+	public static Database generate(Catalogue catalogue, List<String> relNames, long seed) throws DatabaseException {
+		Database db = new Database(catalogue);
+		Random random = new Random(seed);
+		for (String relName : relNames) {
+			NamedRelation reln = catalogue.getRelation(relName);
+			List<Attribute> attributes = reln.getAttributes();
+			List<String[]> tuples = db.table(relName);
+			for (int t = 0; t < reln.getTupleCount(); t++) {
+				String[] tuple = new String[attributes.size()];
+				for (int i = 0; i < tuple.length; i++) {
+					Attribute attr = attributes.get(i);
+					int values = Math.max(1, attr.getValueCount());
+					int index = values >= reln.getTupleCount() ? t : random.nextInt(values);
+					tuple[i] = value(attr, index, values);
+				}
+				tuples.add(tuple);
+			}
+		}
+		return db;
+	}
+
+	private static String value(Attribute attr, int index, int values) {
+		if (!attr.hasRange()) {
+			return Integer.toString(index);
+		}
+		double min = attr.getMinValue();
+		double max = attr.getMaxValue();
+		double value = values > 1 ? min + (max - min) * index / (values - 1) : min;
+		if (min == Math.rint(min) && max == Math.rint(max)) {
+			return Long.toString(Math.round(value));
+		}
+		return Double.toString(value);
+	}
+}
@@ -0,0 +1,94 @@
+package sjdb;
+
+import java.util.Arrays;
+
+/**
+ * This class estimates the number of distinct values added to it, using
+ * the HyperLogLog algorithm with 2^10 registers (a standard error of
+ * about 3%). Sketches are mergeable: the sketch of the union of two sets
+ * of values is the merge of their sketches. Values cannot be removed.
+ */
+public class DistinctCountSketch {
+	private static final int PRECISION = 10;
+	private static final int REGISTERS = 1 << PRECISION;
+	private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+
+	private final byte[] registers;
+
+	public DistinctCountSketch() {
+		this.registers = new byte[REGISTERS];
+	}
+
+	/**
+	 * Create a copy of a sketch.
+	 * @param sketch
+	 */
+	public DistinctCountSketch(DistinctCountSketch sketch) {
+		this.registers = Arrays.copyOf(sketch.registers, REGISTERS);
+	}
+
+	/**
+	 * Add a value to the sketch.
+	 * @param value
+	 */
+	public void add(String value) {
+		long hash = hash(value);
+		int register = (int) (hash >>> (64 - PRECISION));
+		// rank of the first 1 bit in the remaining bits (the sentinel bit bounds it)
+		int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+		if (rank > registers[register]) {
+			registers[register] = (byte) rank;
+		}
+	}
+
+	/**
+	 * Merge another sketch into this one.
+	 * @param sketch
+	 */
+	public void merge(DistinctCountSketch sketch) {
+		for (int i = 0; i < REGISTERS; i++) {
+			if (sketch.registers[i] > registers[i]) {
+				registers[i] = sketch.registers[i];
+			}
+		}
+	}
+
+	/**
+	 * Return the estimated number of distinct values added to the sketch.
+	 * @return
+	 */
+	public long estimate() {
+		double sum = 0;
+		int zeros = 0;
+		for (int i = 0; i < REGISTERS; i++) {
+			sum += 1.0 / (1L << registers[i]);
+			if (registers[i] == 0) {
+				zeros++;
+			}
+		}
+		double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+		if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+			// linear counting is more accurate for small cardinalities
+			estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+		}
+		return Math.round(estimate);
+	}
+
+	/*
+	 * 64-bit FNV-1a over the characters of the value, followed by the
+	 * MurmurHash3 finaliser to spread the bits. Also used by BloomFilter.
+	 */
+	static long hash(String value) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			h ^= value.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,241 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class executes distributed query plans (see Optimiser.setWorkers())
+ * against a Database on a number of simulated workers, each a thread of
+ * its own standing in for a node, so that distributed plans can be run
+ * and checked on a single machine.
+ *
+ * Each worker holds a share of every relation, as Distribution.of()
+ * describes: a relation hash partitioned into one partition per worker
+ * has partition i on worker i, and the tuples of any other relation are
+ * dealt to the workers in turn.
+ *
+ * A plan is executed in stages, one for each Exchange operator, from the
+ * bottom up. The fragment of the plan below an exchange, down to the
+ * relations and to the exchanges below it, is executed by every worker
+ * at once on the tuples that it holds, each with an Executor of its own;
+ * the tuples that each worker produces are then sent to the workers that
+ * the exchange directs them to, to be scanned by the fragment above it.
+ * The fragment above the topmost exchanges (normally just the gather at
+ * the root of the plan) is executed last, and the tuples that it produces
+ * on every worker are returned. The tuples sent from one worker to
+ * another, and their size (see Exchange.bytes()), are counted, so that
+ * they can be compared with the Optimiser's estimates.
+ */
+public class DistributedExecutor {
+	// prefix of the names of the tuples sent by each exchange, which cannot be the name of a relation
+	private static final String EXCHANGE_PREFIX = "@exchange";
+
+	private final Database database;
+	private final int workers;
+	private final long rowLimit;
+	private List<Attribute> attributes;
+	private long tuplesSent;
+	private long bytesSent;
+
+	/**
+	 * Create an executor that runs plans on a number of workers, with the
+	 * default row limit for each operator on each worker.
+	 * @param database
+	 * @param workers
+	 */
+	public DistributedExecutor(Database database, int workers) {
+		this(database, workers, Executor.DEFAULT_ROW_LIMIT);
+	}
+
+	/**
+	 * Create an executor that runs plans on a number of workers, failing
+	 * any operator that would produce more than rowLimit tuples on a
+	 * worker.
+	 * @param database
+	 * @param workers
+	 * @param rowLimit
+	 */
+	public DistributedExecutor(Database database, int workers, long rowLimit) {
+		this.database = database;
+		this.workers = workers;
+		this.rowLimit = rowLimit;
+	}
+
+	/**
+	 * Execute a plan distributed over the same number of workers, and
+	 * return the tuples it produces.
+	 * @param plan
+	 * @return
+	 */
+	public List<String[]> execute(Operator plan) {
+		tuplesSent = 0;
+		bytesSent = 0;
+		// the tuples held by each worker, of each relation scanned so far and sent by each exchange executed so far
+		Map<String, List<List<String[]>>> held = new HashMap<String, List<List<String[]>>>();
+		PlanFactory factory = new PlanFactory();
+		int[] exchanges = { 0 };
+		ExecutorService pool = Executors.newFixedThreadPool(workers);
+		try {
+			// each exchange is executed as the plan is rewritten bottom-up, and replaced by a scan of the tuples it sent
+			Operator top = PlanTraversal.rewrite(plan, (op, inputs, state) -> {
+				if (!(op instanceof Exchange)) {
+					return factory.copy(op, inputs);
+				}
+				Executor[] executors = new Executor[workers];
+				List<List<String[]>> produced = run(pool, inputs.get(0), held, executors);
+				List<List<String[]>> sent = send((Exchange) op, produced, executors[0].getAttributes());
+				int count = 0;
+				for (List<String[]> tuples : sent) {
+					count += tuples.size();
+				}
+				NamedRelation reln = new NamedRelation(EXCHANGE_PREFIX + exchanges[0]++, count);
+				for (Attribute attr : executors[0].getAttributes()) {
+					reln.addAttribute(attr);
+				}
+				held.put(reln.getName(), sent);
+				return factory.scan(reln);
+			});
+			Executor[] executors = new Executor[workers];
+			List<String[]> tuples = new ArrayList<String[]>();
+			for (List<String[]> produced : run(pool, top, held, executors)) {
+				tuples.addAll(produced);
+			}
+			attributes = executors[0].getAttributes();
+			return tuples;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Return the attributes of the tuples returned by the last plan
+	 * executed, in order.
+	 * @return
+	 */
+	public List<Attribute> getAttributes() {
+		return attributes;
+	}
+
+	/**
+	 * Return the number of tuples that the last plan executed sent from
+	 * one worker to another.
+	 * @return
+	 */
+	public long getTuplesSent() {
+		return tuplesSent;
+	}
+
+	/**
+	 * Return the number of bytes that the last plan executed sent from
+	 * one worker to another.
+	 * @return
+	 */
+	public long getBytesSent() {
+		return bytesSent;
+	}
+
+	public int getWorkers() {
+		return workers;
+	}
+
+	// Execute a fragment of a plan on every worker at once, returning the tuples that each produces, and leaving the executor
+	// that each used in executors
+	private List<List<String[]>> run(ExecutorService pool, Operator fragment, Map<String, List<List<String[]>>> held,
+			Executor[] executors) {
+		// the relations are shared out before the workers start, since a Database may not be read by several threads at once
+		PlanTraversal.preOrder(fragment, op -> {
+			if (op instanceof Scan) {
+				NamedRelation reln = (NamedRelation) ((Scan) op).getRelation();
+				held.computeIfAbsent(reln.getName(), name -> share(reln));
+			}
+		});
+		List<Callable<List<String[]>>> tasks = new ArrayList<Callable<List<String[]>>>();
+		for (int w = 0; w < workers; w++) {
+			int worker = w;
+			executors[worker] = new Executor(new Database(database.getCatalogue()) {
+				public List<String[]> getTuples(String relName) {
+					return held.get(relName).get(worker);
+				}
+			}, rowLimit);
+			tasks.add(() -> executors[worker].execute(fragment));
+		}
+		List<List<String[]>> produced = new ArrayList<List<String[]>>();
+		try {
+			for (Future<List<String[]>> future : pool.invokeAll(tasks)) {
+				produced.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while executing " + fragment, e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException("Failed to execute " + fragment, e.getCause());
+		}
+		return produced;
+	}
+
+	// Share the tuples of a relation out among the workers
+	private List<List<String[]>> share(NamedRelation reln) {
+		List<List<String[]>> shares = new ArrayList<List<String[]>>();
+		if (Distribution.of(reln, workers).getKind() == Distribution.Kind.HASHED) {
+			for (int w = 0; w < workers; w++) {
+				shares.add(database.getTuples(Partitioning.partitionName(reln.getName(), w)));
+			}
+			return shares;
+		}
+		for (int w = 0; w < workers; w++) {
+			shares.add(new ArrayList<String[]>());
+		}
+		List<String[]> tuples = database.getTuples(reln.getName());
+		for (int i = 0; i < tuples.size(); i++) {
+			shares.get(i % workers).add(tuples.get(i));
+		}
+		return shares;
+	}
+
+	// Send the tuples produced by each worker to the workers that an exchange directs them to, counting those that move
+	private List<List<String[]>> send(Exchange exchange, List<List<String[]>> produced, List<Attribute> attributes) {
+		if (exchange.getKind() == Exchange.Kind.BROADCAST) {
+			List<String[]> all = new ArrayList<String[]>();
+			for (int w = 0; w < workers; w++) {
+				all.addAll(produced.get(w));
+				for (String[] tuple : produced.get(w)) {
+					tuplesSent += workers - 1;
+					bytesSent += (workers - 1) * Exchange.bytes(tuple);
+				}
+			}
+			return Collections.nCopies(workers, Collections.unmodifiableList(all));
+		}
+
+		List<List<String[]>> sent = new ArrayList<List<String[]>>();
+		for (int w = 0; w < workers; w++) {
+			sent.add(new ArrayList<String[]>());
+		}
+		boolean shuffle = exchange.getKind() == Exchange.Kind.SHUFFLE;
+		int position = shuffle ? attributes.indexOf(exchange.getAttribute()) : -1;
+		if (shuffle && position < 0) {
+			throw new IllegalStateException("Attribute " + exchange.getAttribute() + " is not in the input");
+		}
+		for (int w = 0; w < workers; w++) {
+			for (String[] tuple : produced.get(w)) {
+				int to = shuffle ? Distribution.workerOf(tuple[position], workers) : 0;
+				sent.get(to).add(tuple);
+				if (to != w) {
+					tuplesSent++;
+					bytesSent += Exchange.bytes(tuple);
+				}
+			}
+		}
+		return sent;
+	}
+}
@@ -0,0 +1,130 @@
+package sjdb;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * This class describes how the output of an operator of a distributed
+ * plan is spread over the workers that execute it:
+ *
+ * on a single worker (the output of a gather);
+ *
+ * hashed on one or more attributes, with each tuple on the worker chosen
+ * by the hash of its value of any of them (the attributes of a join
+ * predicate hold equal values, so the output of a join of inputs hashed
+ * on their join attributes is hashed on both);
+ *
+ * replicated, with every tuple on every worker (the output of a
+ * broadcast);
+ *
+ * or spread in some other way, as a relation is when its tuples are
+ * dealt to the workers in turn.
+ *
+ * The Optimiser places Exchange operators where an operator needs its
+ * input distributed differently (see Optimiser.setWorkers()).
+ */
+public class Distribution {
+	/**
+	 * The ways in which tuples may be spread over the workers
+	 */
+	public enum Kind { SINGLE, HASHED, REPLICATED, ANY }
+
+	static final Distribution SINGLE = new Distribution(Kind.SINGLE, Collections.<Attribute>emptySet());
+	static final Distribution REPLICATED = new Distribution(Kind.REPLICATED, Collections.<Attribute>emptySet());
+	static final Distribution ANY = new Distribution(Kind.ANY, Collections.<Attribute>emptySet());
+
+	private final Kind kind;
+	private final Set<Attribute> attributes;
+
+	private Distribution(Kind kind, Set<Attribute> attributes) {
+		this.kind = kind;
+		this.attributes = attributes;
+	}
+
+	/**
+	 * Return the distribution of tuples hashed on any of the given
+	 * attributes.
+	 * @param attributes
+	 * @return
+	 */
+	static Distribution hashed(Set<Attribute> attributes) {
+		return new Distribution(Kind.HASHED, Collections.unmodifiableSet(new HashSet<Attribute>(attributes)));
+	}
+
+	/**
+	 * Return the distribution of the tuples of a named relation over a
+	 * number of workers. A relation hash partitioned into one partition
+	 * per worker (see Partitioning) is held with partition i on worker i,
+	 * and so is hashed on its partitioning attribute; the tuples of any
+	 * other relation are dealt to the workers in turn.
+	 * @param reln
+	 * @param workers
+	 * @return
+	 */
+	static Distribution of(NamedRelation reln, int workers) {
+		Partitioning partitioning = reln.getPartitioning();
+		if (partitioning != null && partitioning.getKind() == Partitioning.Kind.HASH && partitioning.getPartitionCount() == workers) {
+			return hashed(Collections.singleton(partitioning.getAttribute()));
+		}
+		return ANY;
+	}
+
+	/**
+	 * Return the worker to which a tuple with a value of the attribute on
+	 * which tuples are hashed belongs, as Partitioning.partitionOf()
+	 * assigns it to a hash partition.
+	 * @param value
+	 * @param workers
+	 * @return
+	 */
+	static int workerOf(String value, int workers) {
+		return Math.floorMod(value.hashCode(), workers);
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * Return the attributes on which tuples are hashed, which is empty
+	 * unless they are.
+	 * @return
+	 */
+	public Set<Attribute> getAttributes() {
+		return attributes;
+	}
+
+	/**
+	 * Return true if tuples are hashed on an attribute, so that every
+	 * tuple with a given value of it is on the same worker.
+	 * @param attribute
+	 * @return
+	 */
+	public boolean isHashedOn(Attribute attribute) {
+		return kind == Kind.HASHED && attributes.contains(attribute);
+	}
+
+	/**
+	 * Return this distribution for the output of an operator that keeps
+	 * only the given attributes of its input's tuples.
+	 * @param kept
+	 * @return
+	 */
+	Distribution project(AttributeSet kept) {
+		if (kind != Kind.HASHED) {
+			return this;
+		}
+		Set<Attribute> remaining = new HashSet<Attribute>();
+		for (Attribute attr : attributes) {
+			if (kept.contains(attr)) {
+				remaining.add(attr);
+			}
+		}
+		return remaining.isEmpty() ? ANY : hashed(remaining);
+	}
+
+	public String toString() {
+		return kind == Kind.HASHED ? kind + " " + attributes : kind.toString();
+	}
+}
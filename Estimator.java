@@ -1,14 +1,46 @@
 package sjdb;
 
-import java.util.List;
+import java.util.WeakHashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.lang.*;
 
 public class Estimator implements PlanVisitor {
 
+	// Selectivity assumed for a range predicate when the attribute has no known range or the value is not numeric
+	static final double DEFAULT_RANGE_SELECTIVITY = 1.0 / 3.0;
+
+	// Number of operators visited, for OptimiserStatistics
+	private int visits = 0;
+
+	// Observed tuple counts used to correct estimates, if any, and the signatures of the operators visited so far
+	// (held weakly, since an estimator kept by a PlanFactory visits many operators that are soon discarded)
+	private final CardinalityFeedback feedback;
+	private final Map<Operator, CardinalityFeedback.Signature> signatures;
+
+	// Catalogue whose key constraints are used to estimate joins of foreign keys to the keys they reference, if any
+	private final CatalogueSnapshot snapshot;
 
 	public Estimator() {
-		// empty constructor
+		this(null);
+	}
+
+	// Create an estimator that corrects its estimates with the tuple counts observed in a feedback store
+	public Estimator(CardinalityFeedback feedback) {
+		this(feedback, null);
+	}
+
+	// Create an estimator that also uses the key constraints of a catalogue snapshot (either argument may be null)
+	public Estimator(CardinalityFeedback feedback, CatalogueSnapshot snapshot) {
+		this.feedback = feedback;
+		this.signatures = feedback != null ? new WeakHashMap<Operator, CardinalityFeedback.Signature>() : null;
+		this.snapshot = snapshot;
+	}
+
+	// Return the number of operators this estimator has visited
+	public int getVisits() {
+		return visits;
 	}
 
 	/* 
@@ -17,38 +49,42 @@ public class Estimator implements PlanVisitor {
 	 * Example implementation of visit method for Scan operators.
 	 */
 	public void visit(Scan op) {
+		visits++;
 		Relation input = op.getRelation();
 		Relation output = new Relation(input.getTupleCount());
 		
 		Iterator<Attribute> iter = input.getAttributes().iterator();
 		while (iter.hasNext()) {
-			output.addAttribute(new Attribute(iter.next()));
+			// attributes are immutable, so operators whose attributes are unchanged share them
+			output.addAttribute(iter.next());
 		}
 
-		op.setOutput(output);
+		op.setOutput(applyFeedback(op, output));
 	}
 
 	// Create output relation on Project operator
 	public void visit(Project op) {
+		visits++;
 		// get input relation and create empty output relation of same size
 		Relation input = op.getInput().getOutput();
 		Relation output = new Relation(input.getTupleCount());
 
-		List<Attribute> outputAttr = op.getAttributes();	// get output attributes
+		AttributeSet outputAttr = new AttributeSet(op.getAttributes());	// get output attributes
 		// if input attribute is an output attribute, it is added to the output relation
 		Iterator<Attribute> iter = input.getAttributes().iterator();
 		while (iter.hasNext()) {
 			Attribute attr = iter.next();
 			if (outputAttr.contains(attr)) {
-				output.addAttribute(new Attribute(attr));
+				output.addAttribute(attr);
 			}
 		}
 
-		op.setOutput(output);
+		op.setOutput(applyFeedback(op, output));
 	}
 
 	// Create output relation on Select operator
 	public void visit(Select op) {
+		visits++;
 		// get input relation
 		Relation input = op.getInput().getOutput();
 		Relation output;
@@ -57,17 +93,45 @@ public class Estimator implements PlanVisitor {
 		Predicate predicate = op.getPredicate();
 		Iterator<Attribute> iter = input.getAttributes().iterator();
 
-		if (predicate.equalsValue()){
+		if (predicate.isRange()){
+			// Case 1a: attr < val, attr <= val, attr > val or attr >= val
+			Attribute attr = input.getAttribute(predicate.getLeftAttribute());
+			double selectivity = rangeSelectivity(attr, predicate);
+
+			// In this case, output relation has size T(R)*sel, where sel is the fraction of the range [min, max] satisfying the predicate,
+			// or the sum of the sizes estimated in the same way for the partitions of a partitioned relation
+			double partitioned = partitionedTupleCount(op.getInput(), predicate);
+			output = new Relation((int) Math.ceil(partitioned >= 0 ? partitioned : input.getTupleCount() * selectivity));
+			while (iter.hasNext()) {
+				Attribute attrTemp = iter.next();
+				if (attrTemp.equals(attr)){
+					// value count and range of the attribute shrink with the fraction of the range that is kept
+					output.addAttribute(restrictRange(attrTemp, predicate, selectivity));
+				}else{
+					output.addAttribute(attrTemp);
+				}
+			}
+		}else if (predicate.equalsValue()){
 			// Case 1: attr = val
 			Attribute attr = input.getAttribute(predicate.getLeftAttribute());	// only get left attribute since right attribute is a constant value
 
-			// In this case, output relation has size T(R)/V(R, attribute)
-			output = new Relation((int) Math.ceil(input.getTupleCount() / attr.getValueCount()));
+			// In this case, output relation has size T(R)/V(R, attribute), or the sum of the sizes estimated in the same way for the
+			// partitions of a partitioned relation that can hold the value, or 0 if the value is outside the range of the attribute
+			Double value = numericValue(predicate.getRightValue());
+			boolean outside = attr.hasRange() && value != null && (value < attr.getMinValue() || value > attr.getMaxValue());
+			double partitioned = partitionedTupleCount(op.getInput(), predicate);
+			output = new Relation(outside ? 0 : partitioned >= 0 ? (int) Math.ceil(partitioned)
+					: (int) Math.ceil(input.getTupleCount() / Math.max(1, attr.getValueCount())));
 			while (iter.hasNext()) {
 				Attribute attrTemp = iter.next();
 				if (attrTemp.equals(attr)){
-					// value count of the attribute in this particular case is 1
-					output.addAttribute(new Attribute(attrTemp.getName(), 1));
+					// value count of the attribute in this particular case is 1 (0 outside its range), and its range is the value
+					// itself, so that a later range predicate on the attribute keeps all of the tuples or none
+					if (attrTemp.hasRange() && value != null) {
+						output.addAttribute(new Attribute(attrTemp.getName(), outside ? 0 : 1, value, value));
+					} else {
+						output.addAttribute(new Attribute(attrTemp.getName(), 1));
+					}
 				}else{
 					output.addAttribute(attrTemp);
 				}
@@ -77,60 +141,73 @@ public class Estimator implements PlanVisitor {
 			Attribute left_attr = input.getAttribute(predicate.getLeftAttribute());		// get left attribute in predicate
 			Attribute right_attr = input.getAttribute(predicate.getRightAttribute());    // get right attribute in predicate
 
-			// In this case, output relation has size T(R)/max(V(R, left_attr), V(R, right_attr))
-			Integer tupleCount = Math.max(left_attr.getValueCount(), right_attr.getValueCount());
-			output = new Relation((int) Math.ceil(input.getTupleCount()/tupleCount));
+			// In this case, output relation has size T(R)/max(V(R, left_attr), V(R, right_attr)),
+			// or T(R)/T(S) if the predicate joins a foreign key to the key of S that it references
+			int keyTuples = referencedTupleCount(left_attr, right_attr);
+			Integer tupleCount = keyTuples > 0 ? keyTuples : Math.max(left_attr.getValueCount(), right_attr.getValueCount());
+			output = new Relation((int) Math.ceil(input.getTupleCount()/Math.max(1, tupleCount)));
 			while (iter.hasNext()) {
 				Attribute attrTemp = iter.next();
 				if (attrTemp.equals(left_attr) || attrTemp.equals(right_attr)){
 					// value count in case of both attributes is min(V(R, left_attr), V(R, right_attr))
 					Integer valueCount = Math.min(left_attr.getValueCount(), right_attr.getValueCount());
-					output.addAttribute(new Attribute(attrTemp.getName(), valueCount));
+					output.addAttribute(new Attribute(attrTemp, valueCount));
 				}else{
 					output.addAttribute(attrTemp);
 				}
 			}
 		}
 
-		op.setOutput(output);
+		op.setOutput(applyFeedback(op, output));
 	}
 	
 	public void visit(Product op) {
+		visits++;
 		// get relations to the left and right of the product operator (since it is a binary operator and takes 2 input relations)
 		Relation left_input = op.getLeft().getOutput();
 		Relation right_input = op.getRight().getOutput();
 
 		// size of output relation will be the product of the sizes of the 2 relations
-		Relation output = new Relation(left_input.getTupleCount() * right_input.getTupleCount());
+		Relation output = new Relation(saturate((long) left_input.getTupleCount() * right_input.getTupleCount()));
 
 		// get attributes of left relation
 		Iterator<Attribute> left_iter = left_input.getAttributes().iterator();
 		while (left_iter.hasNext()) {
-			output.addAttribute(new Attribute(left_iter.next()));
+			output.addAttribute(left_iter.next());
 		}
 
 		// get attributes of right relation
 		Iterator<Attribute> right_iter = right_input.getAttributes().iterator();
 		while (right_iter.hasNext()) {
-			output.addAttribute(new Attribute(right_iter.next()));
+			output.addAttribute(right_iter.next());
 		}
 
-		op.setOutput(output);
+		op.setOutput(applyFeedback(op, output));
 	}
 	
 	public void visit(Join op) {
+		visits++;
 		// get left and right inputs of binary operator join
 		Relation left_input = op.getLeft().getOutput();
 		Relation right_input = op.getRight().getOutput();
 		Predicate predicate = op.getPredicate();
 
-		// get attributes on which join is performed
-		Attribute left_attr = left_input.getAttribute(predicate.getLeftAttribute());
-		Attribute right_attr = right_input.getAttribute(predicate.getRightAttribute());
+		// get attributes on which join is performed; reordering may have placed the predicate's left attribute on the right input
+		Attribute left_attr, right_attr;
+		if (left_input.contains(predicate.getLeftAttribute())) {
+			left_attr = left_input.getAttribute(predicate.getLeftAttribute());
+			right_attr = right_input.getAttribute(predicate.getRightAttribute());
+		} else {
+			left_attr = left_input.getAttribute(predicate.getRightAttribute());
+			right_attr = right_input.getAttribute(predicate.getLeftAttribute());
+		}
 
-		// In this case, output relation has size T(R)*T(S)/max(V(R, left_attr), V(S, right_attr))
-		Integer tupleCount = Math.max(left_attr.getValueCount(), right_attr.getValueCount());
-		Relation output = new Relation((int) Math.ceil(left_input.getTupleCount() * right_input.getTupleCount()/tupleCount));
+		// In this case, output relation has size T(R)*T(S)/max(V(R, left_attr), V(S, right_attr)); if the predicate joins
+		// a foreign key to the key it references, each tuple with the foreign key matches T(S)/T(K) tuples of S on average,
+		// where K is the relation of the key, since every value of the foreign key is one of the T(K) values of the key
+		int keyTuples = referencedTupleCount(left_attr, right_attr);
+		Integer tupleCount = keyTuples > 0 ? keyTuples : Math.max(left_attr.getValueCount(), right_attr.getValueCount());
+		Relation output = new Relation(saturate((long) left_input.getTupleCount() * right_input.getTupleCount()/Math.max(1, tupleCount)));
 
 		// value count in case of both attributes is min(V(R, left_attr), V(S, right_attr))
 		Integer valueCount = Math.min(left_attr.getValueCount(), right_attr.getValueCount());
@@ -140,7 +217,7 @@ public class Estimator implements PlanVisitor {
 		while (left_iter.hasNext()) {
 			Attribute attr = left_iter.next();
 			if (attr.equals(left_attr)){
-				output.addAttribute(new Attribute(attr.getName(), valueCount));
+				output.addAttribute(new Attribute(attr, valueCount));
 			}else {
 				// For an attribute that is not a join attribute the value count is the same
 				output.addAttribute(attr);
@@ -152,13 +229,193 @@ public class Estimator implements PlanVisitor {
 		while (right_iter.hasNext()) {
 			Attribute attr = right_iter.next();
 			if (attr.equals(right_attr)){
-				output.addAttribute(new Attribute(attr.getName(), valueCount));
+				output.addAttribute(new Attribute(attr, valueCount));
 			}else {
 				// For an attribute that is not a join attribute the value count is the same
 				output.addAttribute(attr);
 			}
 		}
 
+		op.setOutput(applyFeedback(op, output));
+	}
+
+	// Create output relation on Exchange operator: the tuples of the input, however they are spread over the workers
+	public void visit(Exchange op) {
+		visits++;
+		Relation input = op.getInput().getOutput();
+		Relation output = new Relation(input.getTupleCount());
+		for (Attribute attr : input.getAttributes()) {
+			output.addAttribute(attr);
+		}
+		// the input's estimate has already been corrected by any feedback
 		op.setOutput(output);
 	}
+
+	/*
+	 * Estimate the tuple count of a scan of an estimated plan after the runtime filters applied to it (see RuntimeFilter).
+	 * A filter passes the tuples whose probe values are among the values of its join's build input, of which there are at most as
+	 * many as the build input has tuples, taking the smaller set of values to be contained in the larger as for a join, and its
+	 * false positive rate of the rest. Filters are taken to be independent.
+	 */
+	public static int estimateFiltered(Scan scan, List<RuntimeFilter> filters) {
+		Relation output = scan.getOutput();
+		double tuples = output.getTupleCount();
+		for (RuntimeFilter filter : filters) {
+			Relation build = filter.getJoin().getRight().getOutput();
+			double buildValues = Math.min(build.getAttribute(filter.getBuildAttribute()).getValueCount(), build.getTupleCount());
+			double selectivity = Math.min(1.0, buildValues / Math.max(1, output.getAttribute(filter.getProbeAttribute()).getValueCount()));
+			tuples *= selectivity + (1 - selectivity) * BloomFilter.DEFAULT_FALSE_POSITIVE_RATE;
+		}
+		return saturate(Math.round(tuples));
+	}
+
+	// The estimated size of the output of a select on a value over a scan of a partitioned relation, summed over its partitions
+	// (only the partition that can hold the value, for an equality on the partitioning attribute), or -1 if the input is not such a scan
+	private static double partitionedTupleCount(Operator input, Predicate predicate) {
+		if (!(input instanceof Scan) || ((NamedRelation) ((Scan) input).getRelation()).getPartitioning() == null) {
+			return -1;
+		}
+		Partitioning partitioning = ((NamedRelation) ((Scan) input).getRelation()).getPartitioning();
+		Attribute attr = predicate.getLeftAttribute();
+		int only = -1;
+		if (predicate.getComparison() == Predicate.Comparison.EQUALS && attr.equals(partitioning.getAttribute())) {
+			only = partitioning.partitionOf(predicate.getRightValue());
+			if (only < 0) {
+				return 0;
+			}
+		}
+		double tupleCount = 0;
+		for (int p = 0; p < partitioning.getPartitionCount(); p++) {
+			if (only >= 0 && p != only) {
+				continue;
+			}
+			NamedRelation partition = partitioning.getPartition(p);
+			Attribute partAttr = partition.getAttribute(attr);
+			if (predicate.isRange()) {
+				tupleCount += partition.getTupleCount() * rangeSelectivity(partAttr, predicate);
+			} else {
+				tupleCount += (double) partition.getTupleCount() / Math.max(1, partAttr.getValueCount());
+			}
+		}
+		return tupleCount;
+	}
+
+	// Fraction of the tuples of a relation that satisfy a range predicate, taken from the attribute's histogram or interpolated over its [min, max]
+	static double rangeSelectivity(Attribute attr, Predicate predicate) {
+		Double value = numericValue(predicate.getRightValue());
+		if (value == null || !attr.hasRange()) {
+			return DEFAULT_RANGE_SELECTIVITY;
+		}
+		Histogram histogram = attr.getHistogram();
+		if (histogram != null && histogram.getTotal() > 0) {
+			return histogram.fraction(predicate.getComparison(), value);
+		}
+		double min = attr.getMinValue();
+		double max = attr.getMaxValue();
+		double fraction;
+		if (max <= min) {
+			// single-valued attribute - the predicate either keeps everything or nothing
+			fraction = satisfies(min, predicate.getComparison(), value) ? 1.0 : 0.0;
+		} else {
+			switch (predicate.getComparison()) {
+				case LESS:
+				case LESS_EQUALS:
+					fraction = (value - min) / (max - min);
+					break;
+				default:
+					fraction = (max - value) / (max - min);
+					break;
+			}
+			// inclusive comparisons also keep the tuples equal to the value
+			if ((predicate.getComparison() == Predicate.Comparison.LESS_EQUALS
+					|| predicate.getComparison() == Predicate.Comparison.GREATER_EQUALS)
+					&& value >= min && value <= max && attr.getValueCount() > 0) {
+				fraction += 1.0 / attr.getValueCount();
+			}
+		}
+		return Math.max(0.0, Math.min(1.0, fraction));
+	}
+
+	// Attribute left after applying a range predicate with the given selectivity
+	private Attribute restrictRange(Attribute attr, Predicate predicate, double selectivity) {
+		int valueCount = (int) Math.ceil(attr.getValueCount() * selectivity);
+		Double value = numericValue(predicate.getRightValue());
+		if (!attr.hasRange() || value == null) {
+			return new Attribute(attr, valueCount);
+		}
+		double min = attr.getMinValue();
+		double max = attr.getMaxValue();
+		switch (predicate.getComparison()) {
+			case LESS:
+			case LESS_EQUALS:
+				max = Math.max(min, Math.min(max, value));
+				break;
+			default:
+				min = Math.min(max, Math.max(min, value));
+				break;
+		}
+		return new Attribute(attr.getName(), valueCount, min, max);
+	}
+
+	// Tuple count of the relation of the key referenced, if one attribute is a foreign key referencing the other, or 0
+	private int referencedTupleCount(Attribute a, Attribute b) {
+		if (snapshot == null) {
+			return 0;
+		}
+		KeyConstraints constraints = snapshot.getConstraints();
+		Attribute key = constraints.references(a, b) ? b : constraints.references(b, a) ? a : null;
+		if (key == null) {
+			return 0;
+		}
+		NamedRelation relation = snapshot.lookupRelation(constraints.getKeyRelation(key));
+		return relation != null ? relation.getTupleCount() : 0;
+	}
+
+	// Output relation with its tuple count corrected by observed feedback; value counts are capped at the new tuple count
+	private Relation applyFeedback(Operator op, Relation output) {
+		if (feedback == null) {
+			return output;
+		}
+		CardinalityFeedback.Signature signature = CardinalityFeedback.Signature.of(op, signatures);
+		if (op instanceof Project) {
+			return output;
+		}
+		int corrected = saturate(feedback.correct(signature, output.getTupleCount()));
+		if (corrected == output.getTupleCount()) {
+			return output;
+		}
+		Relation adjusted = new Relation(corrected);
+		for (Attribute attr : output.getAttributes()) {
+			adjusted.addAttribute(attr);
+		}
+		return adjusted;
+	}
+
+	// Tuple count clamped to the range of an int, since products of large relations overflow
+	static int saturate(long tupleCount) {
+		return (int) Math.max(0, Math.min(Integer.MAX_VALUE, tupleCount));
+	}
+
+	static boolean satisfies(double attrValue, Predicate.Comparison comparison, double value) {
+		switch (comparison) {
+			case LESS:
+				return attrValue < value;
+			case LESS_EQUALS:
+				return attrValue <= value;
+			case GREATER:
+				return attrValue > value;
+			case GREATER_EQUALS:
+				return attrValue >= value;
+			default:
+				return attrValue == value;
+		}
+	}
+
+	static Double numericValue(String value) {
+		try {
+			return Double.valueOf(value);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,121 @@
+package sjdb;
+
+/**
+ * This class represents an Exchange operator, which moves the tuples of
+ * its input between the workers that execute a distributed plan (see
+ * DistributedExecutor). Its output holds the same tuples as its input,
+ * placed differently:
+ *
+ * a shuffle sends each tuple to the worker chosen by the hash of the
+ * value of an attribute, as Partitioning.hash() does, so that tuples
+ * with equal values meet on the same worker;
+ *
+ * a broadcast sends every tuple to every worker;
+ *
+ * a gather sends every tuple to the first worker, which returns the
+ * result.
+ */
+public class Exchange extends UnaryOperator {
+	/**
+	 * The ways in which an exchange moves tuples
+	 */
+	public enum Kind { SHUFFLE, BROADCAST, GATHER }
+
+	/**
+	 * Estimated size of a value sent between workers (see bytes()): the
+	 * length of the value and four characters.
+	 */
+	static final int VALUE_BYTES = 12;
+
+	private final Kind kind;
+	private final Attribute attribute;
+
+	/**
+	 * Create a new exchange operator.
+	 * @param input Child operator
+	 * @param kind Way in which tuples are moved
+	 * @param attribute Attribute by which tuples are shuffled, or null for
+	 * a broadcast or a gather
+	 */
+	public Exchange(Operator input, Kind kind, Attribute attribute) {
+		super(input);
+		this.kind = kind;
+		this.attribute = attribute;
+	}
+
+	public Kind getKind() {
+		return this.kind;
+	}
+
+	/**
+	 * Return the attribute by which tuples are shuffled, or null.
+	 * @return
+	 */
+	public Attribute getAttribute() {
+		return this.attribute;
+	}
+
+	/**
+	 * Return the estimated number of bytes that this exchange sends
+	 * between workers, from the estimated output of its input.
+	 * @param workers
+	 * @return
+	 */
+	public long getNetworkBytes(int workers) {
+		return networkBytes(this.kind, this.getInput().getOutput(), workers);
+	}
+
+	/**
+	 * Return the estimated number of bytes that an exchange of the given
+	 * kind would send between workers to move a relation spread evenly
+	 * over them: a shuffle or a gather keeps the tuples that are already
+	 * on the worker they are sent to, and a broadcast sends each tuple to
+	 * every worker but the one that holds it.
+	 * @param kind
+	 * @param input
+	 * @param workers
+	 * @return
+	 */
+	static long networkBytes(Kind kind, Relation input, int workers) {
+		double bytes = (double) input.getTupleCount() * input.getAttributes().size() * VALUE_BYTES;
+		if (kind == Kind.BROADCAST) {
+			return (long) (bytes * (workers - 1));
+		}
+		return (long) (bytes * (workers - 1) / workers);
+	}
+
+	/**
+	 * Return the number of bytes taken by a tuple sent between workers:
+	 * the length and the UTF-16 characters of each value.
+	 * @param tuple
+	 * @return
+	 */
+	static long bytes(String[] tuple) {
+		long bytes = 0;
+		for (String value : tuple) {
+			bytes += 4 + 2 * value.length();
+		}
+		return bytes;
+	}
+
+	protected void dispatch(PlanVisitor visitor) {
+		visitor.visit(this);
+	}
+
+	protected String[] getLabels() {
+		String label = this.kind + (this.attribute != null ? " [" + this.attribute + "] (" : " (");
+		return new String[] {label, ")"};
+	}
+
+	@Override
+	protected int parameterHashCode() {
+		return 31 * this.kind.hashCode() + (this.attribute != null ? this.attribute.hashCode() : 0);
+	}
+
+	@Override
+	protected boolean parametersEqual(Operator op) {
+		Exchange exchange = (Exchange) op;
+		return this.kind == exchange.kind
+				&& (this.attribute == null ? exchange.attribute == null : this.attribute.equals(exchange.attribute));
+	}
+}
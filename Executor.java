@@ -0,0 +1,649 @@
+package sjdb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * This class executes query plans against a Database. Each operator is
+ * evaluated in full, in the depth-first order in which it is visited,
+ * and its output is held in memory until the operator above it has
+ * consumed it. Joins are hash joins; products are nested loops.
+ *
+ * For each operator the executor records the number of tuples it
+ * produced, the time spent computing its output (not including its
+ * inputs), and the approximate memory taken by its output.
+ *
+ * To keep runaway plans from exhausting memory, an operator that would
+ * produce more than a given number of tuples fails with an
+ * IllegalStateException.
+ *
+ * Execution may also be interrupted at checkpoints: the build (right)
+ * input of each join and the output of each join and product. If a
+ * Checkpoint is set and reports that the tuple count there has diverged
+ * from its estimate, execution stops with a CheckpointException carrying
+ * the operator's output, so that the rest of the plan can be
+ * re-optimised (see AdaptiveExecutor).
+ *
+ * A batch of plans that share operators (see MultiQueryOptimiser) may be
+ * executed together, so that each shared operator is executed once and
+ * its output is kept until every operator and query using it has taken
+ * it.
+ *
+ * If runtime filters are switched on, the build input of each join is
+ * executed before its probe input, and a Bloom filter of its join
+ * attribute's values is applied to the scan on the probe side that reads
+ * the other join attribute (see RuntimeFilter). The operators between
+ * such a scan and the join then see fewer tuples than they otherwise
+ * would; their outputs are marked as reduced, and are not checkpointed,
+ * since they are smaller than the estimates of their results.
+ *
+ * If partition-wise joins are switched on, a join whose inputs read their
+ * join attributes from relations partitioned compatibly on them (see
+ * Partitioning.of()) splits both inputs by partition, and joins the
+ * pairs of partitions with the same number in parallel, each with a hash
+ * table of its own partition of the build input.
+ */
+public class Executor implements PlanVisitor {
+	static final long DEFAULT_ROW_LIMIT = 10000000;
+	// approximate size of an array header, and of each reference in it
+	static final int TUPLE_OVERHEAD_BYTES = 16;
+	static final int REFERENCE_BYTES = 4;
+
+	private final Database database;
+	private final long rowLimit;
+	private final Map<Operator, Result> results = new IdentityHashMap<Operator, Result>();
+	private final Map<Operator, OperatorStatistics> statistics = new IdentityHashMap<Operator, OperatorStatistics>();
+	// uses of the output of each operator of a batch of plans that have not yet taken it
+	private final Map<Operator, Integer> consumers = new IdentityHashMap<Operator, Integer>();
+	private Checkpoint checkpoint;
+	private List<Attribute> attributes;
+	private boolean runtimeFilters = false;
+	private boolean partitionWise = false;
+	// runtime filters of the plan being executed, by the scan they apply to, and their Bloom filters once built
+	private final Map<Operator, List<RuntimeFilter>> scanFilters = new IdentityHashMap<Operator, List<RuntimeFilter>>();
+	private final Map<Join, BloomFilter> blooms = new IdentityHashMap<Join, BloomFilter>();
+	// joins whose runtime filters have reduced the output of each operator executed
+	private final Map<Operator, Set<Join>> reducedBy = new IdentityHashMap<Operator, Set<Join>>();
+
+	/**
+	 * A test applied at each checkpoint of a plan during execution.
+	 */
+	public interface Checkpoint {
+		/**
+		 * Return true if execution should stop because the actual tuple
+		 * count of an operator has diverged from its estimate.
+		 * @param op
+		 * @param rows actual tuple count
+		 * @return
+		 */
+		public boolean diverged(Operator op, long rows);
+	}
+
+	/**
+	 * Thrown when execution stops at a checkpoint, with the output of the
+	 * operator at which it stopped.
+	 */
+	public static class CheckpointException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		private final Operator operator;
+		private final List<Attribute> attributes;
+		private final List<String[]> tuples;
+
+		CheckpointException(Operator operator, List<Attribute> attributes, List<String[]> tuples) {
+			super("Estimate diverged at " + operator);
+			this.operator = operator;
+			this.attributes = attributes;
+			this.tuples = tuples;
+		}
+
+		public Operator getOperator() {
+			return operator;
+		}
+
+		/**
+		 * Return the attributes of the operator's output, in tuple order.
+		 * @return
+		 */
+		public List<Attribute> getAttributes() {
+			return attributes;
+		}
+
+		public List<String[]> getTuples() {
+			return tuples;
+		}
+	}
+
+	/**
+	 * The measurements taken while executing an operator.
+	 */
+	public static class OperatorStatistics {
+		private final long rows;
+		private final long nanos;
+		private final long bytes;
+		private final long rowsFiltered;
+		private final boolean reduced;
+
+		OperatorStatistics(long rows, long nanos, long bytes, long rowsFiltered, boolean reduced) {
+			this.rows = rows;
+			this.nanos = nanos;
+			this.bytes = bytes;
+			this.rowsFiltered = rowsFiltered;
+			this.reduced = reduced;
+		}
+
+		/**
+		 * Return the number of tuples produced.
+		 * @return
+		 */
+		public long getRows() {
+			return rows;
+		}
+
+		/**
+		 * Return the time spent computing the output, not including inputs.
+		 * @return
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+
+		/**
+		 * Return the approximate memory taken by the output, not counting
+		 * the values themselves, which are shared with the stored relations.
+		 * @return
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * Return the number of tuples of a scan dropped by runtime filters.
+		 * @return
+		 */
+		public long getRowsFiltered() {
+			return rowsFiltered;
+		}
+
+		/**
+		 * Return true if runtime filters of joins above the operator have
+		 * reduced its output, so that it produced fewer tuples than its
+		 * result holds.
+		 * @return
+		 */
+		public boolean isReduced() {
+			return reduced;
+		}
+	}
+
+	// Output of an operator: attributes in order, and tuples of values in that order
+	private static class Result {
+		final List<Attribute> attributes;
+		final List<String[]> tuples;
+
+		Result(List<Attribute> attributes, List<String[]> tuples) {
+			this.attributes = attributes;
+			this.tuples = tuples;
+		}
+	}
+
+	/**
+	 * Create an executor with the default row limit.
+	 * @param database
+	 */
+	public Executor(Database database) {
+		this(database, DEFAULT_ROW_LIMIT);
+	}
+
+	/**
+	 * Create an executor that fails any operator producing more than
+	 * rowLimit tuples.
+	 * @param database
+	 * @param rowLimit
+	 */
+	public Executor(Database database, long rowLimit) {
+		this.database = database;
+		this.rowLimit = rowLimit;
+	}
+
+	/**
+	 * Set the checkpoint test applied during execution, or null for none.
+	 * @param checkpoint
+	 */
+	public void setCheckpoint(Checkpoint checkpoint) {
+		this.checkpoint = checkpoint;
+	}
+
+	/**
+	 * Switch runtime filters on or off for the plans executed from now on.
+	 * @param runtimeFilters
+	 */
+	public void setRuntimeFilters(boolean runtimeFilters) {
+		this.runtimeFilters = runtimeFilters;
+	}
+
+	/**
+	 * Switch partition-wise joins on or off for the plans executed from
+	 * now on.
+	 * @param partitionWise
+	 */
+	public void setPartitionWise(boolean partitionWise) {
+		this.partitionWise = partitionWise;
+	}
+
+	/**
+	 * Execute a plan and return the tuples it produces.
+	 * @param plan
+	 * @return
+	 * @throws CheckpointException if a checkpoint finds that an estimate has diverged
+	 */
+	public List<String[]> execute(Operator plan) {
+		results.clear();
+		statistics.clear();
+		consumers.clear();
+		scanFilters.clear();
+		blooms.clear();
+		reducedBy.clear();
+		if (runtimeFilters) {
+			for (RuntimeFilter filter : RuntimeFilter.of(plan)) {
+				scanFilters.computeIfAbsent(filter.getScan(), s -> new ArrayList<RuntimeFilter>()).add(filter);
+			}
+			acceptBuildFirst(plan);
+		} else {
+			plan.accept(this);
+		}
+		Result result = results.remove(plan);
+		attributes = result.attributes;
+		return result.tuples;
+	}
+
+	/**
+	 * Execute a batch of plans that may share operators, executing each
+	 * operator once, and return the tuples that each plan produces, in
+	 * order. Runtime filters are not used, since a filter built for one
+	 * plan would drop tuples that another plan sharing the scan needs.
+	 * @param plans
+	 * @return
+	 * @throws CheckpointException if a checkpoint finds that an estimate has diverged
+	 */
+	public List<List<String[]>> execute(List<Operator> plans) {
+		results.clear();
+		statistics.clear();
+		scanFilters.clear();
+		blooms.clear();
+		reducedBy.clear();
+		consumers.clear();
+		consumers.putAll(MultiQueryOptimiser.consumers(plans));
+		for (Operator op : MultiQueryOptimiser.operators(plans)) {
+			op.dispatch(this);
+		}
+		List<List<String[]>> tuples = new ArrayList<List<String[]>>(plans.size());
+		for (Operator plan : plans) {
+			Result result = take(plan);
+			attributes = result.attributes;
+			tuples.add(result.tuples);
+		}
+		return tuples;
+	}
+
+	/**
+	 * Return the attributes of the tuples returned by the last plan
+	 * executed, in order.
+	 * @return
+	 */
+	public List<Attribute> getAttributes() {
+		return attributes;
+	}
+
+	/**
+	 * Return the measurements for an operator of the last plan executed,
+	 * or null if it was not executed.
+	 * @param op
+	 * @return
+	 */
+	public OperatorStatistics getStatistics(Operator op) {
+		return statistics.get(op);
+	}
+
+	public void visit(Scan op) {
+		long start = System.nanoTime();
+		NamedRelation reln = (NamedRelation) op.getRelation();
+		List<String[]> tuples = database.getTuples(reln.getName());
+		List<RuntimeFilter> filters = scanFilters.get(op);
+		if (filters == null) {
+			// the stored tuples are shared, not copied, so a scan takes no memory of its own
+			finish(op, new Result(reln.getAttributes(), tuples), start, 0);
+			return;
+		}
+
+		int[] positions = new int[filters.size()];
+		BloomFilter[] tests = new BloomFilter[filters.size()];
+		Set<Join> joins = Collections.newSetFromMap(new IdentityHashMap<Join, Boolean>());
+		for (int i = 0; i < positions.length; i++) {
+			positions[i] = reln.getAttributes().indexOf(filters.get(i).getProbeAttribute());
+			tests[i] = blooms.get(filters.get(i).getJoin());
+			joins.add(filters.get(i).getJoin());
+		}
+		List<String[]> filtered = new ArrayList<String[]>();
+		for (String[] tuple : tuples) {
+			boolean keep = true;
+			for (int i = 0; i < positions.length && keep; i++) {
+				keep = tests[i].mightContain(tuple[positions[i]]);
+			}
+			if (keep) {
+				filtered.add(tuple);
+			}
+		}
+		reducedBy.put(op, joins);
+		finish(op, new Result(reln.getAttributes(), filtered), start, bytes(filtered.size(), 0), tuples.size() - filtered.size());
+	}
+
+	public void visit(Project op) {
+		long start = System.nanoTime();
+		Result input = take(op.getInput());
+		// attributes keep the order of the input, as in the Estimator
+		List<Attribute> attributes = new ArrayList<Attribute>();
+		List<Integer> positions = new ArrayList<Integer>();
+		AttributeSet required = new AttributeSet(op.getAttributes());
+		for (int i = 0; i < input.attributes.size(); i++) {
+			if (required.contains(input.attributes.get(i))) {
+				attributes.add(input.attributes.get(i));
+				positions.add(i);
+			}
+		}
+		List<String[]> tuples = new ArrayList<String[]>(input.tuples.size());
+		for (String[] tuple : input.tuples) {
+			String[] projected = new String[positions.size()];
+			for (int i = 0; i < projected.length; i++) {
+				projected[i] = tuple[positions.get(i)];
+			}
+			tuples.add(projected);
+		}
+		finish(op, new Result(attributes, tuples), start, bytes(tuples.size(), attributes.size()));
+	}
+
+	public void visit(Select op) {
+		long start = System.nanoTime();
+		Result input = take(op.getInput());
+		Predicate predicate = op.getPredicate();
+		int left = position(input, predicate.getLeftAttribute());
+		int right = predicate.equalsValue() ? -1 : position(input, predicate.getRightAttribute());
+		Double number = predicate.equalsValue() ? numericValue(predicate.getRightValue()) : null;
+
+		List<String[]> tuples = new ArrayList<String[]>();
+		for (String[] tuple : input.tuples) {
+			boolean keep;
+			if (right >= 0) {
+				keep = tuple[left].equals(tuple[right]);
+			} else if (predicate.isRange()) {
+				Double value = numericValue(tuple[left]);
+				keep = value != null && number != null && compare(value, predicate.getComparison(), number);
+			} else {
+				keep = tuple[left].equals(predicate.getRightValue());
+			}
+			if (keep) {
+				tuples.add(tuple);
+			}
+		}
+		finish(op, new Result(input.attributes, tuples), start, bytes(tuples.size(), 0));
+	}
+
+	public void visit(Product op) {
+		long start = System.nanoTime();
+		Result left = take(op.getLeft());
+		Result right = take(op.getRight());
+		checkRows(op, (long) left.tuples.size() * right.tuples.size());
+		List<String[]> tuples = new ArrayList<String[]>(left.tuples.size() * right.tuples.size());
+		for (String[] l : left.tuples) {
+			for (String[] r : right.tuples) {
+				tuples.add(concat(l, r));
+			}
+		}
+		List<Attribute> attributes = concat(left.attributes, right.attributes);
+		finish(op, new Result(attributes, tuples), start, bytes(tuples.size(), attributes.size()));
+	}
+
+	public void visit(Join op) {
+		long start = System.nanoTime();
+		Result left = take(op.getLeft());
+		Result right = take(op.getRight());
+		// the build input is complete before the join starts
+		if (!statistics.get(op.getRight()).isReduced()) {
+			check(op.getRight(), right);
+		}
+		start = System.nanoTime();
+		Predicate predicate = op.getPredicate();
+		// as in the Estimator, the predicate's left attribute may come from the right input
+		int leftKey, rightKey;
+		if (left.attributes.contains(predicate.getLeftAttribute())) {
+			leftKey = position(left, predicate.getLeftAttribute());
+			rightKey = position(right, predicate.getRightAttribute());
+		} else {
+			leftKey = position(left, predicate.getRightAttribute());
+			rightKey = position(right, predicate.getLeftAttribute());
+		}
+
+		Partitioning partitioning = partitionWise ? Partitioning.of(op) : null;
+		List<String[]> tuples;
+		if (partitioning == null) {
+			tuples = hashJoin(op, left.tuples, right.tuples, leftKey, rightKey);
+		} else {
+			List<List<String[]>> leftPartitions = split(partitioning, left.tuples, leftKey);
+			List<List<String[]>> rightPartitions = split(partitioning, right.tuples, rightKey);
+			List<List<String[]>> joined = new ArrayList<List<String[]>>(Collections.nCopies(partitioning.getPartitionCount(), null));
+			int lk = leftKey, rk = rightKey;
+			IntStream.range(0, partitioning.getPartitionCount()).parallel().forEach(p ->
+				joined.set(p, hashJoin(op, leftPartitions.get(p), rightPartitions.get(p), lk, rk)));
+			tuples = new ArrayList<String[]>();
+			for (List<String[]> partition : joined) {
+				checkRows(op, (long) tuples.size() + partition.size());
+				tuples.addAll(partition);
+			}
+		}
+		List<Attribute> attributes = concat(left.attributes, right.attributes);
+		BloomFilter bloom = blooms.remove(op);
+		finish(op, new Result(attributes, tuples), start, bytes(tuples.size(), attributes.size()) + (bloom != null ? bloom.getBytes() : 0));
+	}
+
+	public void visit(Exchange op) {
+		// run on a single node, every tuple is already where it is needed (see DistributedExecutor)
+		long start = System.nanoTime();
+		finish(op, take(op.getInput()), start, 0);
+	}
+
+	// Join the tuples of a probe and a build input with a hash table of the build input
+	private List<String[]> hashJoin(Join op, List<String[]> left, List<String[]> right, int leftKey, int rightKey) {
+		Map<String, List<String[]>> table = new HashMap<String, List<String[]>>();
+		for (String[] r : right) {
+			table.computeIfAbsent(r[rightKey], k -> new ArrayList<String[]>()).add(r);
+		}
+		List<String[]> tuples = new ArrayList<String[]>();
+		for (String[] l : left) {
+			List<String[]> matches = table.get(l[leftKey]);
+			if (matches != null) {
+				checkRows(op, (long) tuples.size() + matches.size());
+				for (String[] r : matches) {
+					tuples.add(concat(l, r));
+				}
+			}
+		}
+		return tuples;
+	}
+
+	// Split tuples by the partition that holds their value at a position
+	private static List<List<String[]>> split(Partitioning partitioning, List<String[]> tuples, int position) {
+		List<List<String[]>> partitions = new ArrayList<List<String[]>>();
+		for (int p = 0; p < partitioning.getPartitionCount(); p++) {
+			partitions.add(new ArrayList<String[]>());
+		}
+		for (String[] tuple : tuples) {
+			int p = partitioning.partitionOf(tuple[position]);
+			// a value that no partition holds is in neither relation
+			if (p >= 0) {
+				partitions.get(p).add(tuple);
+			}
+		}
+		return partitions;
+	}
+
+	// Visit the operators of a plan as accept() does, but with the build input of each join before its probe input, building
+	// the join's runtime filter in between
+	private void acceptBuildFirst(Operator plan) {
+		Set<Operator> filtered = Collections.newSetFromMap(new IdentityHashMap<Operator, Boolean>());
+		for (List<RuntimeFilter> filters : scanFilters.values()) {
+			for (RuntimeFilter filter : filters) {
+				filtered.add(filter.getJoin());
+			}
+		}
+		Deque<Operator> stack = new ArrayDeque<Operator>();
+		Deque<Integer> next = new ArrayDeque<Integer>();
+		stack.push(plan);
+		next.push(0);
+		while (!stack.isEmpty()) {
+			Operator op = stack.peek();
+			int index = next.pop();
+			if (index < op.inputs.size()) {
+				next.push(index + 1);
+				boolean join = op instanceof Join;
+				if (join && index == 1 && filtered.contains(op)) {
+					buildFilter((Join) op);
+				}
+				stack.push(op.inputs.get(join ? 1 - index : index));
+				next.push(0);
+			} else {
+				stack.pop();
+				op.dispatch(this);
+			}
+		}
+	}
+
+	// Build the Bloom filter of the values of the join attribute of a join's build input, which has been executed
+	private void buildFilter(Join op) {
+		Result right = results.get(op.getRight());
+		Predicate predicate = op.getPredicate();
+		Attribute attribute = right.attributes.contains(predicate.getRightAttribute()) ? predicate.getRightAttribute() : predicate.getLeftAttribute();
+		int key = position(right, attribute);
+		BloomFilter bloom = new BloomFilter(right.tuples.size());
+		for (String[] r : right.tuples) {
+			bloom.add(r[key]);
+		}
+		blooms.put(op, bloom);
+	}
+
+	// Take the output of an operator for one of its uses, keeping it while it has uses left
+	private Result take(Operator op) {
+		Integer uses = consumers.get(op);
+		if (uses == null || uses <= 1) {
+			consumers.remove(op);
+			return results.remove(op);
+		}
+		consumers.put(op, uses - 1);
+		return results.get(op);
+	}
+
+	private void finish(Operator op, Result result, long start, long bytes) {
+		finish(op, result, start, bytes, 0);
+	}
+
+	private void finish(Operator op, Result result, long start, long bytes, long rowsFiltered) {
+		results.put(op, result);
+		boolean reduced = reduced(op);
+		statistics.put(op, new OperatorStatistics(result.tuples.size(), System.nanoTime() - start, bytes, rowsFiltered, reduced));
+		if ((op instanceof Join || op instanceof Product) && !reduced) {
+			check(op, result);
+		}
+	}
+
+	// Record the joins whose runtime filters have reduced the output of an operator, returning true if there are any: those that
+	// reduced its inputs, less the operator itself, since a join's own filter removes only tuples that it would not have joined
+	private boolean reduced(Operator op) {
+		if (reducedBy.isEmpty()) {
+			return false;
+		}
+		Set<Join> joins = reducedBy.get(op);
+		if (!(op instanceof Scan)) {
+			joins = Collections.newSetFromMap(new IdentityHashMap<Join, Boolean>());
+			for (Operator input : op.inputs) {
+				Set<Join> inputJoins = reducedBy.get(input);
+				if (inputJoins != null) {
+					joins.addAll(inputJoins);
+				}
+			}
+			joins.remove(op);
+			if (joins.isEmpty()) {
+				return false;
+			}
+			reducedBy.put(op, joins);
+		}
+		return joins != null && !joins.isEmpty();
+	}
+
+	private void check(Operator op, Result result) {
+		if (checkpoint != null && checkpoint.diverged(op, result.tuples.size())) {
+			throw new CheckpointException(op, result.attributes, result.tuples);
+		}
+	}
+
+	private void checkRows(Operator op, long rows) {
+		if (rows > rowLimit) {
+			throw new IllegalStateException("Operator would produce more than " + rowLimit + " tuples: " + op);
+		}
+	}
+
+	// Memory taken by a list of tuples: a reference per tuple, and for new tuples, an array of references to values
+	private static long bytes(long tuples, int arity) {
+		long perTuple = REFERENCE_BYTES + (arity > 0 ? TUPLE_OVERHEAD_BYTES + (long) REFERENCE_BYTES * arity : 0);
+		return tuples * perTuple;
+	}
+
+	private static int position(Result result, Attribute attr) {
+		int position = result.attributes.indexOf(attr);
+		if (position < 0) {
+			throw new IllegalStateException("Attribute " + attr + " is not in the input");
+		}
+		return position;
+	}
+
+	private static String[] concat(String[] left, String[] right) {
+		String[] tuple = new String[left.length + right.length];
+		System.arraycopy(left, 0, tuple, 0, left.length);
+		System.arraycopy(right, 0, tuple, left.length, right.length);
+		return tuple;
+	}
+
+	private static List<Attribute> concat(List<Attribute> left, List<Attribute> right) {
+		List<Attribute> attributes = new ArrayList<Attribute>(left);
+		attributes.addAll(right);
+		return attributes;
+	}
+
+	private static boolean compare(double value, Predicate.Comparison comparison, double bound) {
+		switch (comparison) {
+			case LESS:
+				return value < bound;
+			case LESS_EQUALS:
+				return value <= bound;
+			case GREATER:
+				return value > bound;
+			case GREATER_EQUALS:
+				return value >= bound;
+			default:
+				return value == bound;
+		}
+	}
+
+	private static Double numericValue(String value) {
+		try {
+			return Double.valueOf(value);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+}
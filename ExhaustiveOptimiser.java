@@ -0,0 +1,306 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class finds the best left-deep join order for a canonical query
+ * by enumerating every order of its relations, as a reference against
+ * which the plans of the Optimiser can be judged. Its cost measure is
+ * the intermediate tuple count: the total estimated number of tuples
+ * produced by the joins and products of the plan (see
+ * PlanCost.intermediate()).
+ *
+ * Every value predicate is applied directly above the scan of its
+ * relation. Relations are then added to the plan one at a time; a
+ * relation connected to the plan so far by join predicates is joined on
+ * the one of them that gives the smallest join, with the others applied
+ * as selects above the join, and any other relation is added with a
+ * product. Orders whose partial cost already reaches that of the best
+ * complete order found are not extended further, which does not change
+ * the result since costs only grow as relations are added.
+ *
+ * Where the join predicates split the relations into several connected
+ * components, the best order of each component is also found on its own,
+ * and the plans of the components combined with products, smallest first,
+ * as the Optimiser combines them (see Optimiser.reorderComponents()). The
+ * cheaper of this plan and the best left-deep order is returned, so that
+ * every plan the Optimiser can build is among those considered.
+ *
+ * The number of orders grows with the factorial of the number of
+ * relations, so this is only practical for queries of about ten
+ * relations or fewer.
+ */
+public class ExhaustiveOptimiser {
+	private final Estimator estimator = new Estimator();
+
+	private List<Operator> accessPlans;
+	private List<Predicate> joinPredicates;
+	private List<Attribute> projection;
+	private Operator best;
+	private long bestCost;
+	private long orders;
+	private long lastSize;
+
+	/**
+	 * Return the plan with the lowest intermediate tuple count over all
+	 * join orders of the given canonical plan.
+	 * @param plan canonical plan, which has been visited by an Estimator
+	 * @return
+	 */
+	public Operator optimise(Operator plan) {
+		accessPlans = new ArrayList<Operator>();
+		joinPredicates = new ArrayList<Predicate>();
+		projection = null;
+		collect(plan);
+
+		orders = 0;
+		List<Integer> all = new ArrayList<Integer>();
+		for (int i = 0; i < accessPlans.size(); i++) {
+			all.add(i);
+		}
+		Operator result = search(all);
+		long cost = bestCost;
+
+		List<List<Integer>> components = components();
+		if (components.size() > 1) {
+			List<Operator> plans = new ArrayList<Operator>();
+			long combinedCost = 0;
+			for (List<Integer> component : components) {
+				plans.add(search(component));
+				combinedCost += bestCost;
+			}
+			// the sum of the sizes of the products is least when the smallest plans are combined first
+			plans.sort((a, b) -> Integer.compare(a.getOutput().getTupleCount(), b.getOutput().getTupleCount()));
+			Operator combined = plans.get(0);
+			for (Operator component : plans.subList(1, plans.size())) {
+				Product product = new Product(combined, component);
+				estimator.visit(product);
+				combinedCost += product.getOutput().getTupleCount();
+				combined = product;
+			}
+			if (combinedCost < cost) {
+				result = combined;
+				cost = combinedCost;
+			}
+		}
+		best = result;
+		bestCost = cost;
+
+		if (projection != null) {
+			result = new Project(result, projection);
+			estimator.visit((Project) result);
+		}
+		return result;
+	}
+
+	/**
+	 * Return the lowest intermediate tuple count found by the last call to
+	 * optimise().
+	 * @return
+	 */
+	public long getCost() {
+		return bestCost;
+	}
+
+	/**
+	 * Return the number of complete join orders costed by the last call to
+	 * optimise(); orders cut short by the bound are not counted.
+	 * @return
+	 */
+	public long getOrders() {
+		return orders;
+	}
+
+	// Find the best left-deep order of the relations with the given positions, setting best and bestCost
+	private Operator search(List<Integer> members) {
+		best = null;
+		bestCost = Long.MAX_VALUE;
+		// the relations of other components are marked as used, so that they are never added
+		boolean[] used = new boolean[accessPlans.size()];
+		Arrays.fill(used, true);
+		for (int i : members) {
+			used[i] = false;
+		}
+		for (int i : members) {
+			used[i] = true;
+			extend(accessPlans.get(i), used, members.size() - 1, 0);
+			used[i] = false;
+		}
+		return best;
+	}
+
+	private void extend(Operator plan, boolean[] used, int remaining, long cost) {
+		if (cost >= bestCost) {
+			return;
+		}
+		if (remaining == 0) {
+			best = plan;
+			bestCost = cost;
+			orders++;
+			return;
+		}
+		// the cheapest extensions are tried first, so that a good bound is found early
+		List<Operator> nexts = new ArrayList<Operator>();
+		List<long[]> candidates = new ArrayList<long[]>();
+		for (int i = 0; i < used.length; i++) {
+			if (!used[i]) {
+				nexts.add(add(plan, accessPlans.get(i)));
+				candidates.add(new long[] { lastSize, i, nexts.size() - 1 });
+			}
+		}
+		candidates.sort((a, b) -> Long.compare(a[0], b[0]));
+		for (long[] candidate : candidates) {
+			int i = (int) candidate[1];
+			used[i] = true;
+			extend(nexts.get((int) candidate[2]), used, remaining - 1, cost + candidate[0]);
+			used[i] = false;
+		}
+	}
+
+	// Add a relation to the plan with a join (and selects) or a product, recording the size of the join or product
+	private Operator add(Operator plan, Operator relation) {
+		List<Attribute> left = plan.getOutput().getAttributes();
+		List<Attribute> right = relation.getOutput().getAttributes();
+		List<Predicate> connecting = new ArrayList<Predicate>();
+		for (Predicate predicate : joinPredicates) {
+			Attribute l = predicate.getLeftAttribute();
+			Attribute r = predicate.getRightAttribute();
+			if ((left.contains(l) && right.contains(r)) || (left.contains(r) && right.contains(l))) {
+				connecting.add(predicate);
+			}
+		}
+
+		Operator result;
+		if (connecting.isEmpty()) {
+			Product product = new Product(plan, relation);
+			estimator.visit(product);
+			lastSize = product.getOutput().getTupleCount();
+			result = product;
+		} else {
+			// the selects above the join give the same output whichever predicate is joined on, but only the join is counted
+			Join join = null;
+			for (Predicate predicate : connecting) {
+				Join candidate = new Join(plan, relation, predicate);
+				estimator.visit(candidate);
+				if (join == null || candidate.getOutput().getTupleCount() < join.getOutput().getTupleCount()) {
+					join = candidate;
+				}
+			}
+			lastSize = join.getOutput().getTupleCount();
+			result = join;
+			for (Predicate predicate : connecting) {
+				if (predicate == join.getPredicate()) {
+					continue;
+				}
+				Select select = new Select(result, predicate);
+				estimator.visit(select);
+				result = select;
+			}
+		}
+		return result;
+	}
+
+	// Walk the canonical plan, collecting one access plan per relation, the join predicates and the final projection
+	private void collect(Operator plan) {
+		List<Predicate> predicates = new ArrayList<Predicate>();
+		List<Scan> scans = new ArrayList<Scan>();
+		walk(plan, predicates, scans);
+
+		for (Scan scan : scans) {
+			Operator access = new Scan((NamedRelation) scan.getRelation());
+			estimator.visit((Scan) access);
+			for (Predicate predicate : predicates) {
+				List<Attribute> attributes = access.getOutput().getAttributes();
+				boolean local = predicate.equalsValue()
+						? attributes.contains(predicate.getLeftAttribute())
+						: attributes.contains(predicate.getLeftAttribute()) && attributes.contains(predicate.getRightAttribute());
+				if (local) {
+					access = new Select(access, predicate);
+					estimator.visit((Select) access);
+				}
+			}
+			accessPlans.add(access);
+		}
+		for (Predicate predicate : predicates) {
+			if (!predicate.equalsValue() && !isLocal(predicate)) {
+				joinPredicates.add(predicate);
+			}
+		}
+	}
+
+	// The positions of the access plans in each connected component of the graph whose edges are the join predicates
+	private List<List<Integer>> components() {
+		int[] component = new int[accessPlans.size()];
+		for (int i = 0; i < component.length; i++) {
+			component[i] = i;
+		}
+		// relabel until no join predicate connects two labels, each relation taking the lowest label it is connected to
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (Predicate predicate : joinPredicates) {
+				int l = owner(predicate.getLeftAttribute());
+				int r = owner(predicate.getRightAttribute());
+				if (l >= 0 && r >= 0 && component[l] != component[r]) {
+					int low = Math.min(component[l], component[r]);
+					int high = Math.max(component[l], component[r]);
+					for (int i = 0; i < component.length; i++) {
+						if (component[i] == high) {
+							component[i] = low;
+						}
+					}
+					changed = true;
+				}
+			}
+		}
+		List<List<Integer>> components = new ArrayList<List<Integer>>();
+		for (int label = 0; label < component.length; label++) {
+			List<Integer> members = new ArrayList<Integer>();
+			for (int i = 0; i < component.length; i++) {
+				if (component[i] == label) {
+					members.add(i);
+				}
+			}
+			if (!members.isEmpty()) {
+				components.add(members);
+			}
+		}
+		return components;
+	}
+
+	// The position of the access plan whose output holds an attribute, or -1
+	private int owner(Attribute attribute) {
+		for (int i = 0; i < accessPlans.size(); i++) {
+			if (accessPlans.get(i).getOutput().getAttributes().contains(attribute)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private boolean isLocal(Predicate predicate) {
+		for (Operator access : accessPlans) {
+			List<Attribute> attributes = access.getOutput().getAttributes();
+			if (attributes.contains(predicate.getLeftAttribute()) && attributes.contains(predicate.getRightAttribute())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void walk(Operator plan, List<Predicate> predicates, List<Scan> scans) {
+		PlanTraversal.preOrder(plan, operator -> {
+			if (operator instanceof Project) {
+				if (projection == null) {
+					projection = ((Project) operator).getAttributes();
+				}
+			} else if (operator instanceof Select) {
+				predicates.add(((Select) operator).getPredicate());
+			} else if (operator instanceof Scan) {
+				scans.add((Scan) operator);
+			}
+		});
+	}
+}
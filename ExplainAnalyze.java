@@ -0,0 +1,264 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class implements EXPLAIN ANALYZE: it executes a plan that has
+ * been visited by an Estimator and renders it as a tree of operators,
+ * one per line, showing for each the estimated and actual tuple counts,
+ * their q-error, and the time and memory taken to compute its output.
+ *
+ * The q-error of an estimate is max(estimate/actual, actual/estimate),
+ * with both counts taken to be at least 1; it is 1 for a perfect
+ * estimate and symmetric in over- and underestimation.
+ *
+ * Every operator explained is also recorded, so that over a workload of
+ * queries the operators with the worst estimates can be listed, and the
+ * q-errors can be summarised by the estimation formula that produced
+ * them. The q-error of an operator that produced no tuples is just its
+ * estimate, however good the estimate, so such operators are reported
+ * apart from the others, by their estimates.
+ */
+public class ExplainAnalyze {
+	private final List<Node> nodes = new ArrayList<Node>();
+
+	/**
+	 * The estimate and measurements for one operator of an explained plan.
+	 */
+	public static class Node {
+		private final String operator;
+		private final String formula;
+		private final long estimated;
+		private final long actual;
+		private final long nanos;
+		private final long bytes;
+
+		Node(String operator, String formula, long estimated, long actual, long nanos, long bytes) {
+			this.operator = operator;
+			this.formula = formula;
+			this.estimated = estimated;
+			this.actual = actual;
+			this.nanos = nanos;
+			this.bytes = bytes;
+		}
+
+		/**
+		 * Return a description of the operator, without its inputs.
+		 * @return
+		 */
+		public String getOperator() {
+			return operator;
+		}
+
+		/**
+		 * Return the kind of estimate made for the operator, such as
+		 * "SELECT attr<val".
+		 * @return
+		 */
+		public String getFormula() {
+			return formula;
+		}
+
+		public long getEstimated() {
+			return estimated;
+		}
+
+		public long getActual() {
+			return actual;
+		}
+
+		public long getNanos() {
+			return nanos;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * Return the q-error of the estimate.
+		 * @return
+		 */
+		public double getQError() {
+			return qError(estimated, actual);
+		}
+	}
+
+	/**
+	 * Execute a plan and return its rendering with estimates and actuals.
+	 * @param database database to execute the plan against
+	 * @param plan plan that has been visited by an Estimator
+	 * @return
+	 * @throws IllegalStateException if an operator produces too many tuples
+	 */
+	public String explain(Database database, Operator plan) {
+		Executor executor = new Executor(database);
+		executor.execute(plan);
+		StringBuilder out = new StringBuilder();
+		render(plan, executor, out);
+		return out.toString();
+	}
+
+	/**
+	 * Return the operators with the highest q-errors explained so far,
+	 * among those that produced tuples.
+	 * @param count
+	 * @return
+	 */
+	public List<Node> getWorst(int count) {
+		List<Node> worst = new ArrayList<Node>();
+		for (Node node : nodes) {
+			if (node.actual > 0) {
+				worst.add(node);
+			}
+		}
+		worst.sort(Comparator.comparingDouble(Node::getQError).reversed());
+		return worst.subList(0, Math.min(count, worst.size()));
+	}
+
+	/**
+	 * Return the operators explained so far that produced no tuples, those
+	 * with the highest estimates first.
+	 * @param count
+	 * @return
+	 */
+	public List<Node> getEmpty(int count) {
+		List<Node> empty = new ArrayList<Node>();
+		for (Node node : nodes) {
+			if (node.actual == 0) {
+				empty.add(node);
+			}
+		}
+		empty.sort(Comparator.comparingLong(Node::getEstimated).reversed());
+		return empty.subList(0, Math.min(count, empty.size()));
+	}
+
+	/**
+	 * Return a summary of every operator explained so far: for each
+	 * estimation formula, the number of operators, how many of them
+	 * produced no tuples, and the geometric mean and maximum q-error of
+	 * the others, followed by the operators with the worst estimates and
+	 * those with the highest estimates of the operators that produced no
+	 * tuples.
+	 * @param worst number of operators to list of each
+	 * @return
+	 */
+	public String summary(int worst) {
+		// count, operators that produced no tuples, sum of log q-errors and maximum q-error of the others, per formula
+		Map<String, double[]> formulas = new TreeMap<String, double[]>();
+		int empty = 0;
+		for (Node node : nodes) {
+			double[] summary = formulas.computeIfAbsent(node.formula, f -> new double[4]);
+			summary[0]++;
+			if (node.actual == 0) {
+				summary[1]++;
+				empty++;
+			} else {
+				summary[2] += Math.log(node.getQError());
+				summary[3] = Math.max(summary[3], node.getQError());
+			}
+		}
+
+		StringBuilder out = new StringBuilder();
+		out.append(String.format("%-18s %8s %8s %12s %12s%n", "formula", "count", "empty", "mean q-err", "max q-err"));
+		for (Map.Entry<String, double[]> entry : formulas.entrySet()) {
+			double[] summary = entry.getValue();
+			long produced = (long) (summary[0] - summary[1]);
+			out.append(String.format("%-18s %8d %8d %12s %12s%n", entry.getKey(), (long) summary[0], (long) summary[1],
+					produced > 0 ? String.format("%.2f", Math.exp(summary[2] / produced)) : "-",
+					produced > 0 ? String.format("%.2f", summary[3]) : "-"));
+		}
+		out.append(String.format("%nworst estimates:%n"));
+		for (Node node : getWorst(worst)) {
+			out.append(String.format("q-err=%.2f est=%d actual=%d  %s%n", node.getQError(), node.estimated, node.actual, node.operator));
+		}
+		out.append(String.format("%nempty results (%d operators), highest estimates:%n", empty));
+		for (Node node : getEmpty(worst)) {
+			out.append(String.format("est=%d  %s%n", node.estimated, node.operator));
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Forget the operators explained so far.
+	 */
+	public void reset() {
+		nodes.clear();
+	}
+
+	// Render each operator of a plan before its inputs, indented by its depth in the plan
+	private void render(Operator plan, Executor executor, StringBuilder out) {
+		int[] depth = { 0 };
+		PlanTraversal.rewrite(plan, new PlanTraversal.Rewriter<Void>() {
+			public Void enter(Operator op) {
+				render(op, executor, depth[0]++, out);
+				return null;
+			}
+
+			public Operator rewrite(Operator op, List<Operator> inputs, Void state) {
+				depth[0]--;
+				return op;
+			}
+		});
+	}
+
+	private void render(Operator op, Executor executor, int depth, StringBuilder out) {
+		Executor.OperatorStatistics stats = executor.getStatistics(op);
+		Node node = new Node(describe(op), formula(op), op.getOutput().getTupleCount(), stats.getRows(), stats.getNanos(), stats.getBytes());
+		nodes.add(node);
+		for (int i = 0; i < depth; i++) {
+			out.append("  ");
+		}
+		out.append(node.operator)
+			.append("  (est=").append(node.estimated)
+			.append(" actual=").append(node.actual)
+			.append(String.format(" q-err=%.2f time=%.3fms mem=%dKB)", node.getQError(), node.nanos / 1e6, node.bytes / 1024))
+			.append('\n');
+	}
+
+	static double qError(long estimated, long actual) {
+		double e = Math.max(1, estimated);
+		double a = Math.max(1, actual);
+		return Math.max(e / a, a / e);
+	}
+
+	private static String describe(Operator op) {
+		if (op instanceof Scan) {
+			return "SCAN " + op.toString();
+		} else if (op instanceof Project) {
+			return "PROJECT " + ((Project) op).getAttributes().toString().replace(" ", "");
+		} else if (op instanceof Select) {
+			return "SELECT [" + ((Select) op).getPredicate() + "]";
+		} else if (op instanceof Join) {
+			return "JOIN [" + ((Join) op).getPredicate() + "]";
+		} else if (op instanceof Exchange) {
+			Exchange exchange = (Exchange) op;
+			return exchange.getKind() + (exchange.getAttribute() != null ? " [" + exchange.getAttribute() + "]" : "");
+		}
+		return "PRODUCT";
+	}
+
+	// The Estimator formula used for an operator
+	private static String formula(Operator op) {
+		if (op instanceof Select) {
+			Predicate predicate = ((Select) op).getPredicate();
+			if (predicate.isRange()) {
+				return "SELECT attr<val";
+			}
+			return predicate.equalsValue() ? "SELECT attr=val" : "SELECT attr=attr";
+		} else if (op instanceof Scan) {
+			return "SCAN";
+		} else if (op instanceof Project) {
+			return "PROJECT";
+		} else if (op instanceof Join) {
+			return "JOIN";
+		} else if (op instanceof Exchange) {
+			return "EXCHANGE";
+		}
+		return "PRODUCT";
+	}
+}
@@ -0,0 +1,159 @@
+package sjdb;
+
+import java.util.Arrays;
+
+/**
+ * This class is an equi-width histogram over the numeric values of an
+ * attribute. The range [min, max] is divided into buckets of equal width,
+ * each of which counts the values that fall into it; values outside the
+ * range are counted in the first or last bucket, unless the range is
+ * first widened to include them (see including()). Counts may be both
+ * incremented and decremented, so that the histogram can be maintained as
+ * tuples are inserted and deleted.
+ */
+public class Histogram {
+	private final double min;
+	private final double max;
+	private final long[] counts;
+	private long total = 0;
+
+	/**
+	 * Create an empty histogram with the given range and number of buckets.
+	 * @param min
+	 * @param max
+	 * @param buckets
+	 */
+	public Histogram(double min, double max, int buckets) {
+		this.min = min;
+		this.max = max;
+		this.counts = new long[Math.max(1, buckets)];
+	}
+
+	/**
+	 * Create a copy of a histogram.
+	 * @param histogram
+	 */
+	public Histogram(Histogram histogram) {
+		this.min = histogram.min;
+		this.max = histogram.max;
+		this.counts = Arrays.copyOf(histogram.counts, histogram.counts.length);
+		this.total = histogram.total;
+	}
+
+	public void add(double value) {
+		counts[bucket(value)]++;
+		total++;
+	}
+
+	public void remove(double value) {
+		int bucket = bucket(value);
+		if (counts[bucket] > 0) {
+			counts[bucket]--;
+			total--;
+		}
+	}
+
+	/**
+	 * Return a histogram whose range includes the given value, which is
+	 * this one if its range already does. Otherwise the range is at least
+	 * doubled, so that a histogram widened as values arrive is rebuilt only
+	 * a logarithmic number of times, and the values counted are spread
+	 * over the new buckets (see rebin()).
+	 * @param value
+	 * @return
+	 */
+	public Histogram including(double value) {
+		if (value >= min && value <= max) {
+			return this;
+		}
+		double width = max - min;
+		double low = value < min ? Math.min(value, max - 2 * width) : min;
+		double high = value > max ? Math.max(value, min + 2 * width) : max;
+		return rebin(low, high, counts.length);
+	}
+
+	/**
+	 * Return a histogram of the values counted by this one, with the given
+	 * range and number of buckets, assuming that values are spread evenly
+	 * within each bucket of this one.
+	 * @param min
+	 * @param max
+	 * @param buckets
+	 * @return
+	 */
+	public Histogram rebin(double min, double max, int buckets) {
+		Histogram histogram = new Histogram(min, max, buckets);
+		histogram.total = total;
+		if (max <= min) {
+			histogram.counts[0] = total;
+			return histogram;
+		}
+		double width = (max - min) / histogram.counts.length;
+		long previous = 0;
+		for (int i = 0; i < histogram.counts.length; i++) {
+			// rounding the cumulative counts keeps the total exact
+			long below = i == histogram.counts.length - 1 ? total : Math.round(below(min + (i + 1) * width));
+			histogram.counts[i] = below - previous;
+			previous = below;
+		}
+		return histogram;
+	}
+
+	/**
+	 * Return the number of values counted by the histogram
+	 * @return
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * Return the fraction of the values counted by the histogram that satisfy
+	 * a comparison with the given value, assuming that values are spread
+	 * evenly within each bucket.
+	 * @param comparison
+	 * @param value
+	 * @return
+	 */
+	public double fraction(Predicate.Comparison comparison, double value) {
+		if (total == 0) {
+			return 0.0;
+		}
+		double below = below(value);
+		switch (comparison) {
+			case LESS:
+			case LESS_EQUALS:
+				return below / total;
+			case GREATER:
+			case GREATER_EQUALS:
+				return (total - below) / total;
+			default:
+				return counts[bucket(value)] / (double) total;
+		}
+	}
+
+	// Estimated number of values counted that are less than the given value
+	private double below(double value) {
+		if (value <= min) {
+			return 0;
+		}
+		if (value >= max) {
+			return total;
+		}
+		double width = (max - min) / counts.length;
+		int bucket = bucket(value);
+		double below = 0;
+		for (int i = 0; i < bucket; i++) {
+			below += counts[i];
+		}
+		return below + counts[bucket] * ((value - (min + bucket * width)) / width);
+	}
+
+	private int bucket(double value) {
+		if (max <= min || value <= min) {
+			return 0;
+		}
+		int bucket = (int) ((value - min) / (max - min) * counts.length);
+		return Math.min(counts.length - 1, bucket);
+	}
+}
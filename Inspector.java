@@ -47,4 +47,11 @@ public class Inspector implements PlanVisitor {
 		System.out.println("  inr: " + op.getRight().getOutput().render());
 		System.out.println("  out: " + op.getOutput().render());
 	}
+
+	@Override
+	public void visit(Exchange op) {
+		System.out.println(op.toString());
+		System.out.println("  in:  " + op.getInput().getOutput().render());
+		System.out.println("  out: " + op.getOutput().render());
+	}
 }
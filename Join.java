@@ -5,7 +5,7 @@ package sjdb;
  * @author nmg
  */
 public class Join extends BinaryOperator {
-	private Predicate predicate;
+	private final Predicate predicate;
 	/**
 	 * Create a new join operator.
 	 * @param left Left child operator
@@ -22,20 +22,27 @@ public class Join extends BinaryOperator {
 	}
 	
 	/* (non-Javadoc)
-	 * @see sjdb.BinaryOperator#accept(sjdb.OperatorVisitor)
+	 * @see sjdb.Operator#dispatch(sjdb.PlanVisitor)
 	 */
-	public void accept(PlanVisitor visitor) {
-		super.accept(visitor);
+	protected void dispatch(PlanVisitor visitor) {
 		visitor.visit(this);
 	}
 	
 	/* (non-Javadoc)
-	 * @see java.lang.Object#toString()
+	 * @see sjdb.Operator#getLabels()
 	 */
-	public String toString() {
-		return "(" + this.getLeft().toString() + ") JOIN [" + 
-				this.getPredicate().toString() +
-				"] (" + this.getRight().toString() + ")";
+	protected String[] getLabels() {
+		return new String[] {"(", ") JOIN [" + this.getPredicate().toString() + "] (", ")"};
 	}
 	
+
+	@Override
+	protected int parameterHashCode() {
+		return this.predicate.hashCode();
+	}
+	
+	@Override
+	protected boolean parametersEqual(Operator op) {
+		return this.predicate.equals(((Join) op).predicate);
+	}
 }
@@ -0,0 +1,123 @@
+package sjdb;
+
+/**
+ * This class is an immutable set of the key constraints declared in a
+ * system catalogue:
+ *
+ * - the primary key of each relation
+ * - other attributes declared unique in their relation
+ * - foreign keys, each an attribute every value of which is a value of a
+ *   key (primary or unique) of another relation
+ *
+ * Keys consist of a single attribute. Attribute names are unique within a
+ * catalogue, so constraints are recorded by name, and hold whatever the
+ * statistics of the attributes and relations they name; they may be
+ * declared before the relations they refer to. A foreign key is only used
+ * if the attribute it references is declared a key.
+ *
+ * The values of a foreign key are assumed to be spread evenly over the
+ * values of the key that it references.
+ */
+public class KeyConstraints {
+	static final KeyConstraints NONE = new KeyConstraints(PersistentMap.<String, String>empty(),
+			PersistentMap.<String, String>empty(), PersistentMap.<String, String>empty());
+
+	// relation name to the name of its primary key
+	private final PersistentMap<String, String> primaryKeys;
+	// name of each key (primary or unique) to the name of its relation
+	private final PersistentMap<String, String> keys;
+	// name of each foreign key to the name of the key it references
+	private final PersistentMap<String, String> foreignKeys;
+
+	private KeyConstraints(PersistentMap<String, String> primaryKeys, PersistentMap<String, String> keys,
+			PersistentMap<String, String> foreignKeys) {
+		this.primaryKeys = primaryKeys;
+		this.keys = keys;
+		this.foreignKeys = foreignKeys;
+	}
+
+	/**
+	 * @return true if no constraints have been declared
+	 */
+	public boolean isEmpty() {
+		return keys.size() == 0 && foreignKeys.size() == 0;
+	}
+
+	/**
+	 * Return the name of the primary key of a relation, or null if it has
+	 * none.
+	 * @param relName
+	 * @return
+	 */
+	public String getPrimaryKey(String relName) {
+		return primaryKeys.get(relName);
+	}
+
+	/**
+	 * @param attr
+	 * @return true if the attribute is a primary key or declared unique
+	 */
+	public boolean isKey(Attribute attr) {
+		return keys.get(attr.getName()) != null;
+	}
+
+	/**
+	 * Return the name of the relation of which an attribute is a key, or
+	 * null if it is not a key.
+	 * @param attr
+	 * @return
+	 */
+	public String getKeyRelation(Attribute attr) {
+		return keys.get(attr.getName());
+	}
+
+	/**
+	 * Return the name of the key referenced by a foreign key, or null if
+	 * the attribute is not a foreign key of a declared key.
+	 * @param attr
+	 * @return
+	 */
+	public String getReferencedKey(Attribute attr) {
+		String key = foreignKeys.get(attr.getName());
+		return key != null && keys.get(key) != null ? key : null;
+	}
+
+	/**
+	 * @param foreignKey
+	 * @param key
+	 * @return true if the first attribute is a foreign key referencing the second
+	 */
+	public boolean references(Attribute foreignKey, Attribute key) {
+		return key.getName().equals(getReferencedKey(foreignKey));
+	}
+
+	/**
+	 * Return these constraints with the primary key of a relation declared.
+	 * @param relName
+	 * @param attName
+	 * @return
+	 */
+	KeyConstraints withPrimaryKey(String relName, String attName) {
+		return new KeyConstraints(primaryKeys.plus(relName, attName), keys.plus(attName, relName), foreignKeys);
+	}
+
+	/**
+	 * Return these constraints with an attribute of a relation declared unique.
+	 * @param relName
+	 * @param attName
+	 * @return
+	 */
+	KeyConstraints withUniqueKey(String relName, String attName) {
+		return new KeyConstraints(primaryKeys, keys.plus(attName, relName), foreignKeys);
+	}
+
+	/**
+	 * Return these constraints with a foreign key declared.
+	 * @param attName
+	 * @param keyName name of the key referenced
+	 * @return
+	 */
+	KeyConstraints withForeignKey(String attName, String keyName) {
+		return new KeyConstraints(primaryKeys, keys, foreignKeys.plus(attName, keyName));
+	}
+}
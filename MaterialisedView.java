@@ -0,0 +1,167 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class describes a materialised view: a named, canonical query
+ * (a project over selects over products of scans) whose result is stored
+ * in the Database under the view's name, and described in the Catalogue
+ * by a NamedRelation of the same name, with its own statistics. The
+ * attributes of the view relation are the attributes projected by the
+ * definition, with the same names (and so the same ids) as in the
+ * relations they come from, so that a plan that scans the view can use
+ * them exactly as it would the attributes of those relations.
+ *
+ * A view can answer the part of a canonical query over the relations it
+ * is defined on (its base relations) if the query includes all of them
+ * and every predicate of the view, and every attribute of the base
+ * relations that the rest of the query uses (for its other predicates
+ * and its result) is an attribute of the view. The Optimiser then
+ * considers a rewriting of the query that scans the view in place of its
+ * base relations, applying the query's other (residual) predicates to
+ * the view and the query's other relations.
+ *
+ * Views are registered with Catalogue.addView(), and their data and
+ * statistics are kept up to date by a ViewMaintainer.
+ */
+public class MaterialisedView {
+	private final String name;
+	private final Operator definition;
+	private final CanonicalQuery query;
+	private final List<Attribute> attributes;
+	private final Set<String> relations;
+
+	/**
+	 * Create a view with the given name and definition, which must have
+	 * been visited by an Estimator.
+	 * @param name
+	 * @param definition
+	 * @throws DatabaseException if the definition is not canonical
+	 */
+	public MaterialisedView(String name, Operator definition) throws DatabaseException {
+		CanonicalQuery query = CanonicalQuery.of(definition);
+		if (query == null) {
+			throw new DatabaseException("Definition of view " + name + " is not a canonical query");
+		}
+		this.name = name;
+		this.definition = definition;
+		this.query = query;
+		this.attributes = Collections.unmodifiableList(new ArrayList<Attribute>(definition.getOutput().getAttributes()));
+		Set<String> relations = new HashSet<String>();
+		for (Scan scan : query.getScans()) {
+			relations.add(((NamedRelation) scan.getRelation()).getName());
+		}
+		this.relations = Collections.unmodifiableSet(relations);
+	}
+
+	/**
+	 * Return the name of the view, which is also the name of its relation.
+	 * @return
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Return the canonical plan that defines the view.
+	 * @return
+	 */
+	public Operator getDefinition() {
+		return definition;
+	}
+
+	/**
+	 * Return the attributes of the view, in the order of the values of
+	 * its tuples.
+	 * @return
+	 */
+	public List<Attribute> getAttributes() {
+		return attributes;
+	}
+
+	/**
+	 * Return the names of the relations that the view is defined on.
+	 * @return
+	 */
+	public Set<String> getBaseRelations() {
+		return relations;
+	}
+
+	/**
+	 * Return true if the view is defined on the relation scanned by a scan.
+	 * @param scan
+	 * @return
+	 */
+	boolean covers(Scan scan) {
+		return relations.contains(((NamedRelation) scan.getRelation()).getName());
+	}
+
+	/**
+	 * Return the predicates of a canonical query that remain to be applied
+	 * once the view is scanned in place of its base relations, in the
+	 * order of the query, or null if the view cannot answer that part of
+	 * the query.
+	 * @param query
+	 * @return
+	 */
+	List<Predicate> getResidual(CanonicalQuery query) {
+		int covered = 0;
+		for (Scan scan : query.getScans()) {
+			if (covers(scan)) {
+				covered++;
+			}
+		}
+		if (covered != relations.size()) {
+			return null;
+		}
+
+		// every predicate of the view must be one of the query's (b=a is the same predicate as a=b)
+		Set<Predicate> matched = new HashSet<Predicate>();
+		for (Predicate predicate : this.query.getPredicates()) {
+			Predicate mirrored = predicate.equalsValue() ? null : new Predicate(predicate.getRightAttribute(), predicate.getLeftAttribute());
+			if (query.getPredicates().contains(predicate)) {
+				matched.add(predicate);
+			} else if (mirrored != null && query.getPredicates().contains(mirrored)) {
+				matched.add(mirrored);
+			} else {
+				return null;
+			}
+		}
+
+		// the attributes of the base relations used by the rest of the query must be attributes of the view
+		List<Predicate> residual = new ArrayList<Predicate>();
+		AttributeSet used = new AttributeSet();
+		for (Predicate predicate : query.getPredicates()) {
+			if (!matched.contains(predicate)) {
+				residual.add(predicate);
+				used.add(predicate.getLeftAttribute());
+				if (!predicate.equalsValue()) {
+					used.add(predicate.getRightAttribute());
+				}
+			}
+		}
+		// without a project (SELECT *), every attribute is in the result
+		if (query.getProjected() != null) {
+			used.addAll(query.getProjected());
+		}
+		AttributeSet available = new AttributeSet(attributes);
+		for (Scan scan : query.getScans()) {
+			if (covers(scan)) {
+				for (Attribute attribute : scan.getRelation().getAttributes()) {
+					if ((query.getProjected() == null || used.contains(attribute)) && !available.contains(attribute)) {
+						return null;
+					}
+				}
+			}
+		}
+		return residual;
+	}
+
+	public String toString() {
+		return name + " AS " + definition;
+	}
+}
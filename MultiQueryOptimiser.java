@@ -0,0 +1,244 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class optimises a batch of canonical queries together, into a
+ * single plan DAG in which the subplans common to several queries (the
+ * same selects and joins over the same relations) are shared, so that
+ * they need only be computed once (see Executor.execute(List)).
+ *
+ * The selects and joins of every query are optimised by one Optimiser,
+ * whose PlanFactory returns the same operator for equal subplans, so the
+ * queries' plans share every subplan that they have in common. Projects
+ * are then placed once for the whole batch: each operator keeps the
+ * attributes required by any of the operators and queries above it, so
+ * that queries which need different attributes of a subplan still share
+ * it, rather than each pushing its own projects down into it.
+ *
+ * The work of a batch is measured as the estimated number of tuples
+ * produced by its operators, each counted once however many queries use
+ * it, and compared with the work of the same queries optimised and run
+ * separately.
+ */
+public class MultiQueryOptimiser {
+	private final Catalogue catalogue;
+	private final long timeoutMillis;
+	private int operators = 0;
+	private int sharedOperators = 0;
+	private long sharedCost = 0;
+	private long separateCost = 0;
+
+	/**
+	 * Create an optimiser for batches of queries over a catalogue.
+	 * @param catalogue
+	 */
+	public MultiQueryOptimiser(Catalogue catalogue) {
+		this(catalogue, OptimiserBudget.UNLIMITED);
+	}
+
+	/**
+	 * Create an optimiser for batches of queries over a catalogue that
+	 * spends at most timeoutMillis optimising each query.
+	 * @param catalogue
+	 * @param timeoutMillis time limit per query, or OptimiserBudget.UNLIMITED
+	 */
+	public MultiQueryOptimiser(Catalogue catalogue, long timeoutMillis) {
+		this.catalogue = catalogue;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Optimise a batch of canonical plans, each of which has been visited
+	 * by an Estimator, returning the optimised plan of each query in
+	 * order. The plans returned share the operators that they have in
+	 * common.
+	 * @param plans
+	 * @return
+	 */
+	public List<Operator> optimise(List<Operator> plans) {
+		Optimiser optimiser = new Optimiser(catalogue);
+		List<Operator> joined = new ArrayList<Operator>(plans.size());
+		for (Operator plan : plans) {
+			joined.add(optimiser.optimiseJoins(plan, budget()));
+		}
+		List<Operator> roots = placeProjects(joined, optimiser.getFactory());
+
+		separateCost = 0;
+		for (Operator plan : plans) {
+			separateCost += PlanCost.of(new Optimiser(catalogue).optimise(plan, budget()));
+		}
+		measure(roots);
+		return roots;
+	}
+
+	private OptimiserBudget budget() {
+		return new OptimiserBudget(timeoutMillis, OptimiserBudget.UNLIMITED, OptimiserBudget.UNLIMITED);
+	}
+
+	/**
+	 * Return the number of distinct operators in the last batch optimised.
+	 * @return
+	 */
+	public int getOperatorCount() {
+		return operators;
+	}
+
+	/**
+	 * Return the number of operators of the last batch optimised whose
+	 * output is used more than once: by several operators, or by several
+	 * queries.
+	 * @return
+	 */
+	public int getSharedOperatorCount() {
+		return sharedOperators;
+	}
+
+	/**
+	 * Return the estimated number of tuples produced by the operators of
+	 * the last batch optimised, counting each operator once.
+	 * @return
+	 */
+	public long getSharedCost() {
+		return sharedCost;
+	}
+
+	/**
+	 * Return the estimated number of tuples produced by the plans of the
+	 * queries of the last batch, each optimised separately.
+	 * @return
+	 */
+	public long getSeparateCost() {
+		return separateCost;
+	}
+
+	/**
+	 * Return the distinct operators of a plan DAG, each after its inputs.
+	 * @param roots
+	 * @return
+	 */
+	static List<Operator> operators(List<Operator> roots) {
+		Set<Operator> seen = Collections.newSetFromMap(new IdentityHashMap<Operator, Boolean>());
+		List<Operator> order = new ArrayList<Operator>();
+		for (Operator root : roots) {
+			// a subplan already walked from another root or operator is not walked again
+			PlanTraversal.postOrder(root, op -> !seen.contains(op), op -> {
+				if (seen.add(op)) {
+					order.add(op);
+				}
+			});
+		}
+		return order;
+	}
+
+	/**
+	 * Return the number of uses of the output of each distinct operator of
+	 * a plan DAG: one for each input of an operator that it is, and one
+	 * for each root that it is.
+	 * @param roots
+	 * @return
+	 */
+	static Map<Operator, Integer> consumers(List<Operator> roots) {
+		Map<Operator, Integer> consumers = new IdentityHashMap<Operator, Integer>();
+		for (Operator op : operators(roots)) {
+			for (Operator input : op.inputs) {
+				consumers.merge(input, 1, Integer::sum);
+			}
+		}
+		for (Operator root : roots) {
+			consumers.merge(root, 1, Integer::sum);
+		}
+		return consumers;
+	}
+
+	// Rebuild a plan DAG with a project above each operator whose output holds attributes that nothing above it requires
+	private List<Operator> placeProjects(List<Operator> roots, PlanFactory factory) {
+		List<Operator> order = operators(roots);
+
+		// the attributes required of each operator, found from the roots down
+		Map<Operator, AttributeSet> required = new IdentityHashMap<Operator, AttributeSet>();
+		for (Operator root : roots) {
+			require(required, root, new AttributeSet(root.getOutput().getAttributes()));
+		}
+		for (int i = order.size() - 1; i >= 0; i--) {
+			Operator op = order.get(i);
+			AttributeSet attributes = required.get(op);
+			if (op instanceof Project) {
+				require(required, ((Project) op).getInput(), new AttributeSet(((Project) op).getAttributes()));
+			} else if (op instanceof Select || op instanceof Join) {
+				Predicate predicate = op instanceof Select ? ((Select) op).getPredicate() : ((Join) op).getPredicate();
+				AttributeSet needed = new AttributeSet(attributes);
+				needed.add(predicate.getLeftAttribute());
+				if (!predicate.equalsValue()) {
+					needed.add(predicate.getRightAttribute());
+				}
+				for (Operator input : op.inputs) {
+					require(required, input, needed);
+				}
+			} else {
+				for (Operator input : op.inputs) {
+					require(required, input, attributes);
+				}
+			}
+		}
+
+		// the operators rebuilt from the leaves up, and each with its project, if it needs one
+		Map<Operator, Operator> rebuilt = new IdentityHashMap<Operator, Operator>();
+		Map<Operator, Operator> projected = new IdentityHashMap<Operator, Operator>();
+		for (Operator op : order) {
+			Operator copy;
+			if (op instanceof Scan) {
+				copy = factory.intern(op);
+			} else if (op instanceof Project) {
+				// a project takes its own attributes from its input, which needs no project of its own for them
+				copy = factory.project(rebuilt.get(((Project) op).getInput()), ((Project) op).getAttributes());
+			} else if (op instanceof Select) {
+				copy = factory.select(projected.get(((Select) op).getInput()), ((Select) op).getPredicate());
+			} else if (op instanceof Join) {
+				copy = factory.join(projected.get(((Join) op).getLeft()), projected.get(((Join) op).getRight()), ((Join) op).getPredicate());
+			} else {
+				copy = factory.product(projected.get(((Product) op).getLeft()), projected.get(((Product) op).getRight()));
+			}
+			rebuilt.put(op, copy);
+
+			List<Attribute> attributes = required.get(op).retain(copy.getOutput().getAttributes());
+			boolean narrower = attributes.size() < copy.getOutput().getAttributes().size() && !(op instanceof Project);
+			projected.put(op, narrower ? factory.project(copy, attributes) : copy);
+		}
+
+		List<Operator> result = new ArrayList<Operator>(roots.size());
+		for (Operator root : roots) {
+			result.add(rebuilt.get(root));
+		}
+		return result;
+	}
+
+	// Add attributes to those required of an operator, taking only those in its output
+	private static void require(Map<Operator, AttributeSet> required, Operator op, AttributeSet attributes) {
+		AttributeSet set = required.computeIfAbsent(op, o -> new AttributeSet());
+		for (Attribute attribute : op.getOutput().getAttributes()) {
+			if (attributes.contains(attribute)) {
+				set.add(attribute);
+			}
+		}
+	}
+
+	// Count the operators, shared operators and estimated cost of a plan DAG
+	private void measure(List<Operator> roots) {
+		Map<Operator, Integer> consumers = consumers(roots);
+		operators = consumers.size();
+		sharedOperators = 0;
+		sharedCost = 0;
+		for (Map.Entry<Operator, Integer> entry : consumers.entrySet()) {
+			if (entry.getValue() > 1) {
+				sharedOperators++;
+			}
+			sharedCost += entry.getKey().getOutput().getTupleCount();
+		}
+	}
+}
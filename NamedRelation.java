@@ -12,6 +12,11 @@ public class NamedRelation extends Relation {
 	 * The name of the named relation
 	 */
 	private String name;
+
+	/**
+	 * The partitioning of the relation, or null if it is not partitioned
+	 */
+	private Partitioning partitioning;
 	
 	/**
 	 * Create a new named relation with a given name and tuple count
@@ -23,6 +28,48 @@ public class NamedRelation extends Relation {
 		this.name = name;
 	}
 
+	/**
+	 * Return the name of the named relation
+	 * @return The name of the relation
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * Return the partitioning of the relation, with the statistics of each
+	 * partition
+	 * @return The partitioning, or null if the relation is not partitioned
+	 */
+	public Partitioning getPartitioning() {
+		return partitioning;
+	}
+
+	/**
+	 * Set the partitioning of the relation. A relation that has been
+	 * published in the catalogue must not be changed (see
+	 * Catalogue.partition()).
+	 * @param partitioning
+	 */
+	void setPartitioning(Partitioning partitioning) {
+		this.partitioning = partitioning;
+	}
+
+	/**
+	 * Return a copy of this named relation, with the same name, tuple
+	 * count, attributes and partitioning, which may be changed without
+	 * affecting this one
+	 * @return Copy of the relation
+	 */
+	public NamedRelation copy() {
+		NamedRelation reln = new NamedRelation(name, getTupleCount());
+		for (Attribute attr : getAttributes()) {
+			reln.addAttribute(attr);
+		}
+		reln.partitioning = partitioning;
+		return reln;
+	}
+	
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
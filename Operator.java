@@ -3,13 +3,21 @@
  */
 package sjdb;
 
-import java.util.List;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Deque;
+import java.util.List;
 
 /**
  * This abstract class represents an operator in a query, and
  * is subclassed by UnaryOperator and BinaryOperator.
+ * 
+ * The inputs and parameters of an operator do not change once it has
+ * been created, so operators are compared structurally: two operators
+ * are equal if they are of the same class, have the same parameters
+ * (predicate, attributes or relation) and equal inputs. The output is
+ * not significant. The hash code is computed once and cached, so that
+ * plans can be hash-consed by a PlanFactory.
  * @author nmg
  *
  */
@@ -24,6 +32,11 @@ public abstract class Operator {
 	 */
 	protected Relation output;
 	
+	/**
+	 * The cached hash code, or 0 if it has not yet been computed.
+	 */
+	private int hash;
+	
 	public Operator() {
 		this.inputs = new ArrayList<Operator>();
 	}
@@ -56,21 +69,131 @@ public abstract class Operator {
 	}
 	
 	/**
-	 * Set the relation produced by this operator as output.
+	 * Set the relation produced by this operator as output. Only an
+	 * Estimator sets outputs, since the canonical operators of a
+	 * PlanFactory are shared and their outputs must not be replaced.
 	 * @param reln Output relation
 	 */
-	public void setOutput(Relation reln) {
+	void setOutput(Relation reln) {
 		this.output = reln;
 	}
 	
 	/**
-	 * Accept a visitor to this operator.
+	 * Accept a visitor to this operator and, before it, to every operator
+	 * below it, depth-first. The plan is walked with an explicit stack
+	 * (see PlanTraversal), so plans of any depth may be visited.
 	 * @param visitor Visitor to be accepted
 	 */
 	public void accept(PlanVisitor visitor) {
-		Iterator<Operator> iter = this.inputs.iterator();
-		while (iter.hasNext()){
-			iter.next().accept(visitor);
+		PlanTraversal.postOrder(this, op -> op.dispatch(visitor));
+	}
+	
+	/**
+	 * Pass this operator, but not its inputs, to the visitor.
+	 * @param visitor Visitor to be accepted
+	 */
+	protected abstract void dispatch(PlanVisitor visitor);
+	
+	/**
+	 * Return the text written before, between and after the renderings
+	 * of the inputs of this operator by toString(): one more string than
+	 * there are inputs.
+	 * @return Text around the inputs
+	 */
+	protected abstract String[] getLabels();
+
+	/**
+	 * Return a hash code for the parameters of this operator, not
+	 * including its inputs.
+	 * @return Hash code of the parameters
+	 */
+	protected int parameterHashCode() {
+		return 0;
+	}
+	
+	/**
+	 * Return true if this operator has the same parameters as another
+	 * operator of the same class, not comparing their inputs.
+	 * @param op Operator of the same class
+	 * @return
+	 */
+	protected boolean parametersEqual(Operator op) {
+		return true;
+	}
+	
+	@Override
+	public final int hashCode() {
+		if (this.hash == 0) {
+			// hash the operators below first, stopping at those whose hash codes are already known
+			PlanTraversal.postOrder(this, op -> op.hash == 0, op -> {
+				if (op.hash == 0) {
+					int h = op.getClass().hashCode();
+					for (Operator input : op.inputs) {
+						h = 31 * h + input.hash;
+					}
+					h = 31 * h + op.parameterHashCode();
+					// 0 marks a hash code not yet computed
+					op.hash = h != 0 ? h : 1;
+				}
+			});
+		}
+		return this.hash;
+	}
+	
+	@Override
+	public final boolean equals(Object obj) {
+		if (!(obj instanceof Operator)) {
+			return false;
+		}
+		// compare the plans pairwise with an explicit stack, skipping subplans that are shared
+		Deque<Operator[]> pairs = new ArrayDeque<Operator[]>();
+		pairs.push(new Operator[] {this, (Operator) obj});
+		while (!pairs.isEmpty()) {
+			Operator[] pair = pairs.pop();
+			Operator lhs = pair[0];
+			Operator rhs = pair[1];
+			if (lhs == rhs) {
+				continue;
+			}
+			if (lhs.getClass() != rhs.getClass() || lhs.hashCode() != rhs.hashCode()
+					|| lhs.inputs.size() != rhs.inputs.size() || !lhs.parametersEqual(rhs)) {
+				return false;
+			}
+			for (int i = 0; i < lhs.inputs.size(); i++) {
+				pairs.push(new Operator[] {lhs.inputs.get(i), rhs.inputs.get(i)});
+			}
+		}
+		return true;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public final String toString() {
+		StringBuilder out = new StringBuilder();
+		Deque<Operator> stack = new ArrayDeque<Operator>();
+		Deque<Integer> next = new ArrayDeque<Integer>();
+		stack.push(this);
+		next.push(0);
+		out.append(getLabels()[0]);
+		while (!stack.isEmpty()) {
+			Operator op = stack.peek();
+			int index = next.pop();
+			if (index < op.inputs.size()) {
+				next.push(index + 1);
+				Operator input = op.inputs.get(index);
+				stack.push(input);
+				next.push(0);
+				out.append(input.getLabels()[0]);
+			} else {
+				stack.pop();
+				if (!stack.isEmpty()) {
+					Operator parent = stack.peek();
+					out.append(parent.getLabels()[next.peek()]);
+				}
+			}
 		}
+		return out.toString();
 	}
 }
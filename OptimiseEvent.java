@@ -0,0 +1,51 @@
+package sjdb;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * This is the JDK Flight Recorder event emitted for each call to
+ * Optimiser.optimise(), with the time spent in each of its steps and the
+ * work it did. When no recording is enabled for the event, it is not
+ * committed and costs almost nothing.
+ */
+@Name("sjdb.Optimise")
+@Label("Optimise")
+@Category("SJDB")
+@Description("Optimisation of a query plan")
+class OptimiseEvent extends jdk.jfr.Event {
+	@Label("Cache Hit")
+	boolean cacheHit;
+
+	@Label("Select Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long selectNanos;
+
+	@Label("Reorder Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long reorderNanos;
+
+	@Label("Join Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long joinNanos;
+
+	@Label("Project Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long projectNanos;
+
+	@Label("Operators Allocated")
+	long operatorsAllocated;
+
+	@Label("Estimator Calls")
+	long estimatorCalls;
+
+	@Label("Plans Considered")
+	long plansConsidered;
+
+	@Label("Budget Limit")
+	@Description("The limit of the optimiser budget that was reached, if any")
+	String budgetLimit;
+}
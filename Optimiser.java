@@ -1,144 +1,833 @@
 package sjdb;
 
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 public class Optimiser {
+    static final int PARALLEL_REORDER_OPERATORS = 64;   // operators to be reordered from which components are ordered in parallel
 
     /*
+     Step 0: Remove redundant predicates, and joins made redundant by key constraints, and rewrite the query to use
+             materialised views
      Step 1: Move SELECT operators down
      Step 2: Reorder to put most restrictive SELECT first
      Step 3: Combine PRODUCT and SELECT operations to create JOIN
      Step 4: Move PROJECT operators down
+     Step 5: Distribute the plan over the workers, if there is more than one
+
+     The method for each step is package-private so that OptimiserBenchmark can time the steps separately.
+
+     Operators are created through a PlanFactory, which returns the existing operator for a subplan that a step leaves
+     unchanged, and estimates each new operator once from the estimates of its inputs. The factory is kept between
+     queries, so subplans common to several queries are also shared.
+
+     optimise() may be given an OptimiserBudget, which bounds its time, the plans it considers while ordering joins and the
+     operators it adds to the factory, and through which it may be cancelled from another thread. The budget is checked as
+     each operator is rewritten; when it runs out, the cheapest plan completed by step 4 is returned. If it runs out before any
+     plan has been completed, the heuristic plan is returned instead (see heuristicPlan()): the selects are placed above their
+     scans, the relations are ordered by tuple count alone, as when the plans of a budget are spent, and steps 3 and 4 are
+     performed, all without further checks of the budget. This takes a fraction of the time of step 1, and avoids returning the
+     query as written, whose products may cost many orders of magnitude more than any ordered plan.
+
+     A query whose relations and predicates include those of a materialised view (see MaterialisedView) is also rewritten
+     to scan the view in place of those relations, applying only the query's other predicates. Steps 1 to 4 are performed
+     on the query and on each of its rewritings, and the plan with the lowest estimated cost (see PlanCost) is returned.
+
+     After step 3, a partitioned relation (see Partitioning) is only scanned in the partition that can hold the value of an
+     attr="value" SELECT on its partitioning attribute, and when one input of a JOIN on the partitioning attributes of two
+     compatibly partitioned relations scans a single partition, so does the other.
+
+     With runtime filters switched on, joins are also oriented for an Executor that uses them: the larger of the first two
+     relations of each join order becomes the probe input of the first join, so that the filters built from the other relation
+     and from every relation joined above it reduce the larger relation as it is scanned. In a star join, the fact relation is
+     thus reduced by semi-joins with all of the (filtered) dimensions before it is joined to any of them.
+
+     With more than one worker set, the plan found is then distributed (Step 5) for execution by a DistributedExecutor:
+     EXCHANGE operators are placed bottom-up wherever an operator needs its input spread over the workers differently from
+     how it is (see Distribution), and the result is gathered on one worker. Each JOIN is given the placement of its inputs
+     that is estimated to send the fewest bytes between workers (see Exchange), from the estimated tuple counts of its
+     inputs: none if both are already hashed on their join attributes, a shuffle of each input that is not (a repartition
+     join), or a broadcast of one whole input to every worker, leaving the other where it is. Joins are ordered before they
+     are placed, so the join order is the one chosen for a single worker.
+
+     Unless instrumentation is switched off, the time spent in each step and the work done are recorded in
+     OptimiserStatistics and emitted as an OptimiseEvent to Flight Recorder.
     */
 
     private Catalogue catalogue;
+    private PlanCache planCache;
+    private CardinalityFeedback feedback;   // observed tuple counts used to correct estimates, if any
+    private PlanFactory factory;            // creates and estimates operators, sharing unchanged subplans between steps and queries
+    private CatalogueSnapshot snapshot;     // version of the catalogue pinned for the duration of optimise()
     private LinkedList<Operator> reorderOperators = new LinkedList<>();     // LinkedList to store operators that need to be reordered
     private Set<Predicate> reorderPredicates = new HashSet<>();     // HashSet to store predicates required for join reordering
+    private long operatorsAllocated;    // operators created during the current optimisation
+    private long estimatorCalls;        // operators estimated during the current optimisation
+    private final LongAdder plansConsidered = new LongAdder();     // candidates checked while ordering joins in the current optimisation
+    private boolean cacheHit;           // whether the current optimisation was answered from the plan cache
+    private OptimiserBudget budget = new OptimiserBudget();    // limits of the current optimisation
+    private long memoStart;             // operators estimated by the factory before the current optimisation
+    private boolean runtimeFilters = false;     // whether plans are oriented for execution with runtime filters
+    private boolean pushProjects = true;        // whether step 4 is performed (see optimiseJoins())
+    private boolean materialisedViews = true;   // whether queries are rewritten to use materialised views
+    private int workers = 1;                    // number of workers over which plans are distributed (Step 5)
+    private int parallelReorderOperators = PARALLEL_REORDER_OPERATORS;
 
     // Constructor
     public Optimiser(Catalogue catalogue){
+        this(catalogue, null);
+    }
+
+    // Constructor for an optimiser that reuses plans from (and adds plans to) a plan cache
+    public Optimiser(Catalogue catalogue, PlanCache planCache){
+        this(catalogue, planCache, null);
+    }
+
+    // Constructor for an optimiser that also corrects its estimates with observed tuple counts
+    public Optimiser(Catalogue catalogue, PlanCache planCache, CardinalityFeedback feedback){
         this.catalogue = catalogue;
+        this.planCache = planCache;
+        this.feedback = feedback;
+        this.factory = new PlanFactory(feedback);
+    }
+
+    // Method to orient the joins of plans optimised from now on for execution with runtime filters (see Executor)
+    public void setRuntimeFilters(boolean runtimeFilters){
+        this.runtimeFilters = runtimeFilters;
+    }
+
+    // Method to switch off (or on) the rewriting of queries to use the materialised views in the catalogue
+    public void setMaterialisedViews(boolean materialisedViews){
+        this.materialisedViews = materialisedViews;
+    }
+
+    // Method to distribute the plans optimised from now on over a number of workers (see DistributedExecutor), or not if it is 1
+    public void setWorkers(int workers){
+        this.workers = workers;
+    }
+
+    // Sets the number of operators to be reordered from which components are ordered in parallel, so that tests can compare
+    // the parallel and serial orders of the same query
+    void setParallelReorderOperators(int operators){
+        this.parallelReorderOperators = operators;
     }
 
     // Optimise function that takes the query plan as input, performs the 4 optimisation steps and returns the new, optimised query plan
     public Operator optimise(Operator plan) {
-        plan = optimiseSelects(plan);       // Step 1: Move SELECT operators down
-        plan = reorderJoins(plan);        // Step 2: Reorder to put most restrictive SELECT first
-        plan = createJoins(plan);         // Step 3: Combine PRODUCT and SELECT operations to create JOIN
-        plan = pushProjectsDown(plan, new HashSet<>());   // Step 4: Move PROJECT operators down
-        return acceptOperator(plan);
+        return optimise(plan, new OptimiserBudget());
     }
 
-    // Method to move all selects down by searching down the query plan using recursion
-    private Operator optimiseSelects(Operator operator){
-        String operatorName = getOperatorType(operator);
-        if (operatorName.equals("Select")) {
-            Select select = (Select) operator;
-            Operator newOperator = pushSelectDown(select, select.getInput());
-            if(getOperatorType(newOperator).equals("Select")){
-                Select newSelect = (Select) newOperator;
-                return acceptOperator(new Select(optimiseSelects(newSelect.getInput()),newSelect.getPredicate()));
-            }else{
-                return acceptOperator(optimiseSelects(newOperator));
-            }
-        }else if(operatorName.equals("Project")){
-            Project project = (Project) operator;
-            return acceptOperator(new Project(optimiseSelects(project.getInput()), project.getAttributes()));
-        }else if(operatorName.equals("Product")){
-            Product product = (Product) operator;
-            return acceptOperator(new Product(optimiseSelects(product.getLeft()),optimiseSelects(product.getRight())));
-        }else if (operatorName.equals("Scan")) {
-            Scan scan = (Scan) operator;
-            return acceptOperator(new Scan((NamedRelation) scan.getRelation()));
+    // Optimise function that stops when the budget runs out or is cancelled (see OptimiserBudget), returning the last plan completed
+    public Operator optimise(Operator plan, OptimiserBudget budget) {
+        this.budget = budget;
+        memoStart = factory.getEstimates();
+        if (!OptimiserStatistics.ENABLED) {
+            return optimise(plan, (long[]) null);
         }
-        return acceptOperator(operator);
+        plansConsidered.reset();
+        long allocated = factory.getAllocated();
+        long estimates = factory.getEstimates();
+        long[] phaseNanos = new long[4];
+        OptimiseEvent event = new OptimiseEvent();
+        event.begin();
+        long start = System.nanoTime();
+        Operator result = optimise(plan, phaseNanos);
+        long latency = System.nanoTime() - start;
+        event.end();
+        operatorsAllocated = factory.getAllocated() - allocated;
+        estimatorCalls = factory.getEstimates() - estimates;
+
+        if (cacheHit) {
+            OptimiserStatistics.get().recordCacheHit(latency);
+        } else {
+            OptimiserStatistics.get().record(phaseNanos, operatorsAllocated, estimatorCalls, plansConsidered.sum(), latency);
+        }
+        if (budget.isExhausted()) {
+            OptimiserStatistics.get().recordBudgetExhausted();
+        }
+        if (event.shouldCommit()) {
+            event.cacheHit = cacheHit;
+            event.selectNanos = phaseNanos[0];
+            event.reorderNanos = phaseNanos[1];
+            event.joinNanos = phaseNanos[2];
+            event.projectNanos = phaseNanos[3];
+            event.operatorsAllocated = operatorsAllocated;
+            event.estimatorCalls = estimatorCalls;
+            event.plansConsidered = plansConsidered.sum();
+            event.budgetLimit = budget.isExhausted() ? budget.getLimitReached().toString() : null;
+            event.commit();
+        }
+        return result;
     }
 
-    // Method to push a specific select down the query plan
-    private Operator pushSelectDown(Select select, Operator operator){
-        Predicate predicate = select.getPredicate();
-        if (predicate.equalsValue()) {
-            // select operator with predicate of type attr=val is pushed down to just above the operator that contains attr
-            Attribute leftAttr = predicate.getLeftAttribute();
-            if(getOperatorType(operator).equals("Product")){
-                Product product = (Product) operator;
-                return acceptOperator(new Product(pushSelectDown(select, product.getLeft()), pushSelectDown(select,product.getRight())));
-            }else if(getOperatorType(operator).equals("Project")){
-                Project project = (Project) operator;
-                return acceptOperator(new Project(pushSelectDown(select, project.getInput()), project.getAttributes()));
-            }else if(getOperatorType(operator).equals("Select")){
-                Select selectOp = (Select) operator;
-                return acceptOperator(new Select(pushSelectDown(select, selectOp.getInput()),selectOp.getPredicate()));
-            }else {
-                // If the scan operator contains the attr in predicate, select is pushed down to just above the scan operator
-                if (operator.getOutput().getAttributes().contains(leftAttr)) {
-                    Scan scan = new Scan((NamedRelation) ((Scan) operator).getRelation());
-                    return acceptOperator(new Select(scan, predicate));
-                } else {
-                    return acceptOperator(new Scan((NamedRelation) ((Scan) operator).getRelation()));
+    // Optimise function for MultiQueryOptimiser that performs steps 0 to 3 only, leaving PROJECT operators to be placed once the
+    // attributes required of the subplans that queries share are known. Plans are neither taken from nor added to the plan cache.
+    Operator optimiseJoins(Operator plan, OptimiserBudget budget){
+        pushProjects = false;
+        try {
+            return optimise(plan, budget);
+        } finally {
+            pushProjects = true;
+        }
+    }
+
+    // Return the factory through which this optimiser creates operators, so that plans optimised by it can be extended with
+    // operators shared with them
+    PlanFactory getFactory(){
+        return factory;
+    }
+
+    // Optimise a plan, recording the time spent in each step in phaseNanos unless it is null
+    private Operator optimise(Operator plan, long[] phaseNanos) {
+        // Pin one version of the catalogue so that every scan in the plan is estimated with the same statistics
+        snapshot = catalogue.snapshot();
+        factory.validate(snapshot);
+        reorderOperators.clear();
+        reorderPredicates.clear();
+        cacheHit = false;
+        String canonical = null;
+        PlanCache planCache = pushProjects ? this.planCache : null;
+        if (planCache != null) {
+            canonical = plan.toString();
+            // plans optimised with feedback are only reused while the feedback has not changed significantly
+            if (feedback != null) {
+                canonical += " @" + feedback.getVersion();
+            }
+            if (runtimeFilters) {
+                canonical += " @filters";
+            }
+            if (!materialisedViews) {
+                canonical += " @noviews";
+            }
+            if (workers > 1) {
+                canonical += " @workers" + workers;
+            }
+            Operator cached = planCache.get(canonical, snapshot.getVersion());
+            if (cached != null) {
+                cacheHit = true;
+                return cached;
+            }
+        }
+
+        // Each step starts from the last plan completed, which is returned if the budget runs out before the step completes
+        Operator[] completed = { plan };
+        Operator best = null;       // the cheapest plan completed, of the query or of a rewriting of it
+        Operator query = plan;      // the canonical query, without redundant predicates and joins once step 0 has completed
+        try {
+            long time = phaseNanos != null ? System.nanoTime() : 0;
+            completed[0] = removeRedundancy(completed[0]);      // Step 0: Remove redundant predicates and joins (timed with step 1)
+            query = completed[0];
+            List<Operator> rewritings = materialisedViews ? rewriteWithViews(completed[0]) : Collections.emptyList();
+            best = optimiseSteps(completed, phaseNanos, time);
+            for (Operator rewriting : rewritings) {
+                completed[0] = rewriting;
+                Operator candidate = optimiseSteps(completed, phaseNanos, phaseNanos != null ? System.nanoTime() : 0);
+                if (PlanCost.of(candidate) < PlanCost.of(best)) {
+                    best = candidate;
                 }
             }
-        }else{
-            // select operator with predicate of type attr=attr is pushed down to just above the operator that contains both attrs
-            Attribute leftAttr = predicate.getLeftAttribute();
-            Attribute rightAttr = predicate.getRightAttribute();
-            if(getOperatorType(operator).equals("Product")) {
-                Product product = (Product) operator;
-                Operator leftOp = product.getLeft();
-                Operator rightOp = product.getRight();
-
-                // If the left operator of the product contains both attributes, the select is pushed down to just above the left operator
-                List<Attribute> leftAttributes = leftOp.getOutput().getAttributes();
-                if (leftAttributes.contains(leftAttr) && leftAttributes.contains(rightAttr)) {
-                    if(getOperatorType(leftOp).equals("Scan")) {
-                        Scan scan = new Scan((NamedRelation) ((Scan) leftOp).getRelation());
-                        Select newSelect = new Select(scan, predicate);
-                        return acceptOperator(new Product(newSelect, rightOp));
-                    }else
-                        return acceptOperator(new Product(pushSelectDown(select, leftOp), rightOp));
+        } catch (OptimiserBudget.ExhaustedException e) {
+            if (best == null) {
+                Operator heuristic = heuristicPlan(query);
+                best = heuristic != null ? heuristic : completed[0];
+            }
+            // a plan for several workers is distributed even so, since it cannot be executed by them otherwise
+            return distribute(best);
+        }
+        plan = distribute(best);       // Step 5: Place EXCHANGE operators to distribute the plan over the workers
+
+        // A plan found within a reduced budget is not cached, since a later optimisation with a larger budget may do better
+        if (planCache != null && !budget.isExhausted()) {
+            planCache.put(canonical, snapshot.getVersion(), plan);
+        }
+        return plan;
+    }
+
+    // Method that performs steps 1 to 4 on completed[0], replacing it with the plan completed by each step, and adding the time
+    // spent in each step to phaseNanos unless it is null
+    private Operator optimiseSteps(Operator[] completed, long[] phaseNanos, long time){
+        reorderOperators.clear();
+        reorderPredicates.clear();
+        completed[0] = optimiseSelects(completed[0]);       // Step 1: Move SELECT operators down
+        time = lap(phaseNanos, 0, time);
+        completed[0] = reorderJoins(completed[0]);        // Step 2: Reorder to put most restrictive SELECT first
+        time = lap(phaseNanos, 1, time);
+        completed[0] = createJoins(completed[0]);         // Step 3: Combine PRODUCT and SELECT operations to create JOIN
+        completed[0] = prunePartitions(completed[0]);     // Scan only the partitions of relations that are needed (timed with step 3)
+        time = lap(phaseNanos, 2, time);
+        if (pushProjects) {
+            // Without a PROJECT at the top (SELECT *), every attribute of the result is required
+            AttributeSet required = getOperatorType(completed[0]).equals("Project") ? new AttributeSet() : new AttributeSet(completed[0].getOutput().getAttributes());
+            completed[0] = acceptOperator(pushProjectsDown(completed[0], required));   // Step 4: Move PROJECT operators down
+        }
+        lap(phaseNanos, 3, time);
+        return completed[0];
+    }
+
+    /*  Method that returns the heuristic plan for a canonical query, for use when the budget has run out before any plan was
+        completed, or null if the query is not canonical. Each SELECT on a single relation is placed directly above its scan, as
+        step 1 would place it, the relations are ordered by tuple count alone, as when the plans of a budget are spent, and steps 3
+        and 4 are then performed. The budget that ran out is not checked, so that the plan is completed whatever ran out.
+     */
+    private Operator heuristicPlan(Operator operator){
+        CanonicalQuery query = CanonicalQuery.of(operator);
+        if(query == null){
+            return null;
+        }
+        OptimiserBudget exhausted = budget;
+        budget = new OptimiserBudget(OptimiserBudget.UNLIMITED, 0, OptimiserBudget.UNLIMITED);
+        try{
+            reorderOperators.clear();
+            reorderPredicates.clear();
+            Map<Attribute, Scan> owners = new HashMap<>();
+            Map<Scan, Operator> selected = new LinkedHashMap<>();
+            for(Scan scan : query.getScans()){
+                for(Attribute attribute : scan.getOutput().getAttributes()){
+                    owners.put(attribute, scan);
+                }
+                selected.put(scan, newScan(scan));
+            }
+            for(Predicate predicate : query.getPredicates()){
+                Scan owner = owners.get(predicate.getLeftAttribute());
+                if(owner != null && (predicate.equalsValue() || owner == owners.get(predicate.getRightAttribute()))){
+                    selected.put(owner, factory.select(selected.get(owner), predicate));
+                }else{
+                    reorderPredicates.add(predicate);
                 }
+            }
+            reorderOperators.addAll(selected.values());
+            Collections.sort(reorderOperators, Comparator.comparing((Operator o) -> o.getOutput().getTupleCount()));
+            Operator plan = reorderComponents();
+            if(query.getProjected() != null){
+                plan = factory.project(plan, query.getProjected());
+            }
+            plan = prunePartitions(createJoins(plan));
+            if(pushProjects){
+                AttributeSet required = query.getProjected() != null ? new AttributeSet() : new AttributeSet(plan.getOutput().getAttributes());
+                plan = acceptOperator(pushProjectsDown(plan, required));
+            }
+            return plan;
+        }finally{
+            budget = exhausted;
+        }
+    }
+
+    /*  Method to remove redundant predicates and joins from a canonical plan (a PROJECT, if any, over SELECTs over PRODUCTs of SCANs).
+        A predicate is removed if it repeats another (a=b repeats b=a), or if it is a range predicate implied by another predicate
+        on the same attribute. Equalities implied by others (a=c by a=b and b=c) are kept, since they allow more join orders.
+        A relation is removed, together with the predicate joining it, if none of its attributes are projected and its only predicate
+        joins its key to a foreign key of another relation of the query that references the key: each tuple of the other relation
+        then matches exactly one of its tuples, so the join changes nothing. Removing one relation may allow another to be removed.
+        Plans that are not canonical are returned unchanged.
+     */
+    Operator removeRedundancy(Operator operator){
+        CanonicalQuery query = CanonicalQuery.of(operator);
+        if(query == null){
+            return operator;
+        }
+
+        checkBudget();
+        List<Predicate> predicates = query.getPredicates();
+        List<Scan> scans = query.getScans();
+        int scanCount = scans.size();
+        List<Predicate> kept = removeRedundantPredicates(predicates);
+        if(query.getProjected() != null){
+            removeRedundantJoins(scans, kept, new AttributeSet(query.getProjected()));
+        }
+        if(kept.size() == predicates.size() && scans.size() == scanCount){
+            return operator;
+        }
 
-                // If the right operator of the product contains both attributes, the select is pushed down to just above the right operator
-                List<Attribute> rightAttributes = rightOp.getOutput().getAttributes();
-                if (rightAttributes.contains(leftAttr) && rightAttributes.contains(rightAttr)) {
-                    if(getOperatorType(rightOp).equals("Scan")) {
-                        Scan scan = new Scan((NamedRelation) ((Scan) rightOp).getRelation());
-                        Select newSelect = new Select(scan, predicate);
-                        return acceptOperator(new Product(leftOp, newSelect));
-                    }else
-                        return acceptOperator(new Product(leftOp, pushSelectDown(select, rightOp)));
+        List<Scan> newScans = new ArrayList<>();
+        for(Scan scan : scans){
+            newScans.add(newScan(scan));
+        }
+        return CanonicalQuery.plan(factory, newScans, kept, query.getProjected());
+    }
+
+    /*  Method that returns the rewritings of a canonical plan that scan a materialised view in place of the relations it is
+        defined on, one for each view that can answer that part of the query (see MaterialisedView). The view is scanned where
+        the first of its relations was, and the query's other predicates are applied above the products, as in the plan.
+     */
+    private List<Operator> rewriteWithViews(Operator operator){
+        List<Operator> rewritings = new ArrayList<>();
+        CanonicalQuery query = CanonicalQuery.of(operator);
+        if(query == null){
+            return rewritings;
+        }
+        for(MaterialisedView view : snapshot.getViews()){
+            checkBudget();
+            List<Predicate> residual = view.getResidual(query);
+            NamedRelation relation = snapshot.lookupRelation(view.getName());
+            if(residual == null || relation == null){
+                continue;
+            }
+            List<Scan> scans = new ArrayList<>();
+            boolean scanned = false;
+            for(Scan scan : query.getScans()){
+                if(!view.covers(scan)){
+                    scans.add(newScan(scan));
+                }else if(!scanned){
+                    scans.add(factory.scan(relation));
+                    scanned = true;
                 }
+            }
+            rewritings.add(CanonicalQuery.plan(factory, scans, residual, query.getProjected()));
+        }
+        return rewritings;
+    }
 
-                // If the product operator contains both attributes, the select is pushed down to just above the product operator
-                List<Attribute> productAttributes = operator.getOutput().getAttributes();
-                if (productAttributes.contains(leftAttr) && productAttributes.contains(rightAttr)){
-                    return acceptOperator(new Select(new Product(product.getLeft(), product.getRight()), predicate));
-                }else {
-                    return acceptOperator(new Product(pushSelectDown(select, product.getLeft()), pushSelectDown(select, product.getRight())));
+    // Method that returns the predicates of a list that are not repeated or implied by others, in order
+    private List<Predicate> removeRedundantPredicates(List<Predicate> predicates){
+        List<Predicate> kept = new ArrayList<>();
+        Set<Predicate> seen = new HashSet<>();
+        for(Predicate predicate : predicates){
+            // b=a repeats a=b
+            boolean mirrored = !predicate.equalsValue()
+                    && seen.contains(new Predicate(predicate.getRightAttribute(), predicate.getLeftAttribute()));
+            if(seen.add(predicate) && !mirrored){
+                kept.add(predicate);
+            }
+        }
+        // Predicates on an attribute that contradict each other are all kept, so that the result is estimated to be empty
+        Set<Attribute> contradicted = new HashSet<>();
+        for(Predicate predicate : kept){
+            for(Predicate other : kept){
+                if(predicate.equalsValue() && other.equalsValue() && other.getLeftAttribute().equals(predicate.getLeftAttribute())
+                        && contradicts(predicate, other)){
+                    contradicted.add(predicate.getLeftAttribute());
                 }
-            }else if(getOperatorType(operator).equals("Project")){
-                Project project = (Project) operator;
-                return acceptOperator(new Project(pushSelectDown(select, project.getInput()), project.getAttributes()));
-            }else if(getOperatorType(operator).equals("Select")){
-                Select selectOp = (Select) operator;
-                return acceptOperator(new Select(pushSelectDown(select, selectOp.getInput()),selectOp.getPredicate()));
-            }else if (getOperatorType(operator).equals("Scan")){
-                // If the scan operator contains both attrs in predicate, select is pushed down to just above the scan operator
-                List<Attribute> scanAttributes = operator.getOutput().getAttributes();
-                if (scanAttributes.contains(leftAttr) && scanAttributes.contains(rightAttr)) {
-                    Scan scan = new Scan((NamedRelation) ((Scan) operator).getRelation());
-                    return acceptOperator(new Select(scan, predicate));
-                } else {
-                    return acceptOperator(new Scan((NamedRelation) ((Scan) operator).getRelation()));
+            }
+        }
+        List<Predicate> implied = new ArrayList<>();
+        for(Predicate predicate : kept){
+            if(predicate.isRange() && !contradicted.contains(predicate.getLeftAttribute())){
+                for(Predicate other : kept){
+                    if(other != predicate && other.equalsValue() && other.getLeftAttribute().equals(predicate.getLeftAttribute())
+                            && implies(other, predicate)){
+                        implied.add(predicate);
+                        break;
+                    }
+                }
+            }
+        }
+        kept.removeAll(implied);
+        return kept;
+    }
+
+    // Method that checks whether no value satisfies both of two predicates of an attribute on a value
+    private boolean contradicts(Predicate predicate, Predicate other){
+        if(predicate.getComparison() == Predicate.Comparison.EQUALS && other.getComparison() == Predicate.Comparison.EQUALS){
+            return !predicate.getRightValue().equals(other.getRightValue());
+        }
+        Double value = Estimator.numericValue(predicate.getRightValue());
+        Double otherValue = Estimator.numericValue(other.getRightValue());
+        if(value == null || otherValue == null){
+            return false;
+        }
+        if(predicate.getComparison() == Predicate.Comparison.EQUALS){
+            return !Estimator.satisfies(value, other.getComparison(), otherValue);
+        }
+        if(other.getComparison() == Predicate.Comparison.EQUALS){
+            return !Estimator.satisfies(otherValue, predicate.getComparison(), value);
+        }
+        // A lower bound contradicts an upper bound below it, or at it unless both are inclusive
+        boolean lower = predicate.getComparison() == Predicate.Comparison.GREATER || predicate.getComparison() == Predicate.Comparison.GREATER_EQUALS;
+        boolean otherLower = other.getComparison() == Predicate.Comparison.GREATER || other.getComparison() == Predicate.Comparison.GREATER_EQUALS;
+        if(lower == otherLower){
+            return false;
+        }
+        double low = lower ? value : otherValue;
+        double high = lower ? otherValue : value;
+        boolean inclusive = (predicate.getComparison() == Predicate.Comparison.GREATER_EQUALS || predicate.getComparison() == Predicate.Comparison.LESS_EQUALS)
+                && (other.getComparison() == Predicate.Comparison.GREATER_EQUALS || other.getComparison() == Predicate.Comparison.LESS_EQUALS);
+        return inclusive ? low > high : low >= high;
+    }
+
+    // Method that checks whether every value satisfying one predicate of an attribute on a value satisfies another (and different) one
+    private boolean implies(Predicate predicate, Predicate other){
+        Double value = Estimator.numericValue(predicate.getRightValue());
+        Double otherValue = Estimator.numericValue(other.getRightValue());
+        if(value == null || otherValue == null || predicate.equals(other)){
+            return false;
+        }
+        Predicate.Comparison comparison = predicate.getComparison();
+        if(comparison == Predicate.Comparison.EQUALS){
+            return Estimator.satisfies(value, other.getComparison(), otherValue);
+        }
+        boolean lower = comparison == Predicate.Comparison.GREATER || comparison == Predicate.Comparison.GREATER_EQUALS;
+        boolean otherLower = other.getComparison() == Predicate.Comparison.GREATER || other.getComparison() == Predicate.Comparison.GREATER_EQUALS;
+        if(lower != otherLower){
+            return false;
+        }
+        if(comparison == Predicate.Comparison.GREATER_EQUALS || comparison == Predicate.Comparison.LESS_EQUALS){
+            return Estimator.satisfies(value, other.getComparison(), otherValue);
+        }
+        // A strict bound excludes the value itself, but not the values beyond it however close
+        return lower ? value >= otherValue : value <= otherValue;
+    }
+
+    // Method that removes from the scans and predicates of a query each relation whose join is made redundant by a foreign key
+    private void removeRedundantJoins(List<Scan> scans, List<Predicate> predicates, AttributeSet projected){
+        KeyConstraints constraints = snapshot != null ? snapshot.getConstraints() : catalogue.getConstraints();
+        if(constraints.isEmpty()){
+            return;
+        }
+        boolean removed = true;
+        while(removed){
+            removed = false;
+            for(Scan scan : scans){
+                NamedRelation relation = (NamedRelation) scan.getRelation();
+                Predicate join = getRedundantJoin(relation, scans, predicates, projected, constraints);
+                if(join != null){
+                    scans.remove(scan);
+                    predicates.remove(join);
+                    removed = true;
+                    break;
+                }
+            }
+        }
+    }
+
+    // Method that returns the predicate joining a relation to a foreign key that references it, if that is the relation's only
+    // predicate and none of its attributes are projected, or null otherwise
+    private Predicate getRedundantJoin(NamedRelation relation, List<Scan> scans, List<Predicate> predicates, AttributeSet projected,
+            KeyConstraints constraints){
+        AttributeSet attributes = relation.getAttributeSet();
+        for(Attribute attribute : relation.getAttributes()){
+            if(projected.contains(attribute)){
+                return null;
+            }
+        }
+        Predicate join = null;
+        for(Predicate predicate : predicates){
+            boolean left = attributes.contains(predicate.getLeftAttribute());
+            boolean right = !predicate.equalsValue() && attributes.contains(predicate.getRightAttribute());
+            if(left || right){
+                if(join != null || predicate.equalsValue() || (left && right)){
+                    return null;
+                }
+                join = predicate;
+            }
+        }
+        if(join == null){
+            return null;
+        }
+        Attribute key = attributes.contains(join.getLeftAttribute()) ? join.getLeftAttribute() : join.getRightAttribute();
+        Attribute foreignKey = key == join.getLeftAttribute() ? join.getRightAttribute() : join.getLeftAttribute();
+        if(!relation.getName().equals(constraints.getKeyRelation(key)) || !constraints.references(foreignKey, key)){
+            return null;
+        }
+        // The foreign key must belong to another relation of the query
+        for(Scan scan : scans){
+            if(scan.getRelation() != relation && scan.getRelation().contains(foreignKey)){
+                return join;
+            }
+        }
+        return null;
+    }
+
+    /*  Method to scan only the partitions of partitioned relations that a plan can need, rewriting the plan bottom-up.
+        A SELECT on attr="value" over a scan of a relation partitioned on attr (through any other SELECTs) scans only the
+        partition that holds the value. A JOIN of two relations partitioned compatibly on the join attributes only matches
+        tuples in partitions with the same number, so when one input scans a single partition, the other scans the partition
+        with the same number.
+     */
+    Operator prunePartitions(Operator operator){
+        return PlanTraversal.rewrite(operator, (op, inputs, state) -> {
+            checkBudget();
+            String operatorName = getOperatorType(op);
+            if(operatorName.equals("Select")){
+                Predicate predicate = ((Select) op).getPredicate();
+                return factory.select(prunePartitions(inputs.get(0), predicate), predicate);
+            }else if(operatorName.equals("Join")){
+                return prunePartitions((Join) op, inputs.get(0), inputs.get(1));
+            }
+            return factory.copy(op, inputs);
+        });
+    }
+
+    // Method that replaces the scan below the SELECTs of an input with the partition that can hold the value of a predicate
+    private Operator prunePartitions(Operator input, Predicate predicate){
+        if(!predicate.equalsValue() || predicate.getComparison() != Predicate.Comparison.EQUALS){
+            return input;
+        }
+        Operator op = input;
+        while(getOperatorType(op).equals("Select")){
+            op = ((Select) op).getInput();
+        }
+        if(!getOperatorType(op).equals("Scan")){
+            return input;
+        }
+        Partitioning partitioning = ((NamedRelation) ((Scan) op).getRelation()).getPartitioning();
+        if(partitioning == null || !partitioning.getAttribute().equals(predicate.getLeftAttribute())){
+            return input;
+        }
+        int partition = partitioning.partitionOf(predicate.getRightValue());
+        return partition >= 0 ? replaceScan(input, (Scan) op, factory.scan(partitioning.getPartition(partition))) : input;
+    }
+
+    // Method that rebuilds a JOIN, first replacing the scan of a partitioned relation in one input with a single partition if
+    // the other input scans the partition with the same number of a compatibly partitioned relation
+    private Operator prunePartitions(Join join, Operator left, Operator right){
+        Predicate predicate = join.getPredicate();
+        // as in the Executor, the predicate's left attribute may come from the right input
+        Attribute leftKey = predicate.getLeftAttribute();
+        Attribute rightKey = predicate.getRightAttribute();
+        if(!left.getOutput().contains(leftKey)){
+            leftKey = predicate.getRightAttribute();
+            rightKey = predicate.getLeftAttribute();
+        }
+        Scan leftScan = Partitioning.reading(left, leftKey);
+        Scan rightScan = Partitioning.reading(right, rightKey);
+        Partitioning leftPartitioning = getPartitioning(leftScan, leftKey);
+        Partitioning rightPartitioning = getPartitioning(rightScan, rightKey);
+        if(leftPartitioning != null && leftPartitioning.isCompatible(rightPartitioning)){
+            int leftPartition = getPartition(leftScan);
+            int rightPartition = getPartition(rightScan);
+            if(leftPartition >= 0 && rightPartition < 0){
+                right = replaceScan(right, rightScan, factory.scan(rightPartitioning.getPartition(leftPartition)));
+            }else if(rightPartition >= 0 && leftPartition < 0){
+                left = replaceScan(left, leftScan, factory.scan(leftPartitioning.getPartition(rightPartition)));
+            }
+        }
+        return factory.join(left, right, predicate);
+    }
+
+    // Method that returns the partitioning on an attribute of the relation scanned by a scan, or of the relation of which it
+    // scans a partition, or null if there is none
+    private Partitioning getPartitioning(Scan scan, Attribute attribute){
+        if(scan == null){
+            return null;
+        }
+        NamedRelation relation = (NamedRelation) scan.getRelation();
+        String parent = Partitioning.parentName(relation.getName());
+        if(parent != null){
+            relation = snapshot.lookupRelation(parent);
+        }
+        Partitioning partitioning = relation != null ? relation.getPartitioning() : null;
+        return partitioning != null && partitioning.getAttribute().equals(attribute) ? partitioning : null;
+    }
+
+    // Method that returns the number of the partition scanned by a scan, or -1 if it scans a whole relation
+    private int getPartition(Scan scan){
+        String name = ((NamedRelation) scan.getRelation()).getName();
+        return Partitioning.parentName(name) != null ? Partitioning.partitionIndex(name) : -1;
+    }
+
+    // Method that rebuilds a plan with a scan replaced
+    private Operator replaceScan(Operator plan, Scan scan, Scan replacement){
+        return PlanTraversal.rewrite(plan, (op, inputs, state) -> op == scan ? replacement : factory.copy(op, inputs));
+    }
+
+    /*  Method that distributes a plan over the workers (Step 5), unless there is only one, rewriting it bottom-up and recording
+        the distribution of the output of each operator of the new plan. Selects keep the distribution of their inputs, as do
+        projects unless they remove every attribute on which tuples are hashed. A product broadcasts its smaller input. The
+        plan is not distributed when optimised for MultiQueryOptimiser, which places the projects of the plans it combines.
+     */
+    Operator distribute(Operator operator){
+        if(workers <= 1 || !pushProjects){
+            return operator;
+        }
+        Map<Operator, Distribution> distributions = new IdentityHashMap<>();
+        Operator plan = PlanTraversal.rewrite(operator, (op, inputs, state) -> {
+            String operatorName = getOperatorType(op);
+            if(operatorName.equals("Scan")){
+                Operator scan = factory.copy(op, inputs);
+                distributions.put(scan, Distribution.of((NamedRelation) ((Scan) op).getRelation(), workers));
+                return scan;
+            }else if(operatorName.equals("Select")){
+                Operator select = factory.copy(op, inputs);
+                distributions.put(select, distributions.get(inputs.get(0)));
+                return select;
+            }else if(operatorName.equals("Project")){
+                Operator project = factory.copy(op, inputs);
+                distributions.put(project, distributions.get(inputs.get(0)).project(new AttributeSet(((Project) op).getAttributes())));
+                return project;
+            }else if(operatorName.equals("Join")){
+                return distributeJoin((Join) op, inputs.get(0), inputs.get(1), distributions);
+            }
+            // a product of inputs spread in any way over the workers needs every tuple of one input on every worker
+            Operator left = inputs.get(0);
+            Operator right = inputs.get(1);
+            Distribution distribution;
+            if(networkBytes(Exchange.Kind.BROADCAST, right) <= networkBytes(Exchange.Kind.BROADCAST, left)){
+                right = factory.exchange(right, Exchange.Kind.BROADCAST, null);
+                distribution = distributions.get(left);
+            }else{
+                left = factory.exchange(left, Exchange.Kind.BROADCAST, null);
+                distribution = distributions.get(right);
+            }
+            Operator product = factory.product(left, right);
+            distributions.put(product, distribution);
+            return product;
+        });
+        return distributions.get(plan).getKind() == Distribution.Kind.SINGLE ? plan : factory.exchange(plan, Exchange.Kind.GATHER, null);
+    }
+
+    // Method that rebuilds a JOIN with the placement of its inputs that sends the fewest estimated bytes between the workers,
+    // recording the distribution of its output: hashed on both join attributes after a repartition, or that of the input left
+    // in place after a broadcast of the other
+    private Operator distributeJoin(Join join, Operator left, Operator right, Map<Operator, Distribution> distributions){
+        Predicate predicate = join.getPredicate();
+        // as in the Executor, the predicate's left attribute may come from the right input
+        Attribute leftKey = predicate.getLeftAttribute();
+        Attribute rightKey = predicate.getRightAttribute();
+        if(!left.getOutput().contains(leftKey)){
+            leftKey = predicate.getRightAttribute();
+            rightKey = predicate.getLeftAttribute();
+        }
+        Distribution leftDistribution = distributions.get(left);
+        Distribution rightDistribution = distributions.get(right);
+        long shuffleLeft = leftDistribution.isHashedOn(leftKey) ? 0 : networkBytes(Exchange.Kind.SHUFFLE, left);
+        long shuffleRight = rightDistribution.isHashedOn(rightKey) ? 0 : networkBytes(Exchange.Kind.SHUFFLE, right);
+        long broadcastLeft = networkBytes(Exchange.Kind.BROADCAST, left);
+        long broadcastRight = networkBytes(Exchange.Kind.BROADCAST, right);
+
+        Distribution distribution;
+        if(shuffleLeft + shuffleRight <= Math.min(broadcastLeft, broadcastRight)){
+            if(!leftDistribution.isHashedOn(leftKey)){
+                left = factory.exchange(left, Exchange.Kind.SHUFFLE, leftKey);
+            }
+            if(!rightDistribution.isHashedOn(rightKey)){
+                right = factory.exchange(right, Exchange.Kind.SHUFFLE, rightKey);
+            }
+            distribution = Distribution.hashed(new HashSet<>(Arrays.asList(leftKey, rightKey)));
+        }else if(broadcastRight <= broadcastLeft){
+            right = factory.exchange(right, Exchange.Kind.BROADCAST, null);
+            distribution = leftDistribution;
+        }else{
+            left = factory.exchange(left, Exchange.Kind.BROADCAST, null);
+            distribution = rightDistribution;
+        }
+        Operator distributed = factory.join(left, right, predicate);
+        distributions.put(distributed, distribution);
+        return distributed;
+    }
+
+    // Method that returns the estimated number of bytes that an exchange of the output of an operator would send
+    private long networkBytes(Exchange.Kind kind, Operator operator){
+        return Exchange.networkBytes(kind, operator.getOutput(), workers);
+    }
+
+    // Method that records the time since the start of a step, returning the time at which the next step starts
+    private long lap(long[] phaseNanos, int phase, long start) {
+        if (phaseNanos == null) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        phaseNanos[phase] += now - start;
+        return now;
+    }
+
+    /*  Method to move all selects down. Each select is placed just above the lowest operator that contains the attributes of its
+        predicate: the scan that contains attr for attr=val (each such scan, if there are several), and the scan, or else the
+        product, that contains both attributes for attr=attr. The selects are taken out of the plan, their places found, and the
+        plan rebuilt bottom-up (see PlanTraversal) in a single walk, so that plans of any depth can be optimised. The selects
+        placed above the same operator are in the order in which pushing each one down in turn, from the lowest, leaves them:
+        the select that was highest in the plan nearest the operator.
+     */
+    Operator optimiseSelects(Operator operator){
+        Map<Operator, List<Select>> placed = new IdentityHashMap<>();
+        // the first operator below each select that is not a select, where the walk down to its place starts
+        Map<Operator, Operator> below = new IdentityHashMap<>();
+        PlanTraversal.postOrder(operator, op -> isCanonical(op), op -> {
+            if(getOperatorType(op).equals("Select")){
+                Select select = (Select) op;
+                Operator input = select.getInput();
+                below.put(select, below.getOrDefault(input, input));
+                for(Operator target : findSelectTargets(select, below.get(select))){
+                    placed.computeIfAbsent(target, t -> new ArrayList<>()).add(select);
+                }
+            }
+        });
+
+        return PlanTraversal.rewrite(operator, new PlanTraversal.Rewriter<Void>() {
+            @Override
+            public boolean descend(Operator op) {
+                return isCanonical(op);
+            }
+
+            @Override
+            public Operator rewrite(Operator op, List<Operator> inputs, Void state) {
+                checkBudget();
+                String operatorName = getOperatorType(op);
+                Operator rewritten;
+                if(operatorName.equals("Select")){
+                    // the select has been placed lower down, if anywhere
+                    return inputs.get(0);
+                }else if(operatorName.equals("Project")){
+                    Project project = (Project) op;
+                    rewritten = factory.project(inputs.get(0), project.getAttributes());
+                }else if(operatorName.equals("Product")){
+                    rewritten = factory.product(inputs.get(0), inputs.get(1));
+                }else if(operatorName.equals("Scan")){
+                    rewritten = newScan((Scan) op);
+                }else{
+                    rewritten = acceptOperator(op);
                 }
+                List<Select> selects = placed.getOrDefault(op, Collections.emptyList());
+                for(int i = selects.size() - 1; i >= 0; i--){
+                    rewritten = factory.select(rewritten, selects.get(i).getPredicate());
+                }
+                return rewritten;
+            }
+        });
+    }
+
+    // Method that returns whether an operator is one of those of a canonical plan, whose inputs optimiseSelects() rewrites
+    private boolean isCanonical(Operator operator){
+        String operatorName = getOperatorType(operator);
+        return operatorName.equals("Select") || operatorName.equals("Project") || operatorName.equals("Product")
+                || operatorName.equals("Scan");
+    }
+
+    /*  Method that finds the operators below a select that it is to be placed above, walking down from the first operator below it
+        that is not a select. A select over an input that does not contain the attributes of its predicate is not placed anywhere.
+     */
+    private List<Operator> findSelectTargets(Select select, Operator start){
+        Predicate predicate = select.getPredicate();
+        Attribute leftAttr = predicate.getLeftAttribute();
+        Attribute rightAttr = predicate.getRightAttribute();
+        List<Operator> targets = new ArrayList<>();
+        Deque<Operator> stack = new ArrayDeque<>();
+        stack.push(start);
+        while(!stack.isEmpty()){
+            Operator op = stack.pop();
+            Relation output = op.getOutput();
+            if(!output.contains(leftAttr) || (!predicate.equalsValue() && !output.contains(rightAttr))){
+                continue;
+            }
+            String operatorName = getOperatorType(op);
+            if(operatorName.equals("Select") || operatorName.equals("Project")){
+                stack.push(((UnaryOperator) op).getInput());
+            }else if(operatorName.equals("Product") && predicate.equalsValue()){
+                // select operator with predicate of type attr=val is pushed down to just above each scan that contains attr
+                Product product = (Product) op;
+                stack.push(product.getRight());
+                stack.push(product.getLeft());
+            }else if(operatorName.equals("Product")){
+                // select operator with predicate of type attr=attr is pushed down to just above the operator that contains both attrs
+                Product product = (Product) op;
+                Relation left = product.getLeft().getOutput();
+                Relation right = product.getRight().getOutput();
+                if(left.contains(leftAttr) && left.contains(rightAttr)){
+                    stack.push(product.getLeft());
+                }else if(right.contains(leftAttr) && right.contains(rightAttr)){
+                    stack.push(product.getRight());
+                }else{
+                    targets.add(op);
+                }
+            }else{
+                targets.add(op);
             }
         }
-        return acceptOperator(select);
+        return targets;
     }
 
     // Method to perform reordering of operators in order to put operators with smallest tuple count first
-    private Operator reorderJoins(Operator operator){
+    Operator reorderJoins(Operator operator){
         getReorderOperators(operator);      // Populate linked list of operators and predicates that need to be reordered
         if(reorderOperators.isEmpty()) {
             return acceptOperator(operator);
@@ -148,75 +837,181 @@ public class Optimiser {
             Collections.sort(reorderOperators, Comparator.comparing((Operator o) -> o.getOutput().getTupleCount()));
             if(getOperatorType(operator).equals("Project")){
                 Project project = (Project) operator;
-                return acceptOperator(new Project(reorderOperators(),project.getAttributes()));
+                return factory.project(reorderComponents(),project.getAttributes());
             }else {
-                return acceptOperator(reorderOperators());
+                return acceptOperator(reorderComponents());
             }
         }
     }
 
-    //  Recursive method that creates a new, reordered query plan by polling operators at the end of the linked list of operators
-    private Operator reorderOperators(){
-        Operator operator = acceptOperator(reorderOperators.pollLast());
-        if(!reorderOperators.isEmpty()){
-            Product newProduct = new Product(reorderOperators(),operator);
-            Operator select = createSelect(newProduct, new LinkedList<>(reorderPredicates));
-            return acceptOperator(select);
+    /*  Method that splits the (sorted) operators to be reordered into the connected components of the join graph, whose edges
+        are the join predicates, and orders each component independently, in parallel if there are many operators.
+        The components are then combined with products, the component with the smallest output first, so that no product of
+        unrelated relations is formed until every join has been done.
+     */
+    private Operator reorderComponents(){
+        List<List<Operator>> components = getComponents(reorderOperators, reorderPredicates);
+        Set<Predicate> predicates = reorderPredicates;
+        List<List<Operator>> orders;
+        if(components.size() > 1 && reorderOperators.size() >= parallelReorderOperators){
+            orders = components.parallelStream().map(c -> orderComponent(c, predicates)).collect(Collectors.toList());
+        }else{
+            orders = new ArrayList<>();
+            for(List<Operator> component : components){
+                orders.add(orderComponent(component, predicates));
+            }
+        }
+        reorderOperators.clear();
+
+        List<Operator> plans = new ArrayList<>();
+        for(List<Operator> order : orders){
+            plans.add(reorderOperators(order));
         }
-        return acceptOperator(operator);
+        plans.sort(Comparator.comparing((Operator o) -> o.getOutput().getTupleCount()));
+        return reorderOperators(plans);
+    }
+
+    // Method that finds the connected components of the join graph over the given operators, each in the order of the list
+    private List<List<Operator>> getComponents(List<Operator> operators, Set<Predicate> predicates){
+        // The operator whose output contains each attribute
+        Map<Attribute, Integer> owners = new HashMap<>();
+        for(int i = 0; i < operators.size(); i++){
+            for(Attribute attribute : operators.get(i).getOutput().getAttributes()){
+                owners.putIfAbsent(attribute, i);
+            }
+        }
+        // Union-find over the positions of the operators, each joined to the lowest position of its component
+        int[] parent = new int[operators.size()];
+        for(int i = 0; i < parent.length; i++){
+            parent[i] = i;
+        }
+        for(Predicate predicate : predicates){
+            Integer left = owners.get(predicate.getLeftAttribute());
+            Integer right = owners.get(predicate.getRightAttribute());
+            if(left != null && right != null){
+                int leftRoot = findComponent(parent, left);
+                int rightRoot = findComponent(parent, right);
+                parent[Math.max(leftRoot, rightRoot)] = Math.min(leftRoot, rightRoot);
+            }
+        }
+        Map<Integer, List<Operator>> components = new LinkedHashMap<>();
+        for(int i = 0; i < operators.size(); i++){
+            components.computeIfAbsent(findComponent(parent, i), k -> new ArrayList<>()).add(operators.get(i));
+        }
+        return new ArrayList<>(components.values());
     }
 
-    // Recursive method to create selects above reordered operators if the attributes of the predicate are in the output of the operator
+    // Method that returns the lowest position in the component of a position, halving the paths to it on the way
+    private int findComponent(int[] parent, int i){
+        while(parent[i] != i){
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /*  Method that orders the (sorted) operators of a connected component: the operator with the smallest tuple count first,
+        then repeatedly the smallest operator joined by a predicate to those already ordered, so that the component is
+        ordered without products. It only reads the estimates of the operators, so components can be ordered in parallel.
+        Each candidate checked for a predicate joining it to those already ordered is counted as a plan considered.
+     */
+    private List<Operator> orderComponent(List<Operator> component, Set<Predicate> predicates){
+        List<Operator> remaining = new LinkedList<>(component);
+        List<Operator> order = new ArrayList<>();
+        AttributeSet ordered = new AttributeSet();
+        long considered = 0;
+        while(!remaining.isEmpty()){
+            checkBudget();
+            Operator next = remaining.get(0);
+            // Once the plans of the budget are spent, the rest of the component is ordered by tuple count alone
+            if(budget.consider(remaining.size())){
+                for(Operator candidate : remaining){
+                    considered++;
+                    if(isJoined(ordered, candidate.getOutput().getAttributeSet(), predicates)){
+                        next = candidate;
+                        break;
+                    }
+                }
+            }
+            remaining.remove(next);
+            order.add(next);
+            ordered.addAll(next.getOutput().getAttributeSet());
+        }
+        plansConsidered.add(considered);
+        return order;
+    }
+
+    // Method that checks whether a predicate joins an attribute of one set to an attribute of another
+    private boolean isJoined(AttributeSet left, AttributeSet right, Set<Predicate> predicates){
+        for(Predicate predicate : predicates){
+            if((left.contains(predicate.getLeftAttribute()) && right.contains(predicate.getRightAttribute()))
+                    || (left.contains(predicate.getRightAttribute()) && right.contains(predicate.getLeftAttribute()))){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Method that creates a new, reordered query plan: a left-deep tree of products over the given operators in order,
+    // with a select above each product for every predicate whose attributes are first found together in its output
+    private Operator reorderOperators(List<Operator> operators){
+        if(runtimeFilters && operators.size() > 1
+                && acceptOperator(operators.get(1)).getOutput().getTupleCount() > acceptOperator(operators.get(0)).getOutput().getTupleCount()){
+            // The larger relation is the probe input of the first join, and of every join above it, so that it is scanned through
+            // the runtime filters of them all. The estimates of the joins do not depend on their orientation.
+            operators = new ArrayList<>(operators);
+            Collections.swap(operators, 0, 1);
+        }
+        Operator operator = acceptOperator(operators.get(0));
+        for(int i = 1; i < operators.size(); i++){
+            checkBudget();
+            Product newProduct = factory.product(operator, acceptOperator(operators.get(i)));
+            operator = acceptOperator(createSelect(newProduct, new LinkedList<>(reorderPredicates)));
+        }
+        return operator;
+    }
+
+    // Method to create selects above reordered operators if the attributes of the predicate are in the output of the operator
     private Operator createSelect(Operator operator, LinkedList<Predicate> selectPredicates){
-        if(selectPredicates.size()>0){
-            List<Attribute> operatorAttributes = acceptOperator(operator).getOutput().getAttributes();
-            Predicate predicate = selectPredicates.pollFirst();
+        for(Predicate predicate : selectPredicates){
+            Relation operatorAttributes = acceptOperator(operator).getOutput();
             if(operatorAttributes.contains(predicate.getLeftAttribute()) && operatorAttributes.contains(predicate.getRightAttribute())){
-                Select select = new Select(operator, predicate);
+                operator = factory.select(operator, predicate);
                 reorderPredicates.remove(predicate);
-                return acceptOperator(createSelect(select, selectPredicates));
-            }else{
-                return acceptOperator(createSelect(operator, selectPredicates));
             }
         }
         return acceptOperator(operator);
     }
 
-    // Method that populates the reorderOperators linked list and the reorderPredicates list recursively
+    // Method that populates the reorderOperators linked list and the reorderPredicates list, walking down the query plan from the top
     private void getReorderOperators(Operator operator){
-        List<Operator> inputs = operator.getInputs();
-        if(getOperatorType(operator).equals("Select")){
-            Select select = (Select) operator;
-            Predicate predicate = select.getPredicate();
-            Operator input = select.getInput();
-            if(getOperatorType(input).equals("Scan")){
-                reorderOperators.add(select);
-            }
-            if(!predicate.equalsValue()) {
-                reorderPredicates.add(predicate);
-            }
-        }
-        for (Operator o : inputs) {
-            if(o != null){
-                if(getOperatorType(o).equals("Scan")){
-                    Scan scan = (Scan) o;
-                    reorderOperators.add(scan);
+        PlanTraversal.preOrder(operator, o -> {
+            if(getOperatorType(o).equals("Select")){
+                Select select = (Select) o;
+                Predicate predicate = select.getPredicate();
+                Operator input = select.getInput();
+                // a chain of selects over a scan (e.g. both bounds of a BETWEEN) is reordered as a single operator
+                if(getOperatorType(input).equals("Scan") || isSelectOverScan(input)){
+                    reorderOperators.add(select);
                 }
-                if(o.getInputs() != null){
-                    getReorderOperators(o);
+                if(!predicate.equalsValue()) {
+                    reorderPredicates.add(predicate);
                 }
+            }else if(getOperatorType(o).equals("Scan")){
+                reorderOperators.add(o);
             }
-        }
+        });
     }
 
-    // Method that removes scans from the reorderOperators linked list if the scan is an input for a select operator
+    // Method that removes scans (and lower selects of a chain) from the reorderOperators linked list if they are the input for a select operator
     private void removeRedundantScans(){
-        List<Operator> removeScans = new ArrayList<>();
+        Set<Operator> operators = new HashSet<>(reorderOperators);
+        Set<Operator> removeScans = new HashSet<>();
         for(Operator o:reorderOperators){
             if(getOperatorType(o).equals("Select")){
                 Select select = (Select) o;
                 Operator input = select.getInput();
-                if(reorderOperators.contains(input) && getOperatorType(input).equals("Scan")){
+                if(operators.contains(input) && (getOperatorType(input).equals("Scan") || getOperatorType(input).equals("Select"))){
                     removeScans.add(input);
                 }
             }
@@ -224,119 +1019,151 @@ public class Optimiser {
         reorderOperators.removeAll(removeScans);
     }
 
-    // Method to combine selects and the products below them to create joins in a query plan using recursion
-    private Operator createJoins(Operator operator){
-        String operatorName = getOperatorType(operator);
-        if (operatorName.equals("Select")) {
-            Select select = (Select) operator;
-            Operator input = select.getInput();
-            // If a product operator is the input for a select operator, the two operators are combined to create a join
-            if (getOperatorType(input).equals("Product")){
-                Product product = (Product) input;
-                return acceptOperator(createJoin(select, product));
-            }else{
-                return acceptOperator(new Select(select.getInput(),select.getPredicate()));
-            }
-        }else if(operatorName.equals("Project")){
-            Project project = (Project) operator;
-            return acceptOperator(new Project(createJoins(project.getInput()), project.getAttributes()));
-        }else if(operatorName.equals("Product")){
-            Product product = (Product) operator;
-            return acceptOperator(new Product(createJoins(product.getLeft()),createJoins(product.getRight())));
-        }else if (operatorName.equals("Scan")) {
-            Scan scan = (Scan) operator;
-            return acceptOperator(new Scan((NamedRelation) scan.getRelation()));
+    // Method that checks whether an operator is a chain of one or more selects directly above a scan
+    private boolean isSelectOverScan(Operator operator){
+        while(getOperatorType(operator).equals("Select")){
+            operator = ((Select) operator).getInput();
         }
-        return acceptOperator(operator);
+        return getOperatorType(operator).equals("Scan");
+    }
+
+    // Method to combine selects and the products below them to create joins in a query plan, rewriting it bottom-up
+    Operator createJoins(Operator operator){
+        return PlanTraversal.rewrite(operator, new PlanTraversal.Rewriter<Void>() {
+            // The inputs of projects, products and selects are searched for selects above products, so that the selects
+            // placed above each product of a left-deep plan by reorderJoins all become joins
+            @Override
+            public boolean descend(Operator op) {
+                String operatorName = getOperatorType(op);
+                return operatorName.equals("Project") || operatorName.equals("Product") || operatorName.equals("Select");
+            }
+
+            @Override
+            public Operator rewrite(Operator op, List<Operator> inputs, Void state) {
+                checkBudget();
+                String operatorName = getOperatorType(op);
+                if (operatorName.equals("Select")) {
+                    Select select = (Select) op;
+                    Operator input = inputs.get(0);
+                    // If a product operator is the input for a select operator, the two operators are combined to create a join
+                    if (getOperatorType(input).equals("Product")){
+                        Product product = (Product) input;
+                        return acceptOperator(createJoin(select, product));
+                    }else{
+                        return factory.select(input,select.getPredicate());
+                    }
+                }else if(operatorName.equals("Project")){
+                    Project project = (Project) op;
+                    return factory.project(inputs.get(0), project.getAttributes());
+                }else if(operatorName.equals("Product")){
+                    return factory.product(inputs.get(0), inputs.get(1));
+                }else if (operatorName.equals("Scan")) {
+                    Scan scan = (Scan) op;
+                    return newScan(scan);
+                }
+                return acceptOperator(op);
+            }
+        });
     }
 
     // Method that combines a specific select and product operator to create a join
     private Operator createJoin(Select select, Product product){
         Predicate predicate = select.getPredicate();
-        Join join = new Join(product.getLeft(), product.getRight(), predicate);
+        Join join = factory.join(product.getLeft(), product.getRight(), predicate);
         return acceptOperator(join);
     }
 
-    /*  Method to reduce the number of attributes of intermediate relations by pushing projects down the query plan using recursion.
-        Attributes that need to be projected are added to the set recursively.
+    /*  Method to reduce the number of attributes of intermediate relations by pushing projects down the query plan.
+        Attributes that need to be projected are added to the set on the way down the plan.
         When an operator is encountered, the attributes common to the set and the output of the operator are obtained.
         If all attributes of an operator are required, no project operator is pushed down to just above the operator.
         Otherwise, the required attributes that need to be projected are pushed down to just above the operator.
+        The set is a bitset over attribute ids, so the attributes common to it and an operator are found in a single pass over the operator's output.
+        The plan is rewritten bottom-up, with the attributes required above each operator found when it is entered on the way down.
      */
-    private Operator pushProjectsDown(Operator operator, Set<Attribute> allProjectAttributes){
-        String operatorName = getOperatorType(operator);
-        if (operatorName.equals("Select")) {
-            Select select = (Select) operator;
-            Predicate predicate = select.getPredicate();
-            List<Attribute> selectAttrs = select.getOutput().getAttributes();
-            List<Attribute> newProjectAttrs = selectAttrs.stream().filter(allProjectAttributes::contains).collect(Collectors.toList());
-            boolean equalLists = newProjectAttrs.containsAll(selectAttrs) && selectAttrs.containsAll(newProjectAttrs);
-            allProjectAttributes.add(predicate.getLeftAttribute());
-            if(!predicate.equalsValue()){
-                allProjectAttributes.add(predicate.getRightAttribute());
-            }
-            if(newProjectAttrs.size()>0 && !equalLists){
-                if(selectAttrs.containsAll(newProjectAttrs)) {
-                    Select newSelect = new Select(pushProjectsDown(select.getInput(),allProjectAttributes),select.getPredicate());
-                    return acceptOperator(new Project(newSelect, newProjectAttrs));
+    Operator pushProjectsDown(Operator operator, AttributeSet allProjectAttributes){
+        return PlanTraversal.rewrite(operator, new PlanTraversal.Rewriter<List<Attribute>>() {
+            // On the way down: the attributes of the operator that are required above it, before adding the attributes it requires itself
+            @Override
+            public List<Attribute> enter(Operator op) {
+                String operatorName = getOperatorType(op);
+                if(operatorName.equals("Project")){
+                    Project project = (Project) op;
+                    allProjectAttributes.addAll(project.getAttributes());
+                    return null;
                 }
-            }
-            return acceptOperator(new Select(pushProjectsDown(select.getInput(),allProjectAttributes), select.getPredicate()));
-        }else if(operatorName.equals("Project")){
-            Project project = (Project) operator;
-            allProjectAttributes.addAll(project.getAttributes());
-            Operator input = project.getInput();
-            if(getOperatorType(input).equals("Product")){
-                return acceptOperator(new Project(pushProjectsDown(input,allProjectAttributes),project.getAttributes()));
-            }else {
-                return acceptOperator(pushProjectsDown(project.getInput(), allProjectAttributes));
-            }
-        }else if(operatorName.equals("Product")){
-            Product product = (Product) operator;
-            List<Attribute> productAttrs = product.getOutput().getAttributes();
-            List<Attribute> newProjectAttrs = productAttrs.stream().filter(allProjectAttributes::contains).collect(Collectors.toList());
-            boolean equalLists = newProjectAttrs.containsAll(productAttrs) && productAttrs.containsAll(newProjectAttrs);
-            if(newProjectAttrs.size()>0 && !equalLists){
-                if(productAttrs.containsAll(newProjectAttrs)) {
-                    Product newProduct = new Product(pushProjectsDown(product.getLeft(),allProjectAttributes), pushProjectsDown(product.getRight(),allProjectAttributes));
-                    return acceptOperator(new Project(newProduct, newProjectAttrs));
+                List<Attribute> newProjectAttrs = allProjectAttributes.retain(op.getOutput().getAttributes());
+                if (operatorName.equals("Select")) {
+                    Predicate predicate = ((Select) op).getPredicate();
+                    allProjectAttributes.add(predicate.getLeftAttribute());
+                    if(!predicate.equalsValue()){
+                        allProjectAttributes.add(predicate.getRightAttribute());
+                    }
+                }else if(operatorName.equals("Join")){
+                    Predicate predicate = ((Join) op).getPredicate();
+                    allProjectAttributes.add(predicate.getLeftAttribute());
+                    allProjectAttributes.add(predicate.getRightAttribute());
                 }
+                return newProjectAttrs;
             }
-            return acceptOperator(new Product(pushProjectsDown(product.getLeft(),allProjectAttributes), pushProjectsDown(product.getRight(),allProjectAttributes)));
-        }else if(operatorName.equals("Join")){
-            Join join = (Join) operator;
-            Predicate predicate = join.getPredicate();
-            List<Attribute> joinAttrs = join.getOutput().getAttributes();
-            List<Attribute> newProjectAttrs = joinAttrs.stream().filter(allProjectAttributes::contains).collect(Collectors.toList());
-            boolean equalLists = newProjectAttrs.containsAll(joinAttrs) && joinAttrs.containsAll(newProjectAttrs);
-            allProjectAttributes.add(predicate.getLeftAttribute());
-            allProjectAttributes.add(predicate.getRightAttribute());
-            if(newProjectAttrs.size()>0 && !equalLists){
-                if(joinAttrs.containsAll(newProjectAttrs)) {
-                    Join newJoin = new Join(pushProjectsDown(join.getLeft(),allProjectAttributes), pushProjectsDown(join.getRight(),allProjectAttributes), join.getPredicate());
-                    return acceptOperator(new Project(newJoin, newProjectAttrs));
+
+            // On the way up: the operator over its rewritten inputs, below a project of the required attributes if it has others
+            @Override
+            public Operator rewrite(Operator op, List<Operator> inputs, List<Attribute> newProjectAttrs) {
+                checkBudget();
+                String operatorName = getOperatorType(op);
+                Operator newOperator;
+                if (operatorName.equals("Select")) {
+                    Select select = (Select) op;
+                    newOperator = factory.select(inputs.get(0), select.getPredicate());
+                }else if(operatorName.equals("Project")){
+                    Project project = (Project) op;
+                    if(getOperatorType(project.getInput()).equals("Product")){
+                        return factory.project(inputs.get(0), project.getAttributes());
+                    }else {
+                        return acceptOperator(inputs.get(0));
+                    }
+                }else if(operatorName.equals("Product")){
+                    newOperator = factory.product(inputs.get(0), inputs.get(1));
+                }else if(operatorName.equals("Join")){
+                    Join join = (Join) op;
+                    newOperator = factory.join(inputs.get(0), inputs.get(1), join.getPredicate());
+                }else if (operatorName.equals("Scan")) {
+                    newOperator = newScan((Scan) op);
+                }else {
+                    return acceptOperator(op);
                 }
+                // the attributes kept are a subset of the output, so they are all of it exactly when the sizes match
+                boolean equalLists = newProjectAttrs.size() == op.getOutput().getAttributes().size();
+                if(newProjectAttrs.size()>0 && !equalLists){
+                    return factory.project(newOperator, newProjectAttrs);
+                }
+                return newOperator;
             }
-            return acceptOperator(new Join(pushProjectsDown(join.getLeft(),allProjectAttributes), pushProjectsDown(join.getRight(),allProjectAttributes), join.getPredicate()));
-        }else if (operatorName.equals("Scan")) {
-            Scan scan = (Scan) operator;
-            List<Attribute> scanAttrs = operator.getOutput().getAttributes();
-            List<Attribute> newProjectAttrs = scanAttrs.stream().filter(allProjectAttributes::contains).collect(Collectors.toList());
-            boolean equalLists = newProjectAttrs.containsAll(scanAttrs) && scanAttrs.containsAll(newProjectAttrs);
-            if(newProjectAttrs.size()>0 && !equalLists) {
-                Scan newScan = new Scan((NamedRelation) scan.getRelation());
-                return acceptOperator(new Project(newScan, newProjectAttrs));
+        });
+    }
+
+    // Method that returns the scan of the relation read by a scan, taking the relation's statistics from the pinned catalogue snapshot
+    private Scan newScan(Scan scan){
+        NamedRelation relation = (NamedRelation) scan.getRelation();
+        if (snapshot != null) {
+            NamedRelation pinned = snapshot.lookupRelation(relation.getName());
+            if (pinned != null) {
+                relation = pinned;
             }
-            return acceptOperator(new Scan((NamedRelation) scan.getRelation()));
         }
-        return acceptOperator(operator);
+        return factory.scan(relation);
     }
 
-    // Method that accepts a newly created operator so that its output attributes can be used
+    // Method that stops the current optimisation, by throwing OptimiserBudget.ExhaustedException, if its time or memory has run out
+    // or it has been cancelled; it only reads the factory's counter, so it may be called while components are ordered in parallel
+    private void checkBudget(){
+        budget.check(factory.getEstimates() - memoStart);
+    }
+
+    // Method that returns the canonical copy of an operator, whose output attributes have been estimated and can be used
     private Operator acceptOperator(Operator operator) {
-        Estimator estimator = new Estimator();
-        operator.accept(estimator);
-        return operator;
+        return factory.intern(operator);
     }
 
     // Method that returns the type of an operator
@@ -0,0 +1,263 @@
+package sjdb;
+
+import java.io.FileWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Micro-benchmarks for the hot paths of query processing: parsing, cost
+ * estimation, each of the four Optimiser steps, and optimise() end to end.
+ * Each benchmark is run over queries from a WorkloadGenerator, for every
+ * combination of join graph shape, relation count and predicate density.
+ *
+ * The deep.* benchmarks walk very deep plans (canonical CHAIN queries of
+ * about the given number of operators, with one predicate per relation
+ * besides the joins) to measure the explicit-stack traversals of
+ * PlanTraversal: estimation, printing, interning into a PlanFactory, and
+ * the Optimiser steps that rewrite a plan in a single walk. The step
+ * that reorders the plan takes time quadratic in the number of
+ * relations, so is not run on these plans.
+ *
+ * As with JMH, each benchmark runs a number of timed warmup iterations
+ * (discarded) followed by measurement iterations; the score is the mean
+ * time per operation, with a 99.9% confidence error. Results are printed
+ * as a table and may also be written as JSON, one object per benchmark
+ * and parameter combination, for tracking regressions over time.
+ *
+ * Usage: java sjdb.OptimiserBenchmark [options]
+ *   -s chain,star join graph shapes
+ *   -r 2,4,8,16   relation counts
+ *   -p 0,0.5,2    additional predicates per relation
+ *   -k 1.0        skew of tuple and value counts
+ *   -w 3          warmup iterations
+ *   -i 5          measurement iterations
+ *   -t 200        milliseconds per iteration
+ *   -n 10000      operators in the plans of the deep.* benchmarks (0 for none)
+ *   -b regex      only run benchmarks whose names match
+ *   -o file       write results as JSON to file
+ */
+public class OptimiserBenchmark {
+	// keeps results reachable so that benchmarked work cannot be optimised away
+	static volatile Object sink;
+	// the same seed is used for every run, so that results are comparable between runs
+	static final long SEED = 42;
+
+	private int warmups = 3;
+	private int iterations = 5;
+	private long iterationNanos = 200 * 1000000L;
+	private String filter = ".*";
+	private double skew = 1.0;
+	private List<Result> results = new ArrayList<Result>();
+
+	public static void main(String[] args) throws Exception {
+		OptimiserBenchmark bench = new OptimiserBenchmark();
+		List<WorkloadGenerator.Shape> shapes = Arrays.asList(WorkloadGenerator.Shape.CHAIN, WorkloadGenerator.Shape.STAR);
+		int[] relationCounts = { 2, 4, 8, 16 };
+		double[] densities = { 0, 0.5, 2 };
+		int[] planSizes = { 10000 };
+		String output = null;
+
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+				case "-s": shapes = parseShapes(args[i + 1]); break;
+				case "-r": relationCounts = parseInts(args[i + 1]); break;
+				case "-p": densities = parseDoubles(args[i + 1]); break;
+				case "-k": bench.skew = Double.parseDouble(args[i + 1]); break;
+				case "-w": bench.warmups = Integer.parseInt(args[i + 1]); break;
+				case "-i": bench.iterations = Integer.parseInt(args[i + 1]); break;
+				case "-t": bench.iterationNanos = Long.parseLong(args[i + 1]) * 1000000L; break;
+				case "-n": planSizes = parseInts(args[i + 1]); break;
+				case "-b": bench.filter = args[i + 1]; break;
+				case "-o": output = args[i + 1]; break;
+				default: throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+
+		System.out.printf("%-22s %-10s %9s %8s %14s %12s%n", "benchmark", "shape", "relations", "density", "ns/op", "error");
+		for (WorkloadGenerator.Shape shape : shapes) {
+			for (int relations : relationCounts) {
+				for (double density : densities) {
+					bench.runAll(shape, relations, density);
+				}
+			}
+		}
+		for (int planSize : planSizes) {
+			if (planSize > 0) {
+				bench.runDeep(planSize);
+			}
+		}
+		if (output != null) {
+			try (Writer out = new FileWriter(output)) {
+				bench.writeJson(out);
+			}
+		}
+	}
+
+	private void runAll(WorkloadGenerator.Shape shape, int relations, double density) throws Exception {
+		WorkloadGenerator generator = new WorkloadGenerator(shape, relations, skew, SEED);
+		Catalogue cat = generator.getCatalogue();
+		String query = generator.nextQuery(density);
+
+		// the input to each step is the output of the steps before it
+		Operator canonical = parse(cat, query);
+		canonical.accept(new Estimator());
+		Operator selects = new Optimiser(cat).optimiseSelects(canonical);
+		Operator reordered = new Optimiser(cat).reorderJoins(selects);
+		Operator joins = new Optimiser(cat).createJoins(reordered);
+
+		Map<String, Callable<Object>> benchmarks = new LinkedHashMap<String, Callable<Object>>();
+		benchmarks.put("parse", () -> parse(cat, query));
+		benchmarks.put("estimate", () -> {
+			canonical.accept(new Estimator());
+			return canonical.getOutput();
+		});
+		benchmarks.put("optimiseSelects", () -> new Optimiser(cat).optimiseSelects(canonical));
+		benchmarks.put("reorderJoins", () -> new Optimiser(cat).reorderJoins(selects));
+		benchmarks.put("createJoins", () -> new Optimiser(cat).createJoins(reordered));
+		benchmarks.put("pushProjectsDown", () -> new Optimiser(cat).pushProjectsDown(joins, new AttributeSet()));
+		benchmarks.put("optimise", () -> new Optimiser(cat).optimise(canonical));
+
+		for (Map.Entry<String, Callable<Object>> benchmark : benchmarks.entrySet()) {
+			if (benchmark.getKey().matches(filter)) {
+				Result result = measure(benchmark.getKey(), shape, relations, density, benchmark.getValue());
+				results.add(result);
+				System.out.printf("%-22s %-10s %9d %8.2f %14.1f %12.1f%n", result.name, shape, relations, density, result.score, result.error);
+			}
+		}
+	}
+
+	private void runDeep(int planSize) throws Exception {
+		// a canonical CHAIN query over r relations at density 1 has r scans, r - 1 products,
+		// 2r - 1 selects and a project: 4r - 1 operators
+		int relations = Math.max(1, (planSize + 1) / 4);
+		WorkloadGenerator generator = new WorkloadGenerator(WorkloadGenerator.Shape.CHAIN, relations, skew, SEED);
+		Catalogue cat = generator.getCatalogue();
+		Operator canonical = generator.nextPlan(1);
+		canonical.accept(new Estimator());
+
+		Map<String, Callable<Object>> benchmarks = new LinkedHashMap<String, Callable<Object>>();
+		benchmarks.put("deep.estimate", () -> {
+			canonical.accept(new Estimator());
+			return canonical.getOutput();
+		});
+		benchmarks.put("deep.toString", () -> canonical.toString());
+		benchmarks.put("deep.intern", () -> new PlanFactory().intern(canonical));
+		benchmarks.put("deep.optimiseSelects", () -> new Optimiser(cat).optimiseSelects(canonical));
+		benchmarks.put("deep.createJoins", () -> new Optimiser(cat).createJoins(canonical));
+		benchmarks.put("deep.pushProjectsDown", () -> new Optimiser(cat).pushProjectsDown(canonical, new AttributeSet()));
+
+		for (Map.Entry<String, Callable<Object>> benchmark : benchmarks.entrySet()) {
+			if (benchmark.getKey().matches(filter)) {
+				Result result = measure(benchmark.getKey(), WorkloadGenerator.Shape.CHAIN, relations, 1, benchmark.getValue());
+				results.add(result);
+				System.out.printf("%-22s %-10s %9d %8.2f %14.1f %12.1f%n", result.name, result.shape, relations, result.density, result.score, result.error);
+			}
+		}
+	}
+
+	private Result measure(String name, WorkloadGenerator.Shape shape, int relations, double density, Callable<Object> op) throws Exception {
+		double[] scores = new double[iterations];
+		for (int i = 0; i < warmups + iterations; i++) {
+			long ops = 0;
+			long start = System.nanoTime();
+			long elapsed;
+			do {
+				sink = op.call();
+				ops++;
+				elapsed = System.nanoTime() - start;
+			} while (elapsed < iterationNanos);
+			if (i >= warmups) {
+				scores[i - warmups] = (double) elapsed / ops;
+			}
+		}
+
+		double mean = 0;
+		for (double score : scores) {
+			mean += score;
+		}
+		mean /= iterations;
+		double variance = 0;
+		for (double score : scores) {
+			variance += (score - mean) * (score - mean);
+		}
+		variance = iterations > 1 ? variance / (iterations - 1) : 0;
+		// normal approximation to the 99.9% confidence interval
+		double error = 3.29 * Math.sqrt(variance / iterations);
+		return new Result(name, shape, relations, density, mean, error, scores);
+	}
+
+	private void writeJson(Writer out) throws Exception {
+		out.write("[\n");
+		for (int i = 0; i < results.size(); i++) {
+			Result r = results.get(i);
+			out.write("  {\"benchmark\": \"sjdb.OptimiserBenchmark." + r.name + "\", "
+					+ "\"mode\": \"avgt\", \"warmupIterations\": " + warmups
+					+ ", \"measurementIterations\": " + iterations
+					+ ", \"params\": {\"shape\": \"" + r.shape + "\", \"relations\": \"" + r.relations
+					+ "\", \"density\": \"" + r.density + "\"}, "
+					+ "\"primaryMetric\": {\"score\": " + r.score + ", \"scoreError\": " + r.error
+					+ ", \"scoreUnit\": \"ns/op\", \"rawData\": [");
+			for (int j = 0; j < r.raw.length; j++) {
+				out.write((j > 0 ? ", " : "") + r.raw[j]);
+			}
+			out.write("]}}" + (i + 1 < results.size() ? "," : "") + "\n");
+		}
+		out.write("]\n");
+	}
+
+	private static Operator parse(Catalogue cat, String query) throws Exception {
+		return new QueryParser(cat, new StringReader(query)).parse();
+	}
+
+	private static int[] parseInts(String list) {
+		String[] parts = list.split(",");
+		int[] values = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			values[i] = Integer.parseInt(parts[i].trim());
+		}
+		return values;
+	}
+
+	private static double[] parseDoubles(String list) {
+		String[] parts = list.split(",");
+		double[] values = new double[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			values[i] = Double.parseDouble(parts[i].trim());
+		}
+		return values;
+	}
+
+	private static List<WorkloadGenerator.Shape> parseShapes(String list) {
+		List<WorkloadGenerator.Shape> shapes = new ArrayList<WorkloadGenerator.Shape>();
+		for (String shape : list.split(",")) {
+			shapes.add(WorkloadGenerator.Shape.valueOf(shape.trim().toUpperCase()));
+		}
+		return shapes;
+	}
+
+	private static class Result {
+		final String name;
+		final WorkloadGenerator.Shape shape;
+		final int relations;
+		final double density;
+		final double score;
+		final double error;
+		final double[] raw;
+
+		Result(String name, WorkloadGenerator.Shape shape, int relations, double density, double score, double error, double[] raw) {
+			this.name = name;
+			this.shape = shape;
+			this.relations = relations;
+			this.density = density;
+			this.score = score;
+			this.error = error;
+			this.raw = raw;
+		}
+	}
+}
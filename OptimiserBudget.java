@@ -0,0 +1,162 @@
+package sjdb;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class bounds the work done by one call to Optimiser.optimise():
+ * the time until a deadline, the number of plans considered while join
+ * orders are chosen, and the number of operators that may be added to the
+ * optimiser's PlanFactory, which is its memo of subplans. A budget may
+ * also be cancelled from another thread.
+ *
+ * The optimiser checks its budget as it works. When the plans run out,
+ * the rest of each join order is chosen by tuple count alone, without
+ * regard to which operators are joined, and the optimisation completes.
+ * When the time or the memory runs out, or the budget is cancelled, the
+ * optimiser stops and returns the best plan it completed, or, if it had
+ * completed none, the heuristic plan, which orders the relations by tuple
+ * count alone and is found without checking the budget again. Either way,
+ * the budget records the first limit reached.
+ *
+ * The deadline is measured from the creation of the budget, and a budget
+ * is meant for a single optimisation.
+ */
+public class OptimiserBudget {
+	/**
+	 * The limits of a budget.
+	 */
+	public enum Limit {
+		DEADLINE, PLANS, MEMORY, CANCELLED
+	}
+
+	/**
+	 * Thrown within the Optimiser to abandon the step in progress when its
+	 * budget has run out; optimise() catches it and returns the best plan
+	 * completed, or the heuristic plan.
+	 */
+	static class ExhaustedException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		ExhaustedException(Limit limit) {
+			// thrown to unwind the optimiser rather than to report an error, so no stack trace is kept
+			super(limit.toString(), null, false, false);
+		}
+	}
+
+	/**
+	 * No limit on the time, plans or memory of an optimisation.
+	 */
+	public static final long UNLIMITED = Long.MAX_VALUE;
+
+	private final long deadline;
+	private final boolean hasDeadline;
+	private final long maxPlans;
+	private final long maxMemoOperators;
+	private final AtomicLong plans = new AtomicLong();
+	private volatile boolean cancelled = false;
+	private volatile Limit limitReached = null;
+
+	/**
+	 * Create a budget without limits, which can only be cancelled.
+	 */
+	public OptimiserBudget() {
+		this(UNLIMITED, UNLIMITED, UNLIMITED);
+	}
+
+	/**
+	 * Create a budget with the given limits, each of which may be UNLIMITED.
+	 * @param timeoutMillis time from now until the deadline
+	 * @param maxPlans plans that may be considered while ordering joins
+	 * @param maxMemoOperators operators that may be added to the memo
+	 */
+	public OptimiserBudget(long timeoutMillis, long maxPlans, long maxMemoOperators) {
+		this.hasDeadline = timeoutMillis != UNLIMITED;
+		this.deadline = hasDeadline ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+		this.maxPlans = maxPlans;
+		this.maxMemoOperators = maxMemoOperators;
+	}
+
+	/**
+	 * Ask the optimisation using this budget to stop as soon as it can.
+	 * This may be called from any thread.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * @return true if the budget has been cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Return the first limit of the budget that was reached, or null if
+	 * the optimisation completed within its budget.
+	 * @return
+	 */
+	public Limit getLimitReached() {
+		return limitReached;
+	}
+
+	/**
+	 * @return true if a limit of the budget was reached, so that the plan
+	 * returned may not be as good as an unlimited optimisation would find
+	 */
+	public boolean isExhausted() {
+		return limitReached != null;
+	}
+
+	/**
+	 * Return the number of plans considered so far.
+	 * @return
+	 */
+	public long getPlansConsidered() {
+		return plans.get();
+	}
+
+	/**
+	 * Count plans about to be considered, returning false if they are more
+	 * than remain in the budget.
+	 * @param count
+	 * @return
+	 */
+	boolean consider(long count) {
+		if (plans.addAndGet(count) > maxPlans) {
+			reach(Limit.PLANS);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Throw ExhaustedException if the budget has been cancelled, its
+	 * deadline has passed, or more operators than it allows have been
+	 * added to the memo.
+	 * @param memoOperators operators added to the memo so far
+	 */
+	void check(long memoOperators) {
+		if (cancelled) {
+			throw exhausted(Limit.CANCELLED);
+		}
+		if (hasDeadline && System.nanoTime() - deadline > 0) {
+			throw exhausted(Limit.DEADLINE);
+		}
+		if (memoOperators > maxMemoOperators) {
+			throw exhausted(Limit.MEMORY);
+		}
+	}
+
+	private ExhaustedException exhausted(Limit limit) {
+		reach(limit);
+		return new ExhaustedException(limit);
+	}
+
+	private void reach(Limit limit) {
+		if (limitReached == null) {
+			limitReached = limit;
+		}
+	}
+}
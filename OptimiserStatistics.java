@@ -0,0 +1,224 @@
+package sjdb;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * This class accumulates timings and counters for every Optimiser in the
+ * process: the time spent in each of the four optimisation steps, the
+ * operators created, Estimator calls and plans considered, and a
+ * histogram of optimisation latency. The single instance is registered
+ * as an MBean named sjdb:type=Optimiser when first used.
+ *
+ * Instrumentation is on unless the system property
+ * sjdb.optimiser.instrumentation is set to false. The switch is read
+ * once into a constant, so that when it is off the JIT removes the
+ * instrumentation from Optimiser entirely.
+ *
+ * Counters are updated without locking, so a reader may see the
+ * counters of an optimisation that is only partly recorded.
+ */
+public class OptimiserStatistics implements OptimiserStatisticsMBean {
+	/**
+	 * Whether optimisers record statistics and emit Flight Recorder events.
+	 */
+	public static final boolean ENABLED =
+			!"false".equalsIgnoreCase(System.getProperty("sjdb.optimiser.instrumentation"));
+
+	static final String OBJECT_NAME = "sjdb:type=Optimiser";
+	static final int LATENCY_BUCKETS = 64;
+
+	private static volatile OptimiserStatistics instance;
+
+	private final LongAdder optimisations = new LongAdder();
+	private final LongAdder cacheHits = new LongAdder();
+	private final LongAdder budgetExhaustions = new LongAdder();
+	private final LongAdder selectNanos = new LongAdder();
+	private final LongAdder reorderNanos = new LongAdder();
+	private final LongAdder joinNanos = new LongAdder();
+	private final LongAdder projectNanos = new LongAdder();
+	private final LongAdder operatorsAllocated = new LongAdder();
+	private final LongAdder estimatorCalls = new LongAdder();
+	private final LongAdder plansConsidered = new LongAdder();
+	private final LongAccumulator maxLatency = new LongAccumulator(Math::max, 0);
+	private final AtomicLongArray latencies = new AtomicLongArray(LATENCY_BUCKETS);
+
+	OptimiserStatistics() {
+	}
+
+	/**
+	 * Return the statistics of all optimisers, registering them as an
+	 * MBean on first use.
+	 * @return
+	 */
+	public static OptimiserStatistics get() {
+		OptimiserStatistics statistics = instance;
+		if (statistics == null) {
+			synchronized (OptimiserStatistics.class) {
+				statistics = instance;
+				if (statistics == null) {
+					statistics = new OptimiserStatistics();
+					register(statistics);
+					instance = statistics;
+				}
+			}
+		}
+		return statistics;
+	}
+
+	private static void register(OptimiserStatistics statistics) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(statistics, new ObjectName(OBJECT_NAME));
+		} catch (JMException | SecurityException e) {
+			// statistics are still collected, and can be read directly, without JMX
+			System.err.println("Could not register optimiser statistics: " + e);
+		}
+	}
+
+	/**
+	 * Record an optimisation answered from a plan cache.
+	 * @param latencyNanos
+	 */
+	void recordCacheHit(long latencyNanos) {
+		optimisations.increment();
+		cacheHits.increment();
+		recordLatency(latencyNanos);
+	}
+
+	/**
+	 * Record a complete optimisation.
+	 * @param phaseNanos time spent in each of the four steps
+	 * @param operators operators created
+	 * @param estimates operators visited by the Estimator
+	 * @param plans candidates checked while reordering joins
+	 * @param latencyNanos
+	 */
+	void record(long[] phaseNanos, long operators, long estimates, long plans, long latencyNanos) {
+		optimisations.increment();
+		selectNanos.add(phaseNanos[0]);
+		reorderNanos.add(phaseNanos[1]);
+		joinNanos.add(phaseNanos[2]);
+		projectNanos.add(phaseNanos[3]);
+		operatorsAllocated.add(operators);
+		estimatorCalls.add(estimates);
+		plansConsidered.add(plans);
+		recordLatency(latencyNanos);
+	}
+
+	/**
+	 * Record an optimisation that reached a limit of its budget, or was
+	 * cancelled, in addition to recording the optimisation itself.
+	 */
+	void recordBudgetExhausted() {
+		budgetExhaustions.increment();
+	}
+
+	private void recordLatency(long latencyNanos) {
+		int bucket = 63 - Long.numberOfLeadingZeros(Math.max(1, latencyNanos));
+		latencies.incrementAndGet(bucket);
+		maxLatency.accumulate(latencyNanos);
+	}
+
+	public long getOptimisations() {
+		return optimisations.sum();
+	}
+
+	public long getCacheHits() {
+		return cacheHits.sum();
+	}
+
+	public long getBudgetExhaustions() {
+		return budgetExhaustions.sum();
+	}
+
+	public long getSelectNanos() {
+		return selectNanos.sum();
+	}
+
+	public long getReorderNanos() {
+		return reorderNanos.sum();
+	}
+
+	public long getJoinNanos() {
+		return joinNanos.sum();
+	}
+
+	public long getProjectNanos() {
+		return projectNanos.sum();
+	}
+
+	public long getOperatorsAllocated() {
+		return operatorsAllocated.sum();
+	}
+
+	public long getEstimatorCalls() {
+		return estimatorCalls.sum();
+	}
+
+	public long getPlansConsidered() {
+		return plansConsidered.sum();
+	}
+
+	public long getLatencyP50Nanos() {
+		return latencyPercentile(0.5);
+	}
+
+	public long getLatencyP99Nanos() {
+		return latencyPercentile(0.99);
+	}
+
+	public long getMaxLatencyNanos() {
+		return maxLatency.get();
+	}
+
+	public long[] getLatencyHistogram() {
+		long[] histogram = new long[LATENCY_BUCKETS];
+		for (int i = 0; i < LATENCY_BUCKETS; i++) {
+			histogram[i] = latencies.get(i);
+		}
+		return histogram;
+	}
+
+	public void reset() {
+		optimisations.reset();
+		cacheHits.reset();
+		budgetExhaustions.reset();
+		selectNanos.reset();
+		reorderNanos.reset();
+		joinNanos.reset();
+		projectNanos.reset();
+		operatorsAllocated.reset();
+		estimatorCalls.reset();
+		plansConsidered.reset();
+		maxLatency.reset();
+		for (int i = 0; i < LATENCY_BUCKETS; i++) {
+			latencies.set(i, 0);
+		}
+	}
+
+	// Upper bound of the histogram bucket containing the given fraction of latencies
+	private long latencyPercentile(double fraction) {
+		long[] histogram = getLatencyHistogram();
+		long total = 0;
+		for (long count : histogram) {
+			total += count;
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(total * fraction);
+		long seen = 0;
+		for (int i = 0; i < LATENCY_BUCKETS; i++) {
+			seen += histogram[i];
+			if (seen >= rank) {
+				return i >= 62 ? Long.MAX_VALUE : (2L << i) - 1;
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+}
@@ -0,0 +1,91 @@
+package sjdb;
+
+/**
+ * This is the management interface through which OptimiserStatistics are
+ * exposed over JMX, under the name sjdb:type=Optimiser. Times are in
+ * nanoseconds and counts are totals since the last reset.
+ */
+public interface OptimiserStatisticsMBean {
+	/**
+	 * Return the number of calls to Optimiser.optimise().
+	 * @return
+	 */
+	public long getOptimisations();
+	/**
+	 * Return the number of optimisations answered from a plan cache.
+	 * @return
+	 */
+	public long getCacheHits();
+	/**
+	 * Return the number of optimisations that reached a limit of their
+	 * OptimiserBudget, or were cancelled, and so may have returned a
+	 * worse plan than an unlimited optimisation.
+	 * @return
+	 */
+	public long getBudgetExhaustions();
+	/**
+	 * Return the total time spent in step 1, moving selects down.
+	 * @return
+	 */
+	public long getSelectNanos();
+	/**
+	 * Return the total time spent in step 2, reordering joins.
+	 * @return
+	 */
+	public long getReorderNanos();
+	/**
+	 * Return the total time spent in step 3, creating joins.
+	 * @return
+	 */
+	public long getJoinNanos();
+	/**
+	 * Return the total time spent in step 4, moving projects down.
+	 * @return
+	 */
+	public long getProjectNanos();
+	/**
+	 * Return the number of operators created by the optimiser.
+	 * @return
+	 */
+	public long getOperatorsAllocated();
+	/**
+	 * Return the number of operators visited by the Estimator on behalf
+	 * of the optimiser.
+	 * @return
+	 */
+	public long getEstimatorCalls();
+	/**
+	 * Return the number of plans considered while reordering joins: the
+	 * candidates checked for a predicate joining them to the operators
+	 * already ordered.
+	 * @return
+	 */
+	public long getPlansConsidered();
+	/**
+	 * Return the median optimisation latency, to within a factor of two.
+	 * @return
+	 */
+	public long getLatencyP50Nanos();
+	/**
+	 * Return the 99th percentile optimisation latency, to within a factor
+	 * of two.
+	 * @return
+	 */
+	public long getLatencyP99Nanos();
+	/**
+	 * Return the longest optimisation latency.
+	 * @return
+	 */
+	public long getMaxLatencyNanos();
+	/**
+	 * Return the optimisation latency histogram; element i counts the
+	 * optimisations that took at least 2^i and less than 2^(i+1)
+	 * nanoseconds.
+	 * @return
+	 */
+	public long[] getLatencyHistogram();
+	/**
+	 * Reset every counter to zero.
+	 */
+	public void reset();
+}
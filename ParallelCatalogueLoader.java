@@ -0,0 +1,219 @@
+package sjdb;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class loads a serialised system catalogue (in the text format
+ * read by CatalogueParser) using a pool of threads. The file is split
+ * into chunks that end on line boundaries; each chunk is read and parsed
+ * by one thread. Only one chunk per thread is held in memory at a time.
+ * The relations of every chunk are published to the Catalogue together,
+ * in one update, once every chunk has been parsed.
+ *
+ * A relation defined on more than one line takes its last definition in
+ * the file, as with CatalogueParser, whichever chunk is parsed first.
+ *
+ * Malformed lines do not stop the load: they are skipped and collected,
+ * with their line numbers, and reported once every chunk has been parsed.
+ */
+public class ParallelCatalogueLoader {
+	static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+	// errors included in the message of the exception thrown by load()
+	private static final int REPORTED_ERRORS = 10;
+
+	private String catFilename;
+	private Catalogue catalogue;
+	private int threads;
+	private int chunkSize;
+	private List<String> errors = new ArrayList<String>();
+
+	/**
+	 * Create a loader that reads from the file of the given name, using one
+	 * thread per available processor.
+	 * @param catFilename
+	 * @param catalogue
+	 */
+	public ParallelCatalogueLoader(String catFilename, Catalogue catalogue) {
+		this(catFilename, catalogue, Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Create a loader that reads from the file of the given name.
+	 * @param catFilename
+	 * @param catalogue
+	 * @param threads number of parsing threads
+	 * @param chunkSize approximate size of the chunks, in bytes
+	 */
+	public ParallelCatalogueLoader(String catFilename, Catalogue catalogue, int threads, int chunkSize) {
+		this.catFilename = catFilename;
+		this.catalogue = catalogue;
+		this.threads = Math.max(1, threads);
+		this.chunkSize = Math.max(1, chunkSize);
+	}
+
+	/**
+	 * Load the catalogue file.
+	 * @throws IOException if the file cannot be read
+	 * @throws DatabaseException if any line of the file was malformed; the
+	 * other lines have still been loaded, and getErrors() lists every error
+	 */
+	public void load() throws IOException, DatabaseException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try (RandomAccessFile file = new RandomAccessFile(catFilename, "r");
+				FileChannel channel = file.getChannel()) {
+			List<Long> bounds = chunkBounds(channel);
+			List<Future<Chunk>> chunks = new ArrayList<Future<Chunk>>();
+			for (int i = 0; i + 1 < bounds.size(); i++) {
+				long start = bounds.get(i);
+				long end = bounds.get(i + 1);
+				chunks.add(pool.submit(() -> parseChunk(channel, start, end)));
+			}
+
+			// line numbers are only known once the lines in every earlier chunk have been counted, and the chunks are taken in
+			// order so that a later definition of a relation replaces an earlier one
+			Map<String, NamedRelation> relations = new LinkedHashMap<String, NamedRelation>();
+			int firstLine = 1;
+			for (Future<Chunk> future : chunks) {
+				Chunk chunk = future.get();
+				for (int i = 0; i < chunk.errorLines.size(); i++) {
+					errors.add(catFilename + ":" + (firstLine + chunk.errorLines.get(i)) + ": " + chunk.errorMessages.get(i));
+				}
+				relations.putAll(chunk.relations);
+				firstLine += chunk.lines;
+			}
+			catalogue.updateRelations(relations.values());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DatabaseException("Interrupted while loading " + catFilename, e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new DatabaseException("Failed to load " + catFilename, e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+
+		if (!errors.isEmpty()) {
+			StringBuilder message = new StringBuilder(errors.size() + " malformed lines in " + catFilename);
+			for (int i = 0; i < Math.min(REPORTED_ERRORS, errors.size()); i++) {
+				message.append("\n  ").append(errors.get(i));
+			}
+			if (errors.size() > REPORTED_ERRORS) {
+				message.append("\n  ...");
+			}
+			throw new DatabaseException(message.toString());
+		}
+	}
+
+	/**
+	 * Return the errors found by load(), each prefixed with the name of
+	 * the catalogue file and the line number at which it occurred.
+	 * @return
+	 */
+	public List<String> getErrors() {
+		return errors;
+	}
+
+	/**
+	 * Split the file into chunks of roughly chunkSize bytes, moving each
+	 * boundary forward to just after the next newline.
+	 */
+	private List<Long> chunkBounds(FileChannel channel) throws IOException {
+		long size = channel.size();
+		List<Long> bounds = new ArrayList<Long>();
+		ByteBuffer probe = ByteBuffer.allocate(4096);
+		bounds.add(0L);
+		long pos = chunkSize;
+		while (pos < size) {
+			long boundary = -1;
+			long scan = pos;
+			while (boundary < 0 && scan < size) {
+				probe.clear();
+				int n = channel.read(probe, scan);
+				if (n <= 0) {
+					break;
+				}
+				for (int i = 0; i < n; i++) {
+					if (probe.get(i) == '\n') {
+						boundary = scan + i + 1;
+						break;
+					}
+				}
+				scan += n;
+			}
+			if (boundary < 0 || boundary >= size) {
+				break;
+			}
+			bounds.add(boundary);
+			pos = boundary + chunkSize;
+		}
+		bounds.add(size);
+		return bounds;
+	}
+
+	/**
+	 * Read and parse the lines in the byte range [start, end) of the file,
+	 * keeping the last definition in it of each relation.
+	 */
+	private Chunk parseChunk(FileChannel channel, long start, long end) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, start + buffer.position()) < 0) {
+				break;
+			}
+		}
+		byte[] bytes = buffer.array();
+		int length = buffer.position();
+
+		Chunk chunk = new Chunk();
+		int lineStart = 0;
+		for (int i = 0; i <= length; i++) {
+			if (i == length || bytes[i] == '\n') {
+				if (i == length && i == lineStart) {
+					break;
+				}
+				int lineEnd = (i > lineStart && bytes[i - 1] == '\r') ? i - 1 : i;
+				String line = new String(bytes, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+				try {
+					if (line.startsWith("@")) {
+						CatalogueParser.parseLine(line, catalogue);
+					} else if (!line.trim().isEmpty()) {
+						NamedRelation reln = CatalogueParser.parseRelation(line);
+						chunk.relations.put(reln.getName(), reln);
+					}
+				} catch (DatabaseException e) {
+					chunk.errorLines.add(chunk.lines);
+					chunk.errorMessages.add(e.getMessage());
+				}
+				chunk.lines++;
+				lineStart = i + 1;
+			}
+		}
+		return chunk;
+	}
+
+	/**
+	 * The result of parsing one chunk: its line count, the last definition
+	 * in it of each relation, and the errors found (as line offsets within
+	 * the chunk).
+	 */
+	private static class Chunk {
+		int lines = 0;
+		Map<String, NamedRelation> relations = new LinkedHashMap<String, NamedRelation>();
+		List<Integer> errorLines = new ArrayList<Integer>();
+		List<String> errorMessages = new ArrayList<String>();
+	}
+}
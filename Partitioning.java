@@ -0,0 +1,346 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class describes the partitioning of a named relation on one of
+ * its attributes, and holds the statistics of each partition. A relation
+ * may be hash partitioned, into a fixed number of partitions by the hash
+ * of the attribute's value, or list partitioned, into partitions that
+ * each hold the tuples with one of a list of values, and optionally a
+ * default partition for the values in no list.
+ *
+ * Each partition is described by a NamedRelation of its own, named
+ * <relation>#<partition>, with the attributes of the relation and the
+ * statistics of the partition's tuples. A plan that only needs the tuples
+ * of one partition scans its relation rather than the whole relation's
+ * (see Optimiser), and the Database returns the tuples of the partition.
+ * The relations of partitions are not in the catalogue's directory; they
+ * are found through the partitioning of their relation.
+ *
+ * Two partitionings are compatible if they assign every value to the
+ * partition with the same number. A join of two relations on attributes
+ * by which they are partitioned compatibly only matches tuples in
+ * partitions with the same number, so it can be computed partition by
+ * partition (see Executor.setPartitionWise()).
+ */
+public class Partitioning {
+	/**
+	 * The ways in which a relation may be partitioned
+	 */
+	public enum Kind { HASH, LIST }
+
+	static final String SEPARATOR = "#";
+
+	private final Kind kind;
+	private final String relName;
+	private final Attribute attribute;
+	private final int count;
+	// list partitioning: the partition of each value listed, and of the values in no list, or -1 if there is no default partition
+	private final Map<String, Integer> listed;
+	private final int defaultPartition;
+	private final List<NamedRelation> partitions;
+
+	private Partitioning(Kind kind, String relName, Attribute attribute, int count, Map<String, Integer> listed,
+			int defaultPartition, List<NamedRelation> partitions) {
+		this.kind = kind;
+		this.relName = relName;
+		this.attribute = attribute;
+		this.count = count;
+		this.listed = listed;
+		this.defaultPartition = defaultPartition;
+		this.partitions = partitions;
+	}
+
+	/**
+	 * Create a hash partitioning of a relation on an attribute, with the
+	 * statistics of each partition estimated from those of the relation,
+	 * as if its tuples were spread evenly.
+	 * @param reln
+	 * @param attribute
+	 * @param count number of partitions
+	 * @return
+	 */
+	public static Partitioning hash(NamedRelation reln, Attribute attribute, int count) {
+		Partitioning partitioning = new Partitioning(Kind.HASH, reln.getName(), reln.getAttribute(attribute), count,
+				Collections.<String, Integer>emptyMap(), -1, null);
+		List<NamedRelation> partitions = new ArrayList<NamedRelation>();
+		for (int i = 0; i < count; i++) {
+			partitions.add(partitioning.estimatePartition(reln, i, 1.0 / count));
+		}
+		return partitioning.withPartitions(partitions);
+	}
+
+	/**
+	 * Create a list partitioning of a relation on an attribute, with a
+	 * partition for each list of values, and a default partition for the
+	 * values in no list if withDefault is true. The statistics of each
+	 * partition are estimated from those of the relation, as if each value
+	 * of the attribute had the same number of tuples.
+	 * @param reln
+	 * @param attribute
+	 * @param values
+	 * @param withDefault
+	 * @return
+	 */
+	public static Partitioning list(NamedRelation reln, Attribute attribute, List<List<String>> values, boolean withDefault) {
+		Map<String, Integer> listed = new HashMap<String, Integer>();
+		for (int i = 0; i < values.size(); i++) {
+			for (String value : values.get(i)) {
+				listed.put(value, i);
+			}
+		}
+		int count = values.size() + (withDefault ? 1 : 0);
+		Partitioning partitioning = new Partitioning(Kind.LIST, reln.getName(), reln.getAttribute(attribute), count,
+				Collections.unmodifiableMap(listed), withDefault ? values.size() : -1, null);
+		double valueCount = Math.max(listed.size(), partitioning.attribute.getValueCount());
+		List<NamedRelation> partitions = new ArrayList<NamedRelation>();
+		for (int i = 0; i < values.size(); i++) {
+			partitions.add(partitioning.estimatePartition(reln, i, values.get(i).size() / valueCount));
+		}
+		if (withDefault) {
+			partitions.add(partitioning.estimatePartition(reln, values.size(), (valueCount - listed.size()) / valueCount));
+		}
+		return partitioning.withPartitions(partitions);
+	}
+
+	// The relation of a partition holding a fraction of the relation's tuples, with the statistics of the relation scaled to it
+	private NamedRelation estimatePartition(NamedRelation reln, int partition, double fraction) {
+		int tuples = (int) Math.ceil(reln.getTupleCount() * fraction);
+		NamedRelation part = new NamedRelation(partitionName(relName, partition), tuples);
+		for (Attribute attr : reln.getAttributes()) {
+			int values = attr.equals(attribute) ? (int) Math.ceil(attr.getValueCount() * fraction) : attr.getValueCount();
+			part.addAttribute(new Attribute(attr, Math.max(1, Math.min(values, tuples))));
+		}
+		return part;
+	}
+
+	/**
+	 * Return a partitioning like this one, with the statistics of each
+	 * partition computed from the tuples of the relation, which are in
+	 * the order of its attributes in the catalogue.
+	 * @param reln
+	 * @param tuples
+	 * @return
+	 */
+	public Partitioning analyze(NamedRelation reln, List<String[]> tuples) {
+		List<Attribute> attributes = reln.getAttributes();
+		int position = attributes.indexOf(attribute);
+		long[] counts = new long[count];
+		List<List<Set<String>>> values = new ArrayList<List<Set<String>>>();
+		List<double[]> mins = new ArrayList<double[]>();
+		List<double[]> maxs = new ArrayList<double[]>();
+		for (int p = 0; p < count; p++) {
+			List<Set<String>> sets = new ArrayList<Set<String>>();
+			for (int i = 0; i < attributes.size(); i++) {
+				sets.add(new HashSet<String>());
+			}
+			values.add(sets);
+			double[] min = new double[attributes.size()];
+			double[] max = new double[attributes.size()];
+			Arrays.fill(min, Double.POSITIVE_INFINITY);
+			Arrays.fill(max, Double.NEGATIVE_INFINITY);
+			mins.add(min);
+			maxs.add(max);
+		}
+		for (String[] tuple : tuples) {
+			int p = partitionOf(tuple[position]);
+			if (p < 0) {
+				continue;
+			}
+			counts[p]++;
+			for (int i = 0; i < tuple.length; i++) {
+				values.get(p).get(i).add(tuple[i]);
+				if (attributes.get(i).hasRange()) {
+					Double value = Estimator.numericValue(tuple[i]);
+					if (value != null) {
+						mins.get(p)[i] = Math.min(mins.get(p)[i], value);
+						maxs.get(p)[i] = Math.max(maxs.get(p)[i], value);
+					}
+				}
+			}
+		}
+
+		List<NamedRelation> partitions = new ArrayList<NamedRelation>();
+		for (int p = 0; p < count; p++) {
+			NamedRelation part = new NamedRelation(partitionName(relName, p), (int) counts[p]);
+			for (int i = 0; i < attributes.size(); i++) {
+				Attribute attr = attributes.get(i);
+				int distinct = values.get(p).get(i).size();
+				if (attr.hasRange() && mins.get(p)[i] <= maxs.get(p)[i]) {
+					part.addAttribute(new Attribute(attr.getName(), distinct, mins.get(p)[i], maxs.get(p)[i]));
+				} else {
+					part.addAttribute(new Attribute(attr.getName(), distinct));
+				}
+			}
+			partitions.add(part);
+		}
+		return withPartitions(partitions);
+	}
+
+	/**
+	 * Return a partitioning like this one, with the given relations of its
+	 * partitions, in order.
+	 * @param partitions
+	 * @return
+	 */
+	Partitioning withPartitions(List<NamedRelation> partitions) {
+		return new Partitioning(kind, relName, attribute, count, listed, defaultPartition, Collections.unmodifiableList(partitions));
+	}
+
+	/**
+	 * Return the kind of partitioning.
+	 * @return
+	 */
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * Return the name of the partitioned relation.
+	 * @return
+	 */
+	public String getRelationName() {
+		return relName;
+	}
+
+	/**
+	 * Return the attribute on which the relation is partitioned.
+	 * @return
+	 */
+	public Attribute getAttribute() {
+		return attribute;
+	}
+
+	/**
+	 * Return the number of partitions.
+	 * @return
+	 */
+	public int getPartitionCount() {
+		return count;
+	}
+
+	/**
+	 * Return the relation of a partition, which holds its statistics.
+	 * @param partition
+	 * @return
+	 */
+	public NamedRelation getPartition(int partition) {
+		return partitions.get(partition);
+	}
+
+	/**
+	 * Return the partition that holds the tuples with a value of the
+	 * partitioning attribute, or -1 if no partition holds them.
+	 * @param value
+	 * @return
+	 */
+	public int partitionOf(String value) {
+		if (kind == Kind.HASH) {
+			return Math.floorMod(value.hashCode(), count);
+		}
+		Integer partition = listed.get(value);
+		return partition != null ? partition : defaultPartition;
+	}
+
+	/**
+	 * Return true if this partitioning assigns every value to the
+	 * partition with the same number as another does.
+	 * @param other
+	 * @return
+	 */
+	public boolean isCompatible(Partitioning other) {
+		return other != null && kind == other.kind && count == other.count && defaultPartition == other.defaultPartition
+				&& listed.equals(other.listed);
+	}
+
+	/**
+	 * Return the name of the relation of a partition of a relation.
+	 * @param relName
+	 * @param partition
+	 * @return
+	 */
+	public static String partitionName(String relName, int partition) {
+		return relName + SEPARATOR + partition;
+	}
+
+	/**
+	 * Return the name of the relation of which a named relation is a
+	 * partition, or null if it is not a partition.
+	 * @param name
+	 * @return
+	 */
+	static String parentName(String name) {
+		int separator = name.lastIndexOf(SEPARATOR);
+		return separator > 0 ? name.substring(0, separator) : null;
+	}
+
+	/**
+	 * Return the number of the partition described by a named relation,
+	 * which must be a partition.
+	 * @param name
+	 * @return
+	 */
+	static int partitionIndex(String name) {
+		return Integer.parseInt(name.substring(name.lastIndexOf(SEPARATOR) + 1));
+	}
+
+	/**
+	 * Return the partitioning shared by the relations of both inputs of a
+	 * join, if each input has exactly one scan that reads its join
+	 * attribute and the relations scanned are partitioned compatibly on
+	 * the join attributes, or null otherwise.
+	 * @param join
+	 * @return
+	 */
+	public static Partitioning of(Join join) {
+		Predicate predicate = join.getPredicate();
+		// as in the Executor, the predicate's left attribute may come from the right input
+		Attribute leftKey = predicate.getLeftAttribute();
+		Attribute rightKey = predicate.getRightAttribute();
+		if (!join.getLeft().getOutput().contains(leftKey)) {
+			leftKey = predicate.getRightAttribute();
+			rightKey = predicate.getLeftAttribute();
+		}
+		Partitioning left = partitioning(reading(join.getLeft(), leftKey), leftKey);
+		Partitioning right = partitioning(reading(join.getRight(), rightKey), rightKey);
+		return left != null && left.isCompatible(right) ? left : null;
+	}
+
+	// The partitioning of the relation of a scan on an attribute, or null
+	private static Partitioning partitioning(Scan scan, Attribute attribute) {
+		if (scan == null) {
+			return null;
+		}
+		Partitioning partitioning = ((NamedRelation) scan.getRelation()).getPartitioning();
+		return partitioning != null && partitioning.attribute.equals(attribute) ? partitioning : null;
+	}
+
+	/**
+	 * Return the only scan in a plan that reads an attribute, or null if
+	 * there is none or more than one.
+	 * @param plan
+	 * @param attribute
+	 * @return
+	 */
+	static Scan reading(Operator plan, Attribute attribute) {
+		List<Scan> scans = new ArrayList<Scan>();
+		PlanTraversal.preOrder(plan, op -> {
+			if (op instanceof Scan && ((Scan) op).getRelation().contains(attribute)) {
+				scans.add((Scan) op);
+			}
+		});
+		return scans.size() == 1 ? scans.get(0) : null;
+	}
+
+	public String toString() {
+		return kind + " (" + attribute + ") " + count + " partitions";
+	}
+}
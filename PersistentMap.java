@@ -0,0 +1,294 @@
+package sjdb;
+
+import java.util.function.BiConsumer;
+
+/**
+ * This class is an immutable hash map (a hash array mapped trie). Adding
+ * or removing an entry returns a new map that shares all but the path to
+ * the entry with the old one, so that old versions of the map remain valid
+ * and may be read without locking while new versions are built.
+ */
+final class PersistentMap<K, V> {
+	private static final PersistentMap<Object, Object> EMPTY = new PersistentMap<Object, Object>(null, 0);
+
+	private final Node root;
+	private final int size;
+
+	private PersistentMap(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	/**
+	 * Return the empty map.
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	static <K, V> PersistentMap<K, V> empty() {
+		return (PersistentMap<K, V>) EMPTY;
+	}
+
+	/**
+	 * Return the number of entries in this map.
+	 * @return
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Return the value mapped to the given key, or null if there is none.
+	 * @param key
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	V get(K key) {
+		if (root == null) {
+			return null;
+		}
+		return (V) root.find(key, spread(key.hashCode()), 0);
+	}
+
+	/**
+	 * Return a map with the same entries as this one, and with the given
+	 * key mapped to the given value.
+	 * @param key
+	 * @param value
+	 * @return
+	 */
+	PersistentMap<K, V> plus(K key, V value) {
+		int hash = spread(key.hashCode());
+		boolean[] added = new boolean[1];
+		Node newRoot;
+		if (root == null) {
+			newRoot = BitmapNode.EMPTY.plus(new Entry(key, hash, value), 0, added);
+		} else {
+			newRoot = root.plus(new Entry(key, hash, value), 0, added);
+		}
+		return new PersistentMap<K, V>(newRoot, added[0] ? size + 1 : size);
+	}
+
+	/**
+	 * Return a map with the same entries as this one, but without any
+	 * entry for the given key.
+	 * @param key
+	 * @return
+	 */
+	PersistentMap<K, V> minus(K key) {
+		if (root == null) {
+			return this;
+		}
+		Node newRoot = root.minus(key, spread(key.hashCode()), 0);
+		if (newRoot == root) {
+			return this;
+		}
+		return newRoot != null ? new PersistentMap<K, V>(newRoot, size - 1) : empty();
+	}
+
+	/**
+	 * Apply an action to every entry in this map.
+	 * @param action
+	 */
+	@SuppressWarnings("unchecked")
+	void forEach(BiConsumer<? super K, ? super V> action) {
+		if (root != null) {
+			root.forEach((BiConsumer<Object, Object>) action);
+		}
+	}
+
+	private static int spread(int h) {
+		return h ^ (h >>> 16);
+	}
+
+	private static final class Entry {
+		final Object key;
+		final int hash;
+		final Object value;
+
+		Entry(Object key, int hash, Object value) {
+			this.key = key;
+			this.hash = hash;
+			this.value = value;
+		}
+	}
+
+	private static abstract class Node {
+		abstract Object find(Object key, int hash, int shift);
+		abstract Node plus(Entry entry, int shift, boolean[] added);
+		// this node if it has no entry for the key, or else null if it would be left empty
+		abstract Node minus(Object key, int hash, int shift);
+		abstract void forEach(BiConsumer<Object, Object> action);
+	}
+
+	/*
+	 * An interior node; slot i of the array holds either an Entry or a
+	 * child Node, for the i-th bit set in the bitmap.
+	 */
+	private static final class BitmapNode extends Node {
+		static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+		final int bitmap;
+		final Object[] slots;
+
+		BitmapNode(int bitmap, Object[] slots) {
+			this.bitmap = bitmap;
+			this.slots = slots;
+		}
+
+		Object find(Object key, int hash, int shift) {
+			int bit = 1 << ((hash >>> shift) & 31);
+			if ((bitmap & bit) == 0) {
+				return null;
+			}
+			Object slot = slots[Integer.bitCount(bitmap & (bit - 1))];
+			if (slot instanceof Entry) {
+				Entry entry = (Entry) slot;
+				return entry.key.equals(key) ? entry.value : null;
+			}
+			return ((Node) slot).find(key, hash, shift + 5);
+		}
+
+		Node plus(Entry entry, int shift, boolean[] added) {
+			int bit = 1 << ((entry.hash >>> shift) & 31);
+			int index = Integer.bitCount(bitmap & (bit - 1));
+			if ((bitmap & bit) == 0) {
+				Object[] newSlots = new Object[slots.length + 1];
+				System.arraycopy(slots, 0, newSlots, 0, index);
+				newSlots[index] = entry;
+				System.arraycopy(slots, index, newSlots, index + 1, slots.length - index);
+				added[0] = true;
+				return new BitmapNode(bitmap | bit, newSlots);
+			}
+			Object slot = slots[index];
+			Object replacement;
+			if (slot instanceof Entry) {
+				Entry existing = (Entry) slot;
+				if (existing.key.equals(entry.key)) {
+					replacement = entry;
+				} else {
+					replacement = merge(existing, entry, shift + 5);
+					added[0] = true;
+				}
+			} else {
+				replacement = ((Node) slot).plus(entry, shift + 5, added);
+			}
+			Object[] newSlots = slots.clone();
+			newSlots[index] = replacement;
+			return new BitmapNode(bitmap, newSlots);
+		}
+
+		Node minus(Object key, int hash, int shift) {
+			int bit = 1 << ((hash >>> shift) & 31);
+			if ((bitmap & bit) == 0) {
+				return this;
+			}
+			int index = Integer.bitCount(bitmap & (bit - 1));
+			Object slot = slots[index];
+			Node replacement;
+			if (slot instanceof Entry) {
+				if (!((Entry) slot).key.equals(key)) {
+					return this;
+				}
+				replacement = null;
+			} else {
+				replacement = ((Node) slot).minus(key, hash, shift + 5);
+				if (replacement == slot) {
+					return this;
+				}
+			}
+			if (replacement != null) {
+				Object[] newSlots = slots.clone();
+				newSlots[index] = replacement;
+				return new BitmapNode(bitmap, newSlots);
+			}
+			if (slots.length == 1) {
+				return null;
+			}
+			Object[] newSlots = new Object[slots.length - 1];
+			System.arraycopy(slots, 0, newSlots, 0, index);
+			System.arraycopy(slots, index + 1, newSlots, index, slots.length - index - 1);
+			return new BitmapNode(bitmap & ~bit, newSlots);
+		}
+
+		void forEach(BiConsumer<Object, Object> action) {
+			for (Object slot : slots) {
+				if (slot instanceof Entry) {
+					action.accept(((Entry) slot).key, ((Entry) slot).value);
+				} else {
+					((Node) slot).forEach(action);
+				}
+			}
+		}
+
+		private static Node merge(Entry a, Entry b, int shift) {
+			if (a.hash == b.hash) {
+				return new CollisionNode(a.hash, new Entry[] { a, b });
+			}
+			boolean[] ignored = new boolean[1];
+			return EMPTY.plus(a, shift, ignored).plus(b, shift, ignored);
+		}
+	}
+
+	/*
+	 * A leaf holding entries whose keys have the same hash.
+	 */
+	private static final class CollisionNode extends Node {
+		final int hash;
+		final Entry[] entries;
+
+		CollisionNode(int hash, Entry[] entries) {
+			this.hash = hash;
+			this.entries = entries;
+		}
+
+		Object find(Object key, int hash, int shift) {
+			for (Entry entry : entries) {
+				if (entry.key.equals(key)) {
+					return entry.value;
+				}
+			}
+			return null;
+		}
+
+		Node plus(Entry entry, int shift, boolean[] added) {
+			if (entry.hash != hash) {
+				// push this node down a level, beneath a node that can tell the two hashes apart
+				int bit = 1 << ((hash >>> shift) & 31);
+				return new BitmapNode(bit, new Object[] { this }).plus(entry, shift, added);
+			}
+			for (int i = 0; i < entries.length; i++) {
+				if (entries[i].key.equals(entry.key)) {
+					Entry[] newEntries = entries.clone();
+					newEntries[i] = entry;
+					return new CollisionNode(hash, newEntries);
+				}
+			}
+			Entry[] newEntries = new Entry[entries.length + 1];
+			System.arraycopy(entries, 0, newEntries, 0, entries.length);
+			newEntries[entries.length] = entry;
+			added[0] = true;
+			return new CollisionNode(hash, newEntries);
+		}
+
+		Node minus(Object key, int hash, int shift) {
+			for (int i = 0; i < entries.length; i++) {
+				if (entries[i].key.equals(key)) {
+					if (entries.length == 1) {
+						return null;
+					}
+					Entry[] newEntries = new Entry[entries.length - 1];
+					System.arraycopy(entries, 0, newEntries, 0, i);
+					System.arraycopy(entries, i + 1, newEntries, i, entries.length - i - 1);
+					return new CollisionNode(hash, newEntries);
+				}
+			}
+			return this;
+		}
+
+		void forEach(BiConsumer<Object, Object> action) {
+			for (Entry entry : entries) {
+				action.accept(entry.key, entry.value);
+			}
+		}
+	}
+}
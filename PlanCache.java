@@ -0,0 +1,90 @@
+package sjdb;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class caches optimised query plans, keyed by the canonical query
+ * plan from which they were produced. Each plan is stored with the
+ * version of the catalogue snapshot that it was optimised against, and
+ * is discarded once it is looked up with any other version, so that
+ * plans are never reused after the statistics they were based on have
+ * changed.
+ *
+ * The cache holds at most a fixed number of plans, evicting the least
+ * recently used. It may be shared by several Optimisers.
+ */
+public class PlanCache {
+	private final Map<String, Entry> plans;
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * Create a plan cache that holds at most the given number of plans.
+	 * @param capacity
+	 */
+	public PlanCache(final int capacity) {
+		this.plans = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Return the plan cached for the given canonical plan, or null if there
+	 * is none for the given catalogue version.
+	 * @param canonical
+	 * @param version
+	 * @return
+	 */
+	public synchronized Operator get(String canonical, long version) {
+		Entry entry = plans.get(canonical);
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		if (entry.version != version) {
+			plans.remove(canonical);
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.plan;
+	}
+
+	/**
+	 * Cache an optimised plan.
+	 * @param canonical
+	 * @param version catalogue version that the plan was optimised against
+	 * @param plan
+	 */
+	public synchronized void put(String canonical, long version, Operator plan) {
+		plans.put(canonical, new Entry(version, plan));
+	}
+
+	public synchronized int size() {
+		return plans.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	private static class Entry {
+		final long version;
+		final Operator plan;
+
+		Entry(long version, Operator plan) {
+			this.version = version;
+			this.plan = plan;
+		}
+	}
+}
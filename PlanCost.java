@@ -0,0 +1,111 @@
+package sjdb;
+
+/**
+ * This class computes the estimated cost of a query plan, as the total
+ * number of tuples produced by all of its operators, or as the
+ * intermediate tuple count: the total number of tuples produced by its
+ * joins and products, which is what join ordering can change. These are
+ * the measures of plan quality used to compare plans for the same query;
+ * the plan must already have been visited by an Estimator.
+ */
+public class PlanCost implements PlanVisitor {
+	private final boolean binaryOnly;
+	private long cost = 0;
+
+	/**
+	 * Create a visitor that totals the tuples produced by every operator.
+	 */
+	public PlanCost() {
+		this(false);
+	}
+
+	/**
+	 * Create a visitor that totals the tuples produced by every operator,
+	 * or only by joins and products.
+	 * @param binaryOnly
+	 */
+	public PlanCost(boolean binaryOnly) {
+		this.binaryOnly = binaryOnly;
+	}
+
+	/**
+	 * Return the estimated cost of a plan.
+	 * @param plan
+	 * @return
+	 */
+	public static long of(Operator plan) {
+		PlanCost visitor = new PlanCost();
+		plan.accept(visitor);
+		return visitor.getCost();
+	}
+
+	/**
+	 * Return the estimated intermediate tuple count of a plan.
+	 * @param plan
+	 * @return
+	 */
+	public static long intermediate(Operator plan) {
+		PlanCost visitor = new PlanCost(true);
+		plan.accept(visitor);
+		return visitor.getCost();
+	}
+
+	/**
+	 * Return the total number of tuples produced by the operators visited so far.
+	 * @return
+	 */
+	public long getCost() {
+		return cost;
+	}
+
+	public void visit(Scan op) {
+		if (!binaryOnly) {
+			add(op);
+		}
+	}
+
+	public void visit(Project op) {
+		if (!binaryOnly) {
+			add(op);
+		}
+	}
+
+	public void visit(Select op) {
+		if (!binaryOnly) {
+			add(op);
+		}
+	}
+
+	public void visit(Product op) {
+		add(op);
+	}
+
+	public void visit(Join op) {
+		add(op);
+	}
+
+	public void visit(Exchange op) {
+		// an exchange moves the tuples of its input rather than producing any; what it costs is counted by network()
+	}
+
+	/**
+	 * Return the estimated number of bytes that the exchanges of a
+	 * distributed plan send between a number of workers.
+	 * @param plan
+	 * @param workers
+	 * @return
+	 */
+	public static long network(Operator plan, int workers) {
+		long[] bytes = { 0 };
+		PlanTraversal.postOrder(plan, op -> {
+			if (op instanceof Exchange) {
+				bytes[0] += ((Exchange) op).getNetworkBytes(workers);
+			}
+		});
+		return bytes[0];
+	}
+
+	private void add(Operator op) {
+		cost += op.getOutput().getTupleCount();
+	}
+}
@@ -0,0 +1,259 @@
+package sjdb;
+
+import java.lang.ref.WeakReference;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * This class creates hash-consed query plans: it keeps one canonical
+ * operator for each distinct subplan it has created, and returns that
+ * operator whenever an equal one is requested, so that subplans that do
+ * not change are shared by reference between the passes of the
+ * Optimiser, between alternative plans, and between queries.
+ *
+ * Each canonical operator is estimated once, when it is created, from
+ * the outputs of its (canonical) inputs, rather than by visiting the
+ * whole subplan below it again. Operators from elsewhere are copied into
+ * canonical form by intern().
+ *
+ * Canonical operators are held weakly, so that the many intermediate
+ * plans built while optimising a large query can be garbage collected
+ * once no plan refers to them.
+ *
+ * Canonical operators are shared, so their outputs must not be replaced
+ * (by visiting them with another Estimator, for example). The estimates
+ * depend on the CardinalityFeedback used, if any, so the factory forgets
+ * its operators when the feedback changes significantly; it also forgets
+ * them when the catalogue changes (since estimates also depend on its key
+ * constraints), or when it holds more than a fixed number.
+ */
+public class PlanFactory {
+	static final int DEFAULT_CAPACITY = 100000;
+
+	private final CardinalityFeedback feedback;
+	private final int capacity;
+	private final Map<Operator, WeakReference<Operator>> operators = new WeakHashMap<Operator, WeakReference<Operator>>();
+	private final Map<NamedRelation, Scan> scans = new IdentityHashMap<NamedRelation, Scan>();
+	private Estimator estimator;
+	private CatalogueSnapshot snapshot = null;
+	private long catalogueVersion = -1;
+	private long feedbackVersion = -1;
+	private long allocated = 0;
+	private long estimates = 0;
+
+	/**
+	 * Create a plan factory that estimates operators without feedback.
+	 */
+	public PlanFactory() {
+		this(null);
+	}
+
+	/**
+	 * Create a plan factory that estimates operators with the given
+	 * feedback, which may be null.
+	 * @param feedback
+	 */
+	public PlanFactory(CardinalityFeedback feedback) {
+		this(feedback, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create a plan factory that holds at most capacity operators.
+	 * @param feedback
+	 * @param capacity
+	 */
+	public PlanFactory(CardinalityFeedback feedback, int capacity) {
+		this.feedback = feedback;
+		this.capacity = capacity;
+		this.estimator = new Estimator(feedback);
+	}
+
+	/**
+	 * Forget every operator created so far if the catalogue or the
+	 * feedback has changed since the last call, or if the factory is
+	 * full. Operators created from then on are estimated with the key
+	 * constraints of the given snapshot.
+	 * @param snapshot catalogue snapshot about to be used
+	 */
+	public void validate(CatalogueSnapshot snapshot) {
+		long feedbackVersion = feedback != null ? feedback.getVersion() : 0;
+		if (snapshot.getVersion() != this.catalogueVersion || feedbackVersion != this.feedbackVersion
+				|| operators.size() + scans.size() > capacity) {
+			this.snapshot = snapshot;
+			clear();
+			this.catalogueVersion = snapshot.getVersion();
+			this.feedbackVersion = feedbackVersion;
+		}
+	}
+
+	/**
+	 * Forget every operator created so far.
+	 */
+	public void clear() {
+		operators.clear();
+		scans.clear();
+		estimator = new Estimator(feedback, snapshot);
+	}
+
+	/**
+	 * Return the canonical scan of a relation.
+	 * @param relation
+	 * @return
+	 */
+	public Scan scan(NamedRelation relation) {
+		Scan scan = scans.get(relation);
+		if (scan == null) {
+			scan = new Scan(relation);
+			allocated++;
+			estimate(scan);
+			scans.put(relation, scan);
+		}
+		return scan;
+	}
+
+	/**
+	 * Return the canonical select of the given predicate over an input.
+	 * @param input
+	 * @param predicate
+	 * @return
+	 */
+	public Select select(Operator input, Predicate predicate) {
+		return (Select) canonical(new Select(intern(input), predicate));
+	}
+
+	/**
+	 * Return the canonical project of the given attributes of an input.
+	 * @param input
+	 * @param attributes
+	 * @return
+	 */
+	public Project project(Operator input, List<Attribute> attributes) {
+		return (Project) canonical(new Project(intern(input), attributes));
+	}
+
+	/**
+	 * Return the canonical product of two inputs.
+	 * @param left
+	 * @param right
+	 * @return
+	 */
+	public Product product(Operator left, Operator right) {
+		return (Product) canonical(new Product(intern(left), intern(right)));
+	}
+
+	/**
+	 * Return the canonical join of two inputs on the given predicate.
+	 * @param left
+	 * @param right
+	 * @param predicate
+	 * @return
+	 */
+	public Join join(Operator left, Operator right, Predicate predicate) {
+		return (Join) canonical(new Join(intern(left), intern(right), predicate));
+	}
+
+	/**
+	 * Return the canonical exchange of an input.
+	 * @param input
+	 * @param kind
+	 * @param attribute attribute by which tuples are shuffled, or null
+	 * @return
+	 */
+	public Exchange exchange(Operator input, Exchange.Kind kind, Attribute attribute) {
+		return (Exchange) canonical(new Exchange(intern(input), kind, attribute));
+	}
+
+	/**
+	 * Return the canonical operator equal to a plan, copying the plan
+	 * into canonical form if there is none. The plan is copied bottom-up
+	 * with an explicit stack, so it may be of any depth.
+	 * @param op
+	 * @return
+	 */
+	public Operator intern(Operator op) {
+		if (op instanceof Scan) {
+			return scan((NamedRelation) ((Scan) op).getRelation());
+		}
+		Operator canonical = lookup(op);
+		if (canonical != null) {
+			return canonical;
+		}
+		return PlanTraversal.rewrite(op, (o, inputs, state) -> copy(o, inputs));
+	}
+
+	/**
+	 * Return the canonical operator with the parameters of an operator and
+	 * the given canonical inputs.
+	 * @param op
+	 * @param inputs
+	 * @return
+	 */
+	Operator copy(Operator op, List<Operator> inputs) {
+		if (op instanceof Scan) {
+			return scan((NamedRelation) ((Scan) op).getRelation());
+		} else if (op instanceof Select) {
+			return canonical(new Select(inputs.get(0), ((Select) op).getPredicate()));
+		} else if (op instanceof Project) {
+			return canonical(new Project(inputs.get(0), ((Project) op).getAttributes()));
+		} else if (op instanceof Join) {
+			return canonical(new Join(inputs.get(0), inputs.get(1), ((Join) op).getPredicate()));
+		} else if (op instanceof Product) {
+			return canonical(new Product(inputs.get(0), inputs.get(1)));
+		} else if (op instanceof Exchange) {
+			return canonical(new Exchange(inputs.get(0), ((Exchange) op).getKind(), ((Exchange) op).getAttribute()));
+		}
+		throw new IllegalArgumentException("Unknown operator " + op.getClass().getName());
+	}
+
+	/**
+	 * Return the number of operators allocated by the factory, including
+	 * those discarded because an equal operator was already held.
+	 * @return
+	 */
+	public long getAllocated() {
+		return allocated;
+	}
+
+	/**
+	 * Return the number of operators estimated by the factory, which is
+	 * the number of canonical operators it has created.
+	 * @return
+	 */
+	public long getEstimates() {
+		return estimates;
+	}
+
+	/**
+	 * Return the number of canonical operators held.
+	 * @return
+	 */
+	public int size() {
+		return operators.size() + scans.size();
+	}
+
+	// Return the canonical operator equal to a new operator whose inputs are canonical, making it canonical if there is none
+	private Operator canonical(Operator op) {
+		allocated++;
+		Operator canonical = lookup(op);
+		if (canonical == null) {
+			estimate(op);
+			operators.put(op, new WeakReference<Operator>(op));
+			canonical = op;
+		}
+		return canonical;
+	}
+
+	// Return the canonical operator equal to an operator, or null if there is none
+	private Operator lookup(Operator op) {
+		WeakReference<Operator> canonical = operators.get(op);
+		return canonical != null ? canonical.get() : null;
+	}
+
+	// Estimate the output of an operator from the outputs of its inputs, without visiting them again
+	private void estimate(Operator op) {
+		estimates++;
+		op.dispatch(estimator);
+	}
+}
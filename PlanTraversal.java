@@ -0,0 +1,178 @@
+package sjdb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * This class walks query plans with an explicit stack rather than by
+ * recursion, so that plans of any depth (such as those built by the
+ * QueryParser for queries with many relations and predicates) can be
+ * visited and rewritten without overflowing the call stack.
+ *
+ * A plan may be walked in pre-order (each operator before its inputs),
+ * in post-order (the inputs of each operator, in order, before the
+ * operator: the order in which Operator.accept() passes operators to a
+ * PlanVisitor), or rewritten bottom-up by a Rewriter.
+ */
+public class PlanTraversal {
+
+	/**
+	 * A rewriting of a plan, which builds a new operator for each operator
+	 * of the plan from the new operators built for its inputs.
+	 *
+	 * @param <S> state kept for an operator between enter() and rewrite()
+	 */
+	public interface Rewriter<S> {
+		/**
+		 * Called for each operator before its inputs are rewritten.
+		 * @param op
+		 * @return state to be passed to rewrite() for the operator
+		 */
+		default S enter(Operator op) {
+			return null;
+		}
+
+		/**
+		 * Return true if the inputs of an operator are to be rewritten, or
+		 * false if rewrite() is to be given the original inputs.
+		 * @param op
+		 * @return
+		 */
+		default boolean descend(Operator op) {
+			return true;
+		}
+
+		/**
+		 * Return the rewriting of an operator.
+		 * @param op the original operator
+		 * @param inputs the rewritten inputs of the operator, in order
+		 * @param state the state returned by enter() for the operator
+		 * @return
+		 */
+		Operator rewrite(Operator op, List<Operator> inputs, S state);
+	}
+
+	// An operator on the stack, with the index of the next of its inputs to be walked
+	private static class Frame<S> {
+		final Operator op;
+		final S state;
+		final boolean descend;
+		final List<Operator> results;
+		int next = 0;
+
+		Frame(Operator op, S state, boolean descend) {
+			this.op = op;
+			this.state = state;
+			this.descend = descend;
+			this.results = descend ? new ArrayList<Operator>(op.inputs.size()) : null;
+		}
+	}
+
+	private PlanTraversal() {
+	}
+
+	/**
+	 * Pass every operator of a plan to an action, each operator before
+	 * its inputs and the inputs in order.
+	 * @param plan
+	 * @param action
+	 */
+	public static void preOrder(Operator plan, Consumer<Operator> action) {
+		preOrder(plan, op -> true, action);
+	}
+
+	/**
+	 * Pass operators of a plan to an action, each operator before its
+	 * inputs and the inputs in order, but not walking below the operators
+	 * for which descend is false.
+	 * @param plan
+	 * @param descend
+	 * @param action
+	 */
+	public static void preOrder(Operator plan, Predicate<Operator> descend, Consumer<Operator> action) {
+		Deque<Operator> stack = new ArrayDeque<Operator>();
+		stack.push(plan);
+		while (!stack.isEmpty()) {
+			Operator op = stack.pop();
+			action.accept(op);
+			if (descend.test(op)) {
+				for (int i = op.inputs.size() - 1; i >= 0; i--) {
+					stack.push(op.inputs.get(i));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Pass every operator of a plan to an action, the inputs of each
+	 * operator in order before the operator itself.
+	 * @param plan
+	 * @param action
+	 */
+	public static void postOrder(Operator plan, Consumer<Operator> action) {
+		postOrder(plan, op -> true, action);
+	}
+
+	/**
+	 * Pass operators of a plan to an action, the inputs of each operator
+	 * in order before the operator itself, but not walking below the
+	 * operators for which descend is false.
+	 * @param plan
+	 * @param descend
+	 * @param action
+	 */
+	public static void postOrder(Operator plan, Predicate<Operator> descend, Consumer<Operator> action) {
+		Deque<Operator> stack = new ArrayDeque<Operator>();
+		Deque<Integer> next = new ArrayDeque<Integer>();
+		stack.push(plan);
+		next.push(descend.test(plan) ? 0 : plan.inputs.size());
+		while (!stack.isEmpty()) {
+			Operator op = stack.peek();
+			int index = next.pop();
+			if (index < op.inputs.size()) {
+				next.push(index + 1);
+				Operator input = op.inputs.get(index);
+				stack.push(input);
+				next.push(descend.test(input) ? 0 : input.inputs.size());
+			} else {
+				stack.pop();
+				action.accept(op);
+			}
+		}
+	}
+
+	/**
+	 * Rewrite a plan bottom-up, returning the rewriting of its root.
+	 * @param plan
+	 * @param rewriter
+	 * @return
+	 */
+	public static <S> Operator rewrite(Operator plan, Rewriter<S> rewriter) {
+		Deque<Frame<S>> stack = new ArrayDeque<Frame<S>>();
+		stack.push(frame(plan, rewriter));
+		Operator result = null;
+		while (!stack.isEmpty()) {
+			Frame<S> frame = stack.peek();
+			if (frame.descend && frame.next < frame.op.inputs.size()) {
+				stack.push(frame(frame.op.inputs.get(frame.next++), rewriter));
+			} else {
+				stack.pop();
+				List<Operator> inputs = frame.descend ? frame.results : new ArrayList<Operator>(frame.op.inputs);
+				result = rewriter.rewrite(frame.op, inputs, frame.state);
+				if (!stack.isEmpty()) {
+					stack.peek().results.add(result);
+				}
+			}
+		}
+		return result;
+	}
+
+	private static <S> Frame<S> frame(Operator op, Rewriter<S> rewriter) {
+		S state = rewriter.enter(op);
+		return new Frame<S>(op, state, rewriter.descend(op));
+	}
+}
@@ -31,4 +31,9 @@ public interface PlanVisitor {
 	 * @param op
 	 */
 	public void visit(Join op);
+	/**
+	 * Visit an Exchange operator.
+	 * @param op Exchange operator to be visited
+	 */
+	public void visit(Exchange op);
 }
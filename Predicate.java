@@ -1,5 +1,7 @@
 package sjdb;
 
+import java.util.Objects;
+
 /**
  * This class is used to represent the predicates associated with 
  * joins and select operators. Note that, while a string value is
@@ -7,12 +9,53 @@ package sjdb;
  * only used by the toString() method; a future version of
  * Attribute which uses more expressive synopses may change this.
  * 
+ * Predicates of the form attr op value may also use one of the
+ * inequality comparisons (<, <=, >, >=); the value of such a
+ * predicate is compared against the minimum and maximum values of
+ * the attribute when estimating its selectivity.
+ * 
  * @author nmg
  */
 public class Predicate {
+	/**
+	 * The comparisons that may appear between an attribute and a value.
+	 */
+	public enum Comparison {
+		EQUALS("="),
+		LESS("<"),
+		LESS_EQUALS("<="),
+		GREATER(">"),
+		GREATER_EQUALS(">=");
+		
+		private final String symbol;
+		
+		private Comparison(String symbol) {
+			this.symbol = symbol;
+		}
+		
+		/**
+		 * Return the comparison written as symbol, or null if there is none
+		 * @param symbol
+		 * @return comparison
+		 */
+		public static Comparison fromSymbol(String symbol) {
+			for (Comparison c : values()) {
+				if (c.symbol.equals(symbol)) {
+					return c;
+				}
+			}
+			return null;
+		}
+		
+		public String toString() {
+			return symbol;
+		}
+	}
+	
 	private Attribute leftAttribute;
 	private Attribute rightAttribute;
 	private String rightValue;
+	private Comparison comparison = Comparison.EQUALS;
 
 	/**
 	 * Create a predicate of the form attr=attr
@@ -35,13 +78,45 @@ public class Predicate {
 	}
 
 	/**
-	 * Return true if this predicate is of the form attr=value
+	 * Create a predicate of the form attr op value, where op is one of
+	 * =, <, <=, > or >=
+	 * @param left
+	 * @param comparison
+	 * @param value
+	 */
+	public Predicate(Attribute left, Comparison comparison, String value) {
+		this.leftAttribute = left;
+		this.comparison = comparison;
+		this.rightValue = value;
+	}
+
+	/**
+	 * Return true if this predicate is of the form attr=value, or of
+	 * the form attr op value for an inequality comparison op
 	 * @return
 	 */
 	public boolean equalsValue() {
 		return this.rightValue != null;
 	}
 	
+	/**
+	 * Return true if this predicate is of the form attr op value where
+	 * op is one of <, <=, > or >=
+	 * @return
+	 */
+	public boolean isRange() {
+		return this.rightValue != null && this.comparison != Comparison.EQUALS;
+	}
+	
+	/**
+	 * Return OP for predicates of the form attr OP value; predicates of
+	 * the form attr=attr always use Comparison.EQUALS
+	 * @return comparison
+	 */
+	public Comparison getComparison() {
+		return this.comparison;
+	}
+	
 	/**
 	 * Return ATTR for predicates of the form ATTR=attr or ATTR=value
 	 * @return left attribute
@@ -73,7 +148,29 @@ public class Predicate {
 		if (this.rightValue == null) {
 			return this.leftAttribute.toString() + "=" + this.rightAttribute.toString(); 
 		} else {
-			return this.leftAttribute.toString() + "=\"" + this.rightValue + "\"";
+			return this.leftAttribute.toString() + this.comparison + "\"" + this.rightValue + "\"";
+		}
+	}
+	
+	@Override
+	public int hashCode() {
+		// the ordinal rather than the identity hash of the comparison, so that the hash code is the same in every run
+		return Objects.hash(this.leftAttribute, this.rightAttribute, this.rightValue, this.comparison.ordinal());
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof Predicate)) {
+			return false;
+		}
+		if (obj == this) {
+			return true;
 		}
+		Predicate rhs = (Predicate) obj;
+		
+		return this.leftAttribute.equals(rhs.leftAttribute)
+				&& Objects.equals(this.rightAttribute, rhs.rightAttribute)
+				&& Objects.equals(this.rightValue, rhs.rightValue)
+				&& this.comparison == rhs.comparison;
 	}
 }
@@ -16,18 +16,16 @@ public class Product extends BinaryOperator {
 	}
 	
 	/* (non-Javadoc)
-	 * @see sjdb.BinaryOperator#accept(sjdb.OperatorVisitor)
+	 * @see sjdb.Operator#dispatch(sjdb.PlanVisitor)
 	 */
-	public void accept(PlanVisitor visitor) {
-		super.accept(visitor);
+	protected void dispatch(PlanVisitor visitor) {
 		visitor.visit(this);
 	}
 
 	/* (non-Javadoc)
-	 * @see java.lang.Object#toString()
+	 * @see sjdb.Operator#getLabels()
 	 */
-	public String toString() {
-		return "(" + this.getLeft().toString() + ") TIMES (" + 
-				this.getRight().toString() + ")";
+	protected String[] getLabels() {
+		return new String[] {"(", ") TIMES (", ")"};
 	}
 }
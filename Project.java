@@ -1,5 +1,7 @@
 package sjdb;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Iterator;
 
@@ -8,7 +10,7 @@ import java.util.Iterator;
  * @author nmg
  */
 public class Project extends UnaryOperator {
-	private List<Attribute> attributes;
+	private final List<Attribute> attributes;
 	
 	/**
 	 * Create a new project operator.
@@ -17,7 +19,7 @@ public class Project extends UnaryOperator {
 	 */
 	public Project(Operator input, List<Attribute> attributes) {
 		super(input);
-		this.attributes = attributes;
+		this.attributes = Collections.unmodifiableList(new ArrayList<Attribute>(attributes));
 	}
 
 	/**
@@ -29,18 +31,16 @@ public class Project extends UnaryOperator {
 	}
 	
 	/* (non-Javadoc)
-	 * @see sjdb.UnaryOperator#accept(sjdb.OperatorVisitor)
+	 * @see sjdb.Operator#dispatch(sjdb.PlanVisitor)
 	 */
-	public void accept(PlanVisitor visitor) {
-		// depth-first traversal - accept the 
-		super.accept(visitor);
+	protected void dispatch(PlanVisitor visitor) {
 		visitor.visit(this);
 	}
 
 	/* (non-Javadoc)
-	 * @see java.lang.Object#toString()
+	 * @see sjdb.Operator#getLabels()
 	 */
-	public String toString() {
+	protected String[] getLabels() {
 		String ret = "PROJECT [";
 		Iterator<Attribute> iter = this.attributes.iterator();
 		
@@ -49,8 +49,18 @@ public class Project extends UnaryOperator {
 		while (iter.hasNext()) {
 			ret += "," + iter.next().getName();
 		}
-		ret += "] (" + getInput().toString() + ")";
+		ret += "] (";
 		
-		return ret;
+		return new String[] {ret, ")"};
+	}
+
+	@Override
+	protected int parameterHashCode() {
+		return this.attributes.hashCode();
+	}
+	
+	@Override
+	protected boolean parametersEqual(Operator op) {
+		return this.attributes.equals(((Project) op).attributes);
 	}
 }
@@ -0,0 +1,192 @@
+package sjdb;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * This class splits the text of canonical queries into tokens for the
+ * QueryParser. It reads directly from a Reader through its own buffer,
+ * recognises keywords without allocating, and only creates a String for
+ * the text of identifiers and quoted values, so that a single lexer can
+ * be used for a long stream of queries.
+ *
+ * Whitespace (including line breaks) separates tokens but is otherwise
+ * ignored. Quoted values may contain any character except a double
+ * quote, including spaces and commas.
+ */
+public class QueryLexer {
+	/**
+	 * The kinds of token produced by the lexer.
+	 */
+	public enum Token {
+		SELECT, FROM, WHERE, BETWEEN, AND,
+		IDENTIFIER, VALUE, COMMA, STAR, SEMICOLON,
+		EQUALS, LESS, LESS_EQUALS, GREATER, GREATER_EQUALS,
+		EOF
+	}
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final Reader input;
+	private final char[] buffer = new char[BUFFER_SIZE];
+	private int position = 0;
+	private int limit = 0;
+	private final StringBuilder text = new StringBuilder();
+
+	private Token token;
+	private int line = 1;
+	private int tokenLine = 1;
+
+	/**
+	 * Create a lexer that reads from the given input; the first token is
+	 * read by the first call to next().
+	 * @param input
+	 */
+	public QueryLexer(Reader input) {
+		this.input = input;
+	}
+
+	/**
+	 * Advance to the next token and return its kind.
+	 * @return
+	 * @throws IOException
+	 * @throws DatabaseException if the input contains an unexpected character
+	 */
+	public Token next() throws IOException, DatabaseException {
+		int c = skipWhitespace();
+		tokenLine = line;
+		text.setLength(0);
+		if (c < 0) {
+			return token = Token.EOF;
+		}
+		position++;
+		switch (c) {
+			case ',':
+				return token = Token.COMMA;
+			case '*':
+				return token = Token.STAR;
+			case ';':
+				return token = Token.SEMICOLON;
+			case '=':
+				return token = Token.EQUALS;
+			case '<':
+				return token = follow('=') ? Token.LESS_EQUALS : Token.LESS;
+			case '>':
+				return token = follow('=') ? Token.GREATER_EQUALS : Token.GREATER;
+			case '"':
+				return token = readValue();
+			default:
+				if (isIdentifierChar(c)) {
+					text.append((char) c);
+					while ((c = peek()) >= 0 && isIdentifierChar(c)) {
+						text.append((char) c);
+						position++;
+					}
+					return token = keyword();
+				}
+				throw new DatabaseException("line " + line + ": unexpected character '" + (char) c + "'");
+		}
+	}
+
+	/**
+	 * Return the kind of the current token.
+	 * @return
+	 */
+	public Token token() {
+		return token;
+	}
+
+	/**
+	 * Return the text of the current identifier or value token.
+	 * @return
+	 */
+	public String text() {
+		return text.toString();
+	}
+
+	/**
+	 * Return the line on which the current token starts.
+	 * @return
+	 */
+	public int line() {
+		return tokenLine;
+	}
+
+	private Token readValue() throws IOException, DatabaseException {
+		int c;
+		while ((c = peek()) >= 0 && c != '"') {
+			if (c == '\n') {
+				line++;
+			}
+			text.append((char) c);
+			position++;
+		}
+		if (c < 0) {
+			throw new DatabaseException("line " + tokenLine + ": unterminated value");
+		}
+		position++;
+		return Token.VALUE;
+	}
+
+	private Token keyword() {
+		if (matches("SELECT")) {
+			return Token.SELECT;
+		} else if (matches("FROM")) {
+			return Token.FROM;
+		} else if (matches("WHERE")) {
+			return Token.WHERE;
+		} else if (matches("BETWEEN")) {
+			return Token.BETWEEN;
+		} else if (matches("AND")) {
+			return Token.AND;
+		}
+		return Token.IDENTIFIER;
+	}
+
+	private boolean matches(String keyword) {
+		if (text.length() != keyword.length()) {
+			return false;
+		}
+		for (int i = 0; i < keyword.length(); i++) {
+			if (text.charAt(i) != keyword.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean follow(char expected) throws IOException {
+		if (peek() == expected) {
+			position++;
+			return true;
+		}
+		return false;
+	}
+
+	private int skipWhitespace() throws IOException {
+		int c;
+		while ((c = peek()) >= 0 && Character.isWhitespace(c)) {
+			if (c == '\n') {
+				line++;
+			}
+			position++;
+		}
+		return c;
+	}
+
+	private int peek() throws IOException {
+		if (position >= limit) {
+			limit = input.read(buffer, 0, BUFFER_SIZE);
+			position = 0;
+			if (limit <= 0) {
+				limit = 0;
+				return -1;
+			}
+		}
+		return buffer[position];
+	}
+
+	private static boolean isIdentifierChar(int c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+	}
+}
@@ -5,12 +5,10 @@ package sjdb;
 
 import java.io.*;
 import java.util.ArrayList;
-import java.util.Scanner;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
+import java.util.List;
 
 /**
- * This class parses a canonical query provided on stdin
+ * This class parses canonical queries provided on stdin
  * 
  * The canonical query is of the form:
  * 
@@ -18,33 +16,40 @@ import java.util.regex.Matcher;
  * FROM <relation name>,<relation name>,...,<relation name>
  * WHERE <predicate>,<predicate>,...,<predicate>
  * 
- * where <predicate> is of one of the following two forms:
+ * where <predicate> is of one of the following forms:
  * 
  * <attribute name>="<value>"
  * <attribute name>=<attribute name>
+ * <attribute name><op>"<value>"
+ * <attribute name> BETWEEN "<value>" AND "<value>"
  * 
- * The WHERE line (corresponding to the select operators) is optional and 
- * may be omitted; the other lines are required.
+ * where <op> is one of <, <=, > or >=. A BETWEEN predicate is inclusive at 
+ * both ends, and is built as a pair of select operators with the 
+ * predicates attr>="low" and attr<="high".
+ * 
+ * The WHERE clause (corresponding to the select operators) is optional and 
+ * may be omitted; the other clauses are required.
  * 
  * To form the canonical query, a left-deep tree of cartesian
  * products over scans over the named relations is built, following by a series
  * of select with the given predicates, and then a single project 
  * with the given attributes.
  * 
- * Note that the author of this class was extremely lazy, and so the parsing 
- * is unforgiving and may be sensitive to extraneous whitespace. In particular, 
- * values in predicates that contain spaces (or for that matter commas) will 
- * break the parsing of the WHERE clause.
+ * The input is split into tokens by a QueryLexer, so whitespace and line 
+ * breaks between tokens are not significant, and quoted values may contain 
+ * spaces and commas. The input may hold any number of queries, each 
+ * starting with SELECT and optionally ending with a semicolon; each call to
+ * parse() returns the plan for the next one.
  * 
  * @author nmg
  */
 public class QueryParser {
-	private BufferedReader reader;
+	private QueryLexer lexer;
 	private Catalogue catalogue;
 
 	/**
-	 * Create a new QueryParser. This class is intended to be used once only;
-	 * repeated calls to parse() may cause unexpected behaviour.
+	 * Create a new QueryParser, which may be used to parse every query in
+	 * the input in turn.
 	 * 
 	 * @param catalogue
 	 * @param input
@@ -52,31 +57,50 @@ public class QueryParser {
 	 */
 	public QueryParser(Catalogue catalogue, Reader input) throws Exception {
 		this.catalogue = catalogue;
-		this.reader = new BufferedReader(input);
+		this.lexer = new QueryLexer(input);
 	}
 	
 	/**
-	 * Read a query from the input (via the BufferedReader) and parse it
-	 * to create a canonical query plan.
+	 * Read the next query from the input and parse it to create a 
+	 * canonical query plan. If the query is malformed, the input is 
+	 * skipped up to the start of the following query before the 
+	 * exception is thrown, so that parsing can carry on from there.
 	 * 
-	 * @return
+	 * @return the canonical query plan, or null at the end of the input
 	 * @throws Exception
 	 */
 	public Operator parse() throws Exception {
-		Operator product, select, project;
-		String projectLine = this.reader.readLine();
-		String productLine = this.reader.readLine();
-		String selectLine = this.reader.readLine();
-		
-		product = parseProduct(productLine);
-		if (selectLine != null && selectLine.startsWith("WHERE")) {
-			select = parseSelect(selectLine, product); 
-			project = parseProject(projectLine, select);
-		} else {
-			project = parseProject(projectLine, product);
+		if (lexer.token() == null) {
+			lexer.next();
+		}
+		while (lexer.token() == QueryLexer.Token.SEMICOLON) {
+			lexer.next();
+		}
+		if (lexer.token() == QueryLexer.Token.EOF) {
+			return null;
 		}
 		
-		return project;
+		try {
+			Operator product, select, project;
+			List<String> projectNames = parseProjectList();
+			product = buildProduct(parseProductList());
+			if (lexer.token() == QueryLexer.Token.WHERE) {
+				lexer.next();
+				select = parseSelect(product);
+				project = buildProject(projectNames, select);
+			} else {
+				project = buildProject(projectNames, product);
+			}
+			if (lexer.token() == QueryLexer.Token.SEMICOLON) {
+				lexer.next();
+			} else if (lexer.token() != QueryLexer.Token.SELECT && lexer.token() != QueryLexer.Token.EOF) {
+				throw error("end of query");
+			}
+			return project;
+		} catch (DatabaseException e) {
+			skipToNextQuery();
+			throw e;
+		}
 	}
 	
 	/**
@@ -84,11 +108,43 @@ public class QueryParser {
 	 * @param line
 	 * @return
 	 */
-	public Operator parseProduct(String line) {
-		String[] rels = line.split("FROM\\s+");
-		String[] reln = rels[1].split("\\s*,\\s*");
-		
-		return buildProduct(reln);
+	public Operator parseProduct(String line) throws Exception {
+		QueryParser parser = new QueryParser(catalogue, new StringReader(line));
+		parser.lexer.next();
+		return parser.buildProduct(parser.parseProductList());
+	}
+	
+	/**
+	 * Parse the "SELECT ..." clause, returning the names of the projected 
+	 * attributes, or null for "SELECT *"
+	 * @return
+	 */
+	private List<String> parseProjectList() throws IOException, DatabaseException {
+		expect(QueryLexer.Token.SELECT, "SELECT");
+		if (lexer.token() == QueryLexer.Token.STAR) {
+			lexer.next();
+			return null;
+		}
+		return parseNameList("attribute name");
+	}
+	
+	/**
+	 * Parse the "FROM ..." clause, returning the names of the relations
+	 * @return
+	 */
+	private List<String> parseProductList() throws IOException, DatabaseException {
+		expect(QueryLexer.Token.FROM, "FROM");
+		return parseNameList("relation name");
+	}
+	
+	private List<String> parseNameList(String what) throws IOException, DatabaseException {
+		List<String> names = new ArrayList<String>();
+		names.add(identifier(what));
+		while (lexer.token() == QueryLexer.Token.COMMA) {
+			lexer.next();
+			names.add(identifier(what));
+		}
+		return names;
 	}
 	
 	/**
@@ -97,14 +153,14 @@ public class QueryParser {
 	 * @param names
 	 * @return
 	 */
-	private Operator buildProduct(String[] names) {
-		Operator left = buildScan(names[0].trim());
+	private Operator buildProduct(List<String> names) throws DatabaseException {
+		Operator left = buildScan(names.get(0));
 		Operator right;
 		Operator accum;
 		
-		if (names.length>1) {
-			for (int i = 1; i < names.length; i++) {
-				right = buildScan(names[i].trim());
+		if (names.size()>1) {
+			for (int i = 1; i < names.size(); i++) {
+				right = buildScan(names.get(i));
 				accum = new Product(left, right);
 				left = accum;
 			}
@@ -119,75 +175,163 @@ public class QueryParser {
 	 * @param name
 	 * @return
 	 */
-	private Operator buildScan(String name) {
-		Operator op = null;
-		try {
-			op = new Scan(this.catalogue.getRelation(name));
-		} catch (Exception e) {
-			System.err.println(e.toString());
-		}
-		return op;
+	private Operator buildScan(String name) throws DatabaseException {
+		return new Scan(this.catalogue.getRelation(name));
 	}
 	
 	/**
-	 * Parse a "WHERE ..." line.
-	 * @param line
+	 * Parse a "WHERE ..." clause.
 	 * @param op
 	 * @return
 	 */
-	private Operator parseSelect(String line, Operator op) {
-		String[] prds = line.split("WHERE\\s+");
-
-		String[] pred = prds[1].split("\\s*,\\s*");
-		Operator ret = op;
+	private Operator parseSelect(Operator op) throws IOException, DatabaseException {
+		Operator ret = buildSelect(op);
 		
-		for (int i=0; i<pred.length; i++) {
-			ret = buildSelect(pred[i].trim(), ret);
+		while (lexer.token() == QueryLexer.Token.COMMA) {
+			lexer.next();
+			ret = buildSelect(ret);
 		}
 		
 		return ret;
 	}
 	
 	/**
-	 * Build a chain of select operators.
-	 * @param pred
+	 * Parse a predicate and build the select operator(s) for it.
 	 * @param op
 	 * @return
 	 */
-	private Operator buildSelect(String pred, Operator op) {
-		Pattern p = Pattern.compile("(\\w+)=\"(\\w+)\"");
-		Matcher m = p.matcher(pred);
+	private Operator buildSelect(Operator op) throws IOException, DatabaseException {
+		Attribute attr = attribute(identifier("attribute name"));
+		
+		if (lexer.token() == QueryLexer.Token.BETWEEN) {
+			lexer.next();
+			String low = value();
+			expect(QueryLexer.Token.AND, "AND");
+			String high = value();
+			Operator lower = new Select(op, new Predicate(attr, Predicate.Comparison.GREATER_EQUALS, low));
+			return new Select(lower, new Predicate(attr, Predicate.Comparison.LESS_EQUALS, high));
+		}
+		
+		Predicate.Comparison comparison = comparison();
 		Predicate ret;
 		
-		if (m.matches()) {
-			ret = new Predicate(new Attribute(m.group(1)), m.group(2));
+		if (lexer.token() == QueryLexer.Token.VALUE) {
+			ret = new Predicate(attr, comparison, value());
+		} else if (comparison == Predicate.Comparison.EQUALS) {
+			ret = new Predicate(attr, attribute(identifier("attribute name or value")));
 		} else {
-			String[] atts = pred.split("=");
-			ret = new Predicate(new Attribute(atts[0]), new Attribute(atts[1]));
+			throw error("value");
 		}
 		
 		return new Select(op, ret);
 	}
 	
 	/**
-	 * Parse a "SELECT ..." line and build the corresponding project operator.
-	 * @param line
+	 * Build the project operator for the given attribute names.
+	 * @param names names of the projected attributes, or null for all attributes
 	 * @param op
 	 * @return
 	 */
-	private Operator parseProject(String line, Operator op) {
-		String[] atts = line.split("SELECT\\s+");		
-		if (atts[1].trim().equals("*")) {
+	private Operator buildProject(List<String> names, Operator op) throws DatabaseException {
+		if (names == null) {
 			return op;
 		} else {
-			String[] attr = atts[1].split("\\s*,\\s*");
 			ArrayList<Attribute> attributes = new ArrayList<Attribute>();
 
-			for (int i=0; i<attr.length; i++) {
-				attributes.add(new Attribute(attr[i].trim()));
+			for (int i=0; i<names.size(); i++) {
+				attributes.add(attribute(names.get(i)));
 			}
 
 			return new Project(op, attributes);
 		}
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Return an attribute with the given name, which must be that of an
+	 * attribute in the catalogue, so that queries cannot add names to
+	 * those interned by the Catalogue.
+	 * @param name
+	 * @return
+	 */
+	private Attribute attribute(String name) throws DatabaseException {
+		if (catalogue.lookupAttribute(name) == null) {
+			throw new DatabaseException("line " + lexer.line() + ": unknown attribute " + name);
+		}
+		return new Attribute(name);
+	}
+	
+	private Predicate.Comparison comparison() throws IOException, DatabaseException {
+		Predicate.Comparison comparison;
+		switch (lexer.token()) {
+			case EQUALS:
+				comparison = Predicate.Comparison.EQUALS;
+				break;
+			case LESS:
+				comparison = Predicate.Comparison.LESS;
+				break;
+			case LESS_EQUALS:
+				comparison = Predicate.Comparison.LESS_EQUALS;
+				break;
+			case GREATER:
+				comparison = Predicate.Comparison.GREATER;
+				break;
+			case GREATER_EQUALS:
+				comparison = Predicate.Comparison.GREATER_EQUALS;
+				break;
+			default:
+				throw error("comparison");
+		}
+		lexer.next();
+		return comparison;
+	}
+	
+	private String identifier(String what) throws IOException, DatabaseException {
+		if (lexer.token() != QueryLexer.Token.IDENTIFIER) {
+			throw error(what);
+		}
+		String name = lexer.text();
+		lexer.next();
+		return name;
+	}
+	
+	private String value() throws IOException, DatabaseException {
+		if (lexer.token() != QueryLexer.Token.VALUE) {
+			throw error("quoted value");
+		}
+		String value = lexer.text();
+		lexer.next();
+		return value;
+	}
+	
+	private void expect(QueryLexer.Token token, String what) throws IOException, DatabaseException {
+		if (lexer.token() != token) {
+			throw error(what);
+		}
+		lexer.next();
+	}
+	
+	private DatabaseException error(String expected) {
+		String found = lexer.token() == QueryLexer.Token.IDENTIFIER || lexer.token() == QueryLexer.Token.VALUE
+				? lexer.token() + " " + lexer.text() : String.valueOf(lexer.token());
+		return new DatabaseException("line " + lexer.line() + ": expected " + expected + " but found " + found);
+	}
+	
+	/**
+	 * Skip tokens up to the start of the next query (or the end of the input).
+	 */
+	private void skipToNextQuery() throws IOException {
+		if (lexer.token() == QueryLexer.Token.SELECT || lexer.token() == QueryLexer.Token.EOF) {
+			return;
+		}
+		while (true) {
+			try {
+				QueryLexer.Token token = lexer.next();
+				if (token == QueryLexer.Token.SELECT || token == QueryLexer.Token.EOF) {
+					return;
+				}
+			} catch (DatabaseException e) {
+				// unexpected characters are skipped along with everything else
+			}
+		}
+	}
+}
@@ -1,17 +1,35 @@
 package sjdb;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.ArrayList;
 
 /**
  * The Relation class represents an unnamed relation. It consists of a 
  * number of attributes and a size (tuple count).
  * 
+ * Attributes are indexed by id, so that testing whether the relation
+ * contains one takes constant time. The first few lookups of attributes
+ * search the list, and only later ones build an index of positions, since
+ * the outputs of most operators (each a new relation, which in a deep
+ * plan may have thousands of attributes) are looked up once or twice at
+ * most.
+ * 
  * @author nmg
  */
 public class Relation {
+	// lookups of attributes answered by searching the list before the index is built
+	static final int SEARCHES_BEFORE_INDEX = 4;
+
 	private List<Attribute> attributes;
+	// built on first lookup, possibly by several threads at once; each builds its own and publishes it whole
+	private volatile Map<Attribute, Integer> positions;
+	// lookups answered by searching the list so far; racy, since it only decides when to build the index
+	private int searches;
+	private AttributeSet attributeSet;
 	private int size;
 
 	/**
@@ -19,6 +37,7 @@ public class Relation {
 	 */
 	protected Relation(int size) {
 		this.attributes = new ArrayList<Attribute>();
+		this.attributeSet = new AttributeSet();
 		this.size = size;
 	}
 	
@@ -28,9 +47,18 @@ public class Relation {
 	 * @return the attributes
 	 */
 	public List<Attribute> getAttributes() {
-		return attributes;
+		return Collections.unmodifiableList(attributes);
 	}
 	
+	/**
+	 * Return the set of attributes contained in this relation, which is
+	 * shared with the relation and must not be changed
+	 * 
+	 * @return the attributes
+	 */
+	public AttributeSet getAttributeSet() {
+		return attributeSet;
+	}
 	
 	/**
 	 * Get an attribute from this relation, using another attribute as
@@ -39,9 +67,46 @@ public class Relation {
 	 * 
 	 * @param attribute
 	 * @return
+	 * @throws IndexOutOfBoundsException if the relation does not contain the attribute
 	 */
 	public Attribute getAttribute(Attribute attribute) {
-		return this.attributes.get(this.attributes.indexOf(attribute));
+		return this.attributes.get(indexOf(attribute));
+	}
+	
+	/**
+	 * Return the position of an attribute in this relation, or -1 if
+	 * the relation does not contain it.
+	 * 
+	 * @param attribute
+	 * @return
+	 */
+	public int indexOf(Attribute attribute) {
+		Map<Attribute, Integer> positions = this.positions;
+		if (positions == null) {
+			if (!this.attributeSet.contains(attribute)) {
+				return -1;
+			}
+			if (this.searches < SEARCHES_BEFORE_INDEX) {
+				this.searches++;
+				return this.attributes.indexOf(attribute);
+			}
+			positions = new HashMap<Attribute, Integer>();
+			for (int i = this.attributes.size() - 1; i >= 0; i--) {
+				// as with indexOf() on a list, the first of two attributes with the same name is found
+				positions.put(this.attributes.get(i), i);
+			}
+			this.positions = positions;
+		}
+		Integer position = positions.get(attribute);
+		return position != null ? position : -1;
+	}
+	
+	/**
+	 * @param attribute
+	 * @return true if this relation contains the attribute
+	 */
+	public boolean contains(Attribute attribute) {
+		return this.attributeSet.contains(attribute);
 	}
 
 	/**
@@ -56,10 +121,13 @@ public class Relation {
 			// If the attribute has more distinct values than there are tuples
 			// in this relation, limit the distinct values to the number of
 			// tuples
-			this.attributes.add(new Attribute(attribute.getName(), this.size));
-		} else {
-			this.attributes.add(attribute);	
+			attribute = new Attribute(attribute, this.size);
+		}
+		if (this.positions != null) {
+			this.positions.putIfAbsent(attribute, this.attributes.size());
 		}
+		this.attributeSet.add(attribute);
+		this.attributes.add(attribute);
 	}
 	
 	/**
@@ -0,0 +1,429 @@
+package sjdb;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * This class caches the results of executed queries, keyed by the
+ * fingerprint of the canonical query plan (its string form, as for the
+ * PlanCache), so that a query issued again is answered without being
+ * optimised or executed while the relations it reads are unchanged.
+ *
+ * Each result records the relations scanned by the plan that computed
+ * it (which may be materialised views rather than the relations named by
+ * the query) and the version of each in the Database (see
+ * Database.getVersion()) as it was before the plan was executed, so
+ * that a relation changed while the result was being computed leaves it
+ * stale rather than recorded as current. A result is discarded when it
+ * is looked up after any of them has changed, or when invalidate() is
+ * called for one of them.
+ *
+ * Results are held off the heap, each encoded in a direct byte buffer
+ * of its own, so that a large cache adds nothing to the work of the
+ * garbage collector; a result is decoded into new tuples each time it is
+ * returned. The buffers together take at most a fixed byte budget. When
+ * a new result would exceed it, results are evicted by GreedyDual-Size:
+ * each is worth the time taken to optimise and execute its query per
+ * byte that it takes,
+ * plus an inflation value that rises to the worth of each result evicted,
+ * so that small results that were slow to compute are kept in preference
+ * to large ones that were quick, and results that have not been used for
+ * a while lose out to those used since. A result larger than the whole
+ * budget is not cached.
+ *
+ * The cache may be shared by several threads.
+ */
+public class ResultCache implements ResultCacheMBean {
+	static final String OBJECT_NAME = "sjdb:type=ResultCache,name=";
+
+	private final long byteBudget;
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	// the entries in the order in which they are evicted
+	private final TreeSet<Entry> eviction = new TreeSet<Entry>(
+			Comparator.comparingDouble((Entry e) -> e.priority).thenComparingLong(e -> e.sequence));
+	// fingerprints of the entries that depend on each relation
+	private final Map<String, Set<String>> dependents = new HashMap<String, Set<String>>();
+	private double inflation = 0;
+	private long sequence = 0;
+	private long bytesUsed = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long bytesSaved = 0;
+	private long nanosSaved = 0;
+	private long evictions = 0;
+	private long invalidations = 0;
+
+	/**
+	 * A query result, as returned by the cache or computed on a miss.
+	 */
+	public static class CachedResult {
+		private final List<Attribute> attributes;
+		private final List<String[]> tuples;
+		private final boolean hit;
+
+		CachedResult(List<Attribute> attributes, List<String[]> tuples, boolean hit) {
+			this.attributes = attributes;
+			this.tuples = tuples;
+			this.hit = hit;
+		}
+
+		/**
+		 * Return the attributes of the tuples, in order.
+		 * @return
+		 */
+		public List<Attribute> getAttributes() {
+			return attributes;
+		}
+
+		public List<String[]> getTuples() {
+			return tuples;
+		}
+
+		/**
+		 * Return true if the result was returned from the cache.
+		 * @return
+		 */
+		public boolean isHit() {
+			return hit;
+		}
+	}
+
+	/**
+	 * Create a result cache whose results take at most the given number
+	 * of bytes.
+	 * @param byteBudget
+	 */
+	public ResultCache(long byteBudget) {
+		this.byteBudget = byteBudget;
+	}
+
+	/**
+	 * Register the metrics of the cache as an MBean named
+	 * sjdb:type=ResultCache,name=<name>.
+	 * @param name
+	 */
+	public void register(String name) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME + ObjectName.quote(name)));
+		} catch (JMException | SecurityException e) {
+			// the metrics can still be read directly, without JMX
+			System.err.println("Could not register result cache metrics: " + e);
+		}
+	}
+
+	/**
+	 * Return the result of a canonical plan, which must have been visited
+	 * by an Estimator, from the cache, or else optimise it with the given
+	 * Optimiser, execute it against the database and cache the result.
+	 * @param canonical
+	 * @param optimiser
+	 * @param database
+	 * @return
+	 */
+	public CachedResult execute(Operator canonical, Optimiser optimiser, Database database) {
+		CachedResult cached = get(canonical, database);
+		if (cached != null) {
+			return cached;
+		}
+		long start = System.nanoTime();
+		Operator plan = optimiser.optimise(canonical);
+		Map<String, Long> versions = dependencies(plan, database);
+		Executor executor = new Executor(database);
+		List<String[]> tuples = executor.execute(plan);
+		put(canonical, versions, executor.getAttributes(), tuples, System.nanoTime() - start);
+		return new CachedResult(executor.getAttributes(), tuples, false);
+	}
+
+	/**
+	 * Return the relations that a plan scans, each with its current
+	 * version in the database. A plan that scans a partition of a
+	 * partitioned relation depends on the partitioned relation.
+	 * @param plan
+	 * @param database
+	 * @return
+	 */
+	public static Map<String, Long> dependencies(Operator plan, Database database) {
+		Map<String, Long> versions = new HashMap<String, Long>();
+		PlanTraversal.preOrder(plan, op -> {
+			if (op instanceof Scan) {
+				String relName = ((NamedRelation) ((Scan) op).getRelation()).getName();
+				if (Partitioning.parentName(relName) != null) {
+					relName = Partitioning.parentName(relName);
+				}
+				versions.put(relName, database.getVersion(relName));
+			}
+		});
+		return versions;
+	}
+
+	/**
+	 * Return the cached result of a canonical plan, or null if there is
+	 * none, or if a relation that it depends on has changed in the
+	 * database since it was computed.
+	 * @param canonical
+	 * @param database
+	 * @return
+	 */
+	public synchronized CachedResult get(Operator canonical, Database database) {
+		String fingerprint = canonical.toString();
+		Entry entry = entries.get(fingerprint);
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		for (Map.Entry<String, Long> dependency : entry.versions.entrySet()) {
+			if (database.getVersion(dependency.getKey()) != dependency.getValue()) {
+				remove(entry);
+				invalidations++;
+				misses++;
+				return null;
+			}
+		}
+		hits++;
+		bytesSaved += entry.bytes();
+		nanosSaved += entry.nanos;
+		// a result used again is worth keeping for longer
+		eviction.remove(entry);
+		entry.priority = inflation + entry.worth();
+		eviction.add(entry);
+		return new CachedResult(entry.attributes, decode(entry.buffer), true);
+	}
+
+	/**
+	 * Cache the result of a canonical plan, evicting other results as
+	 * necessary to stay within the byte budget.
+	 * @param canonical
+	 * @param versions relations that the result depends on, with their
+	 * versions (see dependencies()) taken before it was computed
+	 * @param attributes attributes of the tuples, in order
+	 * @param tuples
+	 * @param nanos time taken to optimise and execute the query
+	 */
+	public synchronized void put(Operator canonical, Map<String, Long> versions, List<Attribute> attributes, List<String[]> tuples,
+			long nanos) {
+		String fingerprint = canonical.toString();
+		Entry old = entries.get(fingerprint);
+		if (old != null) {
+			remove(old);
+		}
+		ByteBuffer buffer = encode(tuples);
+		if (buffer == null) {
+			return;
+		}
+		while (bytesUsed + buffer.capacity() > byteBudget) {
+			Entry evicted = eviction.first();
+			inflation = evicted.priority;
+			remove(evicted);
+			evictions++;
+		}
+
+		Entry entry = new Entry(fingerprint, new ArrayList<Attribute>(attributes), buffer, new HashMap<String, Long>(versions), nanos,
+				sequence++);
+		entry.priority = inflation + entry.worth();
+		entries.put(fingerprint, entry);
+		eviction.add(entry);
+		for (String relName : versions.keySet()) {
+			dependents.computeIfAbsent(relName, r -> new HashSet<String>()).add(fingerprint);
+		}
+		bytesUsed += entry.bytes();
+	}
+
+	/**
+	 * Discard every result that depends on a relation, returning the
+	 * number discarded.
+	 * @param relName
+	 * @return
+	 */
+	public synchronized int invalidate(String relName) {
+		Set<String> fingerprints = dependents.get(relName);
+		if (fingerprints == null) {
+			return 0;
+		}
+		int count = 0;
+		for (String fingerprint : new ArrayList<String>(fingerprints)) {
+			remove(entries.get(fingerprint));
+			count++;
+		}
+		invalidations += count;
+		return count;
+	}
+
+	private void remove(Entry entry) {
+		entries.remove(entry.fingerprint);
+		eviction.remove(entry);
+		for (String relName : entry.versions.keySet()) {
+			Set<String> fingerprints = dependents.get(relName);
+			fingerprints.remove(entry.fingerprint);
+			if (fingerprints.isEmpty()) {
+				dependents.remove(relName);
+			}
+		}
+		bytesUsed -= entry.bytes();
+	}
+
+	// Encode tuples in a direct buffer, as the number of tuples and their arity, then each value as its length and UTF-8 bytes;
+	// null if they would take more than the whole budget. The size is found first, so that the values are encoded straight into
+	// the buffer rather than through a copy on the heap.
+	private ByteBuffer encode(List<String[]> tuples) {
+		long size = 8;
+		for (String[] tuple : tuples) {
+			for (String value : tuple) {
+				size += 4 + utf8Length(value);
+			}
+			if (size > byteBudget) {
+				return null;
+			}
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+		buffer.putInt(tuples.size());
+		buffer.putInt(tuples.isEmpty() ? 0 : tuples.get(0).length);
+		CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+		for (String[] tuple : tuples) {
+			for (String value : tuple) {
+				buffer.putInt(utf8Length(value));
+				CoderResult result = encoder.reset().encode(CharBuffer.wrap(value), buffer, true);
+				if (result.isError()) {
+					// an unpaired surrogate, which getBytes() would have replaced
+					throw new IllegalArgumentException("Value " + value + " cannot be encoded as UTF-8");
+				}
+				encoder.flush(buffer);
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	// Number of bytes in the UTF-8 encoding of a string
+	private static int utf8Length(String value) {
+		int length = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	private static List<String[]> decode(ByteBuffer buffer) {
+		ByteBuffer in = buffer.duplicate();
+		int count = in.getInt();
+		int arity = in.getInt();
+		List<String[]> tuples = new ArrayList<String[]>(count);
+		byte[] encoded = new byte[64];
+		for (int t = 0; t < count; t++) {
+			String[] tuple = new String[arity];
+			for (int i = 0; i < arity; i++) {
+				int length = in.getInt();
+				if (length > encoded.length) {
+					encoded = new byte[Math.max(length, 2 * encoded.length)];
+				}
+				in.get(encoded, 0, length);
+				tuple[i] = new String(encoded, 0, length, StandardCharsets.UTF_8);
+			}
+			tuples.add(tuple);
+		}
+		return tuples;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized double getHitRate() {
+		return hits + misses > 0 ? (double) hits / (hits + misses) : 0;
+	}
+
+	public synchronized long getBytesSaved() {
+		return bytesSaved;
+	}
+
+	public synchronized long getNanosSaved() {
+		return nanosSaved;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized long getInvalidations() {
+		return invalidations;
+	}
+
+	public synchronized int getSize() {
+		return entries.size();
+	}
+
+	public synchronized long getBytesUsed() {
+		return bytesUsed;
+	}
+
+	public long getByteBudget() {
+		return byteBudget;
+	}
+
+	public synchronized void reset() {
+		hits = 0;
+		misses = 0;
+		bytesSaved = 0;
+		nanosSaved = 0;
+		evictions = 0;
+		invalidations = 0;
+	}
+
+	private static class Entry {
+		final String fingerprint;
+		final List<Attribute> attributes;
+		final ByteBuffer buffer;
+		final Map<String, Long> versions;
+		final long nanos;
+		final long sequence;
+		double priority;
+
+		Entry(String fingerprint, List<Attribute> attributes, ByteBuffer buffer, Map<String, Long> versions, long nanos, long sequence) {
+			this.fingerprint = fingerprint;
+			this.attributes = attributes;
+			this.buffer = buffer;
+			this.versions = versions;
+			this.nanos = nanos;
+			this.sequence = sequence;
+		}
+
+		long bytes() {
+			return buffer.capacity();
+		}
+
+		// time saved per byte held by answering the query from the cache, without optimising or executing it
+		double worth() {
+			return (double) Math.max(1, nanos) / bytes();
+		}
+	}
+}
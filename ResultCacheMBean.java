@@ -0,0 +1,67 @@
+package sjdb;
+
+/**
+ * This is the management interface through which the metrics of a
+ * ResultCache are exposed over JMX, under the name
+ * sjdb:type=ResultCache,name=<name> (see ResultCache.register()). Times
+ * are in nanoseconds and counts are totals since the last reset.
+ */
+public interface ResultCacheMBean {
+	/**
+	 * Return the number of lookups answered from the cache.
+	 * @return
+	 */
+	public long getHits();
+	/**
+	 * Return the number of lookups that found no result, or a stale one.
+	 * @return
+	 */
+	public long getMisses();
+	/**
+	 * Return the fraction of lookups answered from the cache.
+	 * @return
+	 */
+	public double getHitRate();
+	/**
+	 * Return the total size of the results returned from the cache rather
+	 * than computed.
+	 * @return
+	 */
+	public long getBytesSaved();
+	/**
+	 * Return the total execution time of the results returned from the
+	 * cache rather than computed.
+	 * @return
+	 */
+	public long getNanosSaved();
+	/**
+	 * Return the number of results evicted to stay within the byte budget.
+	 * @return
+	 */
+	public long getEvictions();
+	/**
+	 * Return the number of results discarded because a relation that they
+	 * depend on had changed.
+	 * @return
+	 */
+	public long getInvalidations();
+	/**
+	 * Return the number of results held.
+	 * @return
+	 */
+	public int getSize();
+	/**
+	 * Return the total size of the results held.
+	 * @return
+	 */
+	public long getBytesUsed();
+	/**
+	 * Return the most that the results held may take.
+	 * @return
+	 */
+	public long getByteBudget();
+	/**
+	 * Reset the counters, leaving the results held.
+	 */
+	public void reset();
+}
@@ -0,0 +1,123 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class describes a runtime filter of a query plan: a Bloom filter
+ * built during execution from the join attribute of the build (right)
+ * input of a join, and applied to the scan on the probe (left) side that
+ * produces the other join attribute, so that tuples which cannot take
+ * part in the join are dropped as the relation is scanned rather than
+ * after every operator between the scan and the join has processed them.
+ * It acts as a semi-join of the scanned relation by the build input
+ * (sideways information passing).
+ *
+ * A filter is only placed where exactly one scan on the probe side reads
+ * the probe attribute. Every tuple derived from a scanned tuple carries
+ * its value of the attribute unchanged, so dropping the tuples whose
+ * values are not in the build input never changes the join's result.
+ */
+public class RuntimeFilter {
+	private final Join join;
+	private final Attribute probeAttribute;
+	private final Attribute buildAttribute;
+	private final Scan scan;
+
+	RuntimeFilter(Join join, Attribute probeAttribute, Attribute buildAttribute, Scan scan) {
+		this.join = join;
+		this.probeAttribute = probeAttribute;
+		this.buildAttribute = buildAttribute;
+		this.scan = scan;
+	}
+
+	/**
+	 * Return the runtime filters of every join of a plan, those of the
+	 * joins nearest the root first.
+	 * @param plan
+	 * @return
+	 */
+	public static List<RuntimeFilter> of(Operator plan) {
+		List<RuntimeFilter> filters = new ArrayList<RuntimeFilter>();
+		PlanTraversal.preOrder(plan, op -> {
+			if (op instanceof Join) {
+				RuntimeFilter filter = of((Join) op);
+				if (filter != null) {
+					filters.add(filter);
+				}
+			}
+		});
+		return filters;
+	}
+
+	// The runtime filter of a join, or null if no single scan on its probe side reads the probe attribute
+	private static RuntimeFilter of(Join join) {
+		Predicate predicate = join.getPredicate();
+		List<Scan> scans = new ArrayList<Scan>();
+		PlanTraversal.preOrder(join.getLeft(), op -> {
+			if (op instanceof Scan) {
+				scans.add((Scan) op);
+			}
+		});
+		// as in the Executor, the predicate's left attribute may come from the right input
+		Scan left = reading(scans, predicate.getLeftAttribute());
+		Scan right = reading(scans, predicate.getRightAttribute());
+		if (left != null && right == null) {
+			return new RuntimeFilter(join, predicate.getLeftAttribute(), predicate.getRightAttribute(), left);
+		} else if (right != null && left == null) {
+			return new RuntimeFilter(join, predicate.getRightAttribute(), predicate.getLeftAttribute(), right);
+		}
+		return null;
+	}
+
+	// The only scan of a list that reads an attribute, or null if there is none or more than one
+	private static Scan reading(List<Scan> scans, Attribute attribute) {
+		Scan reading = null;
+		for (Scan scan : scans) {
+			if (scan.getRelation().contains(attribute)) {
+				if (reading != null) {
+					return null;
+				}
+				reading = scan;
+			}
+		}
+		return reading;
+	}
+
+	/**
+	 * Return the join whose build input the filter is built from.
+	 * @return
+	 */
+	public Join getJoin() {
+		return join;
+	}
+
+	/**
+	 * Return the join attribute of the probe side, which the filter tests.
+	 * @return
+	 */
+	public Attribute getProbeAttribute() {
+		return probeAttribute;
+	}
+
+	/**
+	 * Return the join attribute of the build input, whose values the
+	 * filter holds.
+	 * @return
+	 */
+	public Attribute getBuildAttribute() {
+		return buildAttribute;
+	}
+
+	/**
+	 * Return the scan that the filter is applied to.
+	 * @return
+	 */
+	public Scan getScan() {
+		return scan;
+	}
+
+	public String toString() {
+		return scan.toString() + "." + probeAttribute + " IN BLOOM(" + buildAttribute + ")";
+	}
+}
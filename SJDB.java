@@ -3,6 +3,8 @@
  */
 package sjdb;
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @author nmg
@@ -11,18 +13,49 @@ import java.io.*;
 public class SJDB {
 
 	/**
+	 * Usage: java sjdb.SJDB <catalogue> [--batch [threads [timeout ms]] | --explain-analyze [seed]]
 	 * @param args
 	 */
 	public static void main(String[] args) throws Exception {
-		// read serialised catalogue from file and parse
+		// read serialised catalogue from file and parse (binary catalogues are mapped and read on demand)
 		String catFile = args[0];
-		Catalogue cat = new Catalogue();
-		CatalogueParser catParser = new CatalogueParser(catFile, cat);
-		catParser.parse();
+		Catalogue cat;
+		if (BinaryCatalogue.isBinaryCatalogue(catFile)) {
+			cat = new BinaryCatalogue(catFile);
+		} else {
+			cat = new Catalogue();
+			ParallelCatalogueLoader catLoader = new ParallelCatalogueLoader(catFile, cat);
+			try {
+				catLoader.load();
+			} catch (DatabaseException e) {
+				// malformed lines are skipped; the rest of the catalogue is still usable
+				System.err.println(e.getMessage());
+			}
+		}
+		
+		// in batch mode, optimise every query on stdin and write the optimised plans to stdout in order
+		if (args.length > 1 && args[1].equals("--batch")) {
+			int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+			long timeout = args.length > 3 ? Long.parseLong(args[3]) : OptimiserBudget.UNLIMITED;
+			BatchOptimiser batch = new BatchOptimiser(cat, threads, timeout);
+			Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+			batch.run(new InputStreamReader(System.in), out);
+			return;
+		}
 		
 		// read stdin, parse, and build canonical query plan
 		QueryParser queryParser = new QueryParser(cat, new InputStreamReader(System.in));
 		Operator plan = queryParser.parse();
+		
+		// optimise the query and run it against data generated to match the catalogue, printing estimated and actual tuple counts
+		if (args.length > 1 && args[1].equals("--explain-analyze")) {
+			long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+			Optimiser optimiser = new Optimiser(cat);
+			Operator optPlan = optimiser.optimise(optimiser.getFactory().intern(plan));
+			Database db = Database.generate(cat, relationNames(plan), seed);
+			System.out.print(new ExplainAnalyze().explain(db, optPlan));
+			return;
+		}
 				
 		// create estimator visitor and apply it to canonical plan
 		//Estimator est = new Estimator();
@@ -32,5 +65,16 @@ public class SJDB {
 		//Optimiser opt = new Optimiser(cat);
 		//Operator optPlan = opt.optimise(plan);
 	}
+	
+	// names of the relations scanned by a plan
+	private static List<String> relationNames(Operator plan) {
+		List<String> names = new ArrayList<String>();
+		PlanTraversal.preOrder(plan, op -> {
+			if (op instanceof Scan) {
+				names.add(((NamedRelation) ((Scan) op).getRelation()).getName());
+			}
+		});
+		return names;
+	}
 
 }
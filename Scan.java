@@ -12,7 +12,7 @@ public class Scan extends Operator {
 	/**
 	 * The named relation to be scanned
 	 */
-	private NamedRelation relation;
+	private final NamedRelation relation;
 	
 	/**
 	 * Create a new scan of a given named relation
@@ -46,17 +46,28 @@ public class Scan extends Operator {
 	}
 	
 	/* (non-Javadoc)
-	 * @see java.lang.Object#toString()
+	 * @see sjdb.Operator#getLabels()
 	 */
 	@Override
-	public String toString() {
-		return this.relation.toString();
+	protected String[] getLabels() {
+		return new String[] {this.relation.toString()};
 	}
 	
 	/* (non-Javadoc)
-	 * @see sjdb.Operator#accept(sjdb.OperatorVisitor)
+	 * @see sjdb.Operator#dispatch(sjdb.PlanVisitor)
 	 */
-	public void accept(PlanVisitor visitor) {
+	protected void dispatch(PlanVisitor visitor) {
 		visitor.visit(this);
 	}
+
+	@Override
+	protected int parameterHashCode() {
+		return this.relation.getName().hashCode();
+	}
+	
+	@Override
+	protected boolean parametersEqual(Operator op) {
+		// relations of the same name in different versions of the catalogue may have different statistics
+		return this.relation == ((Scan) op).relation;
+	}
 }
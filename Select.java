@@ -8,7 +8,7 @@ package sjdb;
  *
  */
 public class Select extends UnaryOperator {
-	private Predicate predicate;
+	private final Predicate predicate;
 	
 	/**
 	 * @param input
@@ -22,12 +22,21 @@ public class Select extends UnaryOperator {
 		return this.predicate;
 	}
 	
-	public void accept(PlanVisitor visitor) {
-		super.accept(visitor);
+	protected void dispatch(PlanVisitor visitor) {
 		visitor.visit(this);
 	}
 	
-	public String toString() {
-		return "SELECT [" + this.predicate.toString() + "] (" + getInput().toString() + ")";
+	protected String[] getLabels() {
+		return new String[] {"SELECT [" + this.predicate.toString() + "] (", ")"};
+	}
+
+	@Override
+	protected int parameterHashCode() {
+		return this.predicate.hashCode();
+	}
+	
+	@Override
+	protected boolean parametersEqual(Operator op) {
+		return this.predicate.equals(((Select) op).predicate);
 	}
 }
@@ -0,0 +1,100 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the ingest overhead of incremental statistics maintenance: the
+ * time to load a batch of tuples into an in-memory relation with and
+ * without a StatisticsMaintainer, against the time for a full recompute.
+ *
+ * Usage: java sjdb.StatisticsBenchmark [tuples] [rounds]
+ */
+public class StatisticsBenchmark {
+	private static final int NUMERIC_ATTRIBUTES = 4;
+	private static final int STRING_ATTRIBUTES = 4;
+
+	public static void main(String[] args) throws Exception {
+		int tuples = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		List<String[]> batch = generate(tuples, new Random(42));
+		Catalogue cat = null;
+
+		long plain = 0, maintained = 0, publish = 0, analyze = 0;
+		for (int round = 0; round <= rounds; round++) {
+			cat = createCatalogue();
+			// round 0 warms up the JIT and is not counted
+			List<String[]> table = new ArrayList<String[]>();
+			long start = System.nanoTime();
+			for (String[] tuple : batch) {
+				table.add(tuple);
+			}
+			long plainTime = System.nanoTime() - start;
+
+			List<String[]> maintainedTable = new ArrayList<String[]>();
+			StatisticsMaintainer stats = new StatisticsMaintainer(cat, "R", () -> maintainedTable, Double.MAX_VALUE);
+			start = System.nanoTime();
+			for (String[] tuple : batch) {
+				maintainedTable.add(tuple);
+				stats.insert(tuple);
+			}
+			long maintainedTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			stats.publish();
+			long publishTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			stats.analyze();
+			long analyzeTime = System.nanoTime() - start;
+
+			if (round > 0) {
+				plain += plainTime;
+				maintained += maintainedTime;
+				publish += publishTime;
+				analyze += analyzeTime;
+			}
+		}
+
+		System.out.println("tuples per round:        " + tuples);
+		System.out.println("ingest, no statistics:   " + perTuple(plain, tuples, rounds) + " ns/tuple");
+		System.out.println("ingest, incremental:     " + perTuple(maintained, tuples, rounds) + " ns/tuple");
+		System.out.println("incremental overhead:    " + perTuple(maintained - plain, tuples, rounds) + " ns/tuple");
+		System.out.println("publish:                 " + (publish / rounds / 1000) + " us");
+		System.out.println("full recompute:          " + perTuple(analyze, tuples, rounds) + " ns/tuple");
+		System.out.println("published statistics:    " + cat.getRelation("R").render());
+	}
+
+	private static Catalogue createCatalogue() {
+		Catalogue cat = new Catalogue();
+		cat.createRelation("R", 0);
+		for (int i = 0; i < NUMERIC_ATTRIBUTES; i++) {
+			cat.createAttribute("R", "n" + i, 0, 0, 0);
+		}
+		for (int i = 0; i < STRING_ATTRIBUTES; i++) {
+			cat.createAttribute("R", "s" + i, 0);
+		}
+		return cat;
+	}
+
+	private static List<String[]> generate(int tuples, Random random) {
+		List<String[]> batch = new ArrayList<String[]>(tuples);
+		for (int t = 0; t < tuples; t++) {
+			String[] tuple = new String[NUMERIC_ATTRIBUTES + STRING_ATTRIBUTES];
+			for (int i = 0; i < NUMERIC_ATTRIBUTES; i++) {
+				tuple[i] = Integer.toString(random.nextInt(1000 * (i + 1)));
+			}
+			for (int i = 0; i < STRING_ATTRIBUTES; i++) {
+				tuple[NUMERIC_ATTRIBUTES + i] = "v" + random.nextInt(100 * (i + 1));
+			}
+			batch.add(tuple);
+		}
+		return batch;
+	}
+
+	private static long perTuple(long nanos, int tuples, int rounds) {
+		return nanos / ((long) tuples * rounds);
+	}
+}
@@ -0,0 +1,402 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * This class keeps the statistics of a named relation up to date as
+ * tuples are inserted into and deleted from it, without rescanning the
+ * relation. It maintains:
+ *
+ * - the tuple count
+ * - a distinct-count sketch per attribute
+ * - the minimum, maximum and a histogram per numeric attribute
+ * - for a partitioned relation, the tuple count of each partition, and a
+ *   distinct-count sketch per attribute and the minimum and maximum of
+ *   each numeric attribute in it
+ *
+ * Tuples are arrays of values in the order of the relation's attributes.
+ *
+ * The catalogue holds distinct counts but no sketches, so the sketches
+ * are seeded from the tuple source (by a full recomputation) before the
+ * statistics are first published, unless the relation was empty; only
+ * then do the sketches count the relation's existing values as well as
+ * the values inserted. Without a tuple source, the distinct count of an
+ * attribute is the larger of the catalogue's count and the count of the
+ * values inserted, which is the least that it can be. A histogram is
+ * widened as values outside its range are inserted (see
+ * Histogram.including()).
+ *
+ * Deletions cannot be removed from a distinct-count sketch, so the
+ * maintained statistics drift from the truth as the relation changes.
+ * The drift is the number of tuples inserted and deleted since the last
+ * full recomputation (analyze()), relative to the tuple count at that
+ * time. When publish() finds that the drift has exceeded the staleness
+ * threshold, it recomputes the statistics from the tuple source before
+ * publishing them.
+ *
+ * The statistics of the partitions are kept as those of the relation
+ * are, so that they agree with them when published.
+ */
+public class StatisticsMaintainer {
+	static final double DEFAULT_STALENESS_THRESHOLD = 0.2;
+	static final int HISTOGRAM_BUCKETS = 32;
+	// buckets of the histograms built by analyze(), which are rebinned to HISTOGRAM_BUCKETS over the values' range at the end
+	static final int ANALYZE_BUCKETS = 4 * HISTOGRAM_BUCKETS;
+
+	private final Catalogue catalogue;
+	private final String relName;
+	private final Supplier<Iterable<String[]>> source;
+	private final double stalenessThreshold;
+
+	private List<Attribute> attributes;
+	private long tupleCount;
+	private DistinctCountSketch[] sketches;
+	private Histogram[] histograms;
+	private double[] mins;
+	private double[] maxs;
+	private long analyzedTupleCount;
+	private long changes;
+	// whether the sketches count the values the relation held when the maintainer was created
+	private boolean seeded;
+	// the partitioning of the relation, if any, with the statistics of its partitions as last computed, the position of its
+	// attribute in a tuple, and the maintained statistics of each attribute in each partition
+	private final Partitioning partitioning;
+	private final int partitionPosition;
+	private long[] partitionCounts;
+	private int[][] partitionValues;
+	private DistinctCountSketch[][] partitionSketches;
+	private double[][] partitionMins;
+	private double[][] partitionMaxs;
+
+	/**
+	 * Create a maintainer for the named relation, starting from the
+	 * statistics currently in the catalogue.
+	 *
+	 * @param catalogue
+	 * @param relName
+	 * @param source supplies every tuple of the relation, for full
+	 * recomputation; may be null, in which case statistics are never
+	 * recomputed
+	 * @param stalenessThreshold drift at which statistics are recomputed
+	 * @throws DatabaseException if there is no such relation
+	 */
+	public StatisticsMaintainer(Catalogue catalogue, String relName, Supplier<Iterable<String[]>> source,
+			double stalenessThreshold) throws DatabaseException {
+		this.catalogue = catalogue;
+		this.relName = relName;
+		this.source = source;
+		this.stalenessThreshold = stalenessThreshold;
+
+		NamedRelation reln = catalogue.getRelation(relName);
+		this.attributes = new ArrayList<Attribute>(reln.getAttributes());
+		this.tupleCount = reln.getTupleCount();
+		this.analyzedTupleCount = tupleCount;
+		this.changes = 0;
+		this.seeded = tupleCount == 0;
+		this.sketches = new DistinctCountSketch[attributes.size()];
+		this.histograms = new Histogram[attributes.size()];
+		this.mins = new double[attributes.size()];
+		this.maxs = new double[attributes.size()];
+		for (int i = 0; i < attributes.size(); i++) {
+			sketches[i] = new DistinctCountSketch();
+			Attribute attr = attributes.get(i);
+			if (attr.hasRange()) {
+				mins[i] = attr.getMinValue();
+				maxs[i] = attr.getMaxValue();
+				histograms[i] = attr.getHistogram() != null ? new Histogram(attr.getHistogram()) : null;
+			} else {
+				mins[i] = Double.NaN;
+				maxs[i] = Double.NaN;
+			}
+		}
+
+		this.partitioning = reln.getPartitioning();
+		if (partitioning != null) {
+			int partitions = partitioning.getPartitionCount();
+			this.partitionPosition = attributes.indexOf(partitioning.getAttribute());
+			this.partitionCounts = new long[partitions];
+			this.partitionValues = new int[partitions][attributes.size()];
+			this.partitionSketches = new DistinctCountSketch[partitions][attributes.size()];
+			this.partitionMins = new double[partitions][attributes.size()];
+			this.partitionMaxs = new double[partitions][attributes.size()];
+			for (int p = 0; p < partitions; p++) {
+				NamedRelation partition = partitioning.getPartition(p);
+				partitionCounts[p] = partition.getTupleCount();
+				for (int i = 0; i < attributes.size(); i++) {
+					Attribute attr = partition.getAttribute(attributes.get(i));
+					partitionValues[p][i] = attr.getValueCount();
+					partitionSketches[p][i] = new DistinctCountSketch();
+					// a partition without a range holds no numeric values yet
+					partitionMins[p][i] = attr.hasRange() ? attr.getMinValue() : Double.POSITIVE_INFINITY;
+					partitionMaxs[p][i] = attr.hasRange() ? attr.getMaxValue() : Double.NEGATIVE_INFINITY;
+				}
+			}
+		} else {
+			this.partitionPosition = -1;
+		}
+	}
+
+	/**
+	 * Record the insertion of a tuple into the relation.
+	 * @param tuple
+	 */
+	public void insert(String[] tuple) {
+		tupleCount++;
+		changes++;
+		int partition = partitionOf(tuple);
+		if (partition >= 0) {
+			partitionCounts[partition]++;
+		}
+		for (int i = 0; i < sketches.length; i++) {
+			sketches[i].add(tuple[i]);
+			if (partition >= 0) {
+				partitionSketches[partition][i].add(tuple[i]);
+			}
+			if (histograms[i] != null || !Double.isNaN(mins[i])) {
+				double value = numericValue(tuple[i]);
+				if (!Double.isNaN(value)) {
+					mins[i] = Math.min(mins[i], value);
+					maxs[i] = Math.max(maxs[i], value);
+					if (histograms[i] != null) {
+						histograms[i] = histograms[i].including(value);
+						histograms[i].add(value);
+					}
+					if (partition >= 0) {
+						partitionMins[partition][i] = Math.min(partitionMins[partition][i], value);
+						partitionMaxs[partition][i] = Math.max(partitionMaxs[partition][i], value);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Record the deletion of a tuple from the relation.
+	 * @param tuple
+	 */
+	public void delete(String[] tuple) {
+		tupleCount = Math.max(0, tupleCount - 1);
+		changes++;
+		int partition = partitionOf(tuple);
+		if (partition >= 0) {
+			partitionCounts[partition] = Math.max(0, partitionCounts[partition] - 1);
+		}
+		for (int i = 0; i < histograms.length; i++) {
+			if (histograms[i] != null) {
+				double value = numericValue(tuple[i]);
+				if (!Double.isNaN(value)) {
+					histograms[i].remove(value);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Return the drift of the maintained statistics since they were last
+	 * recomputed in full.
+	 * @return
+	 */
+	public double getDrift() {
+		return (double) changes / Math.max(1, analyzedTupleCount);
+	}
+
+	/**
+	 * Return true if the drift has exceeded the staleness threshold.
+	 * @return
+	 */
+	public boolean isStale() {
+		return getDrift() > stalenessThreshold;
+	}
+
+	/**
+	 * Recompute the statistics in full from the tuple source, in a single
+	 * pass over its tuples.
+	 */
+	public void analyze() {
+		if (source == null) {
+			return;
+		}
+		int n = attributes.size();
+		DistinctCountSketch[] newSketches = new DistinctCountSketch[n];
+		Histogram[] newHistograms = new Histogram[n];
+		double[] newMins = new double[n];
+		double[] newMaxs = new double[n];
+		boolean[] numeric = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			newSketches[i] = new DistinctCountSketch();
+			newMins[i] = Double.POSITIVE_INFINITY;
+			newMaxs[i] = Double.NEGATIVE_INFINITY;
+			numeric[i] = true;
+		}
+		long[] newPartitionCounts = null;
+		DistinctCountSketch[][] newPartitionSketches = null;
+		double[][] newPartitionMins = null;
+		double[][] newPartitionMaxs = null;
+		if (partitioning != null) {
+			newPartitionCounts = new long[partitioning.getPartitionCount()];
+			newPartitionSketches = new DistinctCountSketch[newPartitionCounts.length][n];
+			newPartitionMins = new double[newPartitionCounts.length][n];
+			newPartitionMaxs = new double[newPartitionCounts.length][n];
+			for (int p = 0; p < newPartitionCounts.length; p++) {
+				for (int i = 0; i < n; i++) {
+					newPartitionSketches[p][i] = new DistinctCountSketch();
+				}
+				Arrays.fill(newPartitionMins[p], Double.POSITIVE_INFINITY);
+				Arrays.fill(newPartitionMaxs[p], Double.NEGATIVE_INFINITY);
+			}
+		}
+
+		long count = 0;
+		for (String[] tuple : source.get()) {
+			count++;
+			int partition = partitionOf(tuple);
+			if (partition >= 0) {
+				newPartitionCounts[partition]++;
+			}
+			for (int i = 0; i < n; i++) {
+				newSketches[i].add(tuple[i]);
+				if (partition >= 0) {
+					newPartitionSketches[partition][i].add(tuple[i]);
+				}
+				if (!numeric[i]) {
+					continue;
+				}
+				double value = numericValue(tuple[i]);
+				if (Double.isNaN(value)) {
+					numeric[i] = false;
+					newHistograms[i] = null;
+				} else {
+					newMins[i] = Math.min(newMins[i], value);
+					newMaxs[i] = Math.max(newMaxs[i], value);
+					// the range is not known until every value has been seen, so the histogram is widened as they arrive
+					newHistograms[i] = newHistograms[i] == null ? new Histogram(value, value, ANALYZE_BUCKETS)
+							: newHistograms[i].including(value);
+					newHistograms[i].add(value);
+					if (partition >= 0) {
+						newPartitionMins[partition][i] = Math.min(newPartitionMins[partition][i], value);
+						newPartitionMaxs[partition][i] = Math.max(newPartitionMaxs[partition][i], value);
+					}
+				}
+			}
+		}
+
+		for (int i = 0; i < n; i++) {
+			if (numeric[i] && count > 0) {
+				newHistograms[i] = newHistograms[i].rebin(newMins[i], newMaxs[i], HISTOGRAM_BUCKETS);
+			} else {
+				newHistograms[i] = null;
+				newMins[i] = Double.NaN;
+				newMaxs[i] = Double.NaN;
+			}
+		}
+
+		this.tupleCount = count;
+		this.analyzedTupleCount = count;
+		this.changes = 0;
+		this.seeded = true;
+		this.sketches = newSketches;
+		this.histograms = newHistograms;
+		this.mins = newMins;
+		this.maxs = newMaxs;
+		if (partitioning != null) {
+			this.partitionCounts = newPartitionCounts;
+			// as for the relation, the recomputed distinct counts replace those last computed
+			this.partitionValues = new int[newPartitionCounts.length][n];
+			this.partitionSketches = newPartitionSketches;
+			this.partitionMins = newPartitionMins;
+			this.partitionMaxs = newPartitionMaxs;
+		}
+		// the recomputed distinct counts replace the catalogue's, rather than adding to them
+		List<Attribute> recomputed = new ArrayList<Attribute>();
+		for (Attribute attr : attributes) {
+			recomputed.add(new Attribute(attr.getName(), 0));
+		}
+		this.attributes = recomputed;
+	}
+
+	/**
+	 * Publish the maintained statistics to the catalogue, first recomputing
+	 * them in full if they have become stale, or if the sketches have not
+	 * yet been seeded from the tuple source.
+	 */
+	public void publish() {
+		if ((isStale() || !seeded) && source != null) {
+			analyze();
+		}
+		NamedRelation reln = new NamedRelation(relName, (int) Math.min(Integer.MAX_VALUE, tupleCount));
+		int[] relationValues = new int[attributes.size()];
+		for (int i = 0; i < attributes.size(); i++) {
+			Attribute attr = attributes.get(i);
+			// distinct values: the sketch's count once it is seeded (the catalogue's count is then 0), or else the larger of the
+			// two; at most one per tuple
+			long values = Math.max(attr.getValueCount(), sketches[i].estimate());
+			values = Math.min(values, tupleCount);
+			relationValues[i] = (int) values;
+			if (histograms[i] != null || !Double.isNaN(mins[i])) {
+				Histogram histogram = histograms[i] != null ? new Histogram(histograms[i]) : null;
+				reln.addAttribute(new Attribute(attr.getName(), (int) values, mins[i], maxs[i], histogram));
+			} else {
+				reln.addAttribute(new Attribute(attr.getName(), (int) values));
+			}
+		}
+		if (partitioning != null) {
+			reln.setPartitioning(publishPartitions(relationValues));
+		}
+		catalogue.updateRelations(Collections.singletonList(reln));
+	}
+
+	// The partitioning with the maintained statistics of each partition, whose distinct counts are found as the relation's are,
+	// and are at most the relation's
+	private Partitioning publishPartitions(int[] relationValues) {
+		List<NamedRelation> partitions = new ArrayList<NamedRelation>();
+		for (int p = 0; p < partitionCounts.length; p++) {
+			int count = (int) Math.min(Integer.MAX_VALUE, partitionCounts[p]);
+			NamedRelation partition = new NamedRelation(partitioning.getPartition(p).getName(), count);
+			for (int i = 0; i < attributes.size(); i++) {
+				Attribute attr = attributes.get(i);
+				long values = Math.max(partitionValues[p][i], partitionSketches[p][i].estimate());
+				values = Math.min(Math.min(values, relationValues[i]), count);
+				if (partitionMins[p][i] <= partitionMaxs[p][i]) {
+					partition.addAttribute(new Attribute(attr.getName(), (int) values, partitionMins[p][i], partitionMaxs[p][i]));
+				} else {
+					partition.addAttribute(new Attribute(attr.getName(), (int) values));
+				}
+			}
+			partitions.add(partition);
+		}
+		return partitioning.withPartitions(partitions);
+	}
+
+	// The partition of the relation that holds a tuple, or -1 if the relation is not partitioned or no partition holds it
+	private int partitionOf(String[] tuple) {
+		return partitioning != null ? partitioning.partitionOf(tuple[partitionPosition]) : -1;
+	}
+
+	private static double numericValue(String value) {
+		// fast path for integers, which are the common case and much cheaper to parse by hand
+		int length = value.length();
+		if (length > 0 && length < 19) {
+			int i = value.charAt(0) == '-' ? 1 : 0;
+			long result = 0;
+			for (; i < length; i++) {
+				char c = value.charAt(i);
+				if (c < '0' || c > '9') {
+					break;
+				}
+				result = result * 10 + (c - '0');
+			}
+			if (i == length && (length > 1 || value.charAt(0) != '-')) {
+				return value.charAt(0) == '-' ? -result : result;
+			}
+		}
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Executes generated queries against a catalogue in which one relation's
+ * statistics are stale: the relation has grown a thousandfold since they
+ * were taken, so the Optimiser takes it to be small. Each query is
+ * executed as optimised with the stale statistics, both with adaptive
+ * re-optimisation and without, and as optimised with up-to-date
+ * statistics, and the number of re-optimisations, the intermediate tuples
+ * (those produced by joins and products) and the work done (the tuples
+ * produced by every operator) are printed for each.
+ *
+ * Both executions of a query must give the same result. Over the whole
+ * workload, the stale statistics must mislead the Optimiser into plans
+ * with more intermediate tuples than those of the plans optimised with
+ * up-to-date statistics, and re-optimisation must recover some of them.
+ * Re-optimisation may do more work than it saves on intermediate tuples,
+ * since the re-optimised rest of a plan scans again the relations that
+ * it reads.
+ *
+ * The exit status is 1 if any check fails.
+ *
+ * Usage: java sjdb.TestAdaptiveExecution [relations] [queries] [threshold]
+ */
+public class TestAdaptiveExecution {
+    private static final int STALE_FACTOR = 1000;
+    private static final long ROW_LIMIT = 2000000;
+    private static final long SEED = 1;
+
+    private static boolean failed = false;
+
+    public static void main(String[] args) throws Exception {
+        int relations = args.length > 0 ? Integer.parseInt(args[0]) : 6;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : AdaptiveExecutor.DEFAULT_THRESHOLD;
+
+        long freshTotal = 0;
+        long staticTotal = 0;
+        long adaptiveTotal = 0;
+        int reoptimisations = 0;
+        System.out.printf("%-10s %5s %14s %14s %14s %12s %12s %7s%n", "shape", "query", "fresh inter", "static inter",
+                "adaptive inter", "static work", "adapt. work", "reopts");
+        for (WorkloadGenerator.Shape shape : WorkloadGenerator.Shape.values()) {
+            WorkloadGenerator generator = new WorkloadGenerator(shape, relations, 1.0, SEED);
+            // a generator with the same seed gives the same catalogue and queries, with statistics kept up to date
+            WorkloadGenerator fresh = new WorkloadGenerator(shape, relations, 1.0, SEED);
+            Catalogue cat = generator.getCatalogue();
+            List<String> relNames = new ArrayList<String>();
+            for (int i = 0; i < relations; i++) {
+                relNames.add("R" + i);
+            }
+            Database db = Database.generate(cat, relNames, SEED);
+            // R0 has since grown, but its statistics have not been updated
+            NamedRelation current = cat.getRelation("R0");
+            NamedRelation stale = new NamedRelation("R0", Math.max(1, current.getTupleCount() / STALE_FACTOR));
+            for (Attribute attr : current.getAttributes()) {
+                stale.addAttribute(attr);
+            }
+            cat.updateRelations(Collections.singletonList(stale));
+
+            for (int q = 0; q < queries; q++) {
+                Operator optimised = optimise(generator.nextPlan(0.5), cat);
+                Operator freshPlan = optimise(fresh.nextPlan(0.5), fresh.getCatalogue());
+
+                // with an infinite threshold, no estimate diverges enough for the plan to be re-optimised
+                AdaptiveExecutor up = new AdaptiveExecutor(db, Double.POSITIVE_INFINITY, ROW_LIMIT);
+                AdaptiveExecutor unchanged = new AdaptiveExecutor(db, Double.POSITIVE_INFINITY, ROW_LIMIT);
+                AdaptiveExecutor adaptive = new AdaptiveExecutor(db, threshold, ROW_LIMIT);
+                List<String[]> expected;
+                List<String[]> actual;
+                try {
+                    up.execute(freshPlan);
+                    expected = unchanged.execute(optimised);
+                    actual = adaptive.execute(optimised);
+                } catch (IllegalStateException e) {
+                    System.out.printf("%-10s %5d too many tuples%n", shape, q);
+                    continue;
+                }
+                System.out.printf("%-10s %5d %14d %14d %14d %12d %12d %7d%n", shape, q, up.getIntermediateTuples(),
+                        unchanged.getIntermediateTuples(), adaptive.getIntermediateTuples(), unchanged.getTuplesProduced(),
+                        adaptive.getTuplesProduced(), adaptive.getReoptimisations());
+                check(shape + " query " + q + ": same result", sameTuples(expected, actual));
+                freshTotal += up.getIntermediateTuples();
+                staticTotal += unchanged.getIntermediateTuples();
+                adaptiveTotal += adaptive.getIntermediateTuples();
+                reoptimisations += adaptive.getReoptimisations();
+            }
+        }
+        System.out.printf("%-16s %14d %14d %14d %33d%n", "ALL", freshTotal, staticTotal, adaptiveTotal, reoptimisations);
+
+        check("stale statistics mislead the optimiser", staticTotal > freshTotal);
+        check("plans re-optimised", reoptimisations > 0);
+        check("re-optimisation reduces intermediate tuples", adaptiveTotal < staticTotal);
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static Operator optimise(Operator plan, Catalogue cat) {
+        plan.accept(new Estimator());
+        return new Optimiser(cat).optimise(plan);
+    }
+
+    // Compare results as sets of tuples, since re-optimisation may reorder both tuples and attributes
+    private static boolean sameTuples(List<String[]> expected, List<String[]> actual) {
+        if (expected.size() != actual.size()) {
+            return false;
+        }
+        return canonical(expected).equals(canonical(actual));
+    }
+
+    private static HashSet<List<String>> canonical(List<String[]> tuples) {
+        HashSet<List<String>> set = new HashSet<List<String>>();
+        for (String[] tuple : tuples) {
+            List<String> values = new ArrayList<String>();
+            Collections.addAll(values, tuple);
+            Collections.sort(values);
+            set.add(values);
+        }
+        return set;
+    }
+
+    private static void check(String name, boolean ok) {
+        if (!ok) {
+            System.out.println("FAIL " + name);
+            failed = true;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package sjdb;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks the attribute ids interned by the Catalogue and the structures
+ * built on them. An AttributeSet must hold attributes by name alone,
+ * whatever their statistics, and a copy must be independent of the
+ * original. A Relation must find the position of an attribute (the first,
+ * if two have the same name) both before and after it builds its index
+ * of positions, and must look attributes up in constant time, so that
+ * every attribute of a relation with many can be looked up in well under
+ * the time a search of the list for each would take. Loading a catalogue
+ * again, or parsing queries against it, must not intern further names.
+ *
+ * The exit status is 1 if any check fails.
+ *
+ * Usage: java sjdb.TestAttributeSet
+ */
+public class TestAttributeSet {
+    // attributes of the relation looked up in constant time, a search of whose list for each would take seconds
+    private static final int WIDE = 100000;
+    private static final long WIDE_MILLIS = 1000;
+
+    private static boolean failed = false;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== attribute sets ===");
+        Attribute a = new Attribute("as_a", 10);
+        Attribute b = new Attribute("as_b", 20);
+        Attribute c = new Attribute("as_c", 30);
+        AttributeSet set = new AttributeSet(Arrays.asList(a, b));
+        check("contains added", set.contains(a) && set.contains(b) && !set.contains(c));
+        check("contains by name", set.contains(new Attribute("as_a", 99)));
+        check("size", set.size() == 2 && !set.isEmpty() && new AttributeSet().isEmpty());
+        AttributeSet copy = new AttributeSet(set);
+        copy.add(c);
+        check("copy independent", copy.contains(c) && !set.contains(c));
+        check("contains all", copy.containsAll(set) && !set.containsAll(copy));
+        AttributeSet other = new AttributeSet();
+        other.addAll(new AttributeSet(Arrays.asList(new Attribute("as_b"), new Attribute("as_a"))));
+        check("equal by names", other.equals(set) && other.hashCode() == set.hashCode());
+        check("retain in list order", set.retain(Arrays.asList(c, b, a)).equals(Arrays.asList(b, a)));
+        check("printed by name", set.toString().equals("[as_a, as_b]"));
+
+        System.out.println("=== relation lookup ===");
+        Relation reln = new Relation(100);
+        reln.addAttribute(a);
+        reln.addAttribute(b);
+        reln.addAttribute(new Attribute("as_a", 5));
+        // enough lookups that the later ones are answered by the index
+        for (int i = 0; i <= Relation.SEARCHES_BEFORE_INDEX; i++) {
+            check("lookup " + i + ": first of a name found", reln.indexOf(new Attribute("as_a")) == 0
+                    && reln.getAttribute(new Attribute("as_a")).getValueCount() == 10);
+            check("lookup " + i + ": second found", reln.indexOf(b) == 1);
+            check("lookup " + i + ": absent", reln.indexOf(c) == -1 && !reln.contains(c));
+        }
+        reln.addAttribute(c);
+        check("attribute added after index found", reln.indexOf(c) == 3 && reln.contains(c));
+
+        Relation wide = new Relation(WIDE);
+        List<Attribute> attributes = new ArrayList<Attribute>();
+        for (int i = 0; i < WIDE; i++) {
+            attributes.add(new Attribute("as_wide" + i, 1));
+            wide.addAttribute(attributes.get(i));
+        }
+        long start = System.nanoTime();
+        boolean found = true;
+        for (int i = WIDE - 1; i >= 0; i--) {
+            found &= wide.indexOf(attributes.get(i)) == i && wide.contains(attributes.get(i));
+        }
+        long millis = (System.nanoTime() - start) / 1000000;
+        System.out.println(WIDE + " lookups in " + millis + "ms");
+        check("every attribute found", found);
+        check("lookups within " + WIDE_MILLIS + "ms", millis < WIDE_MILLIS);
+
+        System.out.println("=== interning ===");
+        Catalogue cat = catalogue();
+        int interned = Catalogue.attributeCount();
+        Catalogue again = catalogue();
+        check("catalogue loaded again interns no names", Catalogue.attributeCount() == interned);
+        check("same name same id", cat.getAttribute("as_x1").getId() == again.getAttribute("as_x1").getId());
+        new QueryParser(cat, new StringReader("SELECT as_x1 FROM X WHERE as_x2=\"1\"")).parse();
+        try {
+            new QueryParser(cat, new StringReader("SELECT as_unknown FROM X")).parse();
+            check("unknown attribute rejected", false);
+        } catch (DatabaseException e) {
+            System.out.println("rejected: " + e.getMessage());
+        }
+        check("queries intern no names", Catalogue.attributeCount() == interned);
+
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static Catalogue catalogue() {
+        Catalogue cat = new Catalogue();
+        cat.createRelation("X", 100);
+        cat.createAttribute("X", "as_x1", 100);
+        cat.createAttribute("X", "as_x2", 10);
+        return cat;
+    }
+
+    private static void check(String name, boolean ok) {
+        if (!ok) {
+            System.out.println("FAIL " + name);
+            failed = true;
+        }
+    }
+}
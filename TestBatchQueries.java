@@ -0,0 +1,189 @@
+package sjdb;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks the QueryLexer, and batch mode (SJDB --batch, through
+ * BatchOptimiser). The lexer must give the same tokens whatever the
+ * whitespace and line breaks between them, keep spaces, commas and line
+ * breaks inside quoted values, count the lines of the input, read tokens
+ * longer than its buffer, and report an unexpected character or an
+ * unterminated value with its line.
+ *
+ * A batch of queries, some malformed and one over an unknown relation,
+ * must give one line per query in input order: the plan that the
+ * Optimiser gives for each query on its own, or an ERROR line for those
+ * that cannot be parsed, after which the following queries must still be
+ * optimised. Batches optimised on one thread and on several must give the
+ * same output.
+ *
+ * The exit status is 1 if any check fails.
+ *
+ * Usage: java sjdb.TestBatchQueries
+ */
+public class TestBatchQueries {
+    // longer than the buffer of the lexer, so that a token spans two reads
+    private static final int LONG_TOKEN = 10000;
+    private static final int THREADS = 4;
+    private static final String[] QUERIES = {
+        "SELECT a1 FROM A WHERE a2=\"x, y\"",
+        "SELECT a1 FROM Z",
+        "SELECT a1 FROM A WHERE a2=",
+        "SELECT * FROM A,B WHERE a2=b2;",
+        "SELECT a1 FROM A WHERE a2 # \"1\"",
+        "SELECT a1,b1\nFROM A , B\nWHERE a1 BETWEEN \"1\" AND \"9\" , a2=b2",
+        "SELECT a1 FROM A WHERE a2=\"unterminated",
+    };
+    // the lines expected for the queries above that cannot be optimised
+    private static final String[] ERRORS = {
+        null,
+        "ERROR Named relation Z not found",
+        "ERROR line 4: expected attribute name or value but found SELECT",
+        null,
+        "ERROR line 5: unexpected character '#'",
+        null,
+        "ERROR line 9: unterminated value",
+    };
+
+    private static boolean failed = false;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== lexer ===");
+        List<String> spaced = tokens("SELECT a1 , b1 FROM A WHERE a1<=\"x, y\";");
+        List<String> broken = tokens("SELECT\n\ta1,b1\r\nFROM A\nWHERE a1 <= \"x, y\" ;\n");
+        System.out.println(spaced);
+        check("tokens", spaced.equals(Arrays.asList("SELECT", "IDENTIFIER a1", "COMMA", "IDENTIFIER b1", "FROM",
+                "IDENTIFIER A", "WHERE", "IDENTIFIER a1", "LESS_EQUALS", "VALUE x, y", "SEMICOLON", "EOF")));
+        check("whitespace between tokens ignored", broken.equals(spaced));
+        check("comparisons", tokens("< <= > >= = *").equals(Arrays.asList("LESS", "LESS_EQUALS", "GREATER",
+                "GREATER_EQUALS", "EQUALS", "STAR", "EOF")));
+        check("keywords in capitals only", tokens("select BETWEEN AND").equals(Arrays.asList("IDENTIFIER select",
+                "BETWEEN", "AND", "EOF")));
+
+        QueryLexer lexer = new QueryLexer(new StringReader("a\n\"one\ntwo\" b\n\nc"));
+        lexer.next();
+        check("first line", lexer.line() == 1);
+        lexer.next();
+        check("value keeps line break", lexer.text().equals("one\ntwo") && lexer.line() == 2);
+        lexer.next();
+        check("line after value", lexer.text().equals("b") && lexer.line() == 3);
+        lexer.next();
+        check("blank line counted", lexer.text().equals("c") && lexer.line() == 5);
+
+        StringBuilder identifier = new StringBuilder();
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < LONG_TOKEN; i++) {
+            identifier.append((char) ('a' + i % 26));
+            value.append(i % 10 == 0 ? ' ' : ',');
+        }
+        List<String> lengthy = tokens(identifier + " \"" + value + "\" x");
+        check("identifier longer than buffer", lengthy.get(0).equals("IDENTIFIER " + identifier));
+        check("value longer than buffer", lengthy.get(1).equals("VALUE " + value));
+        check("token after long value", lengthy.get(2).equals("IDENTIFIER x"));
+
+        check("unexpected character", lexError("SELECT a1\nFROM A WHERE a1 ! \"1\"").equals("line 2: unexpected character '!'"));
+        check("unterminated value", lexError("SELECT\n\"open\n").equals("line 2: unterminated value"));
+
+        System.out.println("=== batch ===");
+        Catalogue cat = new Catalogue();
+        cat.createRelation("A", 1000);
+        cat.createAttribute("A", "a1", 1000, 0, 999);
+        cat.createAttribute("A", "a2", 100);
+        cat.createRelation("B", 500);
+        cat.createAttribute("B", "b1", 500);
+        cat.createAttribute("B", "b2", 100);
+        File catFile = File.createTempFile("sjdb", ".cat");
+        catFile.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(catFile)) {
+            out.println("A:1000:a1,1000,0,999:a2,100");
+            out.println("B:500:b1,500:b2,100");
+        }
+        String input = String.join("\n", QUERIES) + "\n";
+
+        String[] lines = sjdb(catFile.getPath(), input);
+        for (String line : lines) {
+            System.out.println(line);
+        }
+        check("one line per query", lines.length == QUERIES.length);
+        for (int i = 0; i < QUERIES.length && i < lines.length; i++) {
+            String expected = ERRORS[i] != null ? ERRORS[i] : optimise(cat, QUERIES[i]);
+            check("query " + i + ": " + (ERRORS[i] != null ? "error" : "plan"), lines[i].equals(expected));
+        }
+        check("quoted value kept", lines.length > 0 && lines[0].contains("a2=\"x, y\""));
+
+        StringWriter serial = new StringWriter();
+        StringWriter parallel = new StringWriter();
+        long serialCount = new BatchOptimiser(cat, 1).run(new StringReader(input), serial);
+        long parallelCount = new BatchOptimiser(cat, THREADS).run(new StringReader(input), parallel);
+        check("queries counted", serialCount == QUERIES.length && parallelCount == QUERIES.length);
+        check("same output on " + THREADS + " threads", parallel.toString().equals(serial.toString()));
+        check("same output as SJDB", serial.toString().equals(String.join("\n", lines) + "\n"));
+
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static List<String> tokens(String text) throws Exception {
+        QueryLexer lexer = new QueryLexer(new StringReader(text));
+        List<String> tokens = new ArrayList<String>();
+        QueryLexer.Token token;
+        do {
+            token = lexer.next();
+            boolean named = token == QueryLexer.Token.IDENTIFIER || token == QueryLexer.Token.VALUE;
+            tokens.add(named ? token + " " + lexer.text() : token.toString());
+        } while (token != QueryLexer.Token.EOF);
+        return tokens;
+    }
+
+    // The message of the error found in lexing the text, or "none"
+    private static String lexError(String text) throws Exception {
+        try {
+            tokens(text);
+            return "none";
+        } catch (DatabaseException e) {
+            return e.getMessage();
+        }
+    }
+
+    // Run SJDB in batch mode on the catalogue file, with the given text on stdin, and return the lines it writes
+    private static String[] sjdb(String catFile, String input) throws Exception {
+        InputStream in = System.in;
+        PrintStream out = System.out;
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        try {
+            System.setIn(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+            System.setOut(new PrintStream(written, true, "UTF-8"));
+            SJDB.main(new String[] { catFile, "--batch", String.valueOf(THREADS) });
+        } finally {
+            System.setIn(in);
+            System.setOut(out);
+        }
+        String text = written.toString("UTF-8");
+        return text.isEmpty() ? new String[0] : text.split("\n");
+    }
+
+    private static String optimise(Catalogue cat, String query) throws Exception {
+        Operator plan = new QueryParser(cat, new StringReader(query)).parse();
+        plan.accept(new Estimator());
+        return new Optimiser(cat).optimise(plan).toString();
+    }
+
+    private static void check(String name, boolean ok) {
+        if (!ok) {
+            System.out.println("FAIL " + name);
+            failed = true;
+        }
+    }
+}
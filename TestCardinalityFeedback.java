@@ -0,0 +1,102 @@
+package sjdb;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs the same query repeatedly against a catalogue whose statistics
+ * are out of date, optimising it with cardinality feedback recorded from
+ * each execution. For each run it prints the estimated and actual
+ * intermediate tuple counts of the plan and the worst q-error among its
+ * executed operators; the estimates should converge on the actual counts,
+ * and the plans on a better join order, once the stale statistics have
+ * been corrected. A plan that would produce too many tuples is aborted,
+ * but the operators that completed are still recorded.
+ *
+ * Usage: java sjdb.TestCardinalityFeedback [relations] [runs]
+ */
+public class TestCardinalityFeedback {
+    private static final int STALE_FACTOR = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int relations = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+        WorkloadGenerator generator = new WorkloadGenerator(WorkloadGenerator.Shape.STAR, relations, 1.0, 7);
+        Catalogue cat = generator.getCatalogue();
+        List<String> relNames = new ArrayList<String>();
+        for (int i = 0; i < relations; i++) {
+            relNames.add("R" + i);
+        }
+        Database db = Database.generate(cat, relNames, 7);
+
+        // the data has since grown: the catalogue still claims the largest relation is much smaller than it is
+        NamedRelation largest = null;
+        for (String relName : relNames) {
+            NamedRelation reln = cat.getRelation(relName);
+            if (largest == null || reln.getTupleCount() > largest.getTupleCount()) {
+                largest = reln;
+            }
+        }
+        NamedRelation stale = new NamedRelation(largest.getName(), largest.getTupleCount() / STALE_FACTOR);
+        for (Attribute attr : largest.getAttributes()) {
+            stale.addAttribute(attr);
+        }
+        cat.updateRelations(Collections.singletonList(stale));
+        System.out.println("statistics of " + largest.getName() + " are stale: " + stale.render());
+
+        String query = generator.nextQuery(0.5);
+        CardinalityFeedback feedback = new CardinalityFeedback();
+        System.out.printf("%4s %18s %20s %10s%n", "run", "est. intermediate", "actual intermediate", "max q-err");
+        for (int run = 1; run <= runs; run++) {
+            Operator plan = new QueryParser(cat, new StringReader(query)).parse();
+            plan.accept(new Estimator(feedback));
+            Operator optimised = new Optimiser(cat, null, feedback).optimise(plan);
+
+            Executor executor = new Executor(db);
+            String actual;
+            try {
+                executor.execute(optimised);
+                actual = Long.toString(actualIntermediate(optimised, executor));
+            } catch (IllegalStateException e) {
+                actual = "aborted";
+            }
+            feedback.record(optimised, executor);
+
+            System.out.printf("%4d %18d %20s %10.2f%n", run, PlanCost.intermediate(optimised), actual, maxQError(optimised, executor));
+            System.out.println("     " + optimised);
+        }
+    }
+
+    // Worst q-error of the operators of a plan that were executed
+    private static double maxQError(Operator op, Executor executor) {
+        double worst = 1;
+        Executor.OperatorStatistics stats = executor.getStatistics(op);
+        if (stats != null) {
+            worst = ExplainAnalyze.qError(op.getOutput().getTupleCount(), stats.getRows());
+        }
+        if (!(op instanceof Scan)) {
+            for (Operator input : op.getInputs()) {
+                worst = Math.max(worst, maxQError(input, executor));
+            }
+        }
+        return worst;
+    }
+
+    // Total tuples actually produced by the joins and products of an executed plan
+    private static long actualIntermediate(Operator op, Executor executor) {
+        long total = 0;
+        Executor.OperatorStatistics stats = executor.getStatistics(op);
+        if ((op instanceof Join || op instanceof Product) && stats != null) {
+            total += stats.getRows();
+        }
+        if (!(op instanceof Scan)) {
+            for (Operator input : op.getInputs()) {
+                total += actualIntermediate(input, executor);
+            }
+        }
+        return total;
+    }
+}
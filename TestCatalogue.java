@@ -0,0 +1,234 @@
+package sjdb;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.util.Arrays;
+
+/**
+ * Checks the versions of the system catalogue. A relation being built
+ * must see the attributes created for it; a snapshot must keep the
+ * relations and attributes it was taken with however the catalogue is
+ * changed afterwards; a replaced relation's attributes must leave the
+ * directory; a change must invalidate the plans cached against the old
+ * version; and loading relations on demand from a binary catalogue must
+ * leave cached plans valid. A text catalogue converted to a binary one
+ * must give the same relations, attributes, ranges and key constraints
+ * as the text catalogue parsed, whether a relation is loaded by its name
+ * or by one of its attributes. A text catalogue loaded in parallel chunks
+ * must give each relation its last definition in the file, and must not
+ * add a relation whose line is malformed, such as one with an attribute
+ * that gives a minimum value but no maximum.
+ *
+ * The exit status is 1 if any check fails.
+ *
+ * Usage: java sjdb.TestCatalogue
+ */
+public class TestCatalogue {
+    private static final String QUERY = "SELECT a1,b1 FROM A,B WHERE a2=b2";
+    // definitions of one relation in the catalogue loaded in parallel
+    private static final int DEFINITIONS = 200;
+    // relations of the catalogue converted to binary, the first defined twice
+    private static final String[] ROUND_TRIP = { "T", "U", "V", "W" };
+
+    private static boolean failed = false;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== building ===");
+        Catalogue cat = new Catalogue();
+        NamedRelation a = cat.createRelation("A", 1000);
+        cat.createAttribute("A", "a1", 1000);
+        cat.createAttribute("A", "a2", 100);
+        cat.createRelation("B", 500);
+        cat.createAttribute("B", "b1", 500);
+        cat.createAttribute("B", "b2", 100);
+        check("relation sees its attributes", a.getAttributes().size() == 2);
+        CatalogueSnapshot first = cat.snapshot();
+        check("relations published together", first.getVersion() == 1 && first.getRelationCount() == 2);
+        check("published relation is the one built", first.getRelation("A") == a);
+
+        System.out.println("=== isolation ===");
+        NamedRelation replacement = new NamedRelation("A", 2000);
+        replacement.addAttribute(new Attribute("a1", 2000));
+        replacement.addAttribute(new Attribute("a3", 10));
+        cat.updateRelations(Arrays.asList(replacement));
+        cat.createAttribute("B", "b3", 50);
+        CatalogueSnapshot second = cat.snapshot();
+        check("old snapshot keeps old relation", first.getRelation("A").getTupleCount() == 1000
+                && first.getRelation("A").getAttributes().size() == 2);
+        check("old snapshot keeps old attributes", first.lookupAttribute("a2") != null && first.lookupAttribute("a3") == null
+                && first.lookupAttribute("b3") == null);
+        check("old relation unchanged by new attribute", first.getRelation("B").getAttributes().size() == 2);
+        check("new snapshot sees new relation", second.getRelation("A").getTupleCount() == 2000
+                && second.getRelation("B").getAttributes().size() == 3);
+        check("replaced relation's attribute dropped", second.lookupAttribute("a2") == null && second.lookupAttribute("a3") != null);
+        check("version advanced", second.getVersion() > first.getVersion());
+
+        System.out.println("=== plan cache ===");
+        PlanCache planCache = new PlanCache(16);
+        Catalogue plans = catalogue();
+        optimise(plans, planCache);
+        optimise(plans, planCache);
+        check("plan reused", planCache.getHits() == 1 && planCache.getMisses() == 1);
+        NamedRelation bigger = new NamedRelation("A", 100000);
+        for (Attribute attr : plans.getRelation("A").getAttributes()) {
+            bigger.addAttribute(new Attribute(attr.getName(), attr.getValueCount()));
+        }
+        plans.updateRelations(Arrays.asList(bigger));
+        optimise(plans, planCache);
+        check("plan invalidated by change", planCache.getHits() == 1 && planCache.getMisses() == 2);
+
+        System.out.println("=== binary catalogue ===");
+        File text = File.createTempFile("sjdb", ".cat");
+        File binary = File.createTempFile("sjdb", ".bin");
+        text.deleteOnExit();
+        binary.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(text)) {
+            out.println("A:1000:a1,1000:a2,100");
+            out.println("B:500:b1,500:b2,100");
+            out.println("C:10:c1,10");
+        }
+        CatalogueConverter converter = new CatalogueConverter();
+        converter.read(text.getPath());
+        converter.write(binary.getPath());
+        BinaryCatalogue lazy = new BinaryCatalogue(binary.getPath());
+        PlanCache lazyCache = new PlanCache(16);
+        long version = lazy.snapshot().getVersion();
+        optimise(lazy, lazyCache);
+        check("loading does not change version", lazy.snapshot().getVersion() == version);
+        lazy.getRelation("C");
+        check("loading another relation does not change version", lazy.snapshot().getVersion() == version
+                && lazy.snapshot().getRelationCount() == 3);
+        optimise(lazy, lazyCache);
+        check("plan reused after loading", lazyCache.getHits() == 1);
+
+        System.out.println("=== binary round trip ===");
+        File source = File.createTempFile("sjdb", ".cat");
+        File converted = File.createTempFile("sjdb", ".bin");
+        source.deleteOnExit();
+        converted.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(source)) {
+            out.println("@foreign:u_t:t_id");
+            out.println("T:100:t_id,100:t_name,90");
+            out.println("U:0x2000:u_id,8192,0,8191:u_t,100,1,100:u_amount,500,-2.5,1000.75");
+            out.println();
+            out.println("T:1000:t_id,1000,0,999:t_name,900");
+            out.println("V:1:v1,1");
+            out.println("W:50000:w1,50000:w2,2,0,1:w3,7:w4,49999,0.5,49999.5");
+            out.println("@primary:T:t_id");
+            out.println("@unique:U:u_id");
+        }
+        Catalogue parsed = new Catalogue();
+        CatalogueParser parser = new CatalogueParser(source.getPath(), parsed);
+        parser.parse();
+        check("text catalogue parsed", parser.getErrors().isEmpty());
+        CatalogueConverter roundTrip = new CatalogueConverter();
+        roundTrip.read(source.getPath());
+        roundTrip.write(converted.getPath());
+        BinaryCatalogue mapped = new BinaryCatalogue(converted.getPath());
+        check("binary catalogue recognised", BinaryCatalogue.isBinaryCatalogue(converted.getPath())
+                && !BinaryCatalogue.isBinaryCatalogue(source.getPath()));
+        // half the relations are loaded through one of their attributes, before the relation is asked for by name
+        for (int i = 0; i < ROUND_TRIP.length; i += 2) {
+            NamedRelation expected = parsed.getRelation(ROUND_TRIP[i]);
+            Attribute attr = expected.getAttributes().get(expected.getAttributes().size() - 1);
+            check(ROUND_TRIP[i] + ": attribute loads relation", sameAttribute(attr, mapped.getAttribute(attr.getName())));
+        }
+        for (String name : ROUND_TRIP) {
+            check(name + ": same relation", sameRelation(parsed.getRelation(name), mapped.getRelation(name)));
+        }
+        check("last definition converted", mapped.getRelation("T").getTupleCount() == 1000);
+        check("relations counted", parsed.snapshot().getRelationCount() == ROUND_TRIP.length
+                && mapped.snapshot().getRelationCount() == ROUND_TRIP.length);
+        check("unknown relation absent", mapped.snapshot().lookupRelation("X") == null
+                && mapped.snapshot().lookupAttribute("x1") == null);
+        KeyConstraints textKeys = parsed.getConstraints();
+        KeyConstraints binaryKeys = mapped.getConstraints();
+        Attribute uT = mapped.getAttribute("u_t");
+        Attribute tId = mapped.getAttribute("t_id");
+        Attribute uId = mapped.getAttribute("u_id");
+        check("primary key converted", "t_id".equals(binaryKeys.getPrimaryKey("T"))
+                && binaryKeys.getPrimaryKey("T").equals(textKeys.getPrimaryKey("T")));
+        check("unique key converted", binaryKeys.isKey(uId) && textKeys.isKey(uId)
+                && "U".equals(binaryKeys.getKeyRelation(uId)) && binaryKeys.getPrimaryKey("U") == null);
+        check("foreign key converted", binaryKeys.references(uT, tId) && textKeys.references(uT, tId)
+                && "t_id".equals(binaryKeys.getReferencedKey(uT)));
+        check("non-key not converted to key", !binaryKeys.isKey(uT) && !textKeys.isKey(uT));
+
+        System.out.println("=== parallel loading ===");
+        File defined = File.createTempFile("sjdb", ".cat");
+        defined.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(defined)) {
+            for (int i = 1; i <= DEFINITIONS; i++) {
+                out.println("R:" + i + ":r1," + i);
+                out.println("S" + i + ":10:s" + i + ",10");
+            }
+            out.println("M:100:m1,10:m2,many");
+            out.println("N:100:n1,10,0");
+            out.println("P:100:p1,10,0,9,1");
+        }
+        for (int run = 0; run < 5; run++) {
+            Catalogue loaded = new Catalogue();
+            ParallelCatalogueLoader loader = new ParallelCatalogueLoader(defined.getPath(), loaded, 8, 64);
+            try {
+                loader.load();
+            } catch (DatabaseException e) {
+                // the malformed lines are reported
+            }
+            check("run " + run + ": last definition wins", loaded.getRelation("R").getTupleCount() == DEFINITIONS);
+            check("run " + run + ": malformed lines reported", loader.getErrors().size() == 3);
+            check("run " + run + ": malformed relation not added", loaded.snapshot().lookupRelation("M") == null
+                    && loaded.snapshot().lookupAttribute("m1") == null);
+            check("run " + run + ": attribute with 3 or 5 fields malformed", loaded.snapshot().lookupRelation("N") == null
+                    && loaded.snapshot().lookupRelation("P") == null);
+        }
+
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static Catalogue catalogue() {
+        Catalogue cat = new Catalogue();
+        cat.createRelation("A", 1000);
+        cat.createAttribute("A", "a1", 1000);
+        cat.createAttribute("A", "a2", 100);
+        cat.createRelation("B", 500);
+        cat.createAttribute("B", "b1", 500);
+        cat.createAttribute("B", "b2", 100);
+        return cat;
+    }
+
+    private static boolean sameRelation(NamedRelation expected, NamedRelation actual) {
+        if (expected.getTupleCount() != actual.getTupleCount()
+                || expected.getAttributes().size() != actual.getAttributes().size()) {
+            return false;
+        }
+        for (int i = 0; i < expected.getAttributes().size(); i++) {
+            if (!sameAttribute(expected.getAttributes().get(i), actual.getAttributes().get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameAttribute(Attribute expected, Attribute actual) {
+        return expected.getName().equals(actual.getName()) && expected.getValueCount() == actual.getValueCount()
+                && expected.hasRange() == actual.hasRange()
+                && (!expected.hasRange() || expected.getMinValue() == actual.getMinValue()
+                        && expected.getMaxValue() == actual.getMaxValue());
+    }
+
+    private static Operator optimise(Catalogue cat, PlanCache planCache) throws Exception {
+        Operator plan = new QueryParser(cat, new StringReader(QUERY)).parse();
+        plan.accept(new Estimator());
+        return new Optimiser(cat, planCache).optimise(plan);
+    }
+
+    private static void check(String name, boolean ok) {
+        if (!ok) {
+            System.out.println("FAIL " + name);
+            failed = true;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package sjdb;
+
+/**
+ * Optimises generated queries over join graphs of several connected
+ * components (the FOREST shape) with the components ordered in parallel
+ * and one after another. Ordering only reads the estimates of the
+ * operators, so the two must give the same plan: for queries large enough
+ * that the Optimiser orders their components in parallel by default, and
+ * for small queries with the threshold lowered so that they are too.
+ *
+ * The exit status is 1 if any check fails.
+ *
+ * Usage: java sjdb.TestComponentOrdering
+ */
+public class TestComponentOrdering {
+    private static final double SKEW = 1.0;
+    private static final double PREDICATE_DENSITY = 0.5;
+    private static final int SEEDS = 3;
+
+    private static boolean failed = false;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== default threshold ===");
+        for (int relations = Optimiser.PARALLEL_REORDER_OPERATORS; relations <= 2 * Optimiser.PARALLEL_REORDER_OPERATORS;
+                relations += Optimiser.PARALLEL_REORDER_OPERATORS / 2) {
+            for (int seed = 1; seed <= SEEDS; seed++) {
+                compare(relations, seed, Optimiser.PARALLEL_REORDER_OPERATORS);
+            }
+        }
+
+        System.out.println("=== lowered threshold ===");
+        for (int relations = 4; relations <= 12; relations += 4) {
+            for (int seed = 1; seed <= SEEDS; seed++) {
+                compare(relations, seed, 2);
+            }
+        }
+
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    // Optimise a query with the components ordered in parallel from the given number of operators, and serially. A FOREST of
+    // more than three relations has several components, and every relation is an operator to be reordered.
+    private static void compare(int relations, int seed, int threshold) throws Exception {
+        WorkloadGenerator generator = new WorkloadGenerator(WorkloadGenerator.Shape.FOREST, relations, SKEW, seed);
+        Operator plan = generator.nextPlan(PREDICATE_DENSITY);
+        plan.accept(new Estimator());
+
+        Optimiser parallel = new Optimiser(generator.getCatalogue());
+        parallel.setParallelReorderOperators(threshold);
+        Operator parallelPlan = parallel.optimise(plan);
+        Optimiser serial = new Optimiser(generator.getCatalogue());
+        serial.setParallelReorderOperators(Integer.MAX_VALUE);
+        Operator serialPlan = serial.optimise(plan);
+
+        String name = "FOREST " + relations + " seed " + seed;
+        System.out.printf("%-20s %16d %16d%n", name, PlanCost.intermediate(parallelPlan), PlanCost.intermediate(serialPlan));
+        check(name + ": same plan in parallel", parallelPlan.equals(serialPlan));
+    }
+
+    private static void check(String name, boolean ok) {
+        if (!ok) {
+            System.out.println("FAIL " + name);
+            failed = true;
+        }
+    }
+}
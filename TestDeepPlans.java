@@ -0,0 +1,99 @@
+package sjdb;
+
+import java.io.StringReader;
+import java.util.concurrent.Callable;
+
+/**
+ * Walks and optimises plans of about 10000 operators, at the default
+ * thread stack size, to check that nothing that visits, compares, prints,
+ * interns or rewrites a plan does so by recursion down its depth:
+ * Operator.accept(), toString() and equals(), PlanFactory.intern(), the
+ * walk of AdaptiveExecutor for the relations a plan reads, and each step of the Optimiser, from removing redundancy to distributing
+ * the plan over several workers.
+ *
+ * Two canonical CHAIN queries are used. The first has four relations and
+ * thousands of predicates, so its plan is a chain of selects nearly as
+ * deep as it is large, and is optimised in full. The second has a
+ * predicate per relation besides the joins, so its plan holds a left-deep
+ * tree of thousands of products; ordering so many relations takes time
+ * quadratic in their number, so its joins are not reordered.
+ *
+ * The exit status is 1 if any check fails.
+ *
+ * Usage: java sjdb.TestDeepPlans
+ */
+public class TestDeepPlans {
+    private static final int OPERATORS = 10000;
+    private static final int WORKERS = 4;
+    private static final long SEED = 42;
+
+    private static boolean failed = false;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== deep selects ===");
+        // a CHAIN of four relations at density d has 4d + 3 selects (besides those of its joins), 4 scans, 3 products and a project
+        check("selects", 4, OPERATORS / 4.0, true);
+
+        System.out.println("=== deep products ===");
+        // a CHAIN of r relations at density 1 has r scans, r - 1 products, 2r - 1 selects and a project
+        check("products", (OPERATORS + 4) / 4, 1, false);
+
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static void check(String name, int relations, double density, boolean reorder) throws Exception {
+        WorkloadGenerator generator = new WorkloadGenerator(WorkloadGenerator.Shape.CHAIN, relations, 1.0, SEED);
+        Catalogue cat = generator.getCatalogue();
+        String query = generator.nextQuery(density);
+        Operator plan = new QueryParser(cat, new StringReader(query)).parse();
+        int[] count = { 0 };
+        PlanTraversal.preOrder(plan, op -> count[0]++);
+        System.out.println(count[0] + " operators");
+        check(name + ": plan of " + OPERATORS + " operators", count[0] >= OPERATORS);
+
+        step(name + ": accept", () -> {
+            plan.accept(new Estimator());
+            return plan;
+        });
+        step(name + ": toString", () -> plan.toString());
+        Operator copy = new QueryParser(cat, new StringReader(query)).parse();
+        check(name + ": equals copy", step(name + ": equals", () -> plan.equals(copy) && plan.hashCode() == copy.hashCode()));
+        check(name + ": interned plan equal", step(name + ": intern", () -> new PlanFactory().intern(plan)).equals(plan));
+        check(name + ": relations found", step(name + ": relationNames", () -> AdaptiveExecutor.relationNames(plan)).size() == relations);
+
+        Optimiser optimiser = new Optimiser(cat);
+        optimiser.setWorkers(WORKERS);
+        Operator optimised = step(name + ": removeRedundancy", () -> optimiser.removeRedundancy(plan));
+        Operator selects = step(name + ": optimiseSelects", () -> optimiser.optimiseSelects(optimised));
+        Operator reordered = reorder ? step(name + ": reorderJoins", () -> optimiser.reorderJoins(selects)) : selects;
+        Operator joins = step(name + ": createJoins", () -> optimiser.createJoins(reordered));
+        Operator pruned = step(name + ": prunePartitions", () -> optimiser.prunePartitions(joins));
+        Operator projects = step(name + ": pushProjectsDown", () -> optimiser.pushProjectsDown(pruned, new AttributeSet()));
+        Operator distributed = step(name + ": distribute", () -> optimiser.distribute(projects));
+        check(name + ": distributed plan gathered", distributed instanceof Exchange);
+        step(name + ": toString of optimised plan", () -> distributed.toString());
+        if (reorder) {
+            step(name + ": optimise", () -> new Optimiser(cat).optimise(plan));
+        }
+    }
+
+    // Run a step, failing at once if it overflows the stack, since the steps after it need its result
+    private static <T> T step(String name, Callable<T> step) throws Exception {
+        try {
+            return step.call();
+        } catch (StackOverflowError e) {
+            System.out.println("FAIL " + name + ": stack overflow");
+            System.exit(1);
+            return null;
+        }
+    }
+
+    private static void check(String name, boolean ok) {
+        if (!ok) {
+            System.out.println("FAIL " + name);
+            failed = true;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package sjdb;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Optimises queries for several workers and executes them with a
+ * DistributedExecutor. A join with a small filtered relation must
+ * broadcast it, a join of two large relations must repartition both,
+ * and a join of relations hash partitioned on their join attributes
+ * into one partition per worker must not exchange either. Every
+ * distributed plan must give the same result as the plan for a single
+ * worker, and must send fewer bytes between the workers than the same
+ * plan with the other placement of each join's inputs. Where the
+ * Estimator's tuple counts are exact, the bytes sent must be close to
+ * the Optimiser's estimate.
+ *
+ * The exit status is 1 if any check fails.
+ *
+ * Usage: java sjdb.TestDistributedExecution
+ */
+public class TestDistributedExecution {
+    private static final int WORKERS = 4;
+
+    private static boolean failed = false;
+
+    public static void main(String[] args) throws Exception {
+        Catalogue cat = new Catalogue();
+        cat.createRelation("Sales", 20000);
+        cat.createAttribute("Sales", "s_id", 20000);
+        cat.createAttribute("Sales", "s_store", 100);
+        cat.createAttribute("Sales", "s_item", 1000);
+        cat.createRelation("Store", 100);
+        cat.createAttribute("Store", "st_id", 100);
+        cat.createAttribute("Store", "st_region", 10);
+        cat.createRelation("Returns", 20000);
+        cat.createAttribute("Returns", "r_id", 20000);
+        cat.createAttribute("Returns", "r_sale", 20000);
+        Database db = Database.generate(cat, Arrays.asList("Sales", "Store", "Returns"), 23);
+
+        System.out.println("=== broadcast ===");
+        Operator plan = check("SELECT s_id,st_region FROM Sales,Store WHERE s_store=st_id,st_region=\"1\"", cat, db);
+        check("small relation broadcast", count(plan, Exchange.Kind.BROADCAST) == 1 && count(plan, Exchange.Kind.SHUFFLE) == 0);
+
+        System.out.println("=== repartition ===");
+        plan = check("SELECT s_id,r_id FROM Sales,Returns WHERE s_id=r_sale", cat, db);
+        check("large relations repartitioned", count(plan, Exchange.Kind.SHUFFLE) == 2 && count(plan, Exchange.Kind.BROADCAST) == 0);
+        DistributedExecutor executor = new DistributedExecutor(db, WORKERS);
+        executor.execute(plan);
+        check("bytes sent within 1.5 of estimate", ExplainAnalyze.qError(PlanCost.network(plan, WORKERS), executor.getBytesSent()) <= 1.5);
+
+        System.out.println("=== co-located ===");
+        db.partition("Sales", Partitioning.hash(cat.getRelation("Sales"), cat.getAttribute("s_store"), WORKERS));
+        db.partition("Store", Partitioning.hash(cat.getRelation("Store"), cat.getAttribute("st_id"), WORKERS));
+        plan = check("SELECT s_id,st_region FROM Sales,Store WHERE s_store=st_id", cat, db);
+        check("partitioned relations joined in place", count(plan, Exchange.Kind.SHUFFLE) == 0 && count(plan, Exchange.Kind.BROADCAST) == 0);
+
+        System.out.println("=== single worker ===");
+        Operator query = parse("SELECT s_id,r_id FROM Sales,Returns WHERE s_id=r_sale", cat);
+        Optimiser single = new Optimiser(cat);
+        single.setWorkers(1);
+        check("no exchanges for one worker", single.optimise(query).equals(new Optimiser(cat).optimise(query)));
+
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    // Optimise a query for the workers and execute it on them, checking its result and that it sends fewer bytes than the
+    // alternative placement
+    private static Operator check(String query, Catalogue cat, Database db) throws Exception {
+        Operator parsed = parse(query, cat);
+        Optimiser optimiser = new Optimiser(cat);
+        optimiser.setWorkers(WORKERS);
+        Operator plan = optimiser.optimise(parsed);
+        System.out.println(plan);
+
+        DistributedExecutor distributed = new DistributedExecutor(db, WORKERS);
+        List<String> result = sorted(distributed.execute(plan), distributed.getAttributes());
+        Executor executor = new Executor(db);
+        List<String> expected = sorted(executor.execute(new Optimiser(cat).optimise(parsed)), executor.getAttributes());
+        check(query + ": same result", result.equals(expected));
+        check(query + ": not empty", !result.isEmpty());
+
+        System.out.printf("%d tuples, %d bytes sent, %d estimated%n", distributed.getTuplesSent(), distributed.getBytesSent(),
+                PlanCost.network(plan, WORKERS));
+        Operator alternative = alternative(plan);
+        DistributedExecutor other = new DistributedExecutor(db, WORKERS);
+        List<String> otherResult = sorted(other.execute(alternative), other.getAttributes());
+        System.out.printf("alternative: %d tuples, %d bytes sent, %d estimated%n", other.getTuplesSent(), other.getBytesSent(),
+                PlanCost.network(alternative, WORKERS));
+        check(query + ": same result with alternative placement", otherResult.equals(expected));
+        check(query + ": fewer bytes sent than alternative placement", distributed.getBytesSent() < other.getBytesSent());
+
+        // run on a single node, the exchanges leave the result unchanged
+        Executor local = new Executor(db);
+        check(query + ": same result on one node", sorted(local.execute(plan), local.getAttributes()).equals(expected));
+        return plan;
+    }
+
+    // A plan with the other placement of the inputs of each join: shuffles of both in place of a broadcast, or else a broadcast of
+    // the smaller in place of any shuffles
+    private static Operator alternative(Operator plan) {
+        PlanFactory factory = new PlanFactory();
+        return PlanTraversal.rewrite(plan, (op, inputs, state) -> {
+            if (!(op instanceof Join)) {
+                return factory.copy(op, inputs);
+            }
+            Predicate predicate = ((Join) op).getPredicate();
+            boolean broadcast = isBroadcast(inputs.get(0)) || isBroadcast(inputs.get(1));
+            Operator left = inputs.get(0) instanceof Exchange ? ((Exchange) inputs.get(0)).getInput() : inputs.get(0);
+            Operator right = inputs.get(1) instanceof Exchange ? ((Exchange) inputs.get(1)).getInput() : inputs.get(1);
+            if (broadcast) {
+                boolean leftFirst = left.getOutput().contains(predicate.getLeftAttribute());
+                Attribute leftKey = leftFirst ? predicate.getLeftAttribute() : predicate.getRightAttribute();
+                Attribute rightKey = leftFirst ? predicate.getRightAttribute() : predicate.getLeftAttribute();
+                return factory.join(factory.exchange(left, Exchange.Kind.SHUFFLE, leftKey),
+                        factory.exchange(right, Exchange.Kind.SHUFFLE, rightKey), predicate);
+            }
+            if (size(left) < size(right)) {
+                return factory.join(factory.exchange(left, Exchange.Kind.BROADCAST, null), right, predicate);
+            }
+            return factory.join(left, factory.exchange(right, Exchange.Kind.BROADCAST, null), predicate);
+        });
+    }
+
+    private static boolean isBroadcast(Operator op) {
+        return op instanceof Exchange && ((Exchange) op).getKind() == Exchange.Kind.BROADCAST;
+    }
+
+    private static long size(Operator op) {
+        return (long) op.getOutput().getTupleCount() * op.getOutput().getAttributes().size();
+    }
+
+    private static Operator parse(String query, Catalogue cat) throws Exception {
+        Operator plan = new QueryParser(cat, new StringReader(query)).parse();
+        plan.accept(new Estimator());
+        return plan;
+    }
+
+    private static int count(Operator plan, Exchange.Kind kind) {
+        int[] count = { 0 };
+        PlanTraversal.preOrder(plan, op -> {
+            if (op instanceof Exchange && ((Exchange) op).getKind() == kind) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    // Tuples sorted, with their values in the order of the names of their attributes
+    private static List<String> sorted(List<String[]> tuples, List<Attribute> executed) {
+        List<Attribute> attributes = new ArrayList<Attribute>(executed);
+        attributes.sort((a, b) -> a.getName().compareTo(b.getName()));
+        List<String> rows = new ArrayList<String>();
+        for (String[] tuple : tuples) {
+            StringBuilder row = new StringBuilder();
+            for (Attribute attr : attributes) {
+                row.append(tuple[executed.indexOf(attr)]).append(',');
+            }
+            rows.add(row.toString());
+        }
+        rows.sort(null);
+        return rows;
+    }
+
+    private static void check(String name, boolean ok) {
+        if (!ok) {
+            System.out.println("FAIL " + name);
+            failed = true;
+        }
+    }
+}
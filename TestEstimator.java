@@ -50,5 +50,35 @@ public class TestEstimator {
             // run estimator
             select_A_a_val.accept(est);
 
+        System.out.println("\n===========  testing select attr < val  ===========\n");
+
+            cat.createRelation("T", 10000);
+            cat.createAttribute("T", "t", 1000, 0, 999);
+            Scan tInput = new Scan(cat.getRelation("T"));
+            Select select_T_t_range = new Select(tInput, new Predicate(cat.getAttribute("t"), Predicate.Comparison.LESS, "250"));
+            Select select_T_t_between = new Select(select_T_t_range, new Predicate(cat.getAttribute("t"), Predicate.Comparison.GREATER_EQUALS, "200"));
+
+            System.out.println("Input ===> " + tInput.getRelation().render());
+            System.out.println("Pred ===> " + select_T_t_between.getPredicate() + " and " + select_T_t_range.getPredicate());
+
+            select_T_t_between.accept(est);
+            System.out.println("Output ===> " + select_T_t_range.getOutput().render());
+            System.out.println("Output ===> " + select_T_t_between.getOutput().render());
+
+        System.out.println("\n===========  testing select attr = val and attr >= val  ===========\n");
+
+            Select select_T_t_val = new Select(tInput, new Predicate(cat.getAttribute("t"), "600"));
+            Select select_T_t_above = new Select(select_T_t_val, new Predicate(cat.getAttribute("t"), Predicate.Comparison.GREATER_EQUALS, "700"));
+            Select select_T_t_outside = new Select(tInput, new Predicate(cat.getAttribute("t"), "5000"));
+
+            System.out.println("Pred ===> " + select_T_t_val.getPredicate() + " and " + select_T_t_above.getPredicate());
+            System.out.println("Pred ===> " + select_T_t_outside.getPredicate());
+
+            select_T_t_above.accept(est);
+            select_T_t_outside.accept(est);
+            System.out.println("Output ===> " + select_T_t_val.getOutput().render());
+            System.out.println("Output ===> " + select_T_t_above.getOutput().render());
+            System.out.println("Output ===> " + select_T_t_outside.getOutput().render());
+
     }
 }
@@ -0,0 +1,53 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs EXPLAIN ANALYZE over generated queries for every join graph shape,
+ * executing the optimised plans against data generated to match the
+ * catalogue, and prints the first plan of each shape and a summary of
+ * q-errors by estimation formula across the whole workload.
+ *
+ * Usage: java sjdb.TestExplainAnalyze [relations] [queries per shape] [skew]
+ */
+public class TestExplainAnalyze {
+    private static final double PREDICATE_DENSITY = 1.0;
+    private static final int WORST = 10;
+
+    public static void main(String[] args) throws Exception {
+        int relations = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        double skew = args.length > 2 ? Double.parseDouble(args[2]) : 1.0;
+
+        ExplainAnalyze explain = new ExplainAnalyze();
+        int failed = 0;
+        for (WorkloadGenerator.Shape shape : WorkloadGenerator.Shape.values()) {
+            WorkloadGenerator generator = new WorkloadGenerator(shape, relations, skew, 42);
+            Catalogue cat = generator.getCatalogue();
+            List<String> relNames = new ArrayList<String>();
+            for (int i = 0; i < relations; i++) {
+                relNames.add("R" + i);
+            }
+            Database db = Database.generate(cat, relNames, 42);
+
+            for (int q = 0; q < queries; q++) {
+                Operator plan = generator.nextPlan(PREDICATE_DENSITY);
+                plan.accept(new Estimator());
+                Operator optimised = new Optimiser(cat).optimise(plan);
+                try {
+                    String rendered = explain.explain(db, optimised);
+                    if (q == 0) {
+                        System.out.println("=== " + shape + " ===");
+                        System.out.println(rendered);
+                    }
+                } catch (IllegalStateException e) {
+                    failed++;
+                    System.out.println(shape + " query " + q + " not executed: " + e.getMessage());
+                }
+            }
+        }
+        System.out.println(explain.summary(WORST));
+        System.out.println("plans not executed: " + failed);
+    }
+}
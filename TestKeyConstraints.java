@@ -0,0 +1,203 @@
+package sjdb;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Declares key constraints in a text catalogue and checks that they are
+ * read by CatalogueParser and survive conversion to a binary catalogue,
+ * that the Optimiser removes a join to a relation that is only used to
+ * check a foreign key and removes repeated and implied predicates, that
+ * it keeps predicates that contradict each other, whose result must be
+ * estimated to be empty, and
+ * that a join of a foreign key to a filtered key relation is estimated
+ * from the fraction of the key relation that remains, rather than from
+ * the number of values of the foreign key. Every optimised plan
+ * is executed against generated data and must give the same result as
+ * the canonical plan.
+ *
+ * The exit status is 1 if any check fails.
+ *
+ * Usage: java sjdb.TestKeyConstraints
+ */
+public class TestKeyConstraints {
+    private static final String[] CATALOGUE = {
+        "@foreign:o_cust:c_id",
+        "Customer:1000:c_id,1000,0,999:c_region,10",
+        // orders have been placed by only 200 of the customers (every fifth), so V(o_cust) is not T(Customer)
+        "Orders:10000:o_id,10000:o_cust,200,0,995:o_amount,100,0,99",
+        "@primary:Customer:c_id",
+        "@primary:Orders:o_id",
+    };
+
+    private static boolean failed = false;
+
+    public static void main(String[] args) throws Exception {
+        File text = File.createTempFile("keys", ".cat");
+        File binary = File.createTempFile("keys", ".bcat");
+        text.deleteOnExit();
+        binary.deleteOnExit();
+        try (FileWriter out = new FileWriter(text)) {
+            for (String line : CATALOGUE) {
+                out.write(line + "\n");
+            }
+            out.write("@foreign:o_cust\n");
+        }
+
+        System.out.println("=== parsing ===");
+        Catalogue cat = new Catalogue();
+        CatalogueParser parser = new CatalogueParser(text.getPath(), cat);
+        parser.parse();
+        check("malformed constraint reported", parser.getErrors().size() == 1);
+        checkConstraints("text", cat);
+
+        CatalogueConverter converter = new CatalogueConverter();
+        try {
+            converter.read(text.getPath());
+            fail("malformed constraint converted");
+        } catch (DatabaseException e) {
+            System.out.println("rejected: " + e.getMessage());
+        }
+        try (FileWriter out = new FileWriter(text)) {
+            for (String line : CATALOGUE) {
+                out.write(line + "\n");
+            }
+        }
+        converter = new CatalogueConverter();
+        converter.read(text.getPath());
+        converter.write(binary.getPath());
+        checkConstraints("binary", new BinaryCatalogue(binary.getPath()));
+
+        Database db = Database.generate(cat, Arrays.asList("Customer", "Orders"), 11);
+
+        System.out.println("=== join elimination ===");
+        checkJoins("SELECT o_id,o_amount FROM Orders,Customer WHERE o_cust=c_id", cat, db, 0);
+        checkJoins("SELECT o_id,o_amount FROM Customer,Orders WHERE c_id=o_cust", cat, db, 0);
+        // the key relation is needed for its attributes, or to filter the orders
+        checkJoins("SELECT o_id,c_region FROM Orders,Customer WHERE o_cust=c_id", cat, db, 1);
+        checkJoins("SELECT o_id FROM Orders,Customer WHERE o_cust=c_id,c_region=\"1\"", cat, db, 1);
+        // a join from the key to the foreign key relation is not redundant
+        checkJoins("SELECT c_id FROM Orders,Customer WHERE o_cust=c_id", cat, db, 1);
+
+        System.out.println("=== predicate elimination ===");
+        checkPredicates("SELECT o_id FROM Orders WHERE o_amount>\"10\",o_amount>\"20\",o_amount>\"20\"", cat, db, 1);
+        checkPredicates("SELECT o_id FROM Orders WHERE o_amount=\"50\",o_amount<=\"60\"", cat, db, 1);
+        checkPredicates("SELECT o_id FROM Orders WHERE o_amount>\"50\",o_amount>=\"50\"", cat, db, 1);
+        checkPredicates("SELECT o_id FROM Orders WHERE o_amount>=\"50\",o_amount<=\"60\"", cat, db, 2);
+        checkPredicates("SELECT o_id,c_region FROM Orders,Customer WHERE o_cust=c_id,c_id=o_cust", cat, db, 1);
+
+        System.out.println("=== contradictions ===");
+        checkEmpty("SELECT o_id FROM Orders WHERE o_amount=\"50\",o_amount>\"60\"", cat, db, 2);
+        checkEmpty("SELECT o_id FROM Orders WHERE o_amount>=\"70\",o_amount=\"20\"", cat, db, 2);
+        checkEmpty("SELECT o_id FROM Orders WHERE o_amount>\"60\",o_amount<\"50\"", cat, db, 2);
+        checkEmpty("SELECT o_id FROM Orders WHERE o_amount=\"500\"", cat, db, 1);
+
+        System.out.println("=== foreign key join estimate ===");
+        Operator plan = parse("SELECT o_id FROM Orders,Customer WHERE c_id<\"500\",o_cust=c_id", cat);
+        Operator join = ((Project) plan).getInput();
+        join.accept(new Estimator());
+        int plain = join.getOutput().getTupleCount();
+        join.accept(new Estimator(null, cat.snapshot()));
+        int keyed = join.getOutput().getTupleCount();
+        int actual = new Executor(db).execute(join).size();
+        System.out.printf("estimate %d without keys, %d with keys, actual %d%n", plain, keyed, actual);
+        check("estimate with keys within 1.5", ExplainAnalyze.qError(keyed, actual) <= 1.5);
+        // without keys the join is estimated with max(V(o_cust), V(c_id)) = 500, the values of c_id left by the filter, as if
+        // every order matched; with keys it is estimated with T(Customer), so that only the orders of the customers left match
+        check("estimates with and without keys differ", keyed != plain);
+
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static void checkConstraints(String name, Catalogue cat) throws DatabaseException {
+        KeyConstraints constraints = cat.getConstraints();
+        check(name + ": primary key", "c_id".equals(constraints.getPrimaryKey("Customer")));
+        check(name + ": key relation", "Orders".equals(constraints.getKeyRelation(cat.getAttribute("o_id"))));
+        check(name + ": foreign key", constraints.references(cat.getAttribute("o_cust"), cat.getAttribute("c_id")));
+        check(name + ": not a key", !constraints.isKey(cat.getAttribute("c_region")));
+    }
+
+    // Optimise a query and check the number of joins and products left in the plan
+    private static void checkJoins(String query, Catalogue cat, Database db, int expected) throws Exception {
+        Operator optimised = optimise(query, cat, db);
+        int[] joins = { 0 };
+        PlanTraversal.preOrder(optimised, op -> {
+            if (op instanceof BinaryOperator) {
+                joins[0]++;
+            }
+        });
+        check(query + ": " + joins[0] + " joins", joins[0] == expected);
+    }
+
+    // Optimise a query and check the number of predicates left in the plan, returning the optimised plan
+    private static Operator checkPredicates(String query, Catalogue cat, Database db, int expected) throws Exception {
+        Operator optimised = optimise(query, cat, db);
+        int[] predicates = { 0 };
+        PlanTraversal.preOrder(optimised, op -> {
+            if (op instanceof Select || op instanceof Join) {
+                predicates[0]++;
+            }
+        });
+        check(query + ": " + predicates[0] + " predicates", predicates[0] == expected);
+        return optimised;
+    }
+
+    // Optimise a query whose predicates no tuple satisfies, and check that they are kept and the result is estimated to be empty
+    private static void checkEmpty(String query, Catalogue cat, Database db, int predicates) throws Exception {
+        Operator optimised = checkPredicates(query, cat, db, predicates);
+        check(query + ": estimated empty", optimised.getOutput().getTupleCount() == 0);
+        check(query + ": empty", execute(optimised, db).isEmpty());
+    }
+
+    // Optimise a query, checking that the optimised plan gives the same result as the canonical plan
+    private static Operator optimise(String query, Catalogue cat, Database db) throws Exception {
+        Operator plan = parse(query, cat);
+        Operator optimised = new Optimiser(cat).optimise(plan);
+        System.out.println(optimised);
+        check(query + ": same result", execute(plan, db).equals(execute(optimised, db)));
+        return optimised;
+    }
+
+    // Execute a plan, returning its tuples sorted, with their values in the order of the names of their attributes
+    private static List<String> execute(Operator plan, Database db) {
+        Executor executor = new Executor(db);
+        List<String[]> tuples = executor.execute(plan);
+        List<Attribute> executed = executor.getAttributes();
+        List<Attribute> attributes = new ArrayList<Attribute>(executed);
+        attributes.sort(Comparator.comparing(Attribute::getName));
+        String[] rows = new String[tuples.size()];
+        for (int i = 0; i < rows.length; i++) {
+            StringBuilder row = new StringBuilder();
+            for (Attribute attr : attributes) {
+                row.append(tuples.get(i)[executed.indexOf(attr)]).append(',');
+            }
+            rows[i] = row.toString();
+        }
+        Arrays.sort(rows);
+        return Arrays.asList(rows);
+    }
+
+    private static Operator parse(String query, Catalogue cat) throws Exception {
+        Operator plan = new QueryParser(cat, new StringReader(query)).parse();
+        plan.accept(new Estimator());
+        return plan;
+    }
+
+    private static void check(String name, boolean ok) {
+        if (!ok) {
+            fail(name);
+        }
+    }
+
+    private static void fail(String message) {
+        System.out.println("FAIL " + message);
+        failed = true;
+    }
+}
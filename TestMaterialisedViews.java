@@ -0,0 +1,140 @@
+package sjdb;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Creates a materialised view of the sales of one region over generated
+ * data and checks that the Optimiser rewrites the queries that the view
+ * can answer to scan it, at a lower estimated cost and with the same
+ * result as without the view, and leaves alone the queries that it
+ * cannot answer. Sales are then inserted and deleted through the
+ * ViewMaintainer, and the view's data and tuple count must match those
+ * of a full refresh, without one having been made.
+ *
+ * The exit status is 1 if any check fails.
+ *
+ * Usage: java sjdb.TestMaterialisedViews
+ */
+public class TestMaterialisedViews {
+    private static final String VIEW = "SELECT s_id,s_item,st_region FROM Sales,Store WHERE s_store=st_id,st_region=\"1\"";
+
+    private static boolean failed = false;
+
+    public static void main(String[] args) throws Exception {
+        Catalogue cat = new Catalogue();
+        cat.createRelation("Sales", 20000);
+        cat.createAttribute("Sales", "s_id", 20000);
+        cat.createAttribute("Sales", "s_store", 100);
+        cat.createAttribute("Sales", "s_item", 1000);
+        cat.createRelation("Store", 100);
+        cat.createAttribute("Store", "st_id", 100);
+        cat.createAttribute("Store", "st_region", 10);
+        cat.createRelation("Item", 1000);
+        cat.createAttribute("Item", "i_id", 1000);
+        cat.createAttribute("Item", "i_class", 50, 0, 49);
+        Database db = Database.generate(cat, Arrays.asList("Sales", "Store", "Item"), 7);
+
+        ViewMaintainer maintainer = new ViewMaintainer(db);
+        MaterialisedView view = maintainer.create("RegionSales", parse(VIEW, cat));
+        System.out.println(view);
+        System.out.println("view tuples " + db.getTuples("RegionSales").size() + ", estimated " + cat.getRelation("RegionSales").getTupleCount());
+        check("view tuple count", cat.getRelation("RegionSales").getTupleCount() == db.getTuples("RegionSales").size());
+
+        System.out.println("=== rewriting ===");
+        checkQuery("SELECT s_id,i_class FROM Sales,Store,Item WHERE s_store=st_id,s_item=i_id,st_region=\"1\",i_class<\"10\"", cat, db, true);
+        checkQuery("SELECT s_id FROM Store,Sales WHERE st_region=\"1\",st_id=s_store", cat, db, true);
+        // st_id is not an attribute of the view, and st_region="2" is not its predicate
+        checkQuery("SELECT s_id,st_id FROM Sales,Store WHERE s_store=st_id,st_region=\"1\"", cat, db, false);
+        checkQuery("SELECT s_id FROM Sales,Store WHERE s_store=st_id,st_region=\"2\"", cat, db, false);
+
+        System.out.println("=== maintenance ===");
+        Random random = new Random(7);
+        List<String[]> inserted = new ArrayList<String[]>();
+        for (int i = 0; i < 1000; i++) {
+            inserted.add(new String[] { Integer.toString(20000 + i), Integer.toString(random.nextInt(100)), Integer.toString(random.nextInt(1000)) });
+        }
+        maintainer.insert("Sales", inserted);
+        List<String[]> deleted = new ArrayList<String[]>(db.getTuples("Sales").subList(0, 500));
+        maintainer.delete("Sales", deleted);
+
+        List<String> maintained = sorted(db.getTuples("RegionSales"));
+        maintainer.refresh("RegionSales");
+        List<String> refreshed = sorted(db.getTuples("RegionSales"));
+        System.out.printf("%d view tuples maintained incrementally, %d after full refresh%n", maintained.size(), refreshed.size());
+        check("incremental tuples", maintainer.getIncrementalTuples() > 0);
+        check("maintained data equals refreshed data", maintained.equals(refreshed));
+        check("maintained tuple count", cat.getRelation("RegionSales").getTupleCount() == refreshed.size());
+        checkQuery("SELECT s_id,i_class FROM Sales,Store,Item WHERE s_store=st_id,s_item=i_id,st_region=\"1\",i_class<\"10\"", cat, db, true);
+
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    // Optimise a query with and without views, checking whether the view is used, its cost and its result
+    private static void checkQuery(String query, Catalogue cat, Database db, boolean rewritten) throws Exception {
+        Operator plan = parse(query, cat);
+        Operator optimised = new Optimiser(cat).optimise(plan);
+        Optimiser optimiser = new Optimiser(cat);
+        optimiser.setMaterialisedViews(false);
+        Operator withoutViews = optimiser.optimise(plan);
+        System.out.println(optimised);
+
+        boolean[] scansView = { false };
+        PlanTraversal.preOrder(optimised, op -> {
+            if (op instanceof Scan && ((NamedRelation) ((Scan) op).getRelation()).getName().equals("RegionSales")) {
+                scansView[0] = true;
+            }
+        });
+        long cost = PlanCost.of(optimised);
+        long baseCost = PlanCost.of(withoutViews);
+        System.out.printf("estimated cost %d with views, %d without%n", cost, baseCost);
+        check(query + ": view " + (rewritten ? "used" : "not used"), scansView[0] == rewritten);
+        check(query + ": cost", rewritten ? cost < baseCost : cost == baseCost);
+        check(query + ": same result", execute(optimised, db).equals(execute(withoutViews, db)));
+    }
+
+    // Execute a plan, returning its tuples sorted, with their values in the order of the names of their attributes
+    private static List<String> execute(Operator plan, Database db) {
+        Executor executor = new Executor(db);
+        List<String[]> tuples = executor.execute(plan);
+        List<Attribute> executed = executor.getAttributes();
+        List<Attribute> attributes = new ArrayList<Attribute>(executed);
+        attributes.sort((a, b) -> a.getName().compareTo(b.getName()));
+        List<String[]> ordered = new ArrayList<String[]>();
+        for (String[] tuple : tuples) {
+            String[] row = new String[attributes.size()];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = tuple[executed.indexOf(attributes.get(i))];
+            }
+            ordered.add(row);
+        }
+        return sorted(ordered);
+    }
+
+    private static List<String> sorted(List<String[]> tuples) {
+        List<String> rows = new ArrayList<String>();
+        for (String[] tuple : tuples) {
+            rows.add(String.join(",", tuple));
+        }
+        rows.sort(null);
+        return rows;
+    }
+
+    private static Operator parse(String query, Catalogue cat) throws Exception {
+        Operator plan = new QueryParser(cat, new StringReader(query)).parse();
+        plan.accept(new Estimator());
+        return plan;
+    }
+
+    private static void check(String name, boolean ok) {
+        if (!ok) {
+            System.out.println("FAIL " + name);
+            failed = true;
+        }
+    }
+}
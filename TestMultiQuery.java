@@ -0,0 +1,114 @@
+package sjdb;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Optimises a batch of reporting queries over the same star schema
+ * together with MultiQueryOptimiser, executes the shared plan once, and
+ * prints the operators shared and the work of the batch against that of
+ * the queries optimised and executed separately. The shared plan must
+ * give every query the same result as its separate plan, and do less
+ * work, both estimated and actual.
+ *
+ * The exit status is 1 if any check fails.
+ *
+ * Usage: java sjdb.TestMultiQuery
+ */
+public class TestMultiQuery {
+    private static final String BATCH =
+            "SELECT s_id FROM Sales,Store WHERE s_store=st_id,st_region=\"1\";"
+            + "SELECT s_id,st_id FROM Sales,Store WHERE s_store=st_id,st_region=\"1\";"
+            + "SELECT s_id,i_class FROM Sales,Store,Item WHERE s_store=st_id,s_item=i_id,st_region=\"1\";"
+            + "SELECT i_class FROM Sales,Store,Item WHERE s_store=st_id,s_item=i_id,st_region=\"1\",i_class<\"10\";"
+            + "SELECT s_item FROM Sales,Item WHERE s_item=i_id,i_class<\"10\";"
+            + "SELECT st_id,i_id FROM Sales,Item,Store WHERE s_item=i_id,i_class<\"10\",s_store=st_id;";
+
+    private static boolean failed = false;
+
+    public static void main(String[] args) throws Exception {
+        Catalogue cat = new Catalogue();
+        cat.createRelation("Sales", 20000);
+        cat.createAttribute("Sales", "s_id", 20000);
+        cat.createAttribute("Sales", "s_store", 100);
+        cat.createAttribute("Sales", "s_item", 1000);
+        cat.createRelation("Store", 100);
+        cat.createAttribute("Store", "st_id", 100);
+        cat.createAttribute("Store", "st_region", 10);
+        cat.createRelation("Item", 1000);
+        cat.createAttribute("Item", "i_id", 1000);
+        cat.createAttribute("Item", "i_class", 50, 0, 49);
+        Database db = Database.generate(cat, Arrays.asList("Sales", "Store", "Item"), 3);
+
+        List<Operator> plans = new ArrayList<Operator>();
+        QueryParser parser = new QueryParser(cat, new StringReader(BATCH));
+        for (Operator plan = parser.parse(); plan != null; plan = parser.parse()) {
+            plan.accept(new Estimator());
+            plans.add(plan);
+        }
+
+        MultiQueryOptimiser optimiser = new MultiQueryOptimiser(cat);
+        List<Operator> shared = optimiser.optimise(plans);
+        for (Operator plan : shared) {
+            System.out.println(plan);
+        }
+
+        Executor executor = new Executor(db);
+        long start = System.nanoTime();
+        List<List<String[]>> results = executor.execute(shared);
+        long sharedMillis = (System.nanoTime() - start) / 1000000;
+        long sharedRows = 0;
+        for (Operator op : MultiQueryOptimiser.operators(shared)) {
+            sharedRows += executor.getStatistics(op).getRows();
+        }
+
+        long separateRows = 0;
+        long separateMillis = 0;
+        for (int i = 0; i < plans.size(); i++) {
+            Operator plan = new Optimiser(cat).optimise(plans.get(i));
+            Executor separate = new Executor(db);
+            start = System.nanoTime();
+            List<String[]> expected = separate.execute(plan);
+            separateMillis += (System.nanoTime() - start) / 1000000;
+            separateRows += rows(plan, separate);
+            check("query " + i + ": same result", sorted(expected).equals(sorted(results.get(i))));
+        }
+
+        System.out.printf("%-10s %12s %12s %10s%n", "batch", "est. work", "rows", "ms");
+        System.out.printf("%-10s %12d %12d %10d%n", "separate", optimiser.getSeparateCost(), separateRows, separateMillis);
+        System.out.printf("%-10s %12d %12d %10d%n", "shared", optimiser.getSharedCost(), sharedRows, sharedMillis);
+        System.out.printf("%d operators, %d shared%n", optimiser.getOperatorCount(), optimiser.getSharedOperatorCount());
+        check("operators shared", optimiser.getSharedOperatorCount() > 0);
+        check("less estimated work", optimiser.getSharedCost() < optimiser.getSeparateCost());
+        check("fewer rows produced", sharedRows < separateRows);
+
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    // Total rows produced by the operators of an executed plan
+    private static long rows(Operator plan, Executor executor) {
+        long[] rows = { 0 };
+        PlanTraversal.preOrder(plan, op -> rows[0] += executor.getStatistics(op).getRows());
+        return rows[0];
+    }
+
+    private static List<String> sorted(List<String[]> tuples) {
+        List<String> rows = new ArrayList<String>();
+        for (String[] tuple : tuples) {
+            rows.add(String.join(",", tuple));
+        }
+        rows.sort(null);
+        return rows;
+    }
+
+    private static void check(String name, boolean ok) {
+        if (!ok) {
+            System.out.println("FAIL " + name);
+            failed = true;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package sjdb;
+
+import java.util.HashSet;
+
+/**
+ * Optimises a large generated query within budgets of each kind (time,
+ * plans considered, memo operators) and with cancellation from another
+ * thread, and prints for each the limit reached, the time taken and the
+ * estimated cost of the plan returned. Every plan returned must produce
+ * the same attributes as the canonical plan, optimisations that are
+ * stopped must return soon after their budget runs out, and the plan
+ * returned when a budget runs out must cost at most a small multiple of
+ * the heuristic plan found without a budget.
+ *
+ * The exit status is 1 if any check fails.
+ *
+ * Usage: java sjdb.TestOptimiserBudget [relations]
+ */
+public class TestOptimiserBudget {
+    // time allowed for an optimisation to notice that its budget has run out
+    private static final long GRACE_MILLIS = 500;
+    // most that the plan returned within a budget may cost, relative to the plan found without one
+    private static final double MAX_COST_RATIO = 2.0;
+
+    private static boolean failed = false;
+    private static long heuristicCost = 0;
+
+    public static void main(String[] args) throws Exception {
+        int relations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        WorkloadGenerator generator = new WorkloadGenerator(WorkloadGenerator.Shape.CHAIN, relations, 1.0, 42);
+        Operator plan = generator.nextPlan(1);
+        plan.accept(new Estimator());
+        Catalogue cat = generator.getCatalogue();
+
+        System.out.printf("%-12s %-10s %10s %16s%n", "budget", "limit", "ms", "cost");
+        heuristicCost = run("unlimited", cat, plan, new OptimiserBudget(), null, Long.MAX_VALUE);
+        run("deadline", cat, plan, new OptimiserBudget(50, OptimiserBudget.UNLIMITED, OptimiserBudget.UNLIMITED),
+                OptimiserBudget.Limit.DEADLINE, 50 + GRACE_MILLIS);
+        run("plans", cat, plan, new OptimiserBudget(OptimiserBudget.UNLIMITED, relations, OptimiserBudget.UNLIMITED),
+                OptimiserBudget.Limit.PLANS, Long.MAX_VALUE);
+        run("memory", cat, plan, new OptimiserBudget(OptimiserBudget.UNLIMITED, OptimiserBudget.UNLIMITED, 1000),
+                OptimiserBudget.Limit.MEMORY, Long.MAX_VALUE);
+
+        // cancelled from another thread while optimising
+        OptimiserBudget budget = new OptimiserBudget();
+        Thread canceller = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                return;
+            }
+            budget.cancel();
+        });
+        canceller.start();
+        run("cancelled", cat, plan, budget, OptimiserBudget.Limit.CANCELLED, 50 + GRACE_MILLIS);
+        canceller.join();
+
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    // Optimise within a budget, checking the limit reached, the time taken and the plan returned, and return its cost
+    private static long run(String name, Catalogue cat, Operator plan, OptimiserBudget budget,
+            OptimiserBudget.Limit expected, long maxMillis) {
+        long start = System.nanoTime();
+        Operator optimised = new Optimiser(cat).optimise(plan, budget);
+        long millis = (System.nanoTime() - start) / 1000000;
+        long cost = PlanCost.of(optimised);
+        System.out.printf("%-12s %-10s %10d %16d%n", name, budget.getLimitReached(), millis, cost);
+
+        if (budget.getLimitReached() != expected) {
+            fail(name + ": reached " + budget.getLimitReached() + " rather than " + expected);
+        }
+        if (millis > maxMillis) {
+            fail(name + ": took " + millis + "ms");
+        }
+        // a plan returned early must still answer the query
+        if (!new HashSet<Attribute>(optimised.getOutput().getAttributes()).equals(new HashSet<Attribute>(plan.getOutput().getAttributes()))) {
+            fail(name + ": output " + optimised.getOutput().getAttributes() + " differs from " + plan.getOutput().getAttributes());
+        }
+        if (expected != null && cost > MAX_COST_RATIO * heuristicCost) {
+            fail(name + ": cost " + cost + " is more than " + MAX_COST_RATIO + " times the cost without a budget, " + heuristicCost);
+        }
+        return cost;
+    }
+
+    private static void fail(String message) {
+        System.out.println("FAIL " + message);
+        failed = true;
+    }
+}
@@ -0,0 +1,113 @@
+package sjdb;
+
+import java.io.StringReader;
+
+/**
+ * Optimises a known query and checks the statistics recorded for it by
+ * OptimiserStatistics: every step must take some time, and the counters
+ * must be those of the query. Its four relations are ordered by tuple
+ * count B, C, A, D, and joined in a chain B-A-C-D, so that join
+ * reordering checks all four candidates for the first relation, C and
+ * then A for the second (C is not joined to B), and the first candidate
+ * left for each of the last two: 8 plans considered. An optimisation
+ * answered from a plan cache must be counted as a cache hit that
+ * considers no plans, and one whose plans run out must count only the
+ * candidates checked before they did.
+ *
+ * Statistics are kept for the whole process, so they are reset before
+ * each optimisation. The checks are skipped if instrumentation is off.
+ *
+ * The exit status is 1 if any check fails.
+ *
+ * Usage: java sjdb.TestOptimiserStatistics
+ */
+public class TestOptimiserStatistics {
+    private static final String QUERY = "SELECT a1,d1 FROM A,B,C,D WHERE a2=b2,a3=c2,c3=d2";
+    private static final long PLANS = 8;
+    // plans of the budget that runs out: enough for the first relation, and not for the second
+    private static final long BUDGET_PLANS = 4;
+
+    private static boolean failed = false;
+
+    public static void main(String[] args) throws Exception {
+        if (!OptimiserStatistics.ENABLED) {
+            System.out.println("instrumentation off, nothing checked");
+            return;
+        }
+        Catalogue cat = new Catalogue();
+        cat.createRelation("A", 1000);
+        cat.createAttribute("A", "a1", 1000);
+        cat.createAttribute("A", "a2", 100);
+        cat.createAttribute("A", "a3", 100);
+        cat.createRelation("B", 500);
+        cat.createAttribute("B", "b1", 500);
+        cat.createAttribute("B", "b2", 100);
+        cat.createRelation("C", 800);
+        cat.createAttribute("C", "c1", 800);
+        cat.createAttribute("C", "c2", 100);
+        cat.createAttribute("C", "c3", 100);
+        cat.createRelation("D", 1500);
+        cat.createAttribute("D", "d1", 1500);
+        cat.createAttribute("D", "d2", 100);
+        OptimiserStatistics statistics = OptimiserStatistics.get();
+
+        System.out.println("=== optimisation ===");
+        PlanCache planCache = new PlanCache(16);
+        statistics.reset();
+        Operator plan = new Optimiser(cat, planCache).optimise(parse(cat));
+        System.out.println(plan);
+        print(statistics);
+        check("one optimisation", statistics.getOptimisations() == 1 && statistics.getCacheHits() == 0
+                && statistics.getBudgetExhaustions() == 0);
+        check("time spent moving selects", statistics.getSelectNanos() > 0);
+        check("time spent reordering joins", statistics.getReorderNanos() > 0);
+        check("time spent creating joins", statistics.getJoinNanos() > 0);
+        check("time spent moving projects", statistics.getProjectNanos() > 0);
+        check("latency covers the steps", statistics.getMaxLatencyNanos() >= statistics.getSelectNanos()
+                + statistics.getReorderNanos() + statistics.getJoinNanos() + statistics.getProjectNanos());
+        check(PLANS + " plans considered", statistics.getPlansConsidered() == PLANS);
+        check("operators created", statistics.getOperatorsAllocated() > 0);
+        check("operators estimated", statistics.getEstimatorCalls() > 0);
+
+        System.out.println("=== cache hit ===");
+        statistics.reset();
+        new Optimiser(cat, planCache).optimise(parse(cat));
+        print(statistics);
+        check("counted as cache hit", statistics.getOptimisations() == 1 && statistics.getCacheHits() == 1);
+        check("no plans considered on cache hit", statistics.getPlansConsidered() == 0
+                && statistics.getReorderNanos() == 0);
+
+        System.out.println("=== plans budget ===");
+        statistics.reset();
+        OptimiserBudget budget = new OptimiserBudget(OptimiserBudget.UNLIMITED, BUDGET_PLANS, OptimiserBudget.UNLIMITED);
+        new Optimiser(cat).optimise(parse(cat), budget);
+        print(statistics);
+        check("budget exhausted", budget.getLimitReached() == OptimiserBudget.Limit.PLANS
+                && statistics.getBudgetExhaustions() == 1);
+        check("only candidates checked counted", statistics.getPlansConsidered() == BUDGET_PLANS);
+
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static Operator parse(Catalogue cat) throws Exception {
+        Operator plan = new QueryParser(cat, new StringReader(QUERY)).parse();
+        plan.accept(new Estimator());
+        return plan;
+    }
+
+    private static void print(OptimiserStatistics statistics) {
+        System.out.printf("select %dns, reorder %dns, joins %dns, projects %dns, %d operators, %d estimates, %d plans%n",
+                statistics.getSelectNanos(), statistics.getReorderNanos(), statistics.getJoinNanos(),
+                statistics.getProjectNanos(), statistics.getOperatorsAllocated(), statistics.getEstimatorCalls(),
+                statistics.getPlansConsidered());
+    }
+
+    private static void check(String name, boolean ok) {
+        if (!ok) {
+            System.out.println("FAIL " + name);
+            failed = true;
+        }
+    }
+}
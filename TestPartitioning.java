@@ -0,0 +1,211 @@
+package sjdb;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hash partitions a fact and a dimension relation on their join
+ * attributes, and list partitions a relation of orders by tenant, with
+ * one tenant holding most of the orders. The Optimiser must scan only the
+ * partition that an attr="value" predicate can match, and the matching
+ * partition of the other relation of a join on the partitioning
+ * attributes; the Executor must find the join of the two relations
+ * partition-wise; and the Estimator's estimate for the large tenant,
+ * summed over the partitions, must be close where the estimate from the
+ * relation's statistics is not. Every plan must give the same result as
+ * the plan for the same query over the relations unpartitioned.
+ *
+ * Orders of the large tenant are then inserted through a
+ * StatisticsMaintainer, whose published statistics must keep the tuple
+ * counts of the partitions summing to the relation's, and give the
+ * estimate for the large tenant from its partition's new tuple count,
+ * as must the statistics recomputed from the relation's tuples.
+ *
+ * The exit status is 1 if any check fails.
+ *
+ * Usage: java sjdb.TestPartitioning
+ */
+public class TestPartitioning {
+    private static final int PARTITIONS = 8;
+    private static final int ORDERS = 10000;
+    private static final int TENANTS = 10;
+    // fraction of the orders that belong to tenant 0
+    private static final double LARGE_TENANT = 0.9;
+
+    private static boolean failed = false;
+
+    public static void main(String[] args) throws Exception {
+        Catalogue cat = catalogue();
+        Catalogue plain = catalogue();
+        Database db = database(cat);
+        Database plainDb = database(plain);
+
+        NamedRelation sales = cat.getRelation("Sales");
+        NamedRelation store = cat.getRelation("Store");
+        db.partition("Sales", Partitioning.hash(sales, cat.getAttribute("s_store"), PARTITIONS));
+        db.partition("Store", Partitioning.hash(store, cat.getAttribute("st_id"), PARTITIONS));
+        List<List<String>> tenants = Arrays.asList(Arrays.asList("0"), Arrays.asList("1", "2", "3"));
+        db.partition("Orders", Partitioning.list(cat.getRelation("Orders"), cat.getAttribute("o_tenant"), tenants, true));
+
+        Partitioning partitioning = cat.getRelation("Sales").getPartitioning();
+        long total = 0;
+        for (int p = 0; p < partitioning.getPartitionCount(); p++) {
+            total += partitioning.getPartition(p).getTupleCount();
+        }
+        System.out.println(partitioning + ": " + total + " tuples");
+        check("partitions hold every tuple", total == sales.getTupleCount());
+
+        System.out.println("=== pruning ===");
+        int partition = partitioning.partitionOf("5");
+        checkScans("SELECT s_id FROM Sales WHERE s_store=\"5\"", cat, db, plain, plainDb,
+                Partitioning.partitionName("Sales", partition));
+        checkScans("SELECT s_id,st_region FROM Sales,Store WHERE s_store=st_id,st_id=\"5\"", cat, db, plain, plainDb,
+                Partitioning.partitionName("Sales", partition), Partitioning.partitionName("Store", partition));
+        checkScans("SELECT s_id FROM Sales WHERE s_item=\"5\"", cat, db, plain, plainDb, "Sales");
+
+        System.out.println("=== partition-wise join ===");
+        Operator plan = optimise("SELECT s_id,st_region FROM Sales,Store WHERE s_store=st_id,st_region=\"1\"", cat);
+        Join join = null;
+        for (Operator op : MultiQueryOptimiser.operators(Arrays.asList(plan))) {
+            if (op instanceof Join) {
+                join = (Join) op;
+            }
+        }
+        check("join found partition-wise", join != null && Partitioning.of(join) != null);
+        Executor executor = new Executor(db);
+        executor.setPartitionWise(true);
+        List<String> partitionWise = sorted(executor.execute(plan), executor.getAttributes());
+        Executor whole = new Executor(db);
+        check("partition-wise join gives the same result", partitionWise.equals(sorted(whole.execute(plan), whole.getAttributes())));
+        check("partition-wise join not empty", !partitionWise.isEmpty());
+
+        System.out.println("=== per-partition estimates ===");
+        String query = "SELECT o_id FROM Orders WHERE o_tenant=\"0\"";
+        Operator select = ((Project) parse(query, cat)).getInput();
+        Operator plainSelect = ((Project) parse(query, plain)).getInput();
+        long actual = new Executor(db).execute(select).size();
+        int estimate = select.getOutput().getTupleCount();
+        int plainEstimate = plainSelect.getOutput().getTupleCount();
+        System.out.printf("tenant 0: estimate %d partitioned, %d unpartitioned, actual %d%n", estimate, plainEstimate, actual);
+        check("partitioned estimate within 1.5", ExplainAnalyze.qError(estimate, actual) <= 1.5);
+        check("partitioned estimate better", ExplainAnalyze.qError(estimate, actual) < ExplainAnalyze.qError(plainEstimate, actual));
+        checkScans(query, cat, db, plain, plainDb, Partitioning.partitionName("Orders", 0));
+        checkScans("SELECT o_id FROM Orders WHERE o_tenant=\"7\"", cat, db, plain, plainDb, Partitioning.partitionName("Orders", 2));
+
+        System.out.println("=== maintained partition statistics ===");
+        StatisticsMaintainer maintainer = new StatisticsMaintainer(cat, "Orders", null, Double.MAX_VALUE);
+        for (int i = 0; i < ORDERS; i++) {
+            String[] tuple = { Integer.toString(ORDERS + i), "0" };
+            db.insert("Orders", tuple);
+            maintainer.insert(tuple);
+        }
+        maintainer.publish();
+        NamedRelation orders = cat.getRelation("Orders");
+        Partitioning tenantPartitioning = orders.getPartitioning();
+        total = 0;
+        for (int p = 0; p < tenantPartitioning.getPartitionCount(); p++) {
+            total += tenantPartitioning.getPartition(p).getTupleCount();
+        }
+        System.out.println(tenantPartitioning + ": " + total + " tuples of " + orders.getTupleCount());
+        check("maintained partitions hold every tuple", total == orders.getTupleCount() && total == 2 * ORDERS);
+        select = ((Project) parse(query, cat)).getInput();
+        actual = new Executor(db).execute(select).size();
+        estimate = select.getOutput().getTupleCount();
+        System.out.printf("tenant 0: estimate %d, actual %d%n", estimate, actual);
+        check("estimate from maintained partition within 1.5", ExplainAnalyze.qError(estimate, actual) <= 1.5);
+        new StatisticsMaintainer(cat, "Orders", () -> db.getTuples("Orders"), Double.MAX_VALUE).publish();
+        select = ((Project) parse(query, cat)).getInput();
+        estimate = select.getOutput().getTupleCount();
+        System.out.printf("tenant 0: estimate %d recomputed%n", estimate);
+        check("estimate from recomputed partition within 1.5", ExplainAnalyze.qError(estimate, actual) <= 1.5);
+
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static Catalogue catalogue() {
+        Catalogue cat = new Catalogue();
+        cat.createRelation("Sales", 20000);
+        cat.createAttribute("Sales", "s_id", 20000);
+        cat.createAttribute("Sales", "s_store", 100);
+        cat.createAttribute("Sales", "s_item", 1000);
+        cat.createRelation("Store", 100);
+        cat.createAttribute("Store", "st_id", 100);
+        cat.createAttribute("Store", "st_region", 10);
+        cat.createRelation("Orders", ORDERS);
+        cat.createAttribute("Orders", "o_id", ORDERS);
+        cat.createAttribute("Orders", "o_tenant", TENANTS);
+        return cat;
+    }
+
+    // Generated sales and stores, and orders most of which belong to tenant 0
+    private static Database database(Catalogue cat) throws DatabaseException {
+        Database db = Database.generate(cat, Arrays.asList("Sales", "Store"), 17);
+        List<String[]> orders = new ArrayList<String[]>();
+        for (int i = 0; i < ORDERS; i++) {
+            int tenant = i < ORDERS * LARGE_TENANT ? 0 : 1 + i % (TENANTS - 1);
+            orders.add(new String[] { Integer.toString(i), Integer.toString(tenant) });
+        }
+        db.load("Orders", orders);
+        return db;
+    }
+
+    // Optimise a query, checking the relations that it scans and that it gives the same result as without partitioning
+    private static void checkScans(String query, Catalogue cat, Database db, Catalogue plain, Database plainDb, String... expected)
+            throws Exception {
+        Operator plan = optimise(query, cat);
+        System.out.println(plan);
+        List<String> scanned = new ArrayList<String>();
+        PlanTraversal.preOrder(plan, op -> {
+            if (op instanceof Scan) {
+                scanned.add(((NamedRelation) ((Scan) op).getRelation()).getName());
+            }
+        });
+        scanned.sort(null);
+        List<String> names = new ArrayList<String>(Arrays.asList(expected));
+        names.sort(null);
+        check(query + ": scans " + scanned, scanned.equals(names));
+
+        Operator plainPlan = optimise(query, plain);
+        Executor executor = new Executor(db);
+        Executor plainExecutor = new Executor(plainDb);
+        List<String> result = sorted(executor.execute(plan), executor.getAttributes());
+        check(query + ": same result", result.equals(sorted(plainExecutor.execute(plainPlan), plainExecutor.getAttributes())));
+    }
+
+    private static Operator optimise(String query, Catalogue cat) throws Exception {
+        return new Optimiser(cat).optimise(parse(query, cat));
+    }
+
+    private static Operator parse(String query, Catalogue cat) throws Exception {
+        Operator plan = new QueryParser(cat, new StringReader(query)).parse();
+        plan.accept(new Estimator());
+        return plan;
+    }
+
+    // Tuples sorted, with their values in the order of the names of their attributes
+    private static List<String> sorted(List<String[]> tuples, List<Attribute> executed) {
+        List<Attribute> attributes = new ArrayList<Attribute>(executed);
+        attributes.sort((a, b) -> a.getName().compareTo(b.getName()));
+        List<String> rows = new ArrayList<String>();
+        for (String[] tuple : tuples) {
+            StringBuilder row = new StringBuilder();
+            for (Attribute attr : attributes) {
+                row.append(tuple[executed.indexOf(attr)]).append(',');
+            }
+            rows.add(row.toString());
+        }
+        rows.sort(null);
+        return rows;
+    }
+
+    private static void check(String name, boolean ok) {
+        if (!ok) {
+            System.out.println("FAIL " + name);
+            failed = true;
+        }
+    }
+}
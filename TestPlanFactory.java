@@ -0,0 +1,105 @@
+package sjdb;
+
+import java.io.StringReader;
+import java.util.Arrays;
+
+/**
+ * Checks that plans are shared through the PlanFactory of an Optimiser.
+ * A subplan that a step of the Optimiser leaves unchanged, such as a
+ * select placed directly above its scan, must be the same instance in
+ * the plan of every later step and in the optimised plan; an equal
+ * subplan of a later query optimised by the same Optimiser must be that
+ * same instance too, until the catalogue changes. A plan interned twice
+ * must give the same canonical plan, whose output has been estimated.
+ *
+ * The exit status is 1 if any check fails.
+ *
+ * Usage: java sjdb.TestPlanFactory
+ */
+public class TestPlanFactory {
+    private static final String FIRST = "SELECT a1,b1 FROM A,B WHERE a2=b2,a1=\"5\"";
+    private static final String SECOND = "SELECT a1,c1 FROM A,C WHERE a2=c2,a1=\"5\"";
+    private static final String SELECT = "SELECT [a1=\"5\"] (A)";
+
+    private static boolean failed = false;
+
+    public static void main(String[] args) throws Exception {
+        Catalogue cat = new Catalogue();
+        cat.createRelation("A", 1000);
+        cat.createAttribute("A", "a1", 1000);
+        cat.createAttribute("A", "a2", 100);
+        cat.createRelation("B", 500);
+        cat.createAttribute("B", "b1", 500);
+        cat.createAttribute("B", "b2", 100);
+        cat.createRelation("C", 2000);
+        cat.createAttribute("C", "c1", 2000);
+        cat.createAttribute("C", "c2", 100);
+
+        // the factory is first validated against the catalogue by optimise(), which forgets any operators created before
+        Optimiser optimiser = new Optimiser(cat);
+        PlanFactory factory = optimiser.getFactory();
+        Operator first = optimiser.optimise(factory.intern(parse(FIRST, cat)));
+        System.out.println(first);
+        Operator select = find(first, SELECT);
+        check("select placed above its scan", select != null);
+
+        System.out.println("=== interning ===");
+        Operator plan = factory.intern(parse(FIRST, cat));
+        check("equal plans interned to one instance", factory.intern(parse(FIRST, cat)) == plan);
+        check("interned plan estimated", plan.getOutput() != null);
+
+        System.out.println("=== across passes ===");
+        Operator selects = optimiser.optimiseSelects(optimiser.removeRedundancy(plan));
+        check("select shared after moving selects", find(selects, SELECT) == select);
+        Operator reordered = optimiser.reorderJoins(selects);
+        check("select shared after reordering", find(reordered, SELECT) == select);
+        Operator joins = optimiser.createJoins(reordered);
+        check("select shared after creating joins", find(joins, SELECT) == select);
+        check("select shared after moving projects",
+                find(optimiser.pushProjectsDown(joins, new AttributeSet()), SELECT) == select);
+
+        System.out.println("=== across queries ===");
+        Operator second = optimiser.optimise(factory.intern(parse(SECOND, cat)));
+        System.out.println(second);
+        check("select shared by second query", find(second, SELECT) == find(first, SELECT));
+        check("scan shared by second query", find(second, "A") == find(first, "A"));
+        check("optimising again gives the same plan", optimiser.optimise(plan) == first);
+
+        System.out.println("=== catalogue change ===");
+        NamedRelation bigger = new NamedRelation("A", 100000);
+        for (Attribute attr : cat.getRelation("A").getAttributes()) {
+            bigger.addAttribute(new Attribute(attr.getName(), attr.getValueCount()));
+        }
+        cat.updateRelations(Arrays.asList(bigger));
+        Operator changed = optimiser.optimise(factory.intern(parse(SECOND, cat)));
+        check("select not shared after change", find(changed, SELECT) != find(second, SELECT));
+        check("select estimated from new statistics",
+                find(changed, SELECT).getOutput().getTupleCount() != find(second, SELECT).getOutput().getTupleCount());
+
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static Operator parse(String query, Catalogue cat) throws Exception {
+        return new QueryParser(cat, new StringReader(query)).parse();
+    }
+
+    // The first operator of a plan, in pre-order, that prints as the given string
+    private static Operator find(Operator plan, String printed) {
+        Operator[] found = { null };
+        PlanTraversal.preOrder(plan, op -> {
+            if (found[0] == null && op.toString().equals(printed)) {
+                found[0] = op;
+            }
+        });
+        return found[0];
+    }
+
+    private static void check(String name, boolean ok) {
+        if (!ok) {
+            System.out.println("FAIL " + name);
+            failed = true;
+        }
+    }
+}
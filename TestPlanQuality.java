@@ -0,0 +1,117 @@
+package sjdb;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Compares the plans of the Optimiser against the best plan found by
+ * ExhaustiveOptimiser (the best left-deep join order, or the products of
+ * the best orders of the connected components), for generated queries over join
+ * graphs of every shape with up to a given number of relations. For each
+ * query it prints the intermediate tuple count of both plans and their
+ * ratio, and finally the geometric mean and maximum ratio for each shape.
+ *
+ * A ratio is only taken where the optimum is not 0. Where it is (as when
+ * the best order joins an empty input first, so that every later join is
+ * free), the plans are compared by the absolute number of intermediate
+ * tuples by which the optimiser's exceeds the optimum, and the query is
+ * left out of the ratios.
+ *
+ * This is a regression gate on plan quality: the exit status is 1 if the
+ * geometric mean ratio over all queries, the ratio of any single query,
+ * or the excess of any query whose optimum is 0, exceeds its limit. It is
+ * also 1 if any ratio is below 1, since the optimum must then have missed
+ * a plan that the Optimiser builds. The workload is generated from fixed
+ * seeds, so the default limits are the quality of the current optimiser
+ * on the default workload with little headroom, and should be lowered as
+ * the optimiser improves.
+ *
+ * Usage: java sjdb.TestPlanQuality [max relations] [max mean ratio] [max ratio] [queries per size] [max excess]
+ */
+public class TestPlanQuality {
+    private static final double SKEW = 1.0;
+    private static final double PREDICATE_DENSITY = 0.5;
+
+    public static void main(String[] args) throws Exception {
+        int maxRelations = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        double maxMeanRatio = args.length > 1 ? Double.parseDouble(args[1]) : 1.6;
+        // the limit is set by a CYCLE query on which the greedy ordering of the Optimiser is far from the optimum
+        double maxRatio = args.length > 2 ? Double.parseDouble(args[2]) : 140;
+        int queries = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+        // the limit is set by a FOREST query whose best order joins an empty component first, which makes every join in the
+        // other components free; the Optimiser joins each component in full before combining them (see
+        // Optimiser.reorderComponents()), and so pays for the joins in the others
+        long maxExcess = args.length > 4 ? Long.parseLong(args[4]) : 130000;
+
+        Map<WorkloadGenerator.Shape, double[]> summaries = new EnumMap<WorkloadGenerator.Shape, double[]>(WorkloadGenerator.Shape.class);
+        double totalLogRatio = 0;
+        double worstRatio = 0;
+        double lowestRatio = Double.MAX_VALUE;
+        long worstExcess = 0;
+        int count = 0;
+
+        System.out.printf("%-10s %9s %5s %16s %16s %12s %10s%n", "shape", "relations", "seed", "optimiser", "optimum", "ratio", "orders");
+        for (WorkloadGenerator.Shape shape : WorkloadGenerator.Shape.values()) {
+            // sum of log ratios, maximum ratio, number of queries with a ratio, and maximum excess over an optimum of 0
+            double[] summary = new double[4];
+            for (int relations = 2; relations <= maxRelations; relations++) {
+                for (int seed = 1; seed <= queries; seed++) {
+                    WorkloadGenerator generator = new WorkloadGenerator(shape, relations, SKEW, seed);
+                    Operator plan = generator.nextPlan(PREDICATE_DENSITY);
+                    plan.accept(new Estimator());
+
+                    Optimiser optimiser = new Optimiser(generator.getCatalogue());
+                    Operator optimised = optimiser.optimise(plan);
+                    long optimiserCost = PlanCost.intermediate(optimised);
+                    ExhaustiveOptimiser exhaustive = new ExhaustiveOptimiser();
+                    // the optimiser drops redundant predicates before estimating, so the optimum is sought for the same query
+                    exhaustive.optimise(optimiser.removeRedundancy(plan));
+                    long optimumCost = exhaustive.getCost();
+
+                    if (optimumCost == 0) {
+                        // a ratio to 0 means nothing, however small the optimiser's cost (a plan of a single relation has
+                        // no intermediate results, so both costs are 0)
+                        System.out.printf("%-10s %9d %5d %16d %16d %12s %10d%n", shape, relations, seed,
+                                optimiserCost, optimumCost, "+" + optimiserCost, exhaustive.getOrders());
+                        summary[3] = Math.max(summary[3], optimiserCost);
+                        continue;
+                    }
+                    double ratio = (double) optimiserCost / optimumCost;
+                    System.out.printf("%-10s %9d %5d %16d %16d %12.3f %10d%n", shape, relations, seed,
+                            optimiserCost, optimumCost, ratio, exhaustive.getOrders());
+
+                    summary[0] += Math.log(ratio);
+                    summary[1] = Math.max(summary[1], ratio);
+                    lowestRatio = Math.min(lowestRatio, ratio);
+                    summary[2]++;
+                }
+            }
+            summaries.put(shape, summary);
+            totalLogRatio += summary[0];
+            worstRatio = Math.max(worstRatio, summary[1]);
+            worstExcess = Math.max(worstExcess, (long) summary[3]);
+            count += (int) summary[2];
+        }
+
+        System.out.println();
+        System.out.printf("%-10s %12s %12s %12s%n", "shape", "mean ratio", "max ratio", "max excess");
+        for (Map.Entry<WorkloadGenerator.Shape, double[]> entry : summaries.entrySet()) {
+            double[] summary = entry.getValue();
+            System.out.printf("%-10s %12.3f %12.3f %12d%n", entry.getKey(), Math.exp(summary[0] / Math.max(1, summary[2])),
+                    summary[1], (long) summary[3]);
+        }
+        double meanRatio = Math.exp(totalLogRatio / Math.max(1, count));
+        System.out.printf("%-10s %12.3f %12.3f %12d%n", "ALL", meanRatio, worstRatio, worstExcess);
+
+        if (lowestRatio < 1) {
+            System.out.printf("FAIL: a ratio of %.3f is below 1, so the optimum is not the best plan%n", lowestRatio);
+            System.exit(1);
+        }
+        if (meanRatio > maxMeanRatio || worstRatio > maxRatio || worstExcess > maxExcess) {
+            System.out.println("FAIL: plan quality limits are mean ratio " + maxMeanRatio + ", max ratio " + maxRatio
+                    + ", max excess " + maxExcess);
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+}
@@ -0,0 +1,163 @@
+package sjdb;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Issues a dashboard of queries repeatedly through a ResultCache, and
+ * prints its hit rate and the bytes and time it saved. Every query after
+ * the first round must be answered from the cache with the same result as
+ * executing it; a change to a relation must invalidate exactly the
+ * results that depend on it, as must a change made while a query is
+ * being executed; values that are not ASCII must be returned unchanged;
+ * and a cache with a small byte budget must stay within it, evicting
+ * results as it fills.
+ *
+ * The exit status is 1 if any check fails.
+ *
+ * Usage: java sjdb.TestResultCache
+ */
+public class TestResultCache {
+    private static final String[] DASHBOARD = {
+        "SELECT st_id FROM Store WHERE st_region=\"1\"",
+        "SELECT s_id,st_region FROM Sales,Store WHERE s_store=st_id,st_region=\"2\"",
+        "SELECT s_id,i_class FROM Sales,Item WHERE s_item=i_id,i_class<\"5\"",
+        "SELECT i_id FROM Item WHERE i_class=\"7\"",
+    };
+    private static final int ROUNDS = 10;
+
+    private static boolean failed = false;
+
+    public static void main(String[] args) throws Exception {
+        Catalogue cat = new Catalogue();
+        cat.createRelation("Sales", 20000);
+        cat.createAttribute("Sales", "s_id", 20000);
+        cat.createAttribute("Sales", "s_store", 100);
+        cat.createAttribute("Sales", "s_item", 1000);
+        cat.createRelation("Store", 100);
+        cat.createAttribute("Store", "st_id", 100);
+        cat.createAttribute("Store", "st_region", 10);
+        cat.createRelation("Item", 1000);
+        cat.createAttribute("Item", "i_id", 1000);
+        cat.createAttribute("Item", "i_class", 50, 0, 49);
+        Database db = Database.generate(cat, Arrays.asList("Sales", "Store", "Item"), 13);
+
+        List<Operator> queries = new ArrayList<Operator>();
+        for (String query : DASHBOARD) {
+            Operator plan = new QueryParser(cat, new StringReader(query)).parse();
+            plan.accept(new Estimator());
+            queries.add(plan);
+        }
+
+        System.out.println("=== dashboard ===");
+        ResultCache cache = new ResultCache(1 << 20);
+        cache.register("TestResultCache");
+        Optimiser optimiser = new Optimiser(cat);
+        for (int round = 0; round < ROUNDS; round++) {
+            for (Operator query : queries) {
+                ResultCache.CachedResult result = cache.execute(query, optimiser, db);
+                check("round " + round + ": " + (round > 0 ? "hit" : "miss"), result.isHit() == (round > 0));
+                check("round " + round + ": same result", sorted(result.getTuples()).equals(sorted(execute(query, db))));
+            }
+        }
+        print(cache);
+        check("hit rate", cache.getHitRate() >= (ROUNDS - 1) / (double) ROUNDS);
+        check("bytes saved", cache.getBytesSaved() > 0);
+
+        System.out.println("=== invalidation ===");
+        db.insert("Store", new String[] { "100", "1" });
+        int[] hits = new int[queries.size()];
+        for (int i = 0; i < queries.size(); i++) {
+            ResultCache.CachedResult result = cache.execute(queries.get(i), optimiser, db);
+            hits[i] = result.isHit() ? 1 : 0;
+            check("query " + i + ": same result after insert", sorted(result.getTuples()).equals(sorted(execute(queries.get(i), db))));
+        }
+        System.out.println("hits after insert into Store: " + Arrays.toString(hits));
+        check("results over Store invalidated", Arrays.equals(hits, new int[] { 0, 0, 1, 1 }));
+        check("explicit invalidation", cache.invalidate("Item") == 2 && cache.getSize() == 2);
+
+        System.out.println("=== change during execution ===");
+        boolean[] changed = { false };
+        Database changing = new Database(cat) {
+            public List<String[]> getTuples(String relName) {
+                List<String[]> tuples = super.getTuples(relName);
+                if (relName.equals("Store") && !changed[0]) {
+                    // another client inserts a store while the query is reading them
+                    changed[0] = true;
+                    try {
+                        insert("Store", new String[] { "101", "1" });
+                    } catch (DatabaseException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return tuples;
+            }
+        };
+        for (String relName : Arrays.asList("Sales", "Store", "Item")) {
+            changing.load(relName, new ArrayList<String[]>(db.getTuples(relName)));
+        }
+        ResultCache during = new ResultCache(1 << 20);
+        check("miss before change", !during.execute(queries.get(0), optimiser, changing).isHit());
+        ResultCache.CachedResult after = during.execute(queries.get(0), optimiser, changing);
+        check("result computed during change not returned", changed[0] && !after.isHit());
+        check("same result after change", sorted(after.getTuples()).equals(sorted(execute(queries.get(0), changing))));
+
+        System.out.println("=== encoding ===");
+        Catalogue names = new Catalogue();
+        names.createRelation("Name", 3);
+        names.createAttribute("Name", "n_id", 3);
+        names.createAttribute("Name", "n_name", 3);
+        Database unicode = new Database(names);
+        unicode.load("Name", new ArrayList<String[]>(Arrays.asList(new String[] { "1", "caf\u00e9" },
+                new String[] { "2", "\u65e5\u672c" }, new String[] { "3", "\ud83d\ude00" })));
+        Operator nameQuery = new QueryParser(names, new StringReader("SELECT n_name FROM Name")).parse();
+        nameQuery.accept(new Estimator());
+        ResultCache encoded = new ResultCache(1 << 10);
+        encoded.execute(nameQuery, new Optimiser(names), unicode);
+        ResultCache.CachedResult decoded = encoded.execute(nameQuery, new Optimiser(names), unicode);
+        check("values decoded unchanged", decoded.isHit() && sorted(decoded.getTuples()).equals(sorted(execute(nameQuery, unicode))));
+
+        System.out.println("=== budget ===");
+        ResultCache small = new ResultCache(32 << 10);
+        for (int round = 0; round < 3; round++) {
+            for (Operator query : queries) {
+                small.execute(query, optimiser, db);
+                check("within budget", small.getBytesUsed() <= small.getByteBudget());
+            }
+        }
+        print(small);
+        check("results evicted", small.getEvictions() > 0);
+
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static void print(ResultCache cache) {
+        System.out.printf("%d hits, %d misses, hit rate %.2f, %d bytes saved, %d ms saved, %d results in %d of %d bytes, %d evicted%n",
+                cache.getHits(), cache.getMisses(), cache.getHitRate(), cache.getBytesSaved(), cache.getNanosSaved() / 1000000,
+                cache.getSize(), cache.getBytesUsed(), cache.getByteBudget(), cache.getEvictions());
+    }
+
+    private static List<String[]> execute(Operator query, Database db) {
+        return new Executor(db).execute(new Optimiser(db.getCatalogue()).optimise(query));
+    }
+
+    private static List<String> sorted(List<String[]> tuples) {
+        List<String> rows = new ArrayList<String>();
+        for (String[] tuple : tuples) {
+            rows.add(String.join(",", tuple));
+        }
+        rows.sort(null);
+        return rows;
+    }
+
+    private static void check(String name, boolean ok) {
+        if (!ok) {
+            System.out.println("FAIL " + name);
+            failed = true;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package sjdb;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Executes a star join over generated data with and without runtime
+ * filters, and prints for each the tuples that the scan of the fact
+ * relation passes on and the tuples that the joins probe. With runtime
+ * filters, the optimiser must make the fact relation the probe input of
+ * every join, the fact tuples passed on must fall to about the fraction
+ * that survives the dimension predicates, the Estimator's estimate of
+ * that count must be close, and the result must be unchanged.
+ *
+ * The exit status is 1 if any check fails.
+ *
+ * Usage: java sjdb.TestRuntimeFilters
+ */
+public class TestRuntimeFilters {
+    private static final String QUERY = "SELECT s_id,st_region FROM Store,Sales,Item "
+            + "WHERE s_store=st_id,s_item=i_id,st_region=\"1\",i_class<\"5\"";
+    // fraction of the sales whose store and item satisfy the predicates
+    private static final double SELECTIVITY = 0.1 * 0.1;
+
+    private static boolean failed = false;
+
+    public static void main(String[] args) throws Exception {
+        Catalogue cat = new Catalogue();
+        cat.createRelation("Sales", 50000);
+        cat.createAttribute("Sales", "s_id", 50000);
+        cat.createAttribute("Sales", "s_store", 100);
+        cat.createAttribute("Sales", "s_item", 1000);
+        cat.createRelation("Store", 100);
+        cat.createAttribute("Store", "st_id", 100);
+        cat.createAttribute("Store", "st_region", 10);
+        cat.createRelation("Item", 1000);
+        cat.createAttribute("Item", "i_id", 1000);
+        cat.createAttribute("Item", "i_class", 50, 0, 49);
+        Database db = Database.generate(cat, Arrays.asList("Sales", "Store", "Item"), 5);
+        NamedRelation sales = cat.getRelation("Sales");
+
+        Operator plan = new QueryParser(cat, new StringReader(QUERY)).parse();
+        plan.accept(new Estimator());
+        Optimiser optimiser = new Optimiser(cat);
+        optimiser.setRuntimeFilters(true);
+        Operator optimised = optimiser.optimise(plan);
+        System.out.println(optimised);
+
+        List<RuntimeFilter> filters = new ArrayList<RuntimeFilter>();
+        for (RuntimeFilter filter : RuntimeFilter.of(optimised)) {
+            System.out.println("filter " + filter);
+            if (((NamedRelation) filter.getScan().getRelation()).getName().equals("Sales")) {
+                filters.add(filter);
+            }
+        }
+        check("both dimensions filter the fact scan", filters.size() == 2);
+
+        System.out.printf("%-8s %12s %12s %10s%n", "filters", "fact rows", "probed rows", "ms");
+        List<String> expected = run(db, optimised, sales, false);
+        List<String> actual = run(db, optimised, sales, true);
+        check("same result", expected.equals(actual));
+        check("result not empty", !expected.isEmpty());
+
+        if (filters.size() > 0) {
+            Scan scan = filters.get(0).getScan();
+            int estimate = Estimator.estimateFiltered(scan, filters);
+            Executor executor = new Executor(db);
+            executor.setRuntimeFilters(true);
+            executor.execute(optimised);
+            long rows = executor.getStatistics(scan).getRows();
+            System.out.printf("fact rows estimated %d, actual %d, q-error %.2f%n", estimate, rows, ExplainAnalyze.qError(estimate, rows));
+            check("estimate within 1.5", ExplainAnalyze.qError(estimate, rows) <= 1.5);
+            // the false positives of each filter let through about 1% of the tuples that should be dropped
+            check("fact rows reduced", rows <= sales.getTupleCount() * (SELECTIVITY + 2 * BloomFilter.DEFAULT_FALSE_POSITIVE_RATE) * 1.5);
+            check("reduced scan marked", executor.getStatistics(scan).isReduced());
+        }
+
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    // Execute a plan, printing the rows of the fact relation passed on by its scan and the rows probed by the joins
+    private static List<String> run(Database db, Operator plan, NamedRelation fact, boolean runtimeFilters) {
+        Executor executor = new Executor(db);
+        executor.setRuntimeFilters(runtimeFilters);
+        long start = System.nanoTime();
+        List<String[]> tuples = executor.execute(plan);
+        long millis = (System.nanoTime() - start) / 1000000;
+        long[] rows = { 0, 0 };
+        PlanTraversal.preOrder(plan, op -> {
+            if (op instanceof Scan && ((Scan) op).getRelation() == fact) {
+                rows[0] += executor.getStatistics(op).getRows();
+            } else if (op instanceof Join) {
+                rows[1] += executor.getStatistics(((Join) op).getLeft()).getRows();
+            }
+        });
+        System.out.printf("%-8s %12d %12d %10d%n", runtimeFilters ? "on" : "off", rows[0], rows[1], millis);
+
+        List<String> result = new ArrayList<String>();
+        for (String[] tuple : tuples) {
+            result.add(String.join(",", tuple));
+        }
+        result.sort(null);
+        return result;
+    }
+
+    private static void check(String name, boolean ok) {
+        if (!ok) {
+            System.out.println("FAIL " + name);
+            failed = true;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package sjdb;
+
+import java.util.HashSet;
+
+/**
+ * Optimises generated queries over join graphs of every shape and a
+ * growing number of relations, and prints the optimisation time and the
+ * estimated cost of the canonical and the optimised plans.
+ *
+ * Usage: java sjdb.TestWorkload [max relations] [skew] [seed]
+ */
+public class TestWorkload {
+    private static final double PREDICATE_DENSITY = 0.5;
+
+    public static void main(String[] args) throws Exception {
+        int maxRelations = args.length > 0 ? Integer.parseInt(args[0]) : 12;
+        double skew = args.length > 1 ? Double.parseDouble(args[1]) : 1.0;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+
+        System.out.printf("%-10s %9s %12s %16s %16s %10s%n", "shape", "relations", "optimise ms", "canonical cost", "optimised cost", "ratio");
+        for (WorkloadGenerator.Shape shape : WorkloadGenerator.Shape.values()) {
+            for (int relations = 2; relations <= maxRelations; relations += 2) {
+                WorkloadGenerator generator = new WorkloadGenerator(shape, relations, skew, seed);
+                Operator plan = generator.nextPlan(PREDICATE_DENSITY);
+                plan.accept(new Estimator());
+                long canonicalCost = PlanCost.of(plan);
+
+                long start = System.nanoTime();
+                Operator optimised = new Optimiser(generator.getCatalogue()).optimise(plan);
+                double millis = (System.nanoTime() - start) / 1e6;
+                long optimisedCost = PlanCost.of(optimised);
+
+                // the optimised plan must produce the same attributes as the canonical plan
+                if (!new HashSet<Attribute>(optimised.getOutput().getAttributes()).equals(new HashSet<Attribute>(plan.getOutput().getAttributes()))) {
+                    System.out.println("FAIL " + shape + " " + relations + ": output " + optimised.getOutput().getAttributes()
+                            + " differs from " + plan.getOutput().getAttributes());
+                }
+                System.out.printf("%-10s %9d %12.2f %16d %16d %10.4f%n", shape, relations, millis,
+                        canonicalCost, optimisedCost, (double) optimisedCost / canonicalCost);
+            }
+        }
+    }
+}
@@ -24,12 +24,4 @@ public abstract class UnaryOperator extends Operator {
 	public Operator getInput() {
 		return this.inputs.get(0);
 	}
-
-	/* (non-Javadoc)
-	 * @see sjdb.Operator#accept(sjdb.OperatorVisitor)
-	 */
-	public void accept(PlanVisitor visitor) {
-		super.accept(visitor);
-		// depth-first traversal - accept the 
-	}
 }
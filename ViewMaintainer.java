@@ -0,0 +1,192 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class creates materialised views over the relations of a
+ * Database, and keeps their data and statistics up to date as tuples are
+ * inserted into and deleted from the relations they are defined on.
+ *
+ * A view is refreshed in full when it is created (or when refresh() is
+ * called): its definition is optimised and executed, and its statistics
+ * computed from the result. After that, changes to its base relations
+ * made through this class are applied incrementally. A base relation is
+ * scanned once by a canonical query, and the result of a project over
+ * selects over products holds one tuple for each combination of tuples
+ * of its relations that satisfies its predicates, so the tuples that a
+ * batch of inserted (or deleted) tuples of a relation add to (or remove
+ * from) a view are the result of its definition with the relation
+ * replaced by the batch. The statistics of the view are maintained from
+ * those tuples by a StatisticsMaintainer, which recomputes them in full
+ * when they become stale.
+ *
+ * Views are refreshed with an Optimiser that does not use views, so that
+ * no view is ever computed from itself or another view.
+ */
+public class ViewMaintainer {
+	private final Database database;
+	private final Catalogue catalogue;
+	private final Map<String, StatisticsMaintainer> statistics = new HashMap<String, StatisticsMaintainer>();
+	private long incrementalTuples = 0;
+	private int fullRefreshes = 0;
+
+	/**
+	 * Create a maintainer for views over the relations of a database.
+	 * @param database
+	 */
+	public ViewMaintainer(Database database) {
+		this.database = database;
+		this.catalogue = database.getCatalogue();
+	}
+
+	/**
+	 * Create a materialised view with the given name and canonical
+	 * definition, register it in the catalogue and compute its data and
+	 * statistics.
+	 * @param name
+	 * @param definition
+	 * @return
+	 * @throws DatabaseException if the definition is not canonical, or a
+	 * relation with the view's name exists
+	 */
+	public MaterialisedView create(String name, Operator definition) throws DatabaseException {
+		// the definition is estimated as it is copied into canonical form
+		definition = new PlanFactory().intern(definition);
+		MaterialisedView view = new MaterialisedView(name, definition);
+		// the view starts with the estimated statistics of its definition, until its data has been computed
+		NamedRelation reln = new NamedRelation(name, definition.getOutput().getTupleCount());
+		for (Attribute attr : definition.getOutput().getAttributes()) {
+			reln.addAttribute(attr);
+		}
+		catalogue.addView(view, reln);
+		refresh(name);
+		return view;
+	}
+
+	/**
+	 * Recompute the data and statistics of a view in full.
+	 * @param name
+	 * @throws DatabaseException if there is no such view
+	 */
+	public void refresh(String name) throws DatabaseException {
+		MaterialisedView view = getView(name);
+		database.load(name, evaluate(view, null, null));
+		StatisticsMaintainer maintainer = new StatisticsMaintainer(catalogue, name, () -> database.getTuples(name),
+				StatisticsMaintainer.DEFAULT_STALENESS_THRESHOLD);
+		maintainer.analyze();
+		maintainer.publish();
+		statistics.put(name, maintainer);
+		fullRefreshes++;
+	}
+
+	/**
+	 * Insert tuples into a relation of the database, adding the tuples
+	 * that they contribute to each view over the relation.
+	 * @param relName
+	 * @param tuples
+	 * @throws DatabaseException if there is no such relation, or a tuple
+	 * has the wrong number of values
+	 */
+	public void insert(String relName, List<String[]> tuples) throws DatabaseException {
+		for (String[] tuple : tuples) {
+			database.insert(relName, tuple);
+		}
+		for (MaterialisedView view : catalogue.getViews()) {
+			if (view.getBaseRelations().contains(relName)) {
+				List<String[]> delta = evaluate(view, relName, tuples);
+				StatisticsMaintainer maintainer = statistics.get(view.getName());
+				for (String[] tuple : delta) {
+					database.insert(view.getName(), tuple);
+					maintainer.insert(tuple);
+				}
+				maintainer.publish();
+				incrementalTuples += delta.size();
+			}
+		}
+	}
+
+	/**
+	 * Delete one occurrence of each of the given tuples from a relation of
+	 * the database, removing the tuples that they contributed to each view
+	 * over the relation.
+	 * @param relName
+	 * @param tuples
+	 * @throws DatabaseException if there is no such relation
+	 */
+	public void delete(String relName, List<String[]> tuples) throws DatabaseException {
+		catalogue.getRelation(relName);
+		// tuples that do not occur in the relation contributed nothing to its views
+		List<String[]> deleted = database.delete(relName, tuples);
+		for (MaterialisedView view : catalogue.getViews()) {
+			if (view.getBaseRelations().contains(relName)) {
+				List<String[]> delta = evaluate(view, relName, deleted);
+				StatisticsMaintainer maintainer = statistics.get(view.getName());
+				database.delete(view.getName(), delta);
+				for (String[] tuple : delta) {
+					maintainer.delete(tuple);
+				}
+				maintainer.publish();
+				incrementalTuples += delta.size();
+			}
+		}
+	}
+
+	/**
+	 * Return the number of view tuples added or removed incrementally so
+	 * far.
+	 * @return
+	 */
+	public long getIncrementalTuples() {
+		return incrementalTuples;
+	}
+
+	/**
+	 * Return the number of full refreshes of views so far.
+	 * @return
+	 */
+	public int getFullRefreshes() {
+		return fullRefreshes;
+	}
+
+	private MaterialisedView getView(String name) throws DatabaseException {
+		MaterialisedView view = catalogue.snapshot().lookupView(name);
+		if (view == null) {
+			throw new DatabaseException("Materialised view " + name + " not found");
+		}
+		return view;
+	}
+
+	// The result of a view's definition, in the order of the view's attributes, with a relation replaced by a batch of tuples if relName is not null
+	private List<String[]> evaluate(MaterialisedView view, String relName, List<String[]> batch) {
+		Database source = database;
+		if (relName != null) {
+			source = new Database(catalogue) {
+				public List<String[]> getTuples(String name) {
+					return name.equals(relName) ? batch : database.getTuples(name);
+				}
+			};
+		}
+		Optimiser optimiser = new Optimiser(catalogue);
+		optimiser.setMaterialisedViews(false);
+		Executor executor = new Executor(source);
+		List<String[]> tuples = executor.execute(optimiser.optimise(view.getDefinition()));
+
+		List<Attribute> attributes = view.getAttributes();
+		int[] positions = new int[attributes.size()];
+		for (int i = 0; i < positions.length; i++) {
+			positions[i] = executor.getAttributes().indexOf(attributes.get(i));
+		}
+		List<String[]> result = new ArrayList<String[]>(tuples.size());
+		for (String[] tuple : tuples) {
+			String[] ordered = new String[positions.length];
+			for (int i = 0; i < positions.length; i++) {
+				ordered[i] = tuple[positions[i]];
+			}
+			result.add(ordered);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,223 @@
+package sjdb;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class generates synthetic catalogues and canonical queries for
+ * testing and benchmarking the optimiser at scale. The relations R0..Rn-1
+ * are connected by a join graph of one of the following shapes:
+ *
+ * - CHAIN: Ri joins Ri+1
+ * - CYCLE: a chain in which Rn-1 also joins R0
+ * - STAR: the fact relation R0 joins every other relation
+ * - SNOWFLAKE: R0 is the root of a tree in which each relation joins up
+ *   to three others
+ * - CLIQUE: every relation joins every other relation
+ * - FOREST: separate chains of up to three relations, with no join
+ *   between chains, so that queries need cross products
+ *
+ * Each relation Ri has a key ri_k, a numeric value ri_v in the range
+ * 0..99, and for each join edge to a relation Rj, a reference ri_rj to
+ * the key of Rj.
+ *
+ * Skew controls how unevenly tuple and value counts are spread: with a
+ * skew of 0 all relations have the same size and every reference covers
+ * all keys of the relation it refers to; as the skew grows, sizes follow
+ * a Zipf-like distribution and references cover fewer distinct keys.
+ *
+ * All random choices are made from the seed, so the same generator
+ * arguments always produce the same catalogue and queries.
+ */
+public class WorkloadGenerator {
+	/**
+	 * The shapes of join graph that can be generated.
+	 */
+	public enum Shape {
+		CHAIN, CYCLE, STAR, SNOWFLAKE, CLIQUE, FOREST
+	}
+
+	static final int MAX_TUPLES = 100000;
+	static final int MIN_TUPLES = 10;
+	static final int VALUE_RANGE = 100;
+	static final int SNOWFLAKE_FANOUT = 3;
+	static final int FOREST_CHAIN = 3;
+
+	private final Shape shape;
+	private final int relations;
+	private final Random random;
+	private final List<int[]> edges;
+	private final Catalogue catalogue;
+
+	/**
+	 * Create a generator for a join graph of the given shape and size.
+	 * @param shape
+	 * @param relations number of relations, at least 1
+	 * @param skew 0 for uniform tuple and value counts
+	 * @param seed
+	 */
+	public WorkloadGenerator(Shape shape, int relations, double skew, long seed) {
+		if (relations < 1) {
+			throw new IllegalArgumentException("A workload needs at least one relation");
+		}
+		this.shape = shape;
+		this.relations = relations;
+		this.random = new Random(seed);
+		this.edges = createEdges(shape, relations);
+		this.catalogue = createCatalogue(skew);
+	}
+
+	/**
+	 * Return the shape of the join graph.
+	 * @return
+	 */
+	public Shape getShape() {
+		return shape;
+	}
+
+	/**
+	 * Return the catalogue of generated relations.
+	 * @return
+	 */
+	public Catalogue getCatalogue() {
+		return catalogue;
+	}
+
+	/**
+	 * Return the edges of the join graph, as pairs {i, j} meaning that Ri
+	 * holds a reference to the key of Rj.
+	 * @return
+	 */
+	public List<int[]> getEdges() {
+		return Collections.unmodifiableList(edges);
+	}
+
+	/**
+	 * Generate the next canonical query over the whole join graph. The
+	 * query projects the key of the first and the last relation, and has a
+	 * join predicate for every edge and round(density * relations)
+	 * additional predicates on the values of randomly chosen relations,
+	 * each either an equality or a range predicate.
+	 * @param predicateDensity additional predicates per relation
+	 * @return the query, in the syntax read by QueryParser
+	 */
+	public String nextQuery(double predicateDensity) {
+		StringBuilder query = new StringBuilder("SELECT r0_k");
+		if (relations > 1) {
+			query.append(",r").append(relations - 1).append("_k");
+		}
+		query.append("\nFROM ");
+		for (int i = 0; i < relations; i++) {
+			query.append(i > 0 ? "," : "").append("R").append(i);
+		}
+
+		List<String> where = new ArrayList<String>();
+		for (int[] edge : edges) {
+			where.add(reference(edge[0], edge[1]) + "=r" + edge[1] + "_k");
+		}
+		int predicates = (int) Math.round(predicateDensity * relations);
+		for (int p = 0; p < predicates; p++) {
+			int i = random.nextInt(relations);
+			int value = random.nextInt(VALUE_RANGE);
+			// a quarter of the additional predicates are equalities, the rest ranges
+			String comparison = random.nextInt(4) == 0 ? "=" : (random.nextBoolean() ? "<" : ">=");
+			where.add("r" + i + "_v" + comparison + "\"" + value + "\"");
+		}
+		if (!where.isEmpty()) {
+			query.append("\nWHERE ").append(String.join(",", where));
+		}
+		return query.append("\n").toString();
+	}
+
+	/**
+	 * Generate the next canonical query and parse it against the catalogue.
+	 * @param predicateDensity additional predicates per relation
+	 * @return
+	 */
+	public Operator nextPlan(double predicateDensity) {
+		try {
+			return new QueryParser(catalogue, new StringReader(nextQuery(predicateDensity))).parse();
+		} catch (Exception e) {
+			// generated queries only refer to generated relations and attributes
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private Catalogue createCatalogue(double skew) {
+		Catalogue cat = new Catalogue();
+
+		// sizes are assigned by rank, with ranks shuffled so that the largest relation is not always R0
+		List<Integer> ranks = new ArrayList<Integer>();
+		for (int i = 0; i < relations; i++) {
+			ranks.add(i);
+		}
+		Collections.shuffle(ranks, random);
+		int[] sizes = new int[relations];
+		for (int i = 0; i < relations; i++) {
+			sizes[i] = Math.max(MIN_TUPLES, (int) (MAX_TUPLES / Math.pow(1 + ranks.get(i), skew)));
+		}
+
+		for (int i = 0; i < relations; i++) {
+			String relName = "R" + i;
+			cat.createRelation(relName, sizes[i]);
+			cat.createAttribute(relName, "r" + i + "_k", sizes[i]);
+			cat.createAttribute(relName, "r" + i + "_v", Math.min(VALUE_RANGE, sizes[i]), 0, VALUE_RANGE - 1);
+		}
+		for (int[] edge : edges) {
+			int from = edge[0];
+			int to = edge[1];
+			// a reference covers at most the keys it refers to, and fewer as the skew grows
+			double coverage = Math.pow(1.0 - random.nextDouble(), skew);
+			int values = Math.max(1, (int) (Math.min(sizes[from], sizes[to]) * coverage));
+			cat.createAttribute("R" + from, reference(from, to), values);
+		}
+		return cat;
+	}
+
+	private static List<int[]> createEdges(Shape shape, int relations) {
+		List<int[]> edges = new ArrayList<int[]>();
+		switch (shape) {
+			case CHAIN:
+			case CYCLE:
+				for (int i = 0; i + 1 < relations; i++) {
+					edges.add(new int[] { i, i + 1 });
+				}
+				if (shape == Shape.CYCLE && relations > 2) {
+					edges.add(new int[] { relations - 1, 0 });
+				}
+				break;
+			case STAR:
+				for (int i = 1; i < relations; i++) {
+					edges.add(new int[] { 0, i });
+				}
+				break;
+			case SNOWFLAKE:
+				for (int i = 1; i < relations; i++) {
+					edges.add(new int[] { (i - 1) / SNOWFLAKE_FANOUT, i });
+				}
+				break;
+			case CLIQUE:
+				for (int i = 0; i < relations; i++) {
+					for (int j = i + 1; j < relations; j++) {
+						edges.add(new int[] { i, j });
+					}
+				}
+				break;
+			case FOREST:
+				for (int i = 0; i + 1 < relations; i++) {
+					if ((i + 1) % FOREST_CHAIN != 0) {
+						edges.add(new int[] { i, i + 1 });
+					}
+				}
+				break;
+		}
+		return edges;
+	}
+
+	private static String reference(int from, int to) {
+		return "r" + from + "_r" + to;
+	}
+}